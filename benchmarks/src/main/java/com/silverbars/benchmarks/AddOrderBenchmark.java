@@ -0,0 +1,94 @@
+package com.silverbars.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.Order;
+
+/**
+ * {@code addOrder} into a book of a given size and shape.
+ *
+ * To keep the book at its size each call also cancels, by id, the order added
+ * {@code IN_FLIGHT} calls earlier, which is an O(1) index removal. Compare with
+ * {@link CancelOrderBenchmark} for the cost of the cancel alone. Runs with
+ * several threads ({@code -t}) share the book, for the thread safe
+ * implementations.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class AddOrderBenchmark {
+	// orders each thread keeps added on top of the book, a power of two
+	static final int IN_FLIGHT = 1024;
+
+	@State(Scope.Benchmark)
+	public static class Book {
+		@Param({ "1000", "100000", "1000000", "10000000" })
+		int bookSize;
+
+		@Param({ "10", "1000" })
+		int levels;
+
+		@Param({ "UNIFORM", "NEAR_TOUCH" })
+		PriceDistribution distribution;
+
+		@Param({ "SINGLE_THREADED", "CONCURRENT", "SINGLE_WRITER", "OFF_HEAP" })
+		Implementation implementation;
+
+		OrderService orderService;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			orderService = implementation.create();
+			Books.fill(orderService, bookSize, levels, distribution, new Random(Books.SEED));
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			Implementation.close(orderService);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class NewOrders {
+		final Order[] orders = new Order[IN_FLIGHT];
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp(Book book) {
+			Random random = new Random(Books.SEED + Thread.currentThread().getId());
+			for (int i = 0; i < IN_FLIGHT; i++) {
+				orders[i] = Books.randomOrder(book.levels, book.distribution, random);
+			}
+		}
+	}
+
+	@Benchmark
+	public long addOrder(Book book, NewOrders newOrders) {
+		Order order = newOrders.orders[newOrders.next++ & (IN_FLIGHT - 1)];
+		if (order.getOrderId() != 0) {
+			// added IN_FLIGHT calls ago
+			book.orderService.cancelOrder(order.getOrderId());
+		}
+		book.orderService.addOrder(order);
+		return order.getOrderId();
+	}
+}
@@ -0,0 +1,67 @@
+package com.silverbars.benchmarks;
+
+import java.util.Random;
+
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Builds the order books the benchmarks run against. Books are seeded so that
+ * every run of a benchmark sees the same one.
+ *
+ */
+final class Books {
+	// best prices of the book, BUY levels go down from MID, SELL levels up
+	static final long MID_PRICE_TICKS = FixedPoint.toPriceTicks(300.0);
+
+	static final long SEED = 42;
+
+	private static final int USERS = 1000;
+
+	private static final String[] USER_IDS = new String[USERS];
+
+	static {
+		for (int i = 0; i < USERS; i++) {
+			USER_IDS[i] = "user" + i;
+		}
+	}
+
+	private Books() {
+	}
+
+	/**
+	 * Add {@code orders} random orders, half BUY and half SELL, spread over
+	 * {@code levels} prices per side.
+	 *
+	 * @param orderService
+	 * @param orders
+	 * @param levels
+	 * @param distribution
+	 * @param random
+	 */
+	static void fill(OrderService orderService, int orders, int levels, PriceDistribution distribution,
+			Random random) {
+		for (int i = 0; i < orders; i++) {
+			orderService.addOrder(randomOrder(levels, distribution, random));
+		}
+	}
+
+	/**
+	 * A random order which is not yet added anywhere.
+	 *
+	 * @param levels
+	 * @param distribution
+	 * @param random
+	 * @return
+	 */
+	static Order randomOrder(int levels, PriceDistribution distribution, Random random) {
+		OrderType orderType = random.nextBoolean() ? OrderType.BUY : OrderType.SELL;
+		int level = distribution.level(random, levels);
+		long priceTicks = orderType == OrderType.BUY ? MID_PRICE_TICKS - 1 - level : MID_PRICE_TICKS + 1 + level;
+		// 1 g to 100 kg in steps of a gram
+		long quantityMilligrams = (1 + random.nextInt(100000)) * 1000L;
+		return Order.ofFixedPoint(USER_IDS[random.nextInt(USERS)], quantityMilligrams, priceTicks, orderType);
+	}
+}
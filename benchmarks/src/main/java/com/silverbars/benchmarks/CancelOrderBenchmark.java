@@ -0,0 +1,104 @@
+package com.silverbars.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * {@code cancelOrder} of an order at the head, in the middle or at the tail of
+ * one deep price level, by id and by value (an equal order which was never
+ * added, so the level has to be searched).
+ *
+ * Each call puts the cancelled order back, at the tail of the level, to keep
+ * the level at its depth. Cancelling the order at position p and appending it
+ * again moves the next one up to p, so calls cycle through the orders from p
+ * on and always cancel at the same position.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CancelOrderBenchmark {
+	public enum Position {
+		HEAD, MIDDLE, TAIL
+	}
+
+	@Param({ "1000", "100000" })
+	int levelDepth;
+
+	@Param({ "HEAD", "MIDDLE", "TAIL" })
+	Position position;
+
+	@Param({ "SINGLE_THREADED", "CONCURRENT", "OFF_HEAP" })
+	Implementation implementation;
+
+	OrderService orderService;
+
+	// orders of the level, in their original time order
+	Order[] orders;
+
+	// equal to orders but never added, for cancelling by value
+	Order[] copies;
+
+	// index into orders of the first order cycled through, and the cycle length
+	int first;
+	int cycle;
+	int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		orderService = implementation.create();
+		orders = new Order[levelDepth];
+		copies = new Order[levelDepth];
+		for (int i = 0; i < levelDepth; i++) {
+			// distinct quantities, so every order has a different value
+			orders[i] = Order.ofFixedPoint("user" + i, (i + 1) * 1000L, Books.MID_PRICE_TICKS, OrderType.SELL);
+			copies[i] = Order.ofFixedPoint("user" + i, (i + 1) * 1000L, Books.MID_PRICE_TICKS, OrderType.SELL);
+			orderService.addOrder(orders[i]);
+		}
+		first = position == Position.HEAD ? 0 : position == Position.MIDDLE ? levelDepth / 2 : levelDepth - 1;
+		cycle = levelDepth - first;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Implementation.close(orderService);
+	}
+
+	@Benchmark
+	public long cancelById() {
+		Order order = orders[first + next];
+		next = next + 1 == cycle ? 0 : next + 1;
+		orderService.cancelOrder(order.getOrderId());
+		orderService.addOrder(order);
+		return order.getOrderId();
+	}
+
+	@Benchmark
+	public long cancelByValue() {
+		int index = first + next;
+		next = next + 1 == cycle ? 0 : next + 1;
+		orderService.cancelOrder(copies[index]);
+		orderService.addOrder(orders[index]);
+		return orders[index].getOrderId();
+	}
+}
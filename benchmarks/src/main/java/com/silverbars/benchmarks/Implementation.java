@@ -0,0 +1,56 @@
+package com.silverbars.benchmarks;
+
+import com.silverbars.dao.ConcurrentOrderServiceImpl;
+import com.silverbars.dao.OffHeapOrderService;
+import com.silverbars.dao.OrderService;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.dao.SingleWriterOrderService;
+
+/**
+ * The {@link OrderService} implementations a benchmark can be run against,
+ * selected with the {@code implementation} parameter.
+ *
+ */
+public enum Implementation {
+	SINGLE_THREADED {
+		@Override
+		OrderService create() {
+			return new OrderServiceImpl();
+		}
+	},
+	CONCURRENT {
+		@Override
+		OrderService create() {
+			return new ConcurrentOrderServiceImpl();
+		}
+	},
+	SINGLE_WRITER {
+		@Override
+		OrderService create() {
+			return new SingleWriterOrderService();
+		}
+	},
+	OFF_HEAP {
+		@Override
+		OrderService create() {
+			return new OffHeapOrderService();
+		}
+	};
+
+	/**
+	 * @return a new, empty service
+	 */
+	abstract OrderService create();
+
+	/**
+	 * Release whatever the given service holds on to (the writer thread of a
+	 * {@link SingleWriterOrderService}).
+	 *
+	 * @param orderService
+	 */
+	static void close(OrderService orderService) {
+		if (orderService instanceof SingleWriterOrderService) {
+			((SingleWriterOrderService) orderService).close();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package com.silverbars.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.silverbars.dao.InstrumentRouter;
+import com.silverbars.domain.Order;
+
+/**
+ * Throughput of an {@link InstrumentRouter} with every benchmark thread trading
+ * an instrument of its own, as in {@link AddOrderBenchmark}: each call adds an
+ * order and cancels, by id, the one added {@code IN_FLIGHT} calls earlier.
+ * Compare the {@code shards} to see how the boards scale over writer threads.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@Threads(4)
+public class InstrumentRouterBenchmark {
+	// orders each thread keeps added on top of its board, a power of two
+	static final int IN_FLIGHT = 1024;
+
+	@State(Scope.Benchmark)
+	public static class Router {
+		@Param({ "1", "2", "4" })
+		int shards;
+
+		@Param({ "1000" })
+		int levels;
+
+		InstrumentRouter router;
+
+		// hands out one instrument per benchmark thread
+		final AtomicInteger instruments = new AtomicInteger();
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			router = new InstrumentRouter(shards);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			router.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class NewOrders {
+		final Order[] orders = new Order[IN_FLIGHT];
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp(Router router) {
+			String instrument = "instrument" + router.instruments.getAndIncrement();
+			Random random = new Random(Books.SEED + Thread.currentThread().getId());
+			for (int i = 0; i < IN_FLIGHT; i++) {
+				orders[i] = Books.randomOrder(router.levels, PriceDistribution.NEAR_TOUCH, random);
+				orders[i].setInstrument(instrument);
+			}
+		}
+	}
+
+	@Benchmark
+	public long addOrder(Router router, NewOrders newOrders) {
+		Order order = newOrders.orders[newOrders.next++ & (IN_FLIGHT - 1)];
+		if (order.getOrderId() != 0) {
+			// added IN_FLIGHT calls ago
+			router.router.cancelOrder(order.getOrderId());
+		}
+		router.router.addOrder(order);
+		return order.getOrderId();
+	}
+}
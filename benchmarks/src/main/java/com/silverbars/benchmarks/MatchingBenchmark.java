@@ -0,0 +1,90 @@
+package com.silverbars.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.dao.TradeListener;
+import com.silverbars.domain.Order;
+
+/**
+ * {@code addOrder} of a matching {@link OrderServiceImpl} under a flow of
+ * orders priced on both sides of the mid price, so that a good part of them
+ * trade on arrival and the rest rests. Without {@code matching} the same flow
+ * simply rests, which is the baseline.
+ *
+ * As in {@link AddOrderBenchmark} the flow cycles through {@code IN_FLIGHT}
+ * pre-built orders; an order still resting from its previous round is
+ * cancelled by id before it is sent again, with its original quantity.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Thread)
+public class MatchingBenchmark {
+	// orders cycled through, a power of two
+	static final int IN_FLIGHT = 1024;
+
+	@Param({ "10", "1000" })
+	int levels;
+
+	@Param({ "UNIFORM", "NEAR_TOUCH" })
+	PriceDistribution distribution;
+
+	@Param({ "false", "true" })
+	boolean matching;
+
+	OrderServiceImpl orderService;
+
+	// trades reported so far
+	long trades;
+
+	final Order[] orders = new Order[IN_FLIGHT];
+	final long[] quantitiesMilligrams = new long[IN_FLIGHT];
+	int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		TradeListener counter = (takerType, takerOrderId, makerOrderId, priceTicks, quantityMilligrams) -> trades++;
+		orderService = new OrderServiceImpl(matching ? counter : null);
+		Random random = new Random(Books.SEED);
+		for (int i = 0; i < IN_FLIGHT; i++) {
+			Order order = Books.randomOrder(levels, distribution, random);
+			// half of the orders are mirrored across the mid price, so they cross the other side
+			long priceTicks = random.nextBoolean() ? order.getPriceTicks()
+					: 2 * Books.MID_PRICE_TICKS - order.getPriceTicks();
+			orders[i] = Order.ofFixedPoint(order.getUserId(), order.getQuantityMilligrams(), priceTicks,
+					order.getOrderType());
+			quantitiesMilligrams[i] = order.getQuantityMilligrams();
+		}
+	}
+
+	@Benchmark
+	public long addOrder() {
+		int index = next++ & (IN_FLIGHT - 1);
+		Order order = orders[index];
+		if (order.getOrderId() != 0 && orderService.getOrder(order.getOrderId()) == order) {
+			// still resting from its previous round
+			orderService.cancelOrder(order.getOrderId());
+		}
+		order.setQuantityMilligrams(quantitiesMilligrams[index]);
+		orderService.addOrder(order);
+		return trades;
+	}
+}
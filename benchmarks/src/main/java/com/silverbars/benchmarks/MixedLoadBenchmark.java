@@ -0,0 +1,101 @@
+package com.silverbars.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.Order;
+
+/**
+ * Multi-threaded mix on one shared book: three writers adding orders (and
+ * cancelling their own, as in {@link AddOrderBenchmark}) while one reader
+ * keeps taking board snapshots. Only the thread safe implementations apply.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Group)
+public class MixedLoadBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	int bookSize;
+
+	@Param({ "1000" })
+	int levels;
+
+	@Param({ "UNIFORM", "NEAR_TOUCH" })
+	PriceDistribution distribution;
+
+	@Param({ "CONCURRENT", "SINGLE_WRITER" })
+	Implementation implementation;
+
+	OrderService orderService;
+
+	@State(Scope.Thread)
+	public static class Writer {
+		final Order[] orders = new Order[AddOrderBenchmark.IN_FLIGHT];
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp(MixedLoadBenchmark book) {
+			Random random = new Random(Books.SEED + Thread.currentThread().getId());
+			for (int i = 0; i < orders.length; i++) {
+				orders[i] = Books.randomOrder(book.levels, book.distribution, random);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Reader {
+		final BoardSnapshot snapshot = new BoardSnapshot();
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		orderService = implementation.create();
+		Books.fill(orderService, bookSize, levels, distribution, new Random(Books.SEED));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Implementation.close(orderService);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public long addOrder(Writer writer) {
+		Order order = writer.orders[writer.next++ & (AddOrderBenchmark.IN_FLIGHT - 1)];
+		if (order.getOrderId() != 0) {
+			orderService.cancelOrder(order.getOrderId());
+		}
+		orderService.addOrder(order);
+		return order.getOrderId();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public BoardSnapshot getBoardSnapshot(Reader reader) {
+		return orderService.getBoardSnapshot(reader.snapshot);
+	}
+}
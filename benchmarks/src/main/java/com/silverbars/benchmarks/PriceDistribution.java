@@ -0,0 +1,38 @@
+package com.silverbars.benchmarks;
+
+import java.util.Random;
+
+/**
+ * How the orders of a benchmark book are spread over its price levels,
+ * selected with the {@code distribution} parameter.
+ *
+ */
+public enum PriceDistribution {
+	/**
+	 * Every level is equally likely, so all levels are about as deep.
+	 */
+	UNIFORM {
+		@Override
+		int level(Random random, int levels) {
+			return random.nextInt(levels);
+		}
+	},
+	/**
+	 * Most orders rest close to the best price and few far away from it, as in a
+	 * real book: the level is drawn from a cubic curve skewed towards 0.
+	 */
+	NEAR_TOUCH {
+		@Override
+		int level(Random random, int levels) {
+			double r = random.nextDouble();
+			return (int) (r * r * r * levels);
+		}
+	};
+
+	/**
+	 * @param random
+	 * @param levels number of levels to choose from
+	 * @return level of the next order, 0 being the best price
+	 */
+	abstract int level(Random random, int levels);
+}
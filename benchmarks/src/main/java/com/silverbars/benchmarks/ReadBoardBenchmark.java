@@ -0,0 +1,90 @@
+package com.silverbars.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Reading the board of a book of a given size and shape: the formatted
+ * {@code getLiveOrderBoard}, walking the levels returned by
+ * {@code getOrdersByOrderType} and filling a reused {@link BoardSnapshot}.
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class ReadBoardBenchmark {
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	int bookSize;
+
+	@Param({ "10", "1000" })
+	int levels;
+
+	@Param({ "UNIFORM", "NEAR_TOUCH" })
+	PriceDistribution distribution;
+
+	@Param({ "SINGLE_THREADED", "CONCURRENT", "SINGLE_WRITER", "OFF_HEAP" })
+	Implementation implementation;
+
+	OrderService orderService;
+
+	@State(Scope.Thread)
+	public static class Buffer {
+		final BoardSnapshot snapshot = new BoardSnapshot();
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		orderService = implementation.create();
+		Books.fill(orderService, bookSize, levels, distribution, new Random(Books.SEED));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Implementation.close(orderService);
+	}
+
+	@Benchmark
+	public Map<OrderType, List<String>> getLiveOrderBoard() {
+		return orderService.getLiveOrderBoard();
+	}
+
+	@Benchmark
+	public void getOrdersByOrderType(Blackhole blackhole) {
+		for (OrderType orderType : OrderType.values()) {
+			for (Map.Entry<Double, List<Order>> level : orderService.getOrdersByOrderType(orderType).entrySet()) {
+				blackhole.consume(level.getKey());
+				blackhole.consume(level.getValue().size());
+			}
+		}
+	}
+
+	@Benchmark
+	public BoardSnapshot getBoardSnapshot(Buffer buffer) {
+		return orderService.getBoardSnapshot(buffer.snapshot);
+	}
+}
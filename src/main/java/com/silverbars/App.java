@@ -1,5 +1,7 @@
 package com.silverbars;
 
+import com.silverbars.dao.BoardFormatter;
+import com.silverbars.dao.BoardSnapshot;
 import com.silverbars.dao.OrderService;
 import com.silverbars.dao.OrderServiceImpl;
 import com.silverbars.domain.Order;
@@ -12,6 +14,7 @@ public class App {
 
 	public static void main(String[] args) {
 		OrderService orderSrvc = new OrderServiceImpl();
+		BoardSnapshot snapshot = new BoardSnapshot();
 
 		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
 		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
@@ -29,18 +32,18 @@ public class App {
 		orderSrvc.addOrder(order5);
 		orderSrvc.addOrder(order6);
 		orderSrvc.addOrder(order7);
-		orderSrvc.getLiveOrderBoard();
+		BoardFormatter.print(orderSrvc.getBoardSnapshot(snapshot), System.out);
 
 		System.out.println("Cancelling :" + order4);
 		orderSrvc.cancelOrder(order4);
-		orderSrvc.getLiveOrderBoard();
+		BoardFormatter.print(orderSrvc.getBoardSnapshot(snapshot), System.out);
 
 		System.out.println("Cancelling :" + order7);
 		orderSrvc.cancelOrder(order7);
-		orderSrvc.getLiveOrderBoard();
+		BoardFormatter.print(orderSrvc.getBoardSnapshot(snapshot), System.out);
 
 		System.out.println("Cancelling :" + order6);
 		orderSrvc.cancelOrder(order6);
-		orderSrvc.getLiveOrderBoard();
+		BoardFormatter.print(orderSrvc.getBoardSnapshot(snapshot), System.out);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,72 @@
+package com.silverbars.dao;
+
+/**
+ * Outcome of a bulk add or cancel: which items of the batch failed, and why.
+ * Items are identified by their position in the batch, in the order the batch
+ * was given (its iteration order for a collection).
+ *
+ */
+public final class BatchResult {
+	private final int size;
+
+	// failure of each item, allocated with the first failure
+	private RuntimeException[] failures;
+	private int failureCount;
+
+	BatchResult(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return number of items in the batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if every item succeeded
+	 */
+	public boolean isSuccess() {
+		return failureCount == 0;
+	}
+
+	/**
+	 * @return number of items which failed
+	 */
+	public int getFailureCount() {
+		return failureCount;
+	}
+
+	/**
+	 * @param index position in the batch
+	 * @return true if that item failed
+	 */
+	public boolean isFailed(int index) {
+		return getFailure(index) != null;
+	}
+
+	/**
+	 * Why the item at the given position failed, e.g. IllegalArgumentException for
+	 * an order which is already live, or does not exist when cancelling.
+	 *
+	 * @param index position in the batch
+	 * @return null if that item succeeded
+	 */
+	public RuntimeException getFailure(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return failures == null ? null : failures[index];
+	}
+
+	void fail(int index, RuntimeException failure) {
+		if (failures == null) {
+			failures = new RuntimeException[size];
+		}
+		if (failures[index] == null) {
+			failureCount++;
+		}
+		failures[index] = failure;
+	}
+}
@@ -0,0 +1,74 @@
+package com.silverbars.dao;
+
+import com.silverbars.domain.Order;
+
+/**
+ * Grouping of bulk operations by price level, shared by the implementations.
+ *
+ */
+final class Batches {
+
+	private Batches() {
+	}
+
+	/**
+	 * Positions of the given orders sorted by order type and price, so that all
+	 * orders of one level are next to each other. The sort is stable: orders of
+	 * the same level keep their order in the batch, and so their time priority.
+	 *
+	 * @param batch
+	 * @return
+	 */
+	static int[] byLevel(Order[] batch) {
+		int[] positions = new int[batch.length];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = i;
+		}
+		if (positions.length > 1) {
+			mergeSort(batch, positions.clone(), positions, 0, positions.length);
+		}
+		return positions;
+	}
+
+	/**
+	 * End (exclusive) of the group of orders of the same level as the one at
+	 * {@code start}, in positions returned by {@link #byLevel(Order[])}.
+	 *
+	 * @param batch
+	 * @param positions
+	 * @param start
+	 * @return
+	 */
+	static int levelEnd(Order[] batch, int[] positions, int start) {
+		Order first = batch[positions[start]];
+		int end = start + 1;
+		while (end < positions.length && compare(first, batch[positions[end]]) == 0) {
+			end++;
+		}
+		return end;
+	}
+
+	private static void mergeSort(Order[] batch, int[] from, int[] to, int start, int end) {
+		if (end - start < 2) {
+			return;
+		}
+		int middle = (start + end) >>> 1;
+		// sort both halves of "to" into "from", then merge them back into "to"
+		mergeSort(batch, to, from, start, middle);
+		mergeSort(batch, to, from, middle, end);
+		int left = start;
+		int right = middle;
+		for (int i = start; i < end; i++) {
+			if (right >= end || (left < middle && compare(batch[from[left]], batch[from[right]]) <= 0)) {
+				to[i] = from[left++];
+			} else {
+				to[i] = from[right++];
+			}
+		}
+	}
+
+	private static int compare(Order order1, Order order2) {
+		int byType = order1.getOrderType().compareTo(order2.getOrderType());
+		return byType != 0 ? byType : Long.compare(order1.getPriceTicks(), order2.getPriceTicks());
+	}
+}
@@ -0,0 +1,31 @@
+package com.silverbars.dao;
+
+import com.silverbars.domain.OrderType;
+
+/**
+ * Receives the changes of the live order board drained from a
+ * {@link BoardSubscription}, one call per changed price level.
+ *
+ */
+public interface BoardDeltaListener {
+
+	/**
+	 * What happened to a price level since the previous poll.
+	 */
+	public enum LevelChange {
+		ADDED, CHANGED, REMOVED
+	}
+
+	/**
+	 * A price level was added, changed or removed. For a removed level the total
+	 * quantity and order count are 0.
+	 * 
+	 * @param orderType
+	 * @param change
+	 * @param priceTicks
+	 * @param totalQuantityMilligrams
+	 * @param orderCount
+	 */
+	public void onLevelDelta(OrderType orderType, LevelChange change, long priceTicks, long totalQuantityMilligrams,
+			int orderCount);
+}
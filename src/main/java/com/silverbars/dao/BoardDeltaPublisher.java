@@ -0,0 +1,84 @@
+package com.silverbars.dao;
+
+import java.util.Arrays;
+
+import com.silverbars.domain.OrderType;
+
+/**
+ * Fans the level changes of one service out to its {@link BoardSubscription}s.
+ * The subscriptions are kept in a copy-on-write array, so the hot path only
+ * reads one volatile field and does nothing at all while nobody subscribes.
+ *
+ */
+final class BoardDeltaPublisher {
+	private static final BoardSubscription[] NONE = new BoardSubscription[0];
+
+	private volatile BoardSubscription[] subscriptions = NONE;
+
+	/**
+	 * @return true if anybody listens, callers may skip {@link #levelChanged}
+	 *         otherwise
+	 */
+	boolean hasSubscribers() {
+		return subscriptions.length > 0;
+	}
+
+	/**
+	 * Register a new, empty subscription.
+	 *
+	 * @return
+	 */
+	synchronized BoardSubscription subscribe() {
+		BoardSubscription subscription = new BoardSubscription(this);
+		BoardSubscription[] current = subscriptions;
+		BoardSubscription[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = subscription;
+		subscriptions = updated;
+		return subscription;
+	}
+
+	/**
+	 * Drop the given subscription, if registered.
+	 *
+	 * @param subscription
+	 */
+	synchronized void unsubscribe(BoardSubscription subscription) {
+		BoardSubscription[] current = subscriptions;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i] == subscription) {
+				BoardSubscription[] updated = new BoardSubscription[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+				subscriptions = updated;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Publish the current totals of the given level to every subscription. Must be
+	 * called right after the level changed (and under its lock, if any), with an
+	 * order count of 0 once the level is empty.
+	 *
+	 * @param orderType
+	 * @param level
+	 */
+	void levelChanged(OrderType orderType, PriceLevel level) {
+		levelChanged(orderType, level.getPriceTicks(), level.getTotalQuantityMilligrams(), level.getOrderCount());
+	}
+
+	/**
+	 * Like {@link #levelChanged(OrderType, PriceLevel)}, for levels which are not
+	 * kept as {@code PriceLevel}s.
+	 *
+	 * @param orderType
+	 * @param priceTicks
+	 * @param totalQuantityMilligrams
+	 * @param orderCount
+	 */
+	void levelChanged(OrderType orderType, long priceTicks, long totalQuantityMilligrams, int orderCount) {
+		for (BoardSubscription subscription : subscriptions) {
+			subscription.levelChanged(orderType, priceTicks, totalQuantityMilligrams, orderCount);
+		}
+	}
+}
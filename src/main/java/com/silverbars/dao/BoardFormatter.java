@@ -0,0 +1,65 @@
+package com.silverbars.dao;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.silverbars.domain.OrderType;
+
+/**
+ * Renders a {@link BoardSnapshot} as text, one line per price level, e.g.
+ * {@code 5.5 kg for £306.0}. Kept apart from the services so that reading the
+ * board does not pay for string building or console output unless someone
+ * actually wants to show it.
+ *
+ */
+public final class BoardFormatter {
+
+	private BoardFormatter() {
+	}
+
+	/**
+	 * Text of the level at the given position of the given type
+	 *
+	 * @param snapshot
+	 * @param orderType
+	 * @param index
+	 * @return
+	 */
+	public static String formatLevel(BoardSnapshot snapshot, OrderType orderType, int index) {
+		return snapshot.getTotalQuantity(orderType, index) + " kg for £" + snapshot.getPricePerKilo(orderType, index);
+	}
+
+	/**
+	 * Text of all levels of the given type, in board order
+	 *
+	 * @param snapshot
+	 * @param orderType
+	 * @return
+	 */
+	public static List<String> formatLevels(BoardSnapshot snapshot, OrderType orderType) {
+		int levels = snapshot.getLevelCount(orderType);
+		List<String> results = new ArrayList<String>(levels);
+		for (int i = 0; i < levels; i++) {
+			results.add(formatLevel(snapshot, orderType, i));
+		}
+		return results;
+	}
+
+	/**
+	 * Print the whole board, all order types one after the other.
+	 *
+	 * @param snapshot
+	 * @param out
+	 */
+	public static void print(BoardSnapshot snapshot, PrintStream out) {
+		out.println("****** LIVE SUMMARY BOARD ******");
+		for (OrderType orderType : OrderType.values()) {
+			out.println("---" + orderType + "---");
+			for (int i = 0; i < snapshot.getLevelCount(orderType); i++) {
+				out.println(formatLevel(snapshot, orderType, i));
+			}
+		}
+		out.println("****** END ******\n\n");
+	}
+}
@@ -0,0 +1,216 @@
+package com.silverbars.dao;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Structured copy of the live order board: for each {@code OrderType} the price
+ * levels in board order with their price, total quantity and number of orders.
+ *
+ * A snapshot is meant to be reused. {@link OrderService#getBoardSnapshot} fills
+ * in a caller supplied instance, overwriting what it held before, and only
+ * allocates when a side has more levels than ever before. Values are kept in
+ * primitive arrays, so reading a snapshot does not allocate either.
+ *
+ * Not thread safe, each reader should own its snapshot.
+ *
+ */
+public final class BoardSnapshot {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	// bytes per level written by writeTo(): price ticks, total milligrams, order count
+	private static final int LEVEL_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+	/**
+	 * Levels of one order type, as parallel arrays.
+	 */
+	private static final class Side {
+		long[] priceTicks = new long[INITIAL_CAPACITY];
+		long[] totalQuantityMilligrams = new long[INITIAL_CAPACITY];
+		int[] orderCounts = new int[INITIAL_CAPACITY];
+		int size;
+	}
+
+	// one side per OrderType, by ordinal
+	private final Side[] sides;
+
+	/**
+	 * Create an empty snapshot.
+	 */
+	public BoardSnapshot() {
+		sides = new Side[ORDER_TYPES.length];
+		for (int i = 0; i < sides.length; i++) {
+			sides[i] = new Side();
+		}
+	}
+
+	/**
+	 * Number of price levels of the given type
+	 *
+	 * @param orderType
+	 * @return
+	 */
+	public int getLevelCount(OrderType orderType) {
+		return sides[orderType.ordinal()].size;
+	}
+
+	/**
+	 * Price of the level at the given position, 0 being the best price
+	 *
+	 * @param orderType
+	 * @param index
+	 * @return
+	 */
+	public double getPricePerKilo(OrderType orderType, int index) {
+		return FixedPoint.toPricePerKilo(getPriceTicks(orderType, index));
+	}
+
+	/**
+	 * Price of the level at the given position, in ticks
+	 *
+	 * @param orderType
+	 * @param index
+	 * @return
+	 */
+	public long getPriceTicks(OrderType orderType, int index) {
+		return sides[orderType.ordinal()].priceTicks[checkIndex(orderType, index)];
+	}
+
+	/**
+	 * Total quantity of the level at the given position
+	 *
+	 * @param orderType
+	 * @param index
+	 * @return
+	 */
+	public double getTotalQuantity(OrderType orderType, int index) {
+		return FixedPoint.toKilos(getTotalQuantityMilligrams(orderType, index));
+	}
+
+	/**
+	 * Total quantity of the level at the given position, in milligrams
+	 *
+	 * @param orderType
+	 * @param index
+	 * @return
+	 */
+	public long getTotalQuantityMilligrams(OrderType orderType, int index) {
+		return sides[orderType.ordinal()].totalQuantityMilligrams[checkIndex(orderType, index)];
+	}
+
+	/**
+	 * Number of orders of the level at the given position
+	 *
+	 * @param orderType
+	 * @param index
+	 * @return
+	 */
+	public int getOrderCount(OrderType orderType, int index) {
+		return sides[orderType.ordinal()].orderCounts[checkIndex(orderType, index)];
+	}
+
+	/**
+	 * Number of bytes {@link #writeTo(ByteBuffer)} writes for this snapshot.
+	 *
+	 * @return
+	 */
+	public int getEncodedSize() {
+		int size = 0;
+		for (Side side : sides) {
+			size += Integer.BYTES + side.size * LEVEL_BYTES;
+		}
+		return size;
+	}
+
+	/**
+	 * Write the levels into the given buffer, e.g. to send them over the wire:
+	 * for each order type in ordinal order the number of levels, then price
+	 * ticks, total milligrams and order count of each level. The buffer must have
+	 * {@link #getEncodedSize()} bytes left.
+	 *
+	 * @param buffer
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		for (Side side : sides) {
+			buffer.putInt(side.size);
+			for (int i = 0; i < side.size; i++) {
+				buffer.putLong(side.priceTicks[i]);
+				buffer.putLong(side.totalQuantityMilligrams[i]);
+				buffer.putInt(side.orderCounts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Replace the levels of this snapshot by levels written by
+	 * {@link #writeTo(ByteBuffer)}, read from the given buffer. Allocates only
+	 * when a side has more levels than ever before.
+	 *
+	 * @param buffer
+	 * @return this snapshot
+	 */
+	public BoardSnapshot readFrom(ByteBuffer buffer) {
+		for (OrderType orderType : ORDER_TYPES) {
+			clear(orderType);
+			int size = buffer.getInt();
+			for (int i = 0; i < size; i++) {
+				addLevel(orderType, buffer.getLong(), buffer.getLong(), buffer.getInt());
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Forget all levels of the given type, keeping the arrays.
+	 *
+	 * @param orderType
+	 */
+	void clear(OrderType orderType) {
+		sides[orderType.ordinal()].size = 0;
+	}
+
+	/**
+	 * Append the totals of the given level to the given type.
+	 *
+	 * @param orderType
+	 * @param level
+	 */
+	void addLevel(OrderType orderType, PriceLevel level) {
+		addLevel(orderType, level.getPriceTicks(), level.getTotalQuantityMilligrams(), level.getOrderCount());
+	}
+
+	/**
+	 * Append a level to the given type.
+	 *
+	 * @param orderType
+	 * @param priceTicks
+	 * @param totalQuantityMilligrams
+	 * @param orderCount
+	 */
+	void addLevel(OrderType orderType, long priceTicks, long totalQuantityMilligrams, int orderCount) {
+		Side side = sides[orderType.ordinal()];
+		if (side.size == side.priceTicks.length) {
+			int capacity = side.size * 2;
+			side.priceTicks = Arrays.copyOf(side.priceTicks, capacity);
+			side.totalQuantityMilligrams = Arrays.copyOf(side.totalQuantityMilligrams, capacity);
+			side.orderCounts = Arrays.copyOf(side.orderCounts, capacity);
+		}
+		side.priceTicks[side.size] = priceTicks;
+		side.totalQuantityMilligrams[side.size] = totalQuantityMilligrams;
+		side.orderCounts[side.size] = orderCount;
+		side.size++;
+	}
+
+	private int checkIndex(OrderType orderType, int index) {
+		int size = sides[orderType.ordinal()].size;
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return index;
+	}
+}
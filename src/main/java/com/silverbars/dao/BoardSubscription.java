@@ -0,0 +1,146 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.silverbars.dao.BoardDeltaListener.LevelChange;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Stream of per price level changes of the live order board, obtained from
+ * {@link OrderService#subscribeBoardDeltas()}.
+ *
+ * The service records the latest total of each level it touches into the
+ * subscription; the subscriber drains them whenever it likes with
+ * {@link #poll(BoardDeltaListener)}. Every change of the same level between two
+ * polls is coalesced into a single delta carrying the newest total, so the poll
+ * interval is the publish interval. A slow subscriber never holds up the book:
+ * it simply receives fewer, more coalesced deltas, and what is kept for it is
+ * bounded by the number of distinct price levels, not by the number of
+ * changes.
+ *
+ * A new subscription starts with every current level pending as ADDED, so the
+ * first poll delivers the whole board and later polls only what changed.
+ *
+ */
+public final class BoardSubscription implements AutoCloseable {
+	/**
+	 * Latest state of one level changed since the last poll.
+	 */
+	private static final class PendingDelta {
+		OrderType orderType;
+		long priceTicks;
+		long totalQuantityMilligrams;
+		int orderCount;
+	}
+
+	/**
+	 * Pending deltas, keyed by level and in order of first change. Entries are
+	 * recycled so that steady state recording does not allocate.
+	 */
+	private static final class DeltaBuffer {
+		final LongObjectHashMap<PendingDelta> byLevel = new LongObjectHashMap<PendingDelta>();
+		final List<PendingDelta> changed = new ArrayList<PendingDelta>();
+		final List<PendingDelta> free = new ArrayList<PendingDelta>();
+
+		void clear() {
+			byLevel.clear();
+			free.addAll(changed);
+			changed.clear();
+		}
+	}
+
+	private final BoardDeltaPublisher publisher;
+
+	// recorded into by the service, guarded by this
+	private DeltaBuffer pending = new DeltaBuffer();
+
+	// drained by the subscriber, guarded by pollLock
+	private DeltaBuffer draining = new DeltaBuffer();
+
+	// levels the subscriber has been told exist, guarded by pollLock
+	private final LongObjectHashMap<Boolean> known = new LongObjectHashMap<Boolean>();
+
+	private final Object pollLock = new Object();
+
+	BoardSubscription(BoardDeltaPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Record the new state of a level, replacing any state recorded for it since
+	 * the last poll. An order count of 0 means the level is gone.
+	 */
+	synchronized void levelChanged(OrderType orderType, long priceTicks, long totalQuantityMilligrams,
+			int orderCount) {
+		long key = levelKey(orderType, priceTicks);
+		PendingDelta delta = pending.byLevel.get(key);
+		if (delta == null) {
+			delta = pending.free.isEmpty() ? new PendingDelta() : pending.free.remove(pending.free.size() - 1);
+			delta.orderType = orderType;
+			delta.priceTicks = priceTicks;
+			pending.byLevel.put(key, delta);
+			pending.changed.add(delta);
+		}
+		delta.totalQuantityMilligrams = totalQuantityMilligrams;
+		delta.orderCount = orderCount;
+	}
+
+	/**
+	 * Deliver every level changed since the previous poll to the given listener,
+	 * in order of their first change. A level which appeared and disappeared again
+	 * in between is not reported at all. The listener runs on the calling thread
+	 * without blocking the service.
+	 *
+	 * @param listener
+	 * @return number of deltas delivered
+	 */
+	public int poll(BoardDeltaListener listener) {
+		synchronized (pollLock) {
+			synchronized (this) {
+				DeltaBuffer swap = pending;
+				pending = draining;
+				draining = swap;
+			}
+			int delivered = 0;
+			try {
+				for (PendingDelta delta : draining.changed) {
+					long key = levelKey(delta.orderType, delta.priceTicks);
+					boolean wasKnown = known.get(key) != null;
+					LevelChange change;
+					if (delta.orderCount > 0) {
+						change = wasKnown ? LevelChange.CHANGED : LevelChange.ADDED;
+						known.put(key, Boolean.TRUE);
+					} else if (wasKnown) {
+						change = LevelChange.REMOVED;
+						known.remove(key);
+					} else {
+						continue;
+					}
+					listener.onLevelDelta(delta.orderType, change, delta.priceTicks, delta.totalQuantityMilligrams,
+							delta.orderCount);
+					delivered++;
+				}
+			} finally {
+				draining.clear();
+			}
+			return delivered;
+		}
+	}
+
+	/**
+	 * Stop receiving changes.
+	 */
+	@Override
+	public void close() {
+		publisher.unsubscribe(this);
+	}
+
+	/**
+	 * @return the key of the level of the given side and price, never 0
+	 */
+	static long levelKey(OrderType orderType, long priceTicks) {
+		// flip the sign bit so that no real level maps to the reserved key 0
+		return ((priceTicks << 1) | orderType.ordinal()) ^ Long.MIN_VALUE;
+	}
+}
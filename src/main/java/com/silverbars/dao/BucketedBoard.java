@@ -0,0 +1,220 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.silverbars.dao.BoardDeltaListener.LevelChange;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.OrderType;
+
+/**
+ * The live order board of a service grouped into coarser price buckets of a
+ * fixed size, e.g. £1 or £5 per kg, for each {@code OrderType}.
+ *
+ * A bucket covers the prices from its own price (a multiple of the bucket size)
+ * up to the next bucket, and holds the total quantity and number of orders of
+ * all levels in that range. Buckets are kept in board order, best first, so
+ * BUY buckets come highest price first.
+ *
+ * The buckets are maintained incrementally from the service's level deltas,
+ * see {@link OrderService#subscribeBoardDeltas()}: each changed level moves
+ * its bucket's totals by the difference to what the level held before. Every
+ * read first applies the deltas pending since the previous one, then copies
+ * only the buckets asked for, so its cost depends on the changes since the last
+ * read and the buckets shown, never on how finely prices are spread.
+ *
+ * Thread safe, but meant to be read by one thread, e.g. a dashboard publisher.
+ * Must be closed to stop receiving deltas.
+ *
+ */
+public final class BucketedBoard implements AutoCloseable {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	/**
+	 * Totals of one price level, as last seen in its deltas. Recycled once the
+	 * level is gone.
+	 */
+	private static final class LevelTotals {
+		long totalQuantityMilligrams;
+		int orderCount;
+	}
+
+	/**
+	 * Buckets of one order type in board order, as parallel arrays searched like
+	 * {@code PriceLevelMap}: keys are negated bucket prices on a descending side.
+	 */
+	private static final class Side {
+		final boolean descending;
+		long[] keys = new long[INITIAL_CAPACITY];
+		long[] totalQuantityMilligrams = new long[INITIAL_CAPACITY];
+		int[] orderCounts = new int[INITIAL_CAPACITY];
+		int size;
+
+		Side(boolean descending) {
+			this.descending = descending;
+		}
+	}
+
+	private final long bucketTicks;
+	private final BoardSubscription subscription;
+
+	// last totals of every live level, by type and price
+	private final LongObjectHashMap<LevelTotals> levels = new LongObjectHashMap<LevelTotals>();
+	private final List<LevelTotals> free = new ArrayList<LevelTotals>();
+
+	// one side per OrderType, by ordinal
+	private final Side[] sides = new Side[ORDER_TYPES.length];
+
+	// applies polled deltas, kept to not allocate a listener per read
+	private final BoardDeltaListener applier = this::apply;
+
+	/**
+	 * Start bucketing the board of the given service, which is seeded with its
+	 * current levels.
+	 *
+	 * @param orderService
+	 * @param bucketSize   price range of each bucket, e.g. 5.0 for £5 buckets,
+	 *                     at least one tick
+	 */
+	public BucketedBoard(OrderService orderService, double bucketSize) {
+		bucketTicks = FixedPoint.toPriceTicks(bucketSize);
+		if (bucketTicks <= 0) {
+			throw new IllegalArgumentException("Bucket size must be at least one tick: " + bucketSize);
+		}
+		for (OrderType orderType : ORDER_TYPES) {
+			// BUY shows the highest prices first, like the board itself
+			sides[orderType.ordinal()] = new Side(orderType == OrderType.BUY);
+		}
+		subscription = orderService.subscribeBoardDeltas();
+	}
+
+	/**
+	 * @return price range of each bucket, per kg
+	 */
+	public double getBucketSize() {
+		return FixedPoint.toPricePerKilo(bucketTicks);
+	}
+
+	/**
+	 * Number of non empty buckets of the given type.
+	 *
+	 * @param orderType
+	 * @return
+	 */
+	public synchronized int getBucketCount(OrderType orderType) {
+		subscription.poll(applier);
+		return sides[orderType.ordinal()].size;
+	}
+
+	/**
+	 * Fill the given snapshot with the best {@code depth} buckets of each order
+	 * type, each as a level priced at the bottom of its bucket.
+	 *
+	 * Approach:
+	 *
+	 * Apply the pending level deltas to their buckets, then copy the first
+	 * {@code depth} buckets of each side, which are kept in board order.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) per level changed since the last read (plus creating or removing a
+	 * bucket, which shifts the buckets after it), then O(depth). Nothing is
+	 * allocated once the snapshot and the buckets have grown to size.
+	 *
+	 * @param snapshot
+	 * @param depth
+	 * @return the given snapshot
+	 */
+	public synchronized BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		subscription.poll(applier);
+		for (OrderType orderType : ORDER_TYPES) {
+			Side side = sides[orderType.ordinal()];
+			snapshot.clear(orderType);
+			for (int i = 0, end = Math.min(depth, side.size); i < end; i++) {
+				long key = side.keys[i];
+				snapshot.addLevel(orderType, side.descending ? -key : key, side.totalQuantityMilligrams[i],
+						side.orderCounts[i]);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Stop receiving deltas, the buckets are no longer updated.
+	 */
+	@Override
+	public void close() {
+		subscription.close();
+	}
+
+	/**
+	 * Move the bucket of a changed level by the difference between the level's
+	 * new totals and the ones last seen.
+	 */
+	private void apply(OrderType orderType, LevelChange change, long priceTicks, long totalQuantityMilligrams,
+			int orderCount) {
+		long key = BoardSubscription.levelKey(orderType, priceTicks);
+		LevelTotals totals = levels.get(key);
+		long quantityDelta = totalQuantityMilligrams;
+		int countDelta = orderCount;
+		if (totals != null) {
+			quantityDelta -= totals.totalQuantityMilligrams;
+			countDelta -= totals.orderCount;
+		}
+		if (change == LevelChange.REMOVED) {
+			if (totals != null) {
+				levels.remove(key);
+				free.add(totals);
+			}
+		} else {
+			if (totals == null) {
+				totals = free.isEmpty() ? new LevelTotals() : free.remove(free.size() - 1);
+				levels.put(key, totals);
+			}
+			totals.totalQuantityMilligrams = totalQuantityMilligrams;
+			totals.orderCount = orderCount;
+		}
+		if (quantityDelta != 0 || countDelta != 0) {
+			adjust(sides[orderType.ordinal()], Math.floorDiv(priceTicks, bucketTicks) * bucketTicks, quantityDelta,
+					countDelta);
+		}
+	}
+
+	/**
+	 * Add the given differences to the bucket of the given price, creating it in
+	 * order if needed and removing it once it holds no orders.
+	 */
+	private static void adjust(Side side, long bucketPriceTicks, long quantityDelta, int countDelta) {
+		long key = side.descending ? -bucketPriceTicks : bucketPriceTicks;
+		int index = Arrays.binarySearch(side.keys, 0, side.size, key);
+		if (index < 0) {
+			index = -(index + 1);
+			if (side.size == side.keys.length) {
+				int capacity = side.size * 2;
+				side.keys = Arrays.copyOf(side.keys, capacity);
+				side.totalQuantityMilligrams = Arrays.copyOf(side.totalQuantityMilligrams, capacity);
+				side.orderCounts = Arrays.copyOf(side.orderCounts, capacity);
+			}
+			int moved = side.size - index;
+			System.arraycopy(side.keys, index, side.keys, index + 1, moved);
+			System.arraycopy(side.totalQuantityMilligrams, index, side.totalQuantityMilligrams, index + 1, moved);
+			System.arraycopy(side.orderCounts, index, side.orderCounts, index + 1, moved);
+			side.keys[index] = key;
+			side.totalQuantityMilligrams[index] = 0;
+			side.orderCounts[index] = 0;
+			side.size++;
+		}
+		side.totalQuantityMilligrams[index] += quantityDelta;
+		side.orderCounts[index] += countDelta;
+		if (side.orderCounts[index] == 0) {
+			int moved = side.size - index - 1;
+			System.arraycopy(side.keys, index + 1, side.keys, index, moved);
+			System.arraycopy(side.totalQuantityMilligrams, index + 1, side.totalQuantityMilligrams, index, moved);
+			System.arraycopy(side.orderCounts, index + 1, side.orderCounts, index, moved);
+			side.size--;
+		}
+	}
+}
@@ -0,0 +1,992 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Silver Bars Marketplace - Live Order Board, safe for concurrent use.
+ *
+ * Same layout as {@link OrderServiceImpl} but every structure can be shared by
+ * many threads:
+ *
+ * - each order type has a {@code ConcurrentSkipListMap} of price levels, so
+ * levels are found and created/removed without a global lock
+ *
+ * - each {@code PriceLevel} is its own lock, so writers only contend when they
+ * touch the very same price, and add/cancel throughput grows with the number of
+ * cores as long as the flow is spread over several prices
+ *
+ * - live orders are indexed by id in a {@code ConcurrentHashMap}, removing an
+ * id from it decides which of several racing cancels wins
+ *
+ * Reads never see a level half way through a change: they copy or sum a level
+ * while holding its lock. They are not atomic across levels though, so with
+ * concurrent writers the board is a weakly consistent view. Use
+ * {@link #getConsistentBoard(int)} for a copy of both order types as of one
+ * point in the sequence of changes.
+ *
+ * Orders are good till cancelled: an order with an expiry time is rejected, as
+ * nothing here sweeps expired orders, see {@link OrderServiceImpl#expireOrders}.
+ *
+ */
+public class ConcurrentOrderServiceImpl implements OrderService {
+	// key of orders without a user id, which the index cannot hold as null
+	private static final Object NO_USER = new Object();
+
+	// optimistic attempts of a consistent read before it blocks writers
+	private static final int OPTIMISTIC_READS = 16;
+
+	// time a writer blocked by a consistent read, or such a read waiting for writers, parks
+	private static final long BACKOFF_NANOS = 10000L;
+
+	/**
+	 * One skip list of price levels per order type, keyed by price ticks and BUY
+	 * sorted highest price first. The outer map is filled in the constructor and
+	 * never changes. Unlike {@code OrderServiceImpl} the keys are boxed, a price
+	 * for the lock free skip list; levels still total their quantity exactly.
+	 */
+	private final Map<OrderType, ConcurrentSkipListMap<Long, PriceLevel>> liveBoard;
+
+	/**
+	 * Index of all live orders by their {@code orderId}, values are the orders'
+	 * nodes inside their {@code PriceLevel}.
+	 */
+	private final ConcurrentMap<Long, PriceLevel.Node> ordersById = new ConcurrentHashMap<Long, PriceLevel.Node>();
+
+	/**
+	 * Index of all live orders by their {@code userId} (or {@code NO_USER}), the
+	 * same nodes also linked per user. Each {@code UserOrders} is its own lock,
+	 * only ever taken while already holding a level's lock or none at all.
+	 */
+	private final ConcurrentMap<Object, UserOrders> ordersByUser = new ConcurrentHashMap<Object, UserOrders>();
+
+	// next id to hand out in addOrder, ids start at 1 as 0 means "no id"
+	private final AtomicLong nextOrderId = new AtomicLong(1);
+
+	// subscribers to level changes, always published to under the level's lock
+	private final BoardDeltaPublisher deltaPublisher = new BoardDeltaPublisher();
+
+	/**
+	 * The sequence of changes of each thread writing to the board, see
+	 * {@code Writer}. A thread only ever writes its own, so writers share
+	 * nothing but the levels they touch; a consistent read checks them all, see
+	 * {@link #getConsistentBoard(int)}.
+	 */
+	private final ThreadLocal<Writer> writer = ThreadLocal.withInitial(this::register);
+
+	// all threads which wrote and are alive, replaced by a copy when one comes or goes
+	private Writer[] writers = new Writer[0];
+
+	// changes of the threads dropped from writers once dead
+	private long retiredChanges;
+
+	// guards writers and retiredChanges
+	private final Object writersLock = new Object();
+
+	// number of consistent reads blocking writers right now
+	private final AtomicInteger blockingReads = new AtomicInteger();
+
+	/**
+	 * Constructor to create brand new in-memory data structure.
+	 */
+	public ConcurrentOrderServiceImpl() {
+		liveBoard = new EnumMap<OrderType, ConcurrentSkipListMap<Long, PriceLevel>>(OrderType.class);
+		liveBoard.put(OrderType.BUY, new ConcurrentSkipListMap<Long, PriceLevel>(Collections.reverseOrder()));
+		liveBoard.put(OrderType.SELL, new ConcurrentSkipListMap<Long, PriceLevel>());
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Give the order its id, then find or create the level for its price and
+	 * append to it while holding the level's lock. A level which was emptied and
+	 * taken off the board by a concurrent cancel is marked as retired; in that
+	 * case simply look up (or create) the level again. An order with an expiry
+	 * time is rejected with IllegalArgumentException.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(log n) for the skip list lookup (and insert of a new level), O(1) for the
+	 * append and for indexing by id.
+	 */
+	@Override
+	public void addOrder(Order order) {
+		PriceLevel.Node live = ordersById.get(order.getOrderId());
+		if (live != null && live.order == order) {
+			throw new IllegalArgumentException("Given order is already live: " + order);
+		}
+		if (order.getExpiresAtMillis() != 0) {
+			throw new IllegalArgumentException("Orders with an expiry are not supported here: " + order);
+		}
+		order.setOrderId(nextOrderId.getAndIncrement());
+		ConcurrentSkipListMap<Long, PriceLevel> map = liveBoard.get(order.getOrderType());
+		Writer writer = startChange();
+		try {
+			while (true) {
+				PriceLevel level = map.get(order.getPriceTicks());
+				if (level == null) {
+					PriceLevel newLevel = new PriceLevel(order.getPriceTicks());
+					level = map.putIfAbsent(order.getPriceTicks(), newLevel);
+					if (level == null) {
+						level = newLevel;
+					}
+				}
+				synchronized (level) {
+					if (!level.isRetired()) {
+						index(level.append(order));
+						if (deltaPublisher.hasSubscribers()) {
+							deltaPublisher.levelChanged(order.getOrderType(), level);
+						}
+						return;
+					}
+				}
+			}
+		} finally {
+			endChange(writer, true);
+		}
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Orders added to this service are cancelled by their id. Otherwise look for an
+	 * equal order in the level of its price while holding the level's lock and
+	 * cancel that one. If element is not there, throw IllegalArgumentException
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) by id, O(log n) + O(n) by value where n is list of orders at a given
+	 * price.
+	 */
+	@Override
+	public void cancelOrder(Order order) {
+		PriceLevel.Node node = ordersById.get(order.getOrderId());
+		if (node != null && node.order == order) {
+			cancelOrder(order.getOrderId());
+			return;
+		}
+		PriceLevel level = liveBoard.get(order.getOrderType()).get(order.getPriceTicks());
+		if (level != null) {
+			Writer writer = startChange();
+			boolean changed = false;
+			try {
+				synchronized (level) {
+					node = level.find(order);
+					// removing from the index claims the order against racing cancels by id
+					if (node != null && ordersById.remove(node.order.getOrderId(), node)) {
+						unlink(node);
+						changed = true;
+						return;
+					}
+				}
+			} finally {
+				endChange(writer, changed);
+			}
+		}
+		throw new IllegalArgumentException("Given order does not exists: " + order);
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Removing the id from the index decides which caller cancels the order, any
+	 * other caller gets IllegalArgumentException. Then unlink the node under the
+	 * lock of its level and retire the level if it became empty.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1), plus O(log n) when the level becomes empty and is removed from the
+	 * skip list.
+	 */
+	@Override
+	public void cancelOrder(long orderId) {
+		PriceLevel.Node node = ordersById.remove(orderId);
+		if (node == null) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		Writer writer = startChange();
+		try {
+			// the level of a node only changes while it is in the index
+			synchronized (node.level) {
+				unlink(node);
+			}
+		} finally {
+			endChange(writer, true);
+		}
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * A reduced quantity is taken off the order and its level's total in place,
+	 * under the level's lock, once the node is seen to still be indexed. A move
+	 * to the back of a (new) level holds the locks of both levels, always taken
+	 * lowest price first so two moves can never deadlock. The order's node in
+	 * the index is first replaced by a new node for the new level, which decides
+	 * against a racing cancel by id as removing it would; only then is the old
+	 * node unlinked and the new one linked. A racing cancel so finds the order
+	 * either before or after the move, never in between.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) for a reduced quantity, O(log n) to find or create the new level of a
+	 * move.
+	 */
+	@Override
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		long quantityMilligrams = FixedPoint.toMilligrams(orderQuantity);
+		long priceTicks = FixedPoint.toPriceTicks(pricePerKilo);
+		if (quantityMilligrams <= 0) {
+			throw new IllegalArgumentException("Amended quantity must be positive: " + orderQuantity);
+		}
+		Writer writer = startChange();
+		boolean changed = false;
+		try {
+			while (true) {
+				PriceLevel.Node node = ordersById.get(orderId);
+				if (node == null) {
+					throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+				}
+				PriceLevel from = node.level;
+				if (from == null) {
+					// being cancelled right now
+					continue;
+				}
+				Order order = node.order;
+				if (priceTicks == from.getPriceTicks()) {
+					synchronized (from) {
+						if (ordersById.get(orderId) != node) {
+							continue;
+						}
+						if (quantityMilligrams <= order.getQuantityMilligrams()) {
+							from.fill(node, order.getQuantityMilligrams() - quantityMilligrams);
+							if (deltaPublisher.hasSubscribers()) {
+								deltaPublisher.levelChanged(order.getOrderType(), from);
+							}
+							changed = true;
+							return;
+						}
+					}
+				}
+				if (move(node, from, quantityMilligrams, priceTicks)) {
+					changed = true;
+					return;
+				}
+			}
+		} finally {
+			endChange(writer, changed);
+		}
+	}
+
+	/**
+	 * Move the given node from its level to the back of the level of the given
+	 * price (which may be the same), see {@link #amendOrder(long, double, double)}.
+	 *
+	 * @return false if the node or one of the levels changed meanwhile, so the
+	 *         caller has to look again
+	 */
+	private boolean move(PriceLevel.Node node, PriceLevel from, long quantityMilligrams, long priceTicks) {
+		Order order = node.order;
+		ConcurrentSkipListMap<Long, PriceLevel> map = liveBoard.get(order.getOrderType());
+		PriceLevel to = map.get(priceTicks);
+		if (to == null) {
+			PriceLevel newLevel = new PriceLevel(priceTicks);
+			to = map.putIfAbsent(priceTicks, newLevel);
+			if (to == null) {
+				to = newLevel;
+			}
+		}
+		PriceLevel first = from.getPriceTicks() <= to.getPriceTicks() ? from : to;
+		PriceLevel second = first == from ? to : from;
+		synchronized (first) {
+			synchronized (second) {
+				if (to.isRetired()) {
+					return false;
+				}
+				PriceLevel.Node moved = new PriceLevel.Node(order, to);
+				// claims the order against racing cancels by id
+				if (node.level != from || !ordersById.replace(order.getOrderId(), node, moved)) {
+					if (to.getOrderCount() == 0) {
+						// created for nothing
+						to.retire();
+						map.remove(priceTicks, to);
+					}
+					return false;
+				}
+				// unlinked before the order changes, so the old level's total stays right
+				from.unlink(node);
+				unlinkFromUser(node);
+				order.setQuantityMilligrams(quantityMilligrams);
+				order.setPriceTicks(priceTicks);
+				to.append(moved);
+				indexUser(moved);
+				if (from != to) {
+					levelChanged(order.getOrderType(), from);
+				}
+				levelChanged(order.getOrderType(), to);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Sort the batch by order type and price (stable, so orders of one price keep
+	 * their order) and add it level by level: find or create each level once and
+	 * append all its orders under a single acquisition of its lock, publishing one
+	 * delta. Orders which are already live, or appear twice in the batch, are
+	 * reported as failed.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(b log b) for sorting a batch of b orders, then O(log n) and one lock per
+	 * distinct price and O(1) per order.
+	 */
+	@Override
+	public BatchResult addOrders(Collection<Order> orders) {
+		Order[] batch = orders.toArray(new Order[orders.size()]);
+		BatchResult result = new BatchResult(batch.length);
+		int[] positions = Batches.byLevel(batch);
+		Writer writer = startChange();
+		try {
+			for (int start = 0, end; start < positions.length; start = end) {
+				end = Batches.levelEnd(batch, positions, start);
+				addLevel(batch, positions, start, end, result);
+			}
+		} finally {
+			endChange(writer, true);
+		}
+		return result;
+	}
+
+	/**
+	 * Add the orders at {@code positions[start..end)}, all of the same level.
+	 */
+	private void addLevel(Order[] batch, int[] positions, int start, int end, BatchResult result) {
+		Order first = batch[positions[start]];
+		ConcurrentSkipListMap<Long, PriceLevel> map = liveBoard.get(first.getOrderType());
+		while (true) {
+			PriceLevel level = map.get(first.getPriceTicks());
+			if (level == null) {
+				PriceLevel newLevel = new PriceLevel(first.getPriceTicks());
+				level = map.putIfAbsent(first.getPriceTicks(), newLevel);
+				if (level == null) {
+					level = newLevel;
+				}
+			}
+			synchronized (level) {
+				if (level.isRetired()) {
+					continue;
+				}
+				for (int i = start; i < end; i++) {
+					Order order = batch[positions[i]];
+					PriceLevel.Node live = ordersById.get(order.getOrderId());
+					if (live != null && live.order == order) {
+						result.fail(positions[i],
+								new IllegalArgumentException("Given order is already live: " + order));
+						continue;
+					}
+					if (order.getExpiresAtMillis() != 0) {
+						result.fail(positions[i],
+								new IllegalArgumentException("Orders with an expiry are not supported here: " + order));
+						continue;
+					}
+					order.setOrderId(nextOrderId.getAndIncrement());
+					index(level.append(order));
+				}
+				if (level.getOrderCount() == 0) {
+					// every order of a new level failed
+					level.retire();
+					map.remove(level.getPriceTicks(), level);
+				} else if (deltaPublisher.hasSubscribers()) {
+					deltaPublisher.levelChanged(first.getOrderType(), level);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Like {@link #addOrders(Collection)}, walk the batch level by level and hold
+	 * each level's lock once while cancelling all its orders, each found and
+	 * claimed as in {@link #cancelOrder(Order)}. Orders added to this service but
+	 * re-priced since (so resting in another level) are cancelled by id.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(b log b) for sorting a batch of b orders, then O(log n) and one lock per
+	 * distinct price plus the cost of finding each order.
+	 */
+	@Override
+	public BatchResult cancelOrders(Collection<Order> orders) {
+		Order[] batch = orders.toArray(new Order[orders.size()]);
+		BatchResult result = new BatchResult(batch.length);
+		int[] positions = Batches.byLevel(batch);
+		// positions of orders to cancel once no level lock is held
+		int[] elsewhere = new int[batch.length];
+		int elsewhereCount = 0;
+		Writer writer = startChange();
+		try {
+			for (int start = 0, end; start < positions.length; start = end) {
+				end = Batches.levelEnd(batch, positions, start);
+				Order first = batch[positions[start]];
+				PriceLevel level = liveBoard.get(first.getOrderType()).get(first.getPriceTicks());
+				if (level == null) {
+					for (int i = start; i < end; i++) {
+						elsewhere[elsewhereCount++] = positions[i];
+					}
+					continue;
+				}
+				synchronized (level) {
+					int before = level.getOrderCount();
+					for (int i = start; i < end; i++) {
+						Order order = batch[positions[i]];
+						PriceLevel.Node node = ordersById.get(order.getOrderId());
+						if (node != null && node.order == order && node.level != level) {
+							elsewhere[elsewhereCount++] = positions[i];
+							continue;
+						}
+						if (node == null || node.order != order) {
+							node = level.find(order);
+						}
+						// removing from the index claims the order against racing cancels by id
+						if (node == null || !ordersById.remove(node.order.getOrderId(), node)) {
+							result.fail(positions[i],
+									new IllegalArgumentException("Given order does not exists: " + order));
+							continue;
+						}
+						level.unlink(node);
+						unlinkFromUser(node);
+					}
+					if (level.getOrderCount() != before) {
+						levelChanged(first.getOrderType(), level);
+					}
+				}
+			}
+		} finally {
+			endChange(writer, true);
+		}
+		for (int i = 0; i < elsewhereCount; i++) {
+			cancelElsewhere(batch[elsewhere[i]], elsewhere[i], result);
+		}
+		return result;
+	}
+
+	/**
+	 * Cancel an order of the batch which is not in the level its price points to:
+	 * by id if it was added here, otherwise it does not exist.
+	 */
+	private void cancelElsewhere(Order order, int position, BatchResult result) {
+		PriceLevel.Node node = ordersById.get(order.getOrderId());
+		try {
+			if (node == null || node.order != order) {
+				throw new IllegalArgumentException("Given order does not exists: " + order);
+			}
+			cancelOrder(order.getOrderId());
+		} catch (IllegalArgumentException e) {
+			result.fail(position, e);
+		}
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Claim every id by removing it from the index (unknown ids are reported as
+	 * failed), then group the claimed nodes by level and unlink each group under
+	 * a single acquisition of the level's lock, publishing one delta per level.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) per id, plus one lock per distinct level.
+	 */
+	@Override
+	public BatchResult cancelOrders(long[] orderIds) {
+		BatchResult result = new BatchResult(orderIds.length);
+		Map<PriceLevel, List<PriceLevel.Node>> byLevel = new IdentityHashMap<PriceLevel, List<PriceLevel.Node>>();
+		for (int i = 0; i < orderIds.length; i++) {
+			PriceLevel.Node node = ordersById.remove(orderIds[i]);
+			if (node == null) {
+				result.fail(i, new IllegalArgumentException("Given order id does not exists: " + orderIds[i]));
+				continue;
+			}
+			// the level of a claimed node no longer changes
+			byLevel.computeIfAbsent(node.level, level -> new ArrayList<PriceLevel.Node>()).add(node);
+		}
+		Writer writer = startChange();
+		try {
+			for (Map.Entry<PriceLevel, List<PriceLevel.Node>> entry : byLevel.entrySet()) {
+				PriceLevel level = entry.getKey();
+				synchronized (level) {
+					for (PriceLevel.Node node : entry.getValue()) {
+						level.unlink(node);
+						unlinkFromUser(node);
+					}
+					levelChanged(entry.getValue().get(0).order.getOrderType(), level);
+				}
+			}
+		} finally {
+			endChange(writer, true);
+		}
+		return result;
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Copy the ids of the user's orders under the lock of the user's list, then
+	 * cancel them as by {@link #cancelOrders(long[])}. Orders cancelled
+	 * concurrently by someone else are left out of the result; orders the user
+	 * adds while this runs may or may not be cancelled.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) to find the user, then O(1) per order of the user plus one lock per
+	 * distinct level, regardless of the size of the board.
+	 */
+	@Override
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		UserOrders user = ordersByUser.get(userKey(userId));
+		if (user == null) {
+			return Collections.emptyList();
+		}
+		List<Order> orders;
+		long[] orderIds;
+		synchronized (user) {
+			orders = user.toList();
+			orderIds = user.orderIds();
+		}
+		BatchResult result = cancelOrders(orderIds);
+		if (result.isSuccess()) {
+			return orders;
+		}
+		List<Order> cancelled = new ArrayList<Order>(orders.size() - result.getFailureCount());
+		for (int i = 0; i < orderIds.length; i++) {
+			if (!result.isFailed(i)) {
+				cancelled.add(orders.get(i));
+			}
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Unlink the node from its level, taking the level off the board once it is
+	 * empty. Caller must hold the level's lock.
+	 *
+	 * @param node
+	 */
+	private void unlink(PriceLevel.Node node) {
+		PriceLevel level = node.level;
+		level.unlink(node);
+		unlinkFromUser(node);
+		levelChanged(node.order.getOrderType(), level);
+	}
+
+	/**
+	 * Index a node just appended to its level by the id of its order and by its
+	 * user. A user's list emptied and taken off the index by a concurrent cancel
+	 * is retired, in that case look up (or create) the list again. Caller must
+	 * hold the level's lock.
+	 *
+	 * @param node
+	 */
+	private void index(PriceLevel.Node node) {
+		ordersById.put(node.order.getOrderId(), node);
+		indexUser(node);
+	}
+
+	/**
+	 * Link a node just appended to its level into its user's orders, see
+	 * {@link #index(PriceLevel.Node)}. Caller must hold the level's lock.
+	 *
+	 * @param node
+	 */
+	private void indexUser(PriceLevel.Node node) {
+		String userId = node.order.getUserId();
+		while (true) {
+			UserOrders user = ordersByUser.computeIfAbsent(userKey(userId), key -> new UserOrders(userId));
+			synchronized (user) {
+				if (!user.isRetired()) {
+					user.append(node);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unlink the node from its user's orders, taking the user off the index once
+	 * it has no orders left. Caller must hold the lock of the node's level.
+	 *
+	 * @param node
+	 */
+	private void unlinkFromUser(PriceLevel.Node node) {
+		UserOrders user = node.user;
+		synchronized (user) {
+			user.unlink(node);
+			if (user.getOrderCount() == 0) {
+				user.retire();
+				ordersByUser.remove(userKey(user.getUserId()), user);
+			}
+		}
+	}
+
+	private static Object userKey(String userId) {
+		return userId == null ? NO_USER : userId;
+	}
+
+	/**
+	 * After orders were unlinked from the given level, take it off the board if it
+	 * is empty and publish its change. Caller must hold the level's lock.
+	 *
+	 * @param orderType
+	 * @param level
+	 */
+	private void levelChanged(OrderType orderType, PriceLevel level) {
+		if (level.getOrderCount() == 0) {
+			level.retire();
+			liveBoard.get(orderType).remove(level.getPriceTicks(), level);
+		}
+		if (deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(orderType, level);
+		}
+	}
+
+	/**
+	 * O(1) lookup in the id index.
+	 */
+	@Override
+	public Order getOrder(long orderId) {
+		PriceLevel.Node node = ordersById.get(orderId);
+		return node == null ? null : node.order;
+	}
+
+	/**
+	 * Copy of the user's orders taken under the lock of the user's list.
+	 */
+	@Override
+	public List<Order> getOrdersByUser(String userId) {
+		UserOrders user = ordersByUser.get(userKey(userId));
+		if (user == null) {
+			return Collections.emptyList();
+		}
+		synchronized (user) {
+			return Collections.unmodifiableList(user.toList());
+		}
+	}
+
+	/**
+	 * Copy of the current levels of the given type. Each level is copied under its
+	 * lock, so callers can use the result freely while writers carry on.
+	 *
+	 * @return
+	 */
+	@Override
+	public Map<Double, List<Order>> getOrdersByOrderType(OrderType orderType) {
+		ConcurrentSkipListMap<Long, PriceLevel> map = liveBoard.get(orderType);
+		Map<Double, List<Order>> copy = new LinkedHashMap<Double, List<Order>>();
+		for (PriceLevel level : map.values()) {
+			synchronized (level) {
+				if (!level.isRetired()) {
+					copy.put(level.getPricePerKilo(), new ArrayList<Order>(level));
+				}
+			}
+		}
+		return Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * Same board as {@link OrderServiceImpl#getLiveOrderBoard()}.
+	 */
+	@Override
+	public Map<OrderType, List<String>> getLiveOrderBoard() {
+		BoardSnapshot snapshot = getBoardSnapshot(new BoardSnapshot());
+		Map<OrderType, List<String>> summary = new HashMap<>();
+		for (OrderType orderType : OrderType.values()) {
+			summary.put(orderType, BoardFormatter.formatLevels(snapshot, orderType));
+		}
+		return summary;
+	}
+
+	/**
+	 * Built from the running totals of each level read under the level's lock.
+	 */
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+		return getBoardSnapshot(snapshot, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Walks each skip list from its best price and stops after {@code depth}
+	 * levels.
+	 */
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		for (OrderType orderType : OrderType.values()) {
+			copyLevels(liveBoard.get(orderType), depth, orderType, snapshot);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Copy of the best {@code depth} levels of every order type, all as of the
+	 * same point in the sequence of changes: a change spanning several levels
+	 * (a move, a batch) is either wholly in the copy or not at all, and BUY and
+	 * SELL never reflect different points in time.
+	 * 
+	 * Approach:
+	 * 
+	 * Optimistic, like a sequence lock, but with one sequence per writing thread
+	 * so that writers share no counter: read the sequence of every writer, and go
+	 * on only if all are even, i.e. no change is under way. Copy the levels as
+	 * {@link #getBoardSnapshot} does, each under its lock, then read the
+	 * sequences again. If none moved (and no new writer came) no change touched
+	 * any level during the copy, which is so a copy of the board after exactly
+	 * that many changes. Otherwise try again, up to 16 times.
+	 * 
+	 * If all of these attempts overlap a change, block writers instead: writers
+	 * wait before starting a change while such a read is under way, so once
+	 * every writer finished the change it was in the middle of, one plain copy is
+	 * consistent. Writers so only ever wait for a reader which could not get
+	 * through otherwise, and a reader never waits for more than the changes
+	 * under way when it blocked writers.
+	 * 
+	 * @param depth
+	 * @return immutable copy, tagged with the number of changes it reflects
+	 */
+	public PublishedBoard getConsistentBoard(int depth) {
+		BoardSnapshot snapshot = new BoardSnapshot();
+		for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+			Writer[] writers;
+			long sequence;
+			synchronized (writersLock) {
+				writers = this.writers;
+				sequence = retiredChanges;
+			}
+			long[] sequences = new long[writers.length];
+			boolean idle = true;
+			for (int i = 0; i < writers.length && idle; i++) {
+				sequences[i] = writers[i].sequence;
+				idle = (sequences[i] & 1) == 0;
+			}
+			if (idle) {
+				getBoardSnapshot(snapshot, depth);
+				boolean unchanged;
+				synchronized (writersLock) {
+					unchanged = this.writers == writers;
+				}
+				for (int i = 0; i < writers.length && unchanged; i++) {
+					unchanged = writers[i].sequence == sequences[i];
+					sequence += sequences[i] / 2;
+				}
+				if (unchanged) {
+					return new PublishedBoard(sequence, System.currentTimeMillis(), snapshot);
+				}
+			}
+			Thread.yield();
+		}
+		blockingReads.incrementAndGet();
+		try {
+			Writer[] writers;
+			long sequence;
+			synchronized (writersLock) {
+				writers = this.writers;
+				sequence = retiredChanges;
+			}
+			// writers coming later see the blocking read and wait
+			for (Writer writer : writers) {
+				long writerSequence;
+				while (((writerSequence = writer.sequence) & 1) != 0) {
+					LockSupport.parkNanos(BACKOFF_NANOS);
+				}
+				sequence += writerSequence / 2;
+			}
+			getBoardSnapshot(snapshot, depth);
+			return new PublishedBoard(sequence, System.currentTimeMillis(), snapshot);
+		} finally {
+			blockingReads.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return number of changes applied so far: adds, cancels, amends and
+	 *         batches, each batch counting once
+	 */
+	public long getSequence() {
+		synchronized (writersLock) {
+			long sequence = retiredChanges;
+			for (Writer writer : writers) {
+				sequence += writer.sequence / 2;
+			}
+			return sequence;
+		}
+	}
+
+	/**
+	 * Mark the current thread as changing the board, first waiting while a
+	 * consistent read blocks writers, see {@link #getConsistentBoard(int)}. Must
+	 * not be called while holding a level's lock, and must be followed by
+	 * {@link #endChange(Writer, boolean)}.
+	 *
+	 * @return the current thread's writer
+	 */
+	private Writer startChange() {
+		Writer writer = this.writer.get();
+		while (true) {
+			// odd first, then check: a read blocking writers from now on sees this one
+			writer.sequence++;
+			if (blockingReads.get() == 0) {
+				return writer;
+			}
+			writer.sequence--;
+			while (blockingReads.get() != 0) {
+				LockSupport.parkNanos(BACKOFF_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * End the change started by {@link #startChange()}, counting it only if it
+	 * changed the board.
+	 *
+	 * @param writer
+	 * @param changed
+	 */
+	private static void endChange(Writer writer, boolean changed) {
+		if (changed) {
+			writer.sequence++;
+		} else {
+			writer.sequence--;
+		}
+	}
+
+	/**
+	 * Add a writer for the current thread, dropping the writers of threads which
+	 * died meanwhile (keeping their changes counted).
+	 */
+	private Writer register() {
+		Writer writer = new Writer();
+		synchronized (writersLock) {
+			List<Writer> alive = new ArrayList<Writer>(writers.length + 1);
+			for (Writer other : writers) {
+				if (other.thread.isAlive()) {
+					alive.add(other);
+				} else {
+					retiredChanges += other.sequence / 2;
+				}
+			}
+			alive.add(writer);
+			writers = alive.toArray(new Writer[alive.size()]);
+		}
+		return writer;
+	}
+
+	/**
+	 * Changes of the board made by one thread: its sequence is odd while the
+	 * thread is in the middle of a change, even otherwise, and grows by two for
+	 * every change made. Only ever written by its thread.
+	 */
+	private static final class Writer {
+		final Thread thread = Thread.currentThread();
+
+		volatile long sequence;
+	}
+
+	/**
+	 * First level of the skip list which has not been retired meanwhile.
+	 */
+	@Override
+	public OptionalDouble getBestPrice(OrderType orderType) {
+		for (PriceLevel level : liveBoard.get(orderType).values()) {
+			synchronized (level) {
+				if (!level.isRetired()) {
+					return OptionalDouble.of(level.getPricePerKilo());
+				}
+			}
+		}
+		return OptionalDouble.empty();
+	}
+
+	/**
+	 * Copies the levels of the skip list's sub map between both prices.
+	 */
+	@Override
+	public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+			BoardSnapshot snapshot) {
+		long fromTicks = FixedPoint.toPriceTicks(fromPrice);
+		long toTicks = FixedPoint.toPriceTicks(toPrice);
+		ConcurrentSkipListMap<Long, PriceLevel> map = liveBoard.get(orderType);
+		// sub map bounds must follow the map's own order, which is descending for BUY
+		boolean ascending = map.comparator() == null;
+		long low = Math.min(fromTicks, toTicks);
+		long high = Math.max(fromTicks, toTicks);
+		for (OrderType type : OrderType.values()) {
+			snapshot.clear(type);
+		}
+		copyLevels(ascending ? map.subMap(low, true, high, true) : map.subMap(high, true, low, true),
+				Integer.MAX_VALUE, orderType, snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Replace the levels of the given type in the snapshot by up to {@code depth}
+	 * live levels of the given map, each read under its lock.
+	 */
+	private void copyLevels(Map<Long, PriceLevel> map, int depth, OrderType orderType, BoardSnapshot snapshot) {
+		snapshot.clear(orderType);
+		int copied = 0;
+		for (PriceLevel level : map.values()) {
+			if (copied == depth) {
+				break;
+			}
+			synchronized (level) {
+				if (!level.isRetired()) {
+					snapshot.addLevel(orderType, level);
+					copied++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The subscription is registered first and then seeded with each level read
+	 * under its lock. A change racing with the seeding is either overwritten by
+	 * the seed (which is newer) or comes after it, so the subscriber never misses
+	 * a level.
+	 */
+	@Override
+	public BoardSubscription subscribeBoardDeltas() {
+		BoardSubscription subscription = deltaPublisher.subscribe();
+		for (OrderType orderType : OrderType.values()) {
+			for (PriceLevel level : liveBoard.get(orderType).values()) {
+				synchronized (level) {
+					if (!level.isRetired()) {
+						subscription.levelChanged(orderType, level.getPriceTicks(),
+								level.getTotalQuantityMilligrams(), level.getOrderCount());
+					}
+				}
+			}
+		}
+		return subscription;
+	}
+}
@@ -0,0 +1,215 @@
+package com.silverbars.dao;
+
+import java.util.List;
+
+/**
+ * Hierarchical timer wheel of the resting orders which have an expiry time, so
+ * that expiring them never needs a scan of the book.
+ *
+ * Time advances in ticks of one millisecond. Level 0 has one slot per tick for
+ * the next 64 ticks, each higher level has slots 64 times as wide as the level
+ * below, so 6 levels cover about two years; expiries further out are parked in
+ * the top level and placed again as time gets closer. An order sits in the slot
+ * of the lowest level whose range covers its expiry. Whenever time crosses the
+ * boundary of a higher level slot, that slot is cascaded: its orders are placed
+ * again, now in a lower level, until they reach level 0 and expire exactly at
+ * their tick.
+ *
+ * Slots are intrusive doubly linked lists of {@link PriceLevel.Node}s (their
+ * {@code expiryPrev}/{@code expiryNext} links), so scheduling and removing an
+ * order are O(1) and allocation free. A bitmap of the non empty slots per level
+ * lets {@link #advance(long, List)} jump straight to the next tick at which
+ * anything happens instead of stepping through idle ticks.
+ *
+ * Not thread safe, owned by its {@code OrderServiceImpl}.
+ */
+final class ExpiryWheel {
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int LEVELS = 6;
+
+	// furthest expiry, in ticks from now, placed where it belongs
+	private static final long HORIZON = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+	// first node of every slot, level by level
+	private final PriceLevel.Node[] slots = new PriceLevel.Node[SLOTS * LEVELS];
+
+	// bit s of occupied[l] is set while slot s of level l is not empty
+	private final long[] occupied = new long[LEVELS];
+
+	// next tick to process, every earlier tick is done
+	private long current;
+
+	// number of scheduled nodes
+	private int size;
+
+	/**
+	 * Create an empty wheel starting at the given time.
+	 *
+	 * @param nowMillis
+	 */
+	ExpiryWheel(long nowMillis) {
+		current = nowMillis;
+	}
+
+	/**
+	 * @return number of scheduled nodes
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Schedule the given node to expire at the expiry time of its order. A time
+	 * already passed expires it at the next advance. O(1).
+	 *
+	 * @param node not scheduled yet
+	 */
+	void schedule(PriceLevel.Node node) {
+		place(node);
+		size++;
+	}
+
+	/**
+	 * Take the given node off the wheel, if scheduled. O(1).
+	 *
+	 * @param node
+	 */
+	void remove(PriceLevel.Node node) {
+		if (node.expirySlot < 0) {
+			return;
+		}
+		unlinkFromSlot(node);
+		size--;
+	}
+
+	/**
+	 * Move time forward to the given time and hand out every node expiring by
+	 * then, taking them off the wheel. Times not after the last advance do
+	 * nothing.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) per expired node, plus O(1) per cascade of a non empty slot (each node
+	 * is cascaded at most once per level). Idle ticks are skipped as a whole, so
+	 * a call with nothing due is a handful of bit operations.
+	 *
+	 * @param nowMillis
+	 * @param expired   receives the expired nodes, earliest expiry first
+	 */
+	void advance(long nowMillis, List<PriceLevel.Node> expired) {
+		while (current <= nowMillis) {
+			if (size == 0) {
+				current = nowMillis + 1;
+				return;
+			}
+			long tick = nextEvent();
+			if (tick > nowMillis) {
+				current = nowMillis + 1;
+				return;
+			}
+			current = tick;
+			// cascade every higher level slot whose range starts at this tick
+			for (int level = 1; level < LEVELS && (tick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+				cascade(level, (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+			}
+			int slot = (int) tick & (SLOTS - 1);
+			for (PriceLevel.Node node = slots[slot]; node != null; node = slots[slot]) {
+				unlinkFromSlot(node);
+				size--;
+				expired.add(node);
+			}
+			current = tick + 1;
+		}
+	}
+
+	/**
+	 * First tick, from the current one on, at which a level 0 slot fires or a
+	 * higher level slot is cascaded.
+	 */
+	private long nextEvent() {
+		long next = Long.MAX_VALUE;
+		for (int level = 0; level < LEVELS; level++) {
+			long bits = occupied[level];
+			if (bits == 0) {
+				continue;
+			}
+			int shift = SLOT_BITS * level;
+			long block = current >>> shift;
+			int position = (int) block & (SLOTS - 1);
+			long tick;
+			if (level == 0) {
+				// the current tick's own slot has not fired yet
+				tick = block + Long.numberOfTrailingZeros(Long.rotateRight(bits, position));
+			} else if ((current & ((1L << shift) - 1)) == 0) {
+				// at the boundary of a block, which is still to be cascaded
+				tick = (block + Long.numberOfTrailingZeros(Long.rotateRight(bits, position))) << shift;
+			} else {
+				tick = (block + 1 + Long.numberOfTrailingZeros(Long.rotateRight(bits, position + 1))) << shift;
+			}
+			next = Math.min(next, tick);
+		}
+		return next;
+	}
+
+	/**
+	 * Place again every node of the given slot, relative to the current tick.
+	 */
+	private void cascade(int level, int slot) {
+		int index = level * SLOTS + slot;
+		PriceLevel.Node node = slots[index];
+		slots[index] = null;
+		occupied[level] &= ~(1L << slot);
+		while (node != null) {
+			PriceLevel.Node next = node.expiryNext;
+			place(node);
+			node = next;
+		}
+	}
+
+	/**
+	 * Link the given node into the slot covering its expiry.
+	 */
+	private void place(PriceLevel.Node node) {
+		long expiry = Math.max(node.order.getExpiresAtMillis(), current);
+		long delta = expiry - current;
+		if (delta > HORIZON) {
+			// beyond the top level, park it in the top level's furthest slot
+			delta = HORIZON;
+			expiry = current + HORIZON;
+		}
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+			level++;
+		}
+		int slot = (int) (expiry >>> (SLOT_BITS * level)) & (SLOTS - 1);
+		int index = level * SLOTS + slot;
+		PriceLevel.Node head = slots[index];
+		node.expiryPrev = null;
+		node.expiryNext = head;
+		if (head != null) {
+			head.expiryPrev = node;
+		}
+		slots[index] = node;
+		node.expirySlot = index;
+		occupied[level] |= 1L << slot;
+	}
+
+	private void unlinkFromSlot(PriceLevel.Node node) {
+		int index = node.expirySlot;
+		if (node.expiryPrev == null) {
+			slots[index] = node.expiryNext;
+		} else {
+			node.expiryPrev.expiryNext = node.expiryNext;
+		}
+		if (node.expiryNext != null) {
+			node.expiryNext.expiryPrev = node.expiryPrev;
+		}
+		if (slots[index] == null) {
+			occupied[index / SLOTS] &= ~(1L << (index % SLOTS));
+		}
+		node.expiryPrev = null;
+		node.expiryNext = null;
+		node.expirySlot = -1;
+	}
+}
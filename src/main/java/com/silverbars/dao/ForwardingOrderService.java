@@ -0,0 +1,113 @@
+package com.silverbars.dao;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Base class for decorators of an {@link OrderService}: every operation is
+ * simply passed on to the wrapped service, subclasses override the ones they
+ * add behaviour to.
+ *
+ */
+public abstract class ForwardingOrderService implements OrderService {
+	// the decorated service
+	protected final OrderService delegate;
+
+	/**
+	 * @param delegate service all operations are passed on to
+	 */
+	protected ForwardingOrderService(OrderService delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void addOrder(Order order) {
+		delegate.addOrder(order);
+	}
+
+	@Override
+	public void cancelOrder(Order order) {
+		delegate.cancelOrder(order);
+	}
+
+	@Override
+	public void cancelOrder(long orderId) {
+		delegate.cancelOrder(orderId);
+	}
+
+	@Override
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		delegate.amendOrder(orderId, orderQuantity, pricePerKilo);
+	}
+
+	@Override
+	public BatchResult addOrders(Collection<Order> orders) {
+		return delegate.addOrders(orders);
+	}
+
+	@Override
+	public BatchResult cancelOrders(Collection<Order> orders) {
+		return delegate.cancelOrders(orders);
+	}
+
+	@Override
+	public BatchResult cancelOrders(long[] orderIds) {
+		return delegate.cancelOrders(orderIds);
+	}
+
+	@Override
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		return delegate.cancelAllOrdersForUser(userId);
+	}
+
+	@Override
+	public Order getOrder(long orderId) {
+		return delegate.getOrder(orderId);
+	}
+
+	@Override
+	public List<Order> getOrdersByUser(String userId) {
+		return delegate.getOrdersByUser(userId);
+	}
+
+	@Override
+	public Map<Double, List<Order>> getOrdersByOrderType(OrderType orderType) {
+		return delegate.getOrdersByOrderType(orderType);
+	}
+
+	@Override
+	public Map<OrderType, List<String>> getLiveOrderBoard() {
+		return delegate.getLiveOrderBoard();
+	}
+
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+		return delegate.getBoardSnapshot(snapshot);
+	}
+
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		return delegate.getBoardSnapshot(snapshot, depth);
+	}
+
+	@Override
+	public OptionalDouble getBestPrice(OrderType orderType) {
+		return delegate.getBestPrice(orderType);
+	}
+
+	@Override
+	public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+			BoardSnapshot snapshot) {
+		return delegate.getLevelsInRange(orderType, fromPrice, toPrice, snapshot);
+	}
+
+	@Override
+	public BoardSubscription subscribeBoardDeltas() {
+		return delegate.subscribeBoardDeltas();
+	}
+}
@@ -0,0 +1,427 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Silver Bars Marketplace - Live Order Boards of many instruments (silver bar
+ * grades, gold, platinum, ...), sharded across a fixed pool of writer threads.
+ *
+ * Every instrument has a board of its own, a plain {@link OrderServiceImpl},
+ * owned by exactly one shard: a {@link SingleWriterOrderService} whose writer
+ * thread is the only thread ever touching the boards of its shard. Instruments
+ * are spread over the shards round robin in order of first use, so boards on
+ * different shards never contend and throughput grows with the number of
+ * shards (up to the number of cores) as long as the flow is spread over
+ * instruments.
+ *
+ * Orders are routed by {@link Order#getInstrument()} (null being an instrument
+ * of its own). Order ids carry the code of their instrument in their upper
+ * bits, so cancels and lookups by id are routed without any shared index.
+ *
+ * Orders with an expiry time are expired by the writer of their shard, which
+ * sweeps all the boards it owns between batches and while it waits.
+ *
+ * Must be closed to stop the writer threads.
+ */
+public class InstrumentRouter implements AutoCloseable {
+	// bits of an order id below the instrument code, ids of one instrument start at 1
+	static final int ORDER_ID_BITS = 40;
+
+	// key of the instrument of orders without one, which the index cannot hold as null
+	private static final Object NO_INSTRUMENT = new Object();
+
+	/**
+	 * The board of one instrument. Every operation runs as a task on the writer
+	 * thread of the board's shard, in order with all other operations of that
+	 * shard. Orders added or cancelled through it must be for its instrument,
+	 * others are rejected with IllegalArgumentException (per order in a batch).
+	 */
+	private static final class InstrumentBoard implements OrderService {
+		final String instrument;
+		final SingleWriterOrderService shard;
+
+		// only ever touched by the shard's writer thread, once owned by it
+		final OrderServiceImpl book = new OrderServiceImpl();
+
+		InstrumentBoard(String instrument, int code, SingleWriterOrderService shard) {
+			this.instrument = instrument;
+			this.shard = shard;
+			book.setNextOrderId(((long) code << ORDER_ID_BITS) + 1);
+			// expired and published by the shard's writer
+			shard.own(book);
+		}
+
+		@Override
+		public void addOrder(Order order) {
+			checkInstrument(order);
+			SingleWriterOrderService.await(shard.submitTask(() -> {
+				book.addOrder(order);
+				return null;
+			}));
+		}
+
+		@Override
+		public void cancelOrder(Order order) {
+			checkInstrument(order);
+			SingleWriterOrderService.await(shard.submitTask(() -> {
+				book.cancelOrder(order);
+				return null;
+			}));
+		}
+
+		@Override
+		public void cancelOrder(long orderId) {
+			SingleWriterOrderService.await(shard.submitTask(() -> {
+				book.cancelOrder(orderId);
+				return null;
+			}));
+		}
+
+		@Override
+		public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+			SingleWriterOrderService.await(shard.submitTask(() -> {
+				book.amendOrder(orderId, orderQuantity, pricePerKilo);
+				return null;
+			}));
+		}
+
+		@Override
+		public BatchResult addOrders(Collection<Order> orders) {
+			return applyBatch(orders, batch -> book.addOrders(batch));
+		}
+
+		@Override
+		public BatchResult cancelOrders(Collection<Order> orders) {
+			return applyBatch(orders, batch -> book.cancelOrders(batch));
+		}
+
+		/**
+		 * Apply the given batch operation to the orders which are for this board's
+		 * instrument, on the writer thread, and fail the others.
+		 */
+		private BatchResult applyBatch(Collection<Order> orders, Function<List<Order>, BatchResult> operation) {
+			Order[] all = orders.toArray(new Order[orders.size()]);
+			BatchResult result = new BatchResult(all.length);
+			// positions in all of the orders in batch
+			int[] positions = new int[all.length];
+			List<Order> batch = new ArrayList<Order>(all.length);
+			for (int i = 0; i < all.length; i++) {
+				if (Objects.equals(all[i].getInstrument(), instrument)) {
+					positions[batch.size()] = i;
+					batch.add(all[i]);
+				} else {
+					result.fail(i, wrongInstrument(all[i]));
+				}
+			}
+			BatchResult applied = SingleWriterOrderService.await(shard.submitTask(() -> operation.apply(batch)));
+			if (batch.size() == all.length) {
+				return applied;
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				if (applied.isFailed(i)) {
+					result.fail(positions[i], applied.getFailure(i));
+				}
+			}
+			return result;
+		}
+
+		private void checkInstrument(Order order) {
+			if (!Objects.equals(order.getInstrument(), instrument)) {
+				throw wrongInstrument(order);
+			}
+		}
+
+		private IllegalArgumentException wrongInstrument(Order order) {
+			return new IllegalArgumentException("Given order is not for instrument " + instrument + ": " + order);
+		}
+
+		@Override
+		public BatchResult cancelOrders(long[] orderIds) {
+			long[] batch = orderIds.clone();
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.cancelOrders(batch)));
+		}
+
+		@Override
+		public List<Order> cancelAllOrdersForUser(String userId) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.cancelAllOrdersForUser(userId)));
+		}
+
+		@Override
+		public Order getOrder(long orderId) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.getOrder(orderId)));
+		}
+
+		@Override
+		public List<Order> getOrdersByUser(String userId) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.getOrdersByUser(userId)));
+		}
+
+		@Override
+		public Map<Double, List<Order>> getOrdersByOrderType(OrderType orderType) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> {
+				Map<Double, List<Order>> copy = new LinkedHashMap<Double, List<Order>>();
+				for (Map.Entry<Double, List<Order>> entry : book.getOrdersByOrderType(orderType).entrySet()) {
+					copy.put(entry.getKey(), new ArrayList<Order>(entry.getValue()));
+				}
+				return Collections.unmodifiableMap(copy);
+			}));
+		}
+
+		@Override
+		public Map<OrderType, List<String>> getLiveOrderBoard() {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.getLiveOrderBoard()));
+		}
+
+		@Override
+		public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.getBoardSnapshot(snapshot)));
+		}
+
+		@Override
+		public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.getBoardSnapshot(snapshot, depth)));
+		}
+
+		@Override
+		public OptionalDouble getBestPrice(OrderType orderType) {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.getBestPrice(orderType)));
+		}
+
+		@Override
+		public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+				BoardSnapshot snapshot) {
+			return SingleWriterOrderService.await(
+					shard.submitTask(() -> book.getLevelsInRange(orderType, fromPrice, toPrice, snapshot)));
+		}
+
+		@Override
+		public BoardSubscription subscribeBoardDeltas() {
+			return SingleWriterOrderService.await(shard.submitTask(() -> book.subscribeBoardDeltas()));
+		}
+	}
+
+	private final SingleWriterOrderService[] shards;
+
+	// boards by instrument (or NO_INSTRUMENT)
+	private final ConcurrentMap<Object, InstrumentBoard> boards = new ConcurrentHashMap<Object, InstrumentBoard>();
+
+	// boards by instrument code, replaced by a longer copy as instruments are added
+	private volatile InstrumentBoard[] boardsByCode = new InstrumentBoard[0];
+
+	/**
+	 * Create a router with the given number of shards (writer threads), each
+	 * with a ring buffer of {@link SingleWriterOrderService#DEFAULT_CAPACITY}
+	 * slots.
+	 *
+	 * @param shardCount
+	 */
+	public InstrumentRouter(int shardCount) {
+		this(shardCount, SingleWriterOrderService.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a router with the given number of shards (writer threads), each
+	 * with a ring buffer of the given number of slots, a power of two.
+	 *
+	 * @param shardCount
+	 * @param capacity
+	 */
+	public InstrumentRouter(int shardCount, int capacity) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+		}
+		shards = new SingleWriterOrderService[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new SingleWriterOrderService(capacity);
+		}
+	}
+
+	/**
+	 * @return number of shards, i.e. writer threads
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Board of the given instrument, created on first use.
+	 *
+	 * @param instrument
+	 * @return
+	 */
+	public OrderService getBoard(String instrument) {
+		InstrumentBoard board = boards.get(key(instrument));
+		return board != null ? board : register(instrument);
+	}
+
+	/**
+	 * @return instruments with a board, in order of first use
+	 */
+	public List<String> getInstruments() {
+		InstrumentBoard[] all = boardsByCode;
+		List<String> instruments = new ArrayList<String>(all.length);
+		for (InstrumentBoard board : all) {
+			instruments.add(board.instrument);
+		}
+		return instruments;
+	}
+
+	/**
+	 * Add the given order to the board of its instrument, see
+	 * {@link OrderService#addOrder(Order)}.
+	 *
+	 * @param order
+	 */
+	public void addOrder(Order order) {
+		getBoard(order.getInstrument()).addOrder(order);
+	}
+
+	/**
+	 * Cancel the given order on the board of its instrument, see
+	 * {@link OrderService#cancelOrder(Order)}.
+	 *
+	 * @param order
+	 */
+	public void cancelOrder(Order order) {
+		getBoard(order.getInstrument()).cancelOrder(order);
+	}
+
+	/**
+	 * Cancel the live order with the given id, on the board of the instrument
+	 * its id belongs to.
+	 *
+	 * @param orderId
+	 */
+	public void cancelOrder(long orderId) {
+		InstrumentBoard board = boardOf(orderId);
+		if (board == null) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		board.cancelOrder(orderId);
+	}
+
+	/**
+	 * Amend the live order with the given id, on the board of the instrument its
+	 * id belongs to, see {@link OrderService#amendOrder(long, double, double)}.
+	 *
+	 * @param orderId
+	 * @param orderQuantity
+	 * @param pricePerKilo
+	 */
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		InstrumentBoard board = boardOf(orderId);
+		if (board == null) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		board.amendOrder(orderId, orderQuantity, pricePerKilo);
+	}
+
+	/**
+	 * Look up a live order of any instrument by its id
+	 *
+	 * @param orderId
+	 * @return the order or null if there is no live order with this id
+	 */
+	public Order getOrder(long orderId) {
+		InstrumentBoard board = boardOf(orderId);
+		return board == null ? null : board.getOrder(orderId);
+	}
+
+	/**
+	 * Cancel every live order of the given user on all boards. The boards of all
+	 * shards are asked at once, so the shards cancel in parallel.
+	 *
+	 * @param userId
+	 * @return the cancelled orders, by instrument in order of first use
+	 */
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		List<CompletableFuture<List<Order>>> results = new ArrayList<CompletableFuture<List<Order>>>();
+		for (InstrumentBoard board : boardsByCode) {
+			results.add(board.shard.submitTask(() -> board.book.cancelAllOrdersForUser(userId)));
+		}
+		return concat(results);
+	}
+
+	/**
+	 * Live orders of the given user on all boards, asked from all shards at once.
+	 *
+	 * @param userId
+	 * @return the user's orders, by instrument in order of first use
+	 */
+	public List<Order> getOrdersByUser(String userId) {
+		List<CompletableFuture<List<Order>>> results = new ArrayList<CompletableFuture<List<Order>>>();
+		for (InstrumentBoard board : boardsByCode) {
+			results.add(board.shard.submitTask(() -> board.book.getOrdersByUser(userId)));
+		}
+		return concat(results);
+	}
+
+	/**
+	 * Stop all writer threads once the operations submitted so far are applied.
+	 */
+	@Override
+	public void close() {
+		for (SingleWriterOrderService shard : shards) {
+			shard.close();
+		}
+	}
+
+	/**
+	 * Create the board of a new instrument on the next shard in turn, unless a
+	 * racing caller just did.
+	 */
+	private synchronized InstrumentBoard register(String instrument) {
+		InstrumentBoard board = boards.get(key(instrument));
+		if (board != null) {
+			return board;
+		}
+		InstrumentBoard[] all = boardsByCode;
+		int code = all.length;
+		if (code == 1 << (Long.SIZE - 1 - ORDER_ID_BITS)) {
+			throw new IllegalStateException("Too many instruments: " + code);
+		}
+		board = new InstrumentBoard(instrument, code, shards[code % shards.length]);
+		InstrumentBoard[] grown = Arrays.copyOf(all, code + 1);
+		grown[code] = board;
+		boardsByCode = grown;
+		boards.put(key(instrument), board);
+		return board;
+	}
+
+	/**
+	 * @return board of the instrument the given id belongs to, null if there is
+	 *         no such instrument
+	 */
+	private InstrumentBoard boardOf(long orderId) {
+		long code = orderId >>> ORDER_ID_BITS;
+		InstrumentBoard[] all = boardsByCode;
+		return orderId <= 0 || code >= all.length ? null : all[(int) code];
+	}
+
+	private static Object key(String instrument) {
+		return instrument == null ? NO_INSTRUMENT : instrument;
+	}
+
+	private static List<Order> concat(List<CompletableFuture<List<Order>>> results) {
+		List<Order> orders = new ArrayList<Order>();
+		for (CompletableFuture<List<Order>> result : results) {
+			orders.addAll(SingleWriterOrderService.await(result));
+		}
+		return orders;
+	}
+}
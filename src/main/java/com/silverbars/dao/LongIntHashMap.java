@@ -0,0 +1,157 @@
+package com.silverbars.dao;
+
+import java.util.Arrays;
+
+/**
+ * Minimal hash map from primitive {@code long} keys to primitive {@code int}
+ * values, used to index off-heap order records by id without any object per
+ * entry. Same layout as {@link LongObjectHashMap}.
+ *
+ * Open addressing with linear probing over a power of two table, resized at
+ * half full. Removal shifts the following entries of the probe chain back
+ * instead of leaving tombstones, so lookups stay short under heavy add/cancel
+ * churn. Key 0 is reserved as the "empty" marker, which is fine for order ids
+ * as 0 means "no id".
+ *
+ * Values are never negative, -1 is returned for a missing key.
+ *
+ * Not thread safe.
+ *
+ */
+class LongIntHashMap {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+
+	/**
+	 * Create an empty map.
+	 */
+	LongIntHashMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Value of the given key or -1 if there is none. O(1) expected.
+	 *
+	 * @param key
+	 * @return
+	 */
+	int get(long key) {
+		if (key == 0) {
+			return -1;
+		}
+		for (int index = slot(key);; index = (index + 1) & mask) {
+			if (keys[index] == key) {
+				return values[index];
+			}
+			if (keys[index] == 0) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Associate the given (non negative) value with the given (non zero) key.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value or -1
+	 */
+	int put(long key, int value) {
+		if (key == 0) {
+			throw new IllegalArgumentException("Key 0 is reserved");
+		}
+		int index = slot(key);
+		for (; keys[index] != 0; index = (index + 1) & mask) {
+			if (keys[index] == key) {
+				int previous = values[index];
+				values[index] = value;
+				return previous;
+			}
+		}
+		keys[index] = key;
+		values[index] = value;
+		if (++size > (mask + 1) / 2) {
+			resize();
+		}
+		return -1;
+	}
+
+	/**
+	 * Remove the given key.
+	 *
+	 * @param key
+	 * @return the removed value or -1 if there was none
+	 */
+	int remove(long key) {
+		if (key == 0) {
+			return -1;
+		}
+		int index = slot(key);
+		for (; keys[index] != key; index = (index + 1) & mask) {
+			if (keys[index] == 0) {
+				return -1;
+			}
+		}
+		int removed = values[index];
+		// shift back later entries of the chain which may no longer be reachable
+		int gap = index;
+		for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+		}
+		keys[gap] = 0;
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Remove all entries, keeping the table.
+	 */
+	void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	private int slot(long key) {
+		// spread sequential ids over the table
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int index = slot(oldKeys[i]);
+				while (keys[index] != 0) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+}
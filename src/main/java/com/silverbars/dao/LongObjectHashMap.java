@@ -0,0 +1,158 @@
+package com.silverbars.dao;
+
+import java.util.Arrays;
+
+/**
+ * Minimal hash map from primitive {@code long} keys to objects, used to index
+ * live orders by id without boxing every id into a {@code Long}.
+ *
+ * Open addressing with linear probing over a power of two table, resized at
+ * half full. Removal shifts the following entries of the probe chain back
+ * instead of leaving tombstones, so lookups stay short under heavy add/cancel
+ * churn. Key 0 is reserved as the "empty" marker, which is fine for order ids
+ * as 0 means "no id".
+ *
+ * Not thread safe.
+ *
+ * @param <V>
+ */
+class LongObjectHashMap<V> {
+	private static final int INITIAL_CAPACITY = 64;
+
+	private long[] keys;
+	private V[] values;
+	private int mask;
+	private int size;
+
+	/**
+	 * Create an empty map.
+	 */
+	LongObjectHashMap() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @return number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Value of the given key or null if there is none. O(1) expected.
+	 *
+	 * @param key
+	 * @return
+	 */
+	V get(long key) {
+		if (key == 0) {
+			return null;
+		}
+		for (int index = slot(key);; index = (index + 1) & mask) {
+			if (keys[index] == key) {
+				return values[index];
+			}
+			if (keys[index] == 0) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Associate the given value with the given (non zero) key.
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value or null
+	 */
+	V put(long key, V value) {
+		if (key == 0) {
+			throw new IllegalArgumentException("Key 0 is reserved");
+		}
+		int index = slot(key);
+		for (; keys[index] != 0; index = (index + 1) & mask) {
+			if (keys[index] == key) {
+				V previous = values[index];
+				values[index] = value;
+				return previous;
+			}
+		}
+		keys[index] = key;
+		values[index] = value;
+		if (++size > (mask + 1) / 2) {
+			resize();
+		}
+		return null;
+	}
+
+	/**
+	 * Remove the given key.
+	 *
+	 * @param key
+	 * @return the removed value or null if there was none
+	 */
+	V remove(long key) {
+		if (key == 0) {
+			return null;
+		}
+		int index = slot(key);
+		for (; keys[index] != key; index = (index + 1) & mask) {
+			if (keys[index] == 0) {
+				return null;
+			}
+		}
+		V removed = values[index];
+		// shift back later entries of the chain which may no longer be reachable
+		int gap = index;
+		for (int next = (gap + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = null;
+		size--;
+		return removed;
+	}
+
+	/**
+	 * Remove all entries, keeping the table.
+	 */
+	void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private int slot(long key) {
+		// spread sequential ids over the table
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = (V[]) new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	private void resize() {
+		long[] oldKeys = keys;
+		V[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int index = slot(oldKeys[i]);
+				while (keys[index] != 0) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+}
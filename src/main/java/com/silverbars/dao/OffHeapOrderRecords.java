@@ -0,0 +1,197 @@
+package com.silverbars.dao;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fixed size order records kept outside the Java heap, in chunks of direct
+ * memory, and addressed by an {@code int} slot number.
+ *
+ * Freed slots are chained into a free list (through their {@code next} field)
+ * and handed out again before the chunks grow, so memory use follows the
+ * number of resting orders at its peak. Records are read and written through
+ * absolute {@code ByteBuffer} accessors, nothing is allocated per access and
+ * the garbage collector never sees the records at all.
+ *
+ * Record layout, native byte order:
+ *
+ * - long orderId, long quantity (mg), long price (ticks)
+ *
+ * - int userCode, int prev slot, int next slot (NONE at either end of a level)
+ *
+ * - int userPrev slot, int userNext slot (NONE at either end of the user's
+ * orders)
+ *
+ * - byte orderType, padded to RECORD_SIZE
+ *
+ * Not thread safe.
+ *
+ */
+final class OffHeapOrderRecords {
+	// no record, e.g. at the end of a level
+	static final int NONE = -1;
+
+	static final int RECORD_SIZE = 48;
+
+	private static final int ORDER_ID = 0;
+	private static final int QUANTITY = 8;
+	private static final int PRICE = 16;
+	private static final int USER = 24;
+	private static final int PREV = 28;
+	private static final int NEXT = 32;
+	private static final int USER_PREV = 36;
+	private static final int USER_NEXT = 40;
+	private static final int ORDER_TYPE = 44;
+
+	private static final int CHUNK_BITS = 16;
+	private static final int CHUNK_RECORDS = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private ByteBuffer[] chunks = new ByteBuffer[16];
+	private int chunkCount;
+
+	// first slot of the free list
+	private int free = NONE;
+
+	// slots from here on have never been handed out
+	private int unused;
+
+	// number of slots in use
+	private int size;
+
+	/**
+	 * @return number of records in use
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return bytes of direct memory reserved for records
+	 */
+	long reservedBytes() {
+		return (long) chunkCount * CHUNK_RECORDS * RECORD_SIZE;
+	}
+
+	/**
+	 * Take a slot from the free list, or a new one. Its fields are undefined until
+	 * set.
+	 *
+	 * @return
+	 */
+	int allocate() {
+		int slot;
+		if (free != NONE) {
+			slot = free;
+			free = getNext(slot);
+		} else {
+			if (unused == chunkCount * CHUNK_RECORDS) {
+				addChunk();
+			}
+			slot = unused++;
+		}
+		size++;
+		return slot;
+	}
+
+	/**
+	 * Give the slot back for reuse.
+	 *
+	 * @param slot
+	 */
+	void free(int slot) {
+		setOrderId(slot, 0);
+		setNext(slot, free);
+		free = slot;
+		size--;
+	}
+
+	long getOrderId(int slot) {
+		return chunk(slot).getLong(offset(slot) + ORDER_ID);
+	}
+
+	void setOrderId(int slot, long orderId) {
+		chunk(slot).putLong(offset(slot) + ORDER_ID, orderId);
+	}
+
+	long getQuantityMilligrams(int slot) {
+		return chunk(slot).getLong(offset(slot) + QUANTITY);
+	}
+
+	void setQuantityMilligrams(int slot, long quantityMilligrams) {
+		chunk(slot).putLong(offset(slot) + QUANTITY, quantityMilligrams);
+	}
+
+	long getPriceTicks(int slot) {
+		return chunk(slot).getLong(offset(slot) + PRICE);
+	}
+
+	int getUserCode(int slot) {
+		return chunk(slot).getInt(offset(slot) + USER);
+	}
+
+	int getOrderType(int slot) {
+		return chunk(slot).get(offset(slot) + ORDER_TYPE);
+	}
+
+	int getPrev(int slot) {
+		return chunk(slot).getInt(offset(slot) + PREV);
+	}
+
+	void setPrev(int slot, int prev) {
+		chunk(slot).putInt(offset(slot) + PREV, prev);
+	}
+
+	int getNext(int slot) {
+		return chunk(slot).getInt(offset(slot) + NEXT);
+	}
+
+	void setNext(int slot, int next) {
+		chunk(slot).putInt(offset(slot) + NEXT, next);
+	}
+
+	int getUserPrev(int slot) {
+		return chunk(slot).getInt(offset(slot) + USER_PREV);
+	}
+
+	void setUserPrev(int slot, int userPrev) {
+		chunk(slot).putInt(offset(slot) + USER_PREV, userPrev);
+	}
+
+	int getUserNext(int slot) {
+		return chunk(slot).getInt(offset(slot) + USER_NEXT);
+	}
+
+	void setUserNext(int slot, int userNext) {
+		chunk(slot).putInt(offset(slot) + USER_NEXT, userNext);
+	}
+
+	/**
+	 * Set all order fields of the given slot at once.
+	 */
+	void set(int slot, long orderId, long quantityMilligrams, long priceTicks, int userCode, int orderType) {
+		ByteBuffer chunk = chunk(slot);
+		int offset = offset(slot);
+		chunk.putLong(offset + ORDER_ID, orderId);
+		chunk.putLong(offset + QUANTITY, quantityMilligrams);
+		chunk.putLong(offset + PRICE, priceTicks);
+		chunk.putInt(offset + USER, userCode);
+		chunk.put(offset + ORDER_TYPE, (byte) orderType);
+	}
+
+	private ByteBuffer chunk(int slot) {
+		return chunks[slot >>> CHUNK_BITS];
+	}
+
+	private static int offset(int slot) {
+		return (slot & CHUNK_MASK) * RECORD_SIZE;
+	}
+
+	private void addChunk() {
+		if (chunkCount == chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunkCount * 2);
+		}
+		chunks[chunkCount++] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE).order(ByteOrder.nativeOrder());
+	}
+}
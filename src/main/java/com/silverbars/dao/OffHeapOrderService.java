@@ -0,0 +1,695 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Silver Bars Marketplace - Live Order Board for very large boards.
+ *
+ * Same single threaded contract as {@link OrderServiceImpl}, but resting orders
+ * are not kept as objects: each one is a 48 byte record in off-heap memory, see
+ * {@link OffHeapOrderRecords}, with its user id interned to an {@code int}
+ * code. Records are linked both per price level and per user. What stays on
+ * the heap is compact and made of primitive arrays:
+ *
+ * - per order type, the sorted price ticks of its levels with each level's
+ * first/last record, order count and running total, in parallel arrays
+ *
+ * - the id index, a {@code long -> int} hash map from order id to record
+ *
+ * - one {@code String} per user with live orders, with the first/last record
+ * and order count of the user's orders; the code of a user left without orders
+ * is handed to the next new user
+ *
+ * So the number of heap objects does not grow with the number of orders, and
+ * neither does the work of the garbage collector. The price is that callers
+ * never get the resting orders themselves: {@link #getOrder(long)} and
+ * {@link #getOrdersByOrderType(OrderType)} hand out new {@code Order} copies of
+ * the records, and an added order is matched by id and value rather than by
+ * identity.
+ *
+ * Records have no room for an expiry time nor an instrument, so orders are
+ * good till cancelled and for the default market: an order with an expiry time
+ * or an instrument is rejected.
+ *
+ * Must only be used by one thread at a time (or be guarded externally).
+ */
+public class OffHeapOrderService implements OrderService {
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	private static final int NONE = OffHeapOrderRecords.NONE;
+
+	/**
+	 * Price levels of one order type in board order (BUY highest price first,
+	 * stored as negated keys like {@code PriceLevelMap}), as parallel arrays.
+	 */
+	private static final class Side {
+		private static final int INITIAL_CAPACITY = 16;
+
+		final boolean descending;
+		long[] keys = new long[INITIAL_CAPACITY];
+		int[] heads = new int[INITIAL_CAPACITY];
+		int[] tails = new int[INITIAL_CAPACITY];
+		int[] orderCounts = new int[INITIAL_CAPACITY];
+		long[] totalsMilligrams = new long[INITIAL_CAPACITY];
+		int size;
+
+		Side(boolean descending) {
+			this.descending = descending;
+		}
+
+		long priceTicks(int index) {
+			return descending ? -keys[index] : keys[index];
+		}
+
+		int indexOf(long priceTicks) {
+			return Arrays.binarySearch(keys, 0, size, key(priceTicks));
+		}
+
+		int getOrCreate(long priceTicks) {
+			int index = indexOf(priceTicks);
+			if (index >= 0) {
+				return index;
+			}
+			index = -(index + 1);
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				heads = Arrays.copyOf(heads, size * 2);
+				tails = Arrays.copyOf(tails, size * 2);
+				orderCounts = Arrays.copyOf(orderCounts, size * 2);
+				totalsMilligrams = Arrays.copyOf(totalsMilligrams, size * 2);
+			}
+			int moved = size - index;
+			System.arraycopy(keys, index, keys, index + 1, moved);
+			System.arraycopy(heads, index, heads, index + 1, moved);
+			System.arraycopy(tails, index, tails, index + 1, moved);
+			System.arraycopy(orderCounts, index, orderCounts, index + 1, moved);
+			System.arraycopy(totalsMilligrams, index, totalsMilligrams, index + 1, moved);
+			keys[index] = key(priceTicks);
+			heads[index] = NONE;
+			tails[index] = NONE;
+			orderCounts[index] = 0;
+			totalsMilligrams[index] = 0;
+			size++;
+			return index;
+		}
+
+		void remove(int index) {
+			int moved = size - index - 1;
+			System.arraycopy(keys, index + 1, keys, index, moved);
+			System.arraycopy(heads, index + 1, heads, index, moved);
+			System.arraycopy(tails, index + 1, tails, index, moved);
+			System.arraycopy(orderCounts, index + 1, orderCounts, index, moved);
+			System.arraycopy(totalsMilligrams, index + 1, totalsMilligrams, index, moved);
+			size--;
+		}
+
+		int rangeStart(long priceTicks1, long priceTicks2) {
+			int index = Arrays.binarySearch(keys, 0, size, Math.min(key(priceTicks1), key(priceTicks2)));
+			return index >= 0 ? index : -(index + 1);
+		}
+
+		int rangeEnd(long priceTicks1, long priceTicks2) {
+			int index = Arrays.binarySearch(keys, 0, size, Math.max(key(priceTicks1), key(priceTicks2)));
+			return index >= 0 ? index + 1 : -(index + 1);
+		}
+
+		private long key(long priceTicks) {
+			return descending ? -priceTicks : priceTicks;
+		}
+	}
+
+	private final OffHeapOrderRecords records = new OffHeapOrderRecords();
+
+	// levels by OrderType ordinal
+	private final Side[] sides = new Side[ORDER_TYPES.length];
+
+	// record slot of every live order by id
+	private final LongIntHashMap ordersById = new LongIntHashMap();
+
+	// interned ids of users with live orders: code -> user id and back
+	private final List<String> userIds = new ArrayList<String>();
+	private final Map<String, Integer> userCodes = new HashMap<String, Integer>();
+
+	// codes of users left without orders, handed out again by userCode()
+	private int[] freeUserCodes = new int[16];
+	private int freeUserCodeCount;
+
+	// orders of each user by user code: oldest/newest record and order count
+	private int[] userHeads = new int[16];
+	private int[] userTails = new int[16];
+	private int[] userOrderCounts = new int[16];
+
+	// next id to hand out in addOrder, ids start at 1 as 0 means "no id"
+	private long nextOrderId = 1;
+
+	// subscribers to level changes, see subscribeBoardDeltas()
+	private final BoardDeltaPublisher deltaPublisher = new BoardDeltaPublisher();
+
+	/**
+	 * Constructor to create brand new, empty board.
+	 */
+	public OffHeapOrderService() {
+		sides[OrderType.BUY.ordinal()] = new Side(true);
+		sides[OrderType.SELL.ordinal()] = new Side(false);
+	}
+
+	/**
+	 * @return bytes of direct memory reserved for order records
+	 */
+	public long getReservedOffHeapBytes() {
+		return records.reservedBytes();
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Find or create the level of the order's price, write the order into a free
+	 * record and link that record at the tail of the level. The order gets a new
+	 * id, which indexes its record. Adding an order which is already live (same id
+	 * and value), or which has an expiry time or an instrument, is rejected with
+	 * IllegalArgumentException.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(log n) to find the level, O(1) for the record and the index.
+	 */
+	@Override
+	public void addOrder(Order order) {
+		int live = ordersById.get(order.getOrderId());
+		if (live != NONE && matches(live, order)) {
+			throw new IllegalArgumentException("Given order is already live: " + order);
+		}
+		if (order.getExpiresAtMillis() != 0) {
+			throw new IllegalArgumentException("Orders with an expiry are not supported here: " + order);
+		}
+		if (order.getInstrument() != null) {
+			throw new IllegalArgumentException("Orders of an instrument are not supported here: " + order);
+		}
+		Side side = sides[order.getOrderType().ordinal()];
+		int level = side.getOrCreate(order.getPriceTicks());
+		order.setOrderId(nextOrderId++);
+		append(side, level, order);
+		publish(order.getOrderType(), side, level);
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * An order carrying the id of a live record of the same value is cancelled by
+	 * id. Otherwise walk the records of the level of its price for the first one
+	 * of equal value. If there is none, throw IllegalArgumentException
+	 *
+	 * Time Complexity:
+	 *
+	 * As {@link #cancelOrder(long)} by id, otherwise O(log n) plus a walk over the
+	 * level's records.
+	 */
+	@Override
+	public void cancelOrder(Order order) {
+		int slot = find(order);
+		if (slot == NONE) {
+			throw new IllegalArgumentException("Given order does not exists: " + order);
+		}
+		cancelOrder(records.getOrderId(slot));
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Take the record out of the id index, unlink it from its level (found by a
+	 * binary search on the price kept in the record) and free it. If that was the
+	 * last order at this price, remove the level. If there is no such id, throw
+	 * IllegalArgumentException
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) for the index and the record, O(log n) to find the level.
+	 */
+	@Override
+	public void cancelOrder(long orderId) {
+		int slot = ordersById.remove(orderId);
+		if (slot == NONE) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		remove(slot);
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * A reduced quantity is written into the record in place and taken off its
+	 * level's total, so the order keeps its place. Otherwise the record is
+	 * removed as by {@link #cancelOrder(long)} and the changed order appended to
+	 * the back of its level in a new record, with the same id.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(log n) to find the level, O(1) for the records and the index.
+	 */
+	@Override
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		long quantityMilligrams = FixedPoint.toMilligrams(orderQuantity);
+		long priceTicks = FixedPoint.toPriceTicks(pricePerKilo);
+		if (quantityMilligrams <= 0) {
+			throw new IllegalArgumentException("Amended quantity must be positive: " + orderQuantity);
+		}
+		int slot = ordersById.get(orderId);
+		if (slot == NONE) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		OrderType orderType = ORDER_TYPES[records.getOrderType(slot)];
+		Side side = sides[orderType.ordinal()];
+		long previousMilligrams = records.getQuantityMilligrams(slot);
+		if (priceTicks == records.getPriceTicks(slot) && quantityMilligrams <= previousMilligrams) {
+			int level = side.indexOf(priceTicks);
+			records.setQuantityMilligrams(slot, quantityMilligrams);
+			side.totalsMilligrams[level] -= previousMilligrams - quantityMilligrams;
+			publish(orderType, side, level);
+			return;
+		}
+		Order order = toOrder(slot);
+		ordersById.remove(orderId);
+		remove(slot);
+		order.setQuantityMilligrams(quantityMilligrams);
+		order.setPriceTicks(priceTicks);
+		int level = side.getOrCreate(priceTicks);
+		append(side, level, order);
+		publish(orderType, side, level);
+	}
+
+	/**
+	 * Orders of one price are appended under a single level lookup, see
+	 * {@link OrderService#addOrders(Collection)}.
+	 */
+	@Override
+	public BatchResult addOrders(Collection<Order> orders) {
+		Order[] batch = orders.toArray(new Order[orders.size()]);
+		BatchResult result = new BatchResult(batch.length);
+		int[] positions = Batches.byLevel(batch);
+		for (int start = 0, end; start < positions.length; start = end) {
+			end = Batches.levelEnd(batch, positions, start);
+			Order first = batch[positions[start]];
+			Side side = sides[first.getOrderType().ordinal()];
+			int level = side.getOrCreate(first.getPriceTicks());
+			for (int i = start; i < end; i++) {
+				Order order = batch[positions[i]];
+				int live = ordersById.get(order.getOrderId());
+				if (live != NONE && matches(live, order)) {
+					result.fail(positions[i], new IllegalArgumentException("Given order is already live: " + order));
+					continue;
+				}
+				if (order.getExpiresAtMillis() != 0) {
+					result.fail(positions[i],
+							new IllegalArgumentException("Orders with an expiry are not supported here: " + order));
+					continue;
+				}
+				if (order.getInstrument() != null) {
+					result.fail(positions[i],
+							new IllegalArgumentException("Orders of an instrument are not supported here: " + order));
+					continue;
+				}
+				order.setOrderId(nextOrderId++);
+				append(side, level, order);
+			}
+			if (side.orderCounts[level] == 0) {
+				// every order of a new level failed
+				side.remove(level);
+			} else {
+				publish(first.getOrderType(), side, level);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Orders are cancelled one by one, each as by {@link #cancelOrder(Order)}.
+	 */
+	@Override
+	public BatchResult cancelOrders(Collection<Order> orders) {
+		BatchResult result = new BatchResult(orders.size());
+		int i = 0;
+		for (Order order : orders) {
+			int slot = find(order);
+			if (slot == NONE) {
+				result.fail(i, new IllegalArgumentException("Given order does not exists: " + order));
+			} else {
+				ordersById.remove(records.getOrderId(slot));
+				remove(slot);
+			}
+			i++;
+		}
+		return result;
+	}
+
+	/**
+	 * Ids are cancelled one by one, each as by {@link #cancelOrder(long)}.
+	 */
+	@Override
+	public BatchResult cancelOrders(long[] orderIds) {
+		BatchResult result = new BatchResult(orderIds.length);
+		for (int i = 0; i < orderIds.length; i++) {
+			int slot = ordersById.remove(orderIds[i]);
+			if (slot == NONE) {
+				result.fail(i, new IllegalArgumentException("Given order id does not exists: " + orderIds[i]));
+			} else {
+				remove(slot);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Approach:
+	 *
+	 * Records of a user are linked in arrival order, so keep taking the user's
+	 * first record, copy it and cancel it as by {@link #cancelOrder(long)}.
+	 *
+	 * Time Complexity:
+	 *
+	 * O(1) to find the user, then O(log n) per order of the user to find its
+	 * level, regardless of the number of orders on the board.
+	 */
+	@Override
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		Integer userCode = userCodes.get(userId);
+		if (userCode == null) {
+			return Collections.emptyList();
+		}
+		List<Order> orders = new ArrayList<Order>(userOrderCounts[userCode]);
+		while (userHeads[userCode] != NONE) {
+			int slot = userHeads[userCode];
+			orders.add(toOrder(slot));
+			ordersById.remove(records.getOrderId(slot));
+			remove(slot);
+		}
+		return orders;
+	}
+
+	/**
+	 * A new copy of the order's record, O(1).
+	 */
+	@Override
+	public Order getOrder(long orderId) {
+		int slot = ordersById.get(orderId);
+		return slot == NONE ? null : toOrder(slot);
+	}
+
+	/**
+	 * New {@code Order} copies of the user's records, O(number of orders of the
+	 * user).
+	 */
+	@Override
+	public List<Order> getOrdersByUser(String userId) {
+		Integer userCode = userCodes.get(userId);
+		if (userCode == null) {
+			return Collections.emptyList();
+		}
+		List<Order> orders = new ArrayList<Order>(userOrderCounts[userCode]);
+		for (int slot = userHeads[userCode]; slot != NONE; slot = records.getUserNext(slot)) {
+			orders.add(toOrder(slot));
+		}
+		return Collections.unmodifiableList(orders);
+	}
+
+	/**
+	 * Copy of the current levels of the given type, each a list of new
+	 * {@code Order} copies of its records. O(orders of this type), so meant for
+	 * inspection rather than for the hot path.
+	 */
+	@Override
+	public Map<Double, List<Order>> getOrdersByOrderType(OrderType orderType) {
+		Side side = sides[orderType.ordinal()];
+		Map<Double, List<Order>> copy = new LinkedHashMap<Double, List<Order>>();
+		for (int level = 0; level < side.size; level++) {
+			List<Order> orders = new ArrayList<Order>(side.orderCounts[level]);
+			for (int slot = side.heads[level]; slot != NONE; slot = records.getNext(slot)) {
+				orders.add(toOrder(slot));
+			}
+			copy.put(FixedPoint.toPricePerKilo(side.priceTicks(level)), Collections.unmodifiableList(orders));
+		}
+		return Collections.unmodifiableMap(copy);
+	}
+
+	@Override
+	public Map<OrderType, List<String>> getLiveOrderBoard() {
+		BoardSnapshot snapshot = getBoardSnapshot(new BoardSnapshot());
+		Map<OrderType, List<String>> summary = new HashMap<>();
+		for (OrderType orderType : ORDER_TYPES) {
+			summary.put(orderType, BoardFormatter.formatLevels(snapshot, orderType));
+		}
+		return summary;
+	}
+
+	/**
+	 * Levels keep their running totals, so this is O(number of price levels)
+	 * without touching any record.
+	 */
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+		return getBoardSnapshot(snapshot, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		for (OrderType orderType : ORDER_TYPES) {
+			Side side = sides[orderType.ordinal()];
+			copyLevels(side, 0, Math.min(depth, side.size), orderType, snapshot);
+		}
+		return snapshot;
+	}
+
+	@Override
+	public OptionalDouble getBestPrice(OrderType orderType) {
+		Side side = sides[orderType.ordinal()];
+		return side.size == 0 ? OptionalDouble.empty()
+				: OptionalDouble.of(FixedPoint.toPricePerKilo(side.priceTicks(0)));
+	}
+
+	@Override
+	public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+			BoardSnapshot snapshot) {
+		long fromTicks = FixedPoint.toPriceTicks(fromPrice);
+		long toTicks = FixedPoint.toPriceTicks(toPrice);
+		for (OrderType type : ORDER_TYPES) {
+			snapshot.clear(type);
+		}
+		Side side = sides[orderType.ordinal()];
+		copyLevels(side, side.rangeStart(fromTicks, toTicks), side.rangeEnd(fromTicks, toTicks), orderType,
+				snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * A new subscription is seeded with the current levels, then gets the changes
+	 * of every add/cancel like {@link OrderServiceImpl#subscribeBoardDeltas()}.
+	 */
+	@Override
+	public BoardSubscription subscribeBoardDeltas() {
+		BoardSubscription subscription = deltaPublisher.subscribe();
+		for (OrderType orderType : ORDER_TYPES) {
+			Side side = sides[orderType.ordinal()];
+			for (int level = 0; level < side.size; level++) {
+				subscription.levelChanged(orderType, side.priceTicks(level), side.totalsMilligrams[level],
+						side.orderCounts[level]);
+			}
+		}
+		return subscription;
+	}
+
+	/**
+	 * Write the order into a new record at the tail of the given level and of its
+	 * user's orders, and index it by its id.
+	 */
+	private void append(Side side, int level, Order order) {
+		int slot = records.allocate();
+		int userCode = userCode(order.getUserId());
+		records.set(slot, order.getOrderId(), order.getQuantityMilligrams(), order.getPriceTicks(), userCode,
+				order.getOrderType().ordinal());
+		int userTail = userTails[userCode];
+		records.setUserPrev(slot, userTail);
+		records.setUserNext(slot, NONE);
+		if (userTail == NONE) {
+			userHeads[userCode] = slot;
+		} else {
+			records.setUserNext(userTail, slot);
+		}
+		userTails[userCode] = slot;
+		userOrderCounts[userCode]++;
+		int tail = side.tails[level];
+		records.setPrev(slot, tail);
+		records.setNext(slot, NONE);
+		if (tail == NONE) {
+			side.heads[level] = slot;
+		} else {
+			records.setNext(tail, slot);
+		}
+		side.tails[level] = slot;
+		side.orderCounts[level]++;
+		side.totalsMilligrams[level] += order.getQuantityMilligrams();
+		ordersById.put(order.getOrderId(), slot);
+	}
+
+	/**
+	 * Unlink a record already taken out of the id index from its level and from
+	 * its user's orders, remove the level if it became empty, publish the change
+	 * and free the record.
+	 */
+	private void remove(int slot) {
+		int userCode = records.getUserCode(slot);
+		int userPrev = records.getUserPrev(slot);
+		int userNext = records.getUserNext(slot);
+		if (userPrev == NONE) {
+			userHeads[userCode] = userNext;
+		} else {
+			records.setUserNext(userPrev, userNext);
+		}
+		if (userNext == NONE) {
+			userTails[userCode] = userPrev;
+		} else {
+			records.setUserPrev(userNext, userPrev);
+		}
+		if (--userOrderCounts[userCode] == 0) {
+			freeUserCode(userCode);
+		}
+
+		OrderType orderType = ORDER_TYPES[records.getOrderType(slot)];
+		Side side = sides[orderType.ordinal()];
+		int level = side.indexOf(records.getPriceTicks(slot));
+		int prev = records.getPrev(slot);
+		int next = records.getNext(slot);
+		if (prev == NONE) {
+			side.heads[level] = next;
+		} else {
+			records.setNext(prev, next);
+		}
+		if (next == NONE) {
+			side.tails[level] = prev;
+		} else {
+			records.setPrev(next, prev);
+		}
+		side.orderCounts[level]--;
+		side.totalsMilligrams[level] -= records.getQuantityMilligrams(slot);
+		publish(orderType, side, level);
+		if (side.orderCounts[level] == 0) {
+			side.remove(level);
+		}
+		records.free(slot);
+	}
+
+	/**
+	 * Record of the given order: by id if its id is live with the same value,
+	 * otherwise the first record of equal value in the level of its price.
+	 *
+	 * @return the slot or NONE
+	 */
+	private int find(Order order) {
+		int slot = ordersById.get(order.getOrderId());
+		if (slot != NONE && matches(slot, order)) {
+			return slot;
+		}
+		Side side = sides[order.getOrderType().ordinal()];
+		int level = side.indexOf(order.getPriceTicks());
+		Integer userCode = userCodes.get(order.getUserId());
+		if (level < 0 || userCode == null || order.getInstrument() != null) {
+			return NONE;
+		}
+		for (slot = side.heads[level]; slot != NONE; slot = records.getNext(slot)) {
+			if (records.getUserCode(slot) == userCode
+					&& records.getQuantityMilligrams(slot) == order.getQuantityMilligrams()) {
+				return slot;
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @return true if the record holds an order equal to the given one
+	 */
+	private boolean matches(int slot, Order order) {
+		Integer userCode = userCodes.get(order.getUserId());
+		return userCode != null && order.getInstrument() == null && records.getUserCode(slot) == userCode
+				&& records.getQuantityMilligrams(slot) == order.getQuantityMilligrams()
+				&& records.getPriceTicks(slot) == order.getPriceTicks()
+				&& records.getOrderType(slot) == order.getOrderType().ordinal();
+	}
+
+	private Order toOrder(int slot) {
+		Order order = Order.ofFixedPoint(userIds.get(records.getUserCode(slot)), records.getQuantityMilligrams(slot),
+				records.getPriceTicks(slot), ORDER_TYPES[records.getOrderType(slot)]);
+		order.setOrderId(records.getOrderId(slot));
+		return order;
+	}
+
+	private int userCode(String userId) {
+		Integer code = userCodes.get(userId);
+		if (code == null) {
+			if (freeUserCodeCount > 0) {
+				code = freeUserCodes[--freeUserCodeCount];
+				userIds.set(code, userId);
+			} else {
+				code = userIds.size();
+				if (code == userHeads.length) {
+					userHeads = Arrays.copyOf(userHeads, code * 2);
+					userTails = Arrays.copyOf(userTails, code * 2);
+					userOrderCounts = Arrays.copyOf(userOrderCounts, code * 2);
+				}
+				userIds.add(userId);
+			}
+			userHeads[code] = NONE;
+			userTails[code] = NONE;
+			userCodes.put(userId, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Forget the user of the given code, which has no orders left, and keep the
+	 * code for the next new user.
+	 */
+	private void freeUserCode(int code) {
+		userCodes.remove(userIds.get(code));
+		userIds.set(code, null);
+		if (freeUserCodeCount == freeUserCodes.length) {
+			freeUserCodes = Arrays.copyOf(freeUserCodes, freeUserCodeCount * 2);
+		}
+		freeUserCodes[freeUserCodeCount++] = code;
+	}
+
+	/**
+	 * @return number of user codes the per user arrays have room for
+	 */
+	int getUserCodeCapacity() {
+		return userHeads.length;
+	}
+
+	private void publish(OrderType orderType, Side side, int level) {
+		if (deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(orderType, side.priceTicks(level), side.totalsMilligrams[level],
+					side.orderCounts[level]);
+		}
+	}
+
+	/**
+	 * Replace the levels of the given type in the snapshot by the levels between
+	 * the given positions (end exclusive) of the given side.
+	 */
+	private static void copyLevels(Side side, int start, int end, OrderType orderType, BoardSnapshot snapshot) {
+		snapshot.clear(orderType);
+		for (int level = start; level < end; level++) {
+			snapshot.addLevel(orderType, side.priceTicks(level), side.totalsMilligrams[level],
+					side.orderCounts[level]);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.silverbars.dao;
+
+import com.silverbars.domain.Order;
+
+/**
+ * The changes to orders only the order services of this package make, through
+ * the {@link Order.Mutator} which {@link Order} registers here as it is loaded:
+ * marking orders as resting and filling resting orders. Everyone else goes
+ * through the order's setters, which refuse while it rests.
+ *
+ * Public only for {@code Order} to register with. Loading this class loads
+ * {@code Order} first, so whoever else calls {@link #register} finds the
+ * mutator registered already.
+ *
+ */
+public final class OrderAccess {
+	// set once, by Order's static initializer
+	private static volatile Order.Mutator mutator;
+
+	static {
+		try {
+			Class.forName(Order.class.getName(), true, Order.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private OrderAccess() {
+	}
+
+	/**
+	 * Register the mutator of orders, once, called by {@link Order} as it is
+	 * loaded.
+	 *
+	 * @param orderMutator
+	 * @throws IllegalStateException if a mutator is registered already
+	 */
+	public static synchronized void register(Order.Mutator orderMutator) {
+		if (mutator != null) {
+			throw new IllegalStateException("Order mutator already registered");
+		}
+		mutator = orderMutator;
+	}
+
+	/**
+	 * Mark the order as resting on a board or taken off it.
+	 *
+	 * @param order
+	 * @param resting
+	 */
+	static void setResting(Order order, boolean resting) {
+		mutator.setResting(order, resting);
+	}
+
+	/**
+	 * Set the quantity of an order, resting or not, e.g. to what is left of it
+	 * after part of it was filled.
+	 *
+	 * @param order
+	 * @param quantityMilligrams
+	 */
+	static void setQuantityMilligrams(Order order, long quantityMilligrams) {
+		mutator.setQuantityMilligrams(order, quantityMilligrams);
+	}
+}
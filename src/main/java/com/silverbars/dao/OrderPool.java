@@ -0,0 +1,102 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Recycles {@link Order}s, so that a producer adding and cancelling orders at
+ * a steady rate does not allocate a new order for every add.
+ *
+ * An {@code OrderService} only refers to an order while it rests on the board,
+ * so an order can be released as soon as it is off it: once cancelled, expired,
+ * or filled completely on a matching board. Together with the nodes and levels
+ * {@link OrderServiceImpl} reuses itself, add/cancel churn then produces no
+ * garbage at all. An order must not be used any more once released, not even
+ * its id, as it is handed out again by the next {@link #acquire}.
+ *
+ * Not thread safe: give each producer thread its own pool.
+ *
+ */
+public final class OrderPool {
+	// default number of released orders kept
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	// most released orders kept, the others are left to the garbage collector
+	private final int capacity;
+
+	// released orders, handed out again by acquire()
+	private final List<Order> free;
+
+	/**
+	 * Create a pool keeping up to 1024 released orders.
+	 */
+	public OrderPool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a pool keeping up to the given number of released orders, about the
+	 * most orders the producer has off the board at any time.
+	 *
+	 * @param capacity
+	 */
+	public OrderPool(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		free = new ArrayList<Order>(capacity);
+	}
+
+	/**
+	 * An order with the given values, for the default market and good till
+	 * cancelled, like {@link Order#ofFixedPoint(String, long, long, OrderType)}:
+	 * a released one if there is one, otherwise a new one.
+	 *
+	 * @param userId
+	 * @param quantityMilligrams
+	 * @param priceTicks
+	 * @param orderType
+	 * @return order without an id, ready to be added
+	 */
+	public Order acquire(String userId, long quantityMilligrams, long priceTicks, OrderType orderType) {
+		if (free.isEmpty()) {
+			return Order.ofFixedPoint(userId, quantityMilligrams, priceTicks, orderType);
+		}
+		Order order = free.remove(free.size() - 1);
+		order.setUserId(userId);
+		order.setQuantityMilligrams(quantityMilligrams);
+		order.setPriceTicks(priceTicks);
+		order.setOrderType(orderType);
+		return order;
+	}
+
+	/**
+	 * Give back an order which is off the board, to be handed out again.
+	 *
+	 * @param order
+	 * @throws IllegalStateException if the order still rests on a board
+	 */
+	public void release(Order order) {
+		if (order.isResting()) {
+			throw new IllegalStateException("Order is resting on a board, cancel it first: " + order);
+		}
+		if (free.size() == capacity) {
+			return;
+		}
+		order.setOrderId(0);
+		order.setInstrument(null);
+		order.setExpiresAtMillis(0);
+		free.add(order);
+	}
+
+	/**
+	 * @return number of released orders waiting to be handed out again
+	 */
+	public int getPooledCount() {
+		return free.size();
+	}
+}
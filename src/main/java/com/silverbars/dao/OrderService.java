@@ -1,7 +1,9 @@
 package com.silverbars.dao;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalDouble;
 
 import com.silverbars.domain.Order;
 import com.silverbars.domain.OrderType;
@@ -13,7 +15,16 @@ import com.silverbars.domain.OrderType;
  */
 public interface OrderService {
 	/**
-	 * Add a new order to the underlying data structure.
+	 * Add a new order to the underlying data structure. The order is given a new
+	 * unique {@code orderId} which can later be used to cancel it. The service
+	 * only refers to the order while it rests on the board, so once it is off the
+	 * board again it can be reused, see {@link OrderPool}.
+	 * 
+	 * Orders with an expiry time are only supported by {@link OrderServiceImpl}
+	 * and the services built on it ({@link SingleWriterOrderService},
+	 * {@link InstrumentRouter}, a journaled one), which take them off the board
+	 * once expired. Services which do not expire orders reject them with
+	 * IllegalArgumentException.
 	 * 
 	 * @param order
 	 */
@@ -26,6 +37,85 @@ public interface OrderService {
 	 */
 	public void cancelOrder(Order order);
 
+	/**
+	 * Cancel the live order with the given id
+	 * 
+	 * @param orderId
+	 */
+	public void cancelOrder(long orderId);
+
+	/**
+	 * Change the quantity and/or price of the live order with the given id,
+	 * keeping its id. An order whose quantity is only reduced keeps its place in
+	 * its level; one whose price changes, or whose quantity grows, goes to the
+	 * back of its (new) level, as if added now. On a matching board a new price
+	 * may trade like an added order would.
+	 *
+	 * @param orderId
+	 * @param orderQuantity new quantity, must be positive (cancel the order to
+	 *                      take it off the board)
+	 * @param pricePerKilo  new price
+	 */
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo);
+
+	/**
+	 * Add all given orders, each as by {@link #addOrder(Order)}, touching each
+	 * price level once. Orders of the same price keep their order in the batch,
+	 * ids are handed out level by level. An order which cannot be added is
+	 * reported in the result, the others are added regardless.
+	 * 
+	 * @param orders
+	 * @return failed orders, by position in the batch
+	 */
+	public BatchResult addOrders(Collection<Order> orders);
+
+	/**
+	 * Cancel all given orders, each as by {@link #cancelOrder(Order)}, touching
+	 * each price level once. An order which cannot be cancelled is reported in
+	 * the result, the others are cancelled regardless.
+	 * 
+	 * @param orders
+	 * @return failed orders, by position in the batch
+	 */
+	public BatchResult cancelOrders(Collection<Order> orders);
+
+	/**
+	 * Cancel the live orders with the given ids, each as by
+	 * {@link #cancelOrder(long)}. An unknown id is reported in the result, the
+	 * other orders are cancelled regardless.
+	 * 
+	 * @param orderIds
+	 * @return failed ids, by position in the batch
+	 */
+	public BatchResult cancelOrders(long[] orderIds);
+
+	/**
+	 * Cancel every live order of the given user, e.g. when the user disconnects,
+	 * in time proportional to the number of orders of that user rather than the
+	 * size of the board.
+	 *
+	 * @param userId
+	 * @return the cancelled orders, oldest first (empty if the user had none)
+	 */
+	public List<Order> cancelAllOrdersForUser(String userId);
+
+	/**
+	 * Look up a live order by its id
+	 * 
+	 * @param orderId
+	 * @return the order or null if there is no live order with this id
+	 */
+	public Order getOrder(long orderId);
+
+	/**
+	 * Live orders of the given user, in time proportional to their number rather
+	 * than the size of the board.
+	 *
+	 * @param userId
+	 * @return the user's orders, oldest first (empty if the user has none)
+	 */
+	public List<Order> getOrdersByUser(String userId);
+
 	/**
 	 * Access to underlying orders by their type.
 	 * 
@@ -35,11 +125,64 @@ public interface OrderService {
 
 	/**
 	 * Get the snapshot of the current live order summary board. For each Order Type
-	 * a list of responses would be prepared. For simplicity returning List<String>
-	 * but could return List<ResultRow> where ResultRow would be a POJO with all
-	 * requires results in it.
+	 * a list of responses would be prepared. For simplicity returning List<String>,
+	 * see {@link #getBoardSnapshot(BoardSnapshot)} for the structured form.
 	 * 
 	 * @return
 	 */
 	public Map<OrderType, List<String>> getLiveOrderBoard();
+
+	/**
+	 * Fill the given snapshot with the current live order summary board: price,
+	 * total quantity and order count of every level of every Order Type. The
+	 * snapshot can be reused from call to call, so that reading the board does not
+	 * allocate.
+	 * 
+	 * @param snapshot
+	 * @return the given snapshot
+	 */
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot);
+
+	/**
+	 * Like {@link #getBoardSnapshot(BoardSnapshot)} but only the best
+	 * {@code depth} levels of each Order Type (highest prices for BUY, lowest for
+	 * SELL).
+	 * 
+	 * @param snapshot
+	 * @param depth
+	 * @return the given snapshot
+	 */
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth);
+
+	/**
+	 * Best price of the given Order Type: the best bid for BUY, the best ask for
+	 * SELL.
+	 * 
+	 * @param orderType
+	 * @return empty if there are no orders of that type
+	 */
+	public OptionalDouble getBestPrice(OrderType orderType);
+
+	/**
+	 * Fill the given snapshot with the levels of the given Order Type priced
+	 * between the two given prices (inclusive, in either order, rounded to the
+	 * nearest tick). All other Order Types are left empty in the snapshot.
+	 * 
+	 * @param orderType
+	 * @param fromPrice
+	 * @param toPrice
+	 * @param snapshot
+	 * @return the given snapshot
+	 */
+	public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+			BoardSnapshot snapshot);
+
+	/**
+	 * Subscribe to the per price level changes of the board. The first poll of the
+	 * subscription delivers every current level, later polls only the levels
+	 * changed since. Close the subscription when done.
+	 * 
+	 * @return
+	 */
+	public BoardSubscription subscribeBoardDeltas();
 }
\ No newline at end of file
@@ -1,14 +1,16 @@
 package com.silverbars.dao;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.OptionalDouble;
+import java.util.concurrent.TimeUnit;
 
+import com.silverbars.domain.FixedPoint;
 import com.silverbars.domain.Order;
 import com.silverbars.domain.OrderType;
 
@@ -19,12 +21,17 @@ import com.silverbars.domain.OrderType;
  *
  */
 public class OrderServiceImpl implements OrderService {
+	// most emptied user lists kept for reuse, the others are left to the garbage collector
+	private static final int FREE_USERS = 1024;
+
 	/**
-	 * Key data structure (Map of TreeMaps) to hold given orders in a "search"
-	 * effective, "sum" effective way. At a high level {@code liveBoard} is a map of
-	 * key values where keys are {@code orderType} i.e. BUY/SELL/SOMETHING ELSE and
-	 * values are a {@code TreeMap} instances whose key is a {@code pricePerKilo}
-	 * and value is respective list of orders at that price (of same order type).
+	 * Key data structure (Map of sorted price level maps) to hold given orders in a
+	 * "search" effective, "sum" effective way. At a high level {@code liveBoard} is
+	 * a map of key values where keys are {@code orderType} i.e. BUY/SELL/SOMETHING
+	 * ELSE and values are {@code PriceLevelMap} instances whose key is a
+	 * {@code pricePerKilo} (as primitive long ticks) and value is respective
+	 * {@code PriceLevel}, the list of orders at that price (of same order type)
+	 * along with their exact running total quantity.
 	 * 
 	 * SELL -> 306 -> [order1, order4]
 	 * 
@@ -36,24 +43,92 @@ public class OrderServiceImpl implements OrderService {
 	 * 
 	 * -> 250 -> [order5, order6] // Note: 310 SELL order is not same as BUY order
 	 */
-	private Map<OrderType, TreeMap<Double, List<Order>>> liveBoard;
+	private Map<OrderType, PriceLevelMap> liveBoard;
+
+	/**
+	 * Index of all live orders by their {@code orderId}. Values are the orders'
+	 * nodes inside their {@code PriceLevel} so a cancel by id never has to search
+	 * a level.
+	 */
+	private LongObjectHashMap<PriceLevel.Node> ordersById = new LongObjectHashMap<PriceLevel.Node>();
+
+	/**
+	 * Index of all live orders by their {@code userId}: the same nodes, also
+	 * linked per user, see {@code UserOrders}. Users without live orders are
+	 * removed, their lists kept for reuse, see {@code freeUsers}.
+	 */
+	private final Map<String, UserOrders> ordersByUser = new HashMap<String, UserOrders>();
+
+	// next id to hand out in addOrder, ids start at 1 as 0 means "no id"
+	private long nextOrderId = 1;
+
+	// subscribers to level changes, see subscribeBoardDeltas()
+	private final BoardDeltaPublisher deltaPublisher = new BoardDeltaPublisher();
+
+	// receives the trades of the matching mode, null if orders are not matched
+	private final TradeListener tradeListener;
+
+	// number of changes applied so far, see PublishedBoard#getSequence()
+	private long sequence;
+
+	// when to publish the board for lock free readers, 0 while not publishing
+	private long publishIntervalNanos;
+	private int publishMutations;
+
+	// sequence and time of the last published board
+	private long publishedSequence;
+	private long publishedNanos;
+
+	// the last published board, read by any thread
+	private volatile PublishedBoard publishedBoard = PublishedBoard.EMPTY;
+
+	// live orders with an expiry time, by time, see expireOrders(long)
+	private final ExpiryWheel expiries = new ExpiryWheel(System.currentTimeMillis());
+
+	// nodes handed out by the expiry wheel, reused by every sweep
+	private final List<PriceLevel.Node> expired = new ArrayList<PriceLevel.Node>();
+
+	// nodes of orders taken off the board, reused by the next added orders
+	private final List<PriceLevel.Node> freeNodes = new ArrayList<PriceLevel.Node>();
+
+	// lists of users left without orders, reused for the next new users, at most FREE_USERS
+	private final List<UserOrders> freeUsers = new ArrayList<UserOrders>();
 
 	/**
-	 * Constructor to create brand new in-memory data structure. Adding multi
-	 * threading support by using {@code ConcurrentHashMap} as this service to be
-	 * used by multiple users/systems to add/cancel orders concurrently. If such
-	 * Synchronisation requirement is not there using plain {@code HashMap} is
-	 * suggested data structure over {@code ConcurrentHashMap}.
+	 * Constructor to create brand new in-memory data structure. This is the single
+	 * threaded fast path: none of its structures are synchronised, so an instance
+	 * must only be used by one thread at a time (or be guarded externally). Use
+	 * {@link ConcurrentOrderServiceImpl} when multiple users/systems add/cancel
+	 * orders concurrently.
 	 */
 	public OrderServiceImpl() {
-		liveBoard = new ConcurrentHashMap<OrderType, TreeMap<Double, List<Order>>>();
+		this(null);
+	}
+
+	/**
+	 * Constructor to create a board which matches orders: an added order is first
+	 * filled against the orders of the other order type it crosses, best price
+	 * first and oldest first within a price (price-time priority), and only what
+	 * is left of it rests on the board. Each fill is reported to the given
+	 * listener.
+	 * 
+	 * Partly filled orders, resting or added, have their quantity reduced to
+	 * what is left. An order filled completely gets an id but never rests. As
+	 * the journal records orders as they rest, a matching board is not meant to
+	 * be journaled.
+	 * 
+	 * @param tradeListener null for a board which never matches
+	 */
+	public OrderServiceImpl(TradeListener tradeListener) {
+		this.tradeListener = tradeListener;
+		liveBoard = new EnumMap<OrderType, PriceLevelMap>(OrderType.class);
 		/*
-		 * pre-create 2 TreeMaps for now as problem statement is clear on Order Types
+		 * pre-create 2 level maps for now as problem statement is clear on Order Types
 		 * (BUY/SELL). However BUY should show {@code pricePerKilo} - highest prices
 		 * first
 		 */
-		liveBoard.put(OrderType.BUY, new TreeMap<Double, List<Order>>(Collections.reverseOrder()));
-		liveBoard.put(OrderType.SELL, new TreeMap<Double, List<Order>>());
+		liveBoard.put(OrderType.BUY, new PriceLevelMap(true));
+		liveBoard.put(OrderType.SELL, new PriceLevelMap(false));
 	}
 
 	/**
@@ -62,143 +137,789 @@ public class OrderServiceImpl implements OrderService {
 	 * 
 	 * Approach:
 	 * 
-	 * First get the respective {@code TreeMap} for a given order type (either SELL
-	 * or BUY TreeMap). Once map is given, see if there is already an order with
-	 * same {@code pricePerKilo}. If so, append your new order to existing list, or
-	 * else create a new list and add to it.
+	 * First get the respective {@code PriceLevelMap} for a given order type (either
+	 * SELL or BUY map). Once map is given, see if there is already an order with
+	 * same {@code pricePerKilo}. If so, append your new order to existing
+	 * {@code PriceLevel}, or else create a new level and add to it. Finally give the
+	 * order a new unique id and index its node by that id. Adding an order which is
+	 * already live is rejected with IllegalArgumentException.
 	 * 
 	 * Time Complexity:
 	 * 
-	 * getting the respective {@code TreeMap} for a given order type (either SELL or
-	 * BUY TreeMap) is always O(1). Once map is given, see if there is already an
-	 * order with same {@code pricePerKilo} in O(log n) as keys are sorted in
-	 * TreeMap. If so, append your new order to existing list, or else create a new
-	 * list and add to it. In case of addition, (since LinkedLists) can do in O(1).
-	 * So overall, whole addOrder can be done in O(log n) time even in worst case
-	 * (excluding time to create a new LinkedList).
+	 * getting the respective {@code PriceLevelMap} for a given order type (either
+	 * SELL or BUY map) is always O(1). Once map is given, see if there is already an
+	 * order with same {@code pricePerKilo} in O(log n) by a binary search over the
+	 * sorted primitive price ticks, no boxing involved. If so, append your new
+	 * order to existing level, or else create a new level and add to it (shifting
+	 * the levels after it, see {@code PriceLevelMap}). Appending to a
+	 * {@code PriceLevel} also adds the order's quantity to the level's running
+	 * total, both in O(1), as is indexing it by id and by user (amortised). So
+	 * overall, whole
+	 * addOrder can be done in O(log n) time for an existing price.
+	 * 
+	 * Nodes, levels and user entries of cancelled orders are reused, so once the
+	 * board has reached its size add/cancel allocate nothing: with orders taken
+	 * from an {@link OrderPool} a steady flow of adds and cancels produces no
+	 * garbage at all.
 	 */
 	@Override
 	public void addOrder(Order order) {
-		TreeMap<Double, List<Order>> map = liveBoard.get(order.getOrderType());
-		List<Order> listOfOrders = map.get(order.getPricePerKilo());
-		// no such order exists previously with same pricePerKilo
-		if (listOfOrders == null) {
-			/*
-			 * as Problem is asking for "cancel" operation, LinkedList is well suited over
-			 * ArrayLsit as it makes removal operation slightly better as it involves
-			 * finding an element and adjusting the links only. No shuffling and shifting
-			 * needed as in ArrayList. Still time complexity is O(n) as searching is not
-			 * avoided fully.
-			 */
-			List<Order> newList = new LinkedList<Order>();
-			newList.add(order);
-			map.put(order.getPricePerKilo(), newList);
+		PriceLevel.Node live = ordersById.get(order.getOrderId());
+		if (live != null && live.order == order) {
+			throw new IllegalArgumentException("Given order is already live: " + order);
+		}
+		order.setOrderId(nextOrderId++);
+		sequence++;
+		if (tradeListener != null && match(order)) {
+			// filled completely, nothing left to rest
+			return;
+		}
+		rest(order);
+	}
+
+	/**
+	 * Append an order which has its id to the level of its price, creating the
+	 * level if no such order exists previously with same pricePerKilo, and index
+	 * it.
+	 */
+	private void rest(Order order) {
+		PriceLevel level = liveBoard.get(order.getOrderType()).getOrCreate(order.getPriceTicks());
+		index(append(level, order));
+		if (deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(order.getOrderType(), level);
+		}
+	}
+
+	/**
+	 * Append the given order to the given level in a node of a cancelled order,
+	 * or a new one if there is none.
+	 */
+	private PriceLevel.Node append(PriceLevel level, Order order) {
+		PriceLevel.Node node;
+		if (freeNodes.isEmpty()) {
+			node = new PriceLevel.Node(order, level);
 		} else {
-			listOfOrders.add(order);
-			map.put(order.getPricePerKilo(), listOfOrders);
+			node = freeNodes.remove(freeNodes.size() - 1);
+			node.order = order;
+			node.level = level;
 		}
+		level.append(node);
+		return node;
 	}
 
 	/**
 	 * Approach:
 	 * 
-	 * for a given order, find out whether {@code order} is living in SELL map or
-	 * BUY map and then get the list of orders where given {@code order} is located.
-	 * Once given order is found in the list, delete it. If element is not there,
-	 * throw IllegalArgumentException
+	 * If the given order was added to this service (it carries an id known to the
+	 * id index) it is cancelled by its id. Otherwise fall back to a lookup by
+	 * value: find out whether {@code order} is living in SELL map or BUY map and
+	 * then get the level of orders where an equal order is located. Once such an
+	 * order is found in the level, delete it. If element is not there, throw
+	 * IllegalArgumentException
 	 * 
 	 * Time Complexity:
 	 * 
-	 * To find the respective map (based on order's type) we need O(1) time
-	 * (currently we have only 2 keys, BUY/SELL). Based on it, query respective
-	 * Treemap, to know in which LinkedList given order is residing with in log(n)
-	 * time (as keys are ordered in TreeMap, "get" operation would take log(n)). As
-	 * there could be more than one order at same price so traverse the LinkedList
-	 * linearly and delete the order so O(n) where n is list of orders at a given
-	 * price. In case of single key and being cancelled, remove operation would take
-	 * O(log n) time So total time complexity is O(1) + O(log n) + O(log n) + O(n)
-	 * sums to O(n).
+	 * Cancelling by id is O(1), see {@link #cancelOrder(long)}. The lookup by value
+	 * needs O(log n) to find the level in its map and as there could be more
+	 * than one order at same price it traverses the level linearly, so O(n) where
+	 * n is list of orders at a given price.
 	 */
 	@Override
 	public void cancelOrder(Order order) {
-		TreeMap<Double, List<Order>> map = liveBoard.get(order.getOrderType());
-		List<Order> listOfOrders = map.get(order.getPricePerKilo());
-		if (listOfOrders != null && listOfOrders.contains(order)) {
-			listOfOrders.remove(order);
-			/*
-			 * Remove the whole element from TreeMap if no other orders with this price
-			 */
-			if (listOfOrders.size() == 0) {
-				map.remove(order.getPricePerKilo());
-			}
-		} else {
+		PriceLevel.Node node = ordersById.get(order.getOrderId());
+		if (node != null && node.order == order) {
+			cancelOrder(order.getOrderId());
+			return;
+		}
+		PriceLevel level = liveBoard.get(order.getOrderType()).get(order.getPriceTicks());
+		node = (level == null) ? null : level.find(order);
+		if (node == null) {
 			throw new IllegalArgumentException("Given order does not exists: " + order);
 		}
+		cancelOrder(node.order.getOrderId());
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Every live order is indexed by its id, the index holds the order's node
+	 * inside its {@code PriceLevel}. Take the node out of the index and unlink it
+	 * from its level, which also adjusts the level's running total. If that was
+	 * the last order at this price, remove the whole level from its map. If
+	 * there is no such id, throw IllegalArgumentException
+	 * 
+	 * Time Complexity:
+	 * 
+	 * Removing from the (hash based) id index is O(1) amortised and unlinking from
+	 * the doubly linked level is O(1) regardless of how many orders rest at that
+	 * price. Only when the level becomes empty it is removed from its map.
+	 */
+	@Override
+	public void cancelOrder(long orderId) {
+		PriceLevel.Node node = ordersById.remove(orderId);
+		if (node == null) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		sequence++;
+		OrderType orderType = node.order.getOrderType();
+		PriceLevel level = unlink(node);
+		if (deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(orderType, level);
+		}
 	}
 
 	/**
-	 * Instance of Current Live Board
+	 * Approach:
+	 * 
+	 * Find the order's node by id. If only its quantity goes down, take the
+	 * difference off the order and its level's running total in place, so it
+	 * keeps its time priority. Otherwise unlink it as in
+	 * {@link #cancelOrder(long)}, change it and append it again like a new order
+	 * (matching it first on a matching board), keeping its id. If there is no
+	 * such id, or the quantity is not positive, throw IllegalArgumentException
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(1) for a reduced quantity. A move costs a cancel and an add, O(log n) to
+	 * find the new level.
+	 */
+	@Override
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		long quantityMilligrams = FixedPoint.toMilligrams(orderQuantity);
+		long priceTicks = FixedPoint.toPriceTicks(pricePerKilo);
+		if (quantityMilligrams <= 0) {
+			throw new IllegalArgumentException("Amended quantity must be positive: " + orderQuantity);
+		}
+		PriceLevel.Node node = ordersById.get(orderId);
+		if (node == null) {
+			throw new IllegalArgumentException("Given order id does not exists: " + orderId);
+		}
+		sequence++;
+		Order order = node.order;
+		if (priceTicks == order.getPriceTicks() && quantityMilligrams <= order.getQuantityMilligrams()) {
+			PriceLevel level = node.level;
+			level.fill(node, order.getQuantityMilligrams() - quantityMilligrams);
+			if (deltaPublisher.hasSubscribers()) {
+				deltaPublisher.levelChanged(order.getOrderType(), level);
+			}
+			return;
+		}
+		ordersById.remove(orderId);
+		PriceLevel level = unlink(node);
+		if (priceTicks != order.getPriceTicks() && deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(order.getOrderType(), level);
+		}
+		order.setQuantityMilligrams(quantityMilligrams);
+		order.setPriceTicks(priceTicks);
+		if (tradeListener != null && match(order)) {
+			return;
+		}
+		rest(order);
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Sort the batch by order type and price (stable, so orders of one price keep
+	 * their order) and walk it level by level: find or create each level once,
+	 * then append all its orders and publish one delta for it. Orders which are
+	 * already live, or appear twice in the batch, are reported as failed.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(b log b) for sorting a batch of b orders, then O(log n) per distinct
+	 * price and O(1) per order, instead of O(log n) per order.
+	 */
+	@Override
+	public BatchResult addOrders(Collection<Order> orders) {
+		if (tradeListener != null) {
+			// what an order trades with depends on the orders added before it
+			return addOneByOne(orders);
+		}
+		Order[] batch = orders.toArray(new Order[orders.size()]);
+		BatchResult result = new BatchResult(batch.length);
+		sequence++;
+		int[] positions = Batches.byLevel(batch);
+		for (int start = 0, end; start < positions.length; start = end) {
+			end = Batches.levelEnd(batch, positions, start);
+			Order first = batch[positions[start]];
+			PriceLevel level = liveBoard.get(first.getOrderType()).getOrCreate(first.getPriceTicks());
+			boolean changed = false;
+			for (int i = start; i < end; i++) {
+				Order order = batch[positions[i]];
+				PriceLevel.Node live = ordersById.get(order.getOrderId());
+				if (live != null && live.order == order) {
+					result.fail(positions[i], new IllegalArgumentException("Given order is already live: " + order));
+					continue;
+				}
+				order.setOrderId(nextOrderId++);
+				index(append(level, order));
+				changed = true;
+			}
+			if (level.getOrderCount() == 0) {
+				// every order of a new level failed
+				liveBoard.get(first.getOrderType()).remove(level);
+			}
+			if (changed && deltaPublisher.hasSubscribers()) {
+				deltaPublisher.levelChanged(first.getOrderType(), level);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add the given orders in the order of the batch, each as by
+	 * {@link #addOrder(Order)}.
+	 */
+	private BatchResult addOneByOne(Collection<Order> orders) {
+		BatchResult result = new BatchResult(orders.size());
+		int i = 0;
+		for (Order order : orders) {
+			try {
+				addOrder(order);
+			} catch (IllegalArgumentException e) {
+				result.fail(i, e);
+			}
+			i++;
+		}
+		return result;
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Fill the incoming order against the best level of the other order type
+	 * while that level's price crosses the order's price: oldest order of the
+	 * level first, a resting order filled completely is cancelled, one filled in
+	 * part keeps its place with a reduced quantity. One delta is published per
+	 * level traded with.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(1) per fill, plus removing each level traded out. Nothing is allocated
+	 * per fill.
+	 * 
+	 * @param taker order with its id, not yet resting
+	 * @return true if the order was filled completely
+	 */
+	private boolean match(Order taker) {
+		boolean buy = taker.getOrderType() == OrderType.BUY;
+		OrderType makerType = buy ? OrderType.SELL : OrderType.BUY;
+		PriceLevelMap makers = liveBoard.get(makerType);
+		long remaining = taker.getQuantityMilligrams();
+		while (remaining > 0 && makers.size() > 0) {
+			PriceLevel level = makers.levelAt(0);
+			long priceTicks = level.getPriceTicks();
+			if (buy ? priceTicks > taker.getPriceTicks() : priceTicks < taker.getPriceTicks()) {
+				break;
+			}
+			while (remaining > 0 && level.getOrderCount() > 0) {
+				PriceLevel.Node maker = level.first();
+				long filled = Math.min(remaining, maker.order.getQuantityMilligrams());
+				remaining -= filled;
+				tradeListener.onTrade(taker.getOrderType(), taker.getOrderId(), maker.order.getOrderId(), priceTicks,
+						filled);
+				if (filled == maker.order.getQuantityMilligrams()) {
+					ordersById.remove(maker.order.getOrderId());
+					unlink(maker);
+				} else {
+					level.fill(maker, filled);
+				}
+			}
+			if (deltaPublisher.hasSubscribers()) {
+				deltaPublisher.levelChanged(makerType, level);
+			}
+		}
+		taker.setQuantityMilligrams(remaining);
+		return remaining == 0;
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Like {@link #addOrders(Collection)}, walk the batch level by level. Each
+	 * order is found as in {@link #cancelOrder(Order)} and unlinked, one delta is
+	 * published per level once all its orders are done.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(b log b) for sorting a batch of b orders, then as
+	 * {@link #cancelOrder(Order)} per order, with one delta per level.
+	 */
+	@Override
+	public BatchResult cancelOrders(Collection<Order> orders) {
+		Order[] batch = orders.toArray(new Order[orders.size()]);
+		BatchResult result = new BatchResult(batch.length);
+		sequence++;
+		int[] positions = Batches.byLevel(batch);
+		for (int start = 0, end; start < positions.length; start = end) {
+			end = Batches.levelEnd(batch, positions, start);
+			Order first = batch[positions[start]];
+			PriceLevel level = liveBoard.get(first.getOrderType()).get(first.getPriceTicks());
+			boolean changed = false;
+			for (int i = start; i < end; i++) {
+				Order order = batch[positions[i]];
+				PriceLevel.Node node = ordersById.get(order.getOrderId());
+				if (node == null || node.order != order) {
+					node = (level == null) ? null : level.find(order);
+				}
+				if (node == null) {
+					result.fail(positions[i], new IllegalArgumentException("Given order does not exists: " + order));
+					continue;
+				}
+				ordersById.remove(node.order.getOrderId());
+				PriceLevel unlinked = unlink(node);
+				if (unlinked == level) {
+					changed = true;
+				} else if (deltaPublisher.hasSubscribers()) {
+					// an order whose price was changed after it was added
+					deltaPublisher.levelChanged(order.getOrderType(), unlinked);
+				}
+			}
+			if (changed && deltaPublisher.hasSubscribers()) {
+				deltaPublisher.levelChanged(first.getOrderType(), level);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Cancel by id is O(1) anyway, so ids are simply cancelled in turn. Deltas are
+	 * published once per run of ids of the same level.
+	 */
+	@Override
+	public BatchResult cancelOrders(long[] orderIds) {
+		BatchResult result = new BatchResult(orderIds.length);
+		sequence++;
+		PriceLevel changed = null;
+		OrderType changedType = null;
+		for (int i = 0; i < orderIds.length; i++) {
+			PriceLevel.Node node = ordersById.remove(orderIds[i]);
+			if (node == null) {
+				result.fail(i, new IllegalArgumentException("Given order id does not exists: " + orderIds[i]));
+				continue;
+			}
+			OrderType orderType = node.order.getOrderType();
+			PriceLevel level = unlink(node);
+			if (level != changed && changed != null && deltaPublisher.hasSubscribers()) {
+				deltaPublisher.levelChanged(changedType, changed);
+			}
+			changed = level;
+			changedType = orderType;
+		}
+		if (changed != null && deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(changedType, changed);
+		}
+		return result;
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Every live order is also linked into the list of its user's orders, so take
+	 * the ids of that list and cancel them as by {@link #cancelOrders(long[])}.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(1) to find the user, then O(1) per order of the user (plus removing
+	 * levels which become empty), regardless of the size of the board.
+	 */
+	@Override
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		UserOrders user = ordersByUser.get(userId);
+		if (user == null) {
+			return Collections.emptyList();
+		}
+		List<Order> orders = user.toList();
+		cancelOrders(user.orderIds());
+		return orders;
+	}
+
+	/**
+	 * Take every order expired by the given time off the board, see
+	 * {@link Order#getExpiresAtMillis()}. Orders are only ever expired by this
+	 * call, typically made periodically by the thread owning the board, as the
+	 * writer of {@link SingleWriterOrderService} does. An order added with an
+	 * expiry already passed is expired by the next call.
+	 * 
+	 * Approach:
+	 * 
+	 * Every live order with an expiry sits in a hierarchical timer wheel, see
+	 * {@code ExpiryWheel}, linked in and out along with its level. Advance the
+	 * wheel to the given time, which hands out exactly the due orders, then take
+	 * them out of the indexes and their levels as one batch, like
+	 * {@link #cancelOrders(long[])}: one change of the sequence, one delta per
+	 * run of orders of the same level.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(1) per expired order (plus removing levels which become empty), never a
+	 * scan of the book. A call with nothing due costs a few bit operations and
+	 * allocates nothing.
+	 * 
+	 * @param nowMillis wall clock time, as {@code System.currentTimeMillis()}
+	 * @return the expired orders, in order of expiry
+	 */
+	public List<Order> expireOrders(long nowMillis) {
+		expiries.advance(nowMillis, expired);
+		if (expired.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Order> orders = new ArrayList<Order>(expired.size());
+		sequence++;
+		PriceLevel changed = null;
+		OrderType changedType = null;
+		for (PriceLevel.Node node : expired) {
+			Order order = node.order;
+			ordersById.remove(order.getOrderId());
+			PriceLevel level = unlink(node);
+			orders.add(order);
+			if (level != changed && changed != null && deltaPublisher.hasSubscribers()) {
+				deltaPublisher.levelChanged(changedType, changed);
+			}
+			changed = level;
+			changedType = order.getOrderType();
+		}
+		expired.clear();
+		if (deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(changedType, changed);
+		}
+		return orders;
+	}
+
+	/**
+	 * @return number of live orders with an expiry time
+	 */
+	public int getExpiringOrderCount() {
+		return expiries.size();
+	}
+
+	/**
+	 * Unlink a node already taken out of the id index from its level, from its
+	 * user's orders and from the expiry wheel, and remove the whole level if no
+	 * other orders with this price are left. The node is then kept for reuse, it
+	 * no longer refers to its order.
+	 * 
+	 * @param node
+	 * @return the level the node was in
+	 */
+	private PriceLevel unlink(PriceLevel.Node node) {
+		PriceLevel level = node.level;
+		level.unlink(node);
+		if (level.getOrderCount() == 0) {
+			liveBoard.get(node.order.getOrderType()).remove(level);
+		}
+		UserOrders user = node.user;
+		user.unlink(node);
+		if (user.getOrderCount() == 0) {
+			ordersByUser.remove(user.getUserId());
+			if (freeUsers.size() < FREE_USERS) {
+				freeUsers.add(user);
+			}
+		}
+		expiries.remove(node);
+		node.order = null;
+		freeNodes.add(node);
+		return level;
+	}
+
+	/**
+	 * Index a node just appended to its level by the id of its order and by its
+	 * user, and schedule its expiry if it has one.
+	 *
+	 * @param node
+	 */
+	private void index(PriceLevel.Node node) {
+		ordersById.put(node.order.getOrderId(), node);
+		if (node.order.getExpiresAtMillis() != 0) {
+			expiries.schedule(node);
+		}
+		String userId = node.order.getUserId();
+		UserOrders user = ordersByUser.get(userId);
+		if (user == null) {
+			if (freeUsers.isEmpty()) {
+				user = new UserOrders(userId);
+			} else {
+				user = freeUsers.remove(freeUsers.size() - 1);
+				user.reuse(userId);
+			}
+			ordersByUser.put(userId, user);
+		}
+		user.append(node);
+	}
+
+	/**
+	 * O(1) lookup in the id index.
+	 */
+	@Override
+	public Order getOrder(long orderId) {
+		PriceLevel.Node node = ordersById.get(orderId);
+		return node == null ? null : node.order;
+	}
+
+	/**
+	 * O(1) lookup in the user index, then O(number of orders of the user) to copy
+	 * them.
+	 */
+	@Override
+	public List<Order> getOrdersByUser(String userId) {
+		UserOrders user = ordersByUser.get(userId);
+		return user == null ? Collections.<Order>emptyList() : Collections.unmodifiableList(user.toList());
+	}
+
+	/**
+	 * Put back an order which already carries its id, when rebuilding the board
+	 * from a snapshot. The order is appended to its level like in
+	 * {@link #addOrder(Order)}, so restoring orders in their original time order
+	 * rebuilds the same levels. Ids handed out later stay above the restored one.
+	 *
+	 * @param order
+	 */
+	public void restoreOrder(Order order) {
+		long orderId = order.getOrderId();
+		if (orderId <= 0 || ordersById.get(orderId) != null) {
+			throw new IllegalArgumentException("Cannot restore order with id " + orderId + ": " + order);
+		}
+		PriceLevel level = liveBoard.get(order.getOrderType()).getOrCreate(order.getPriceTicks());
+		index(append(level, order));
+		nextOrderId = Math.max(nextOrderId, orderId + 1);
+		sequence++;
+		if (deltaPublisher.hasSubscribers()) {
+			deltaPublisher.levelChanged(order.getOrderType(), level);
+		}
+	}
+
+	/**
+	 * @return id the next added order will get
+	 */
+	public long getNextOrderId() {
+		return nextOrderId;
+	}
+
+	/**
+	 * Make ids handed out from now on start at the given one, so that orders
+	 * added and cancelled before a snapshot never have their ids reused. Ids only
+	 * ever move forward.
+	 *
+	 * @param nextOrderId
+	 */
+	public void setNextOrderId(long nextOrderId) {
+		if (nextOrderId < this.nextOrderId) {
+			throw new IllegalArgumentException(
+					"Next order id " + nextOrderId + " is below the current one " + this.nextOrderId);
+		}
+		this.nextOrderId = nextOrderId;
+	}
+
+	/**
+	 * @return number of changes applied so far: adds, cancels and batches, each
+	 *         batch counting once
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Start publishing immutable copies of the board for readers on other
+	 * threads, see {@link #getPublishedBoard()}. A copy is published as soon as
+	 * the given number of changes have been applied since the last one, or once
+	 * the given interval has passed since the last one with changes pending.
+	 * 
+	 * Copies are only ever taken by {@link #publishBoardIfDue()}, never by
+	 * add/cancel themselves, so the thread owning the board decides when to pay
+	 * for them: typically after a run of changes or when it has nothing else to
+	 * do, as the writer of {@link SingleWriterOrderService} does. The current
+	 * board is published right away.
+	 *
+	 * @param intervalMillis most time between two copies while changes are pending
+	 * @param mutations      most changes between two copies
+	 */
+	public void publishBoards(long intervalMillis, int mutations) {
+		if (intervalMillis <= 0 || mutations <= 0) {
+			throw new IllegalArgumentException(
+					"Interval and mutations must be positive: " + intervalMillis + ", " + mutations);
+		}
+		publishIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		publishMutations = mutations;
+		publishBoard();
+	}
+
+	/**
+	 * Publish a copy of the board if enough changes are pending, or changes have
+	 * been pending for long enough, see {@link #publishBoards(long, int)}. Cheap
+	 * when not due, so it can be called after every change.
+	 *
+	 * @return true if a copy was published
+	 */
+	public boolean publishBoardIfDue() {
+		long pending = sequence - publishedSequence;
+		if (publishMutations == 0 || pending == 0
+				|| (pending < publishMutations && System.nanoTime() - publishedNanos < publishIntervalNanos)) {
+			return false;
+		}
+		publishBoard();
+		return true;
+	}
+
+	/**
+	 * Approach:
+	 * 
+	 * Copy the level totals of both order types into a new snapshot, which is
+	 * never changed afterwards, and publish it with a single volatile write. A
+	 * reader gets either the previous copy or this one, always complete.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(number of price levels), like {@link #getBoardSnapshot(BoardSnapshot)}.
+	 * 
+	 * @return the published copy
+	 */
+	public PublishedBoard publishBoard() {
+		PublishedBoard board = new PublishedBoard(sequence, System.currentTimeMillis(),
+				getBoardSnapshot(new BoardSnapshot()));
+		publishedSequence = sequence;
+		publishedNanos = System.nanoTime();
+		publishedBoard = board;
+		return board;
+	}
+
+	/**
+	 * The board last published, see {@link #publishBoards(long, int)}. Safe to
+	 * call from any thread, without locks: the copy is immutable and a newer one
+	 * replaces it as a whole.
+	 *
+	 * @return the last copy, an empty board with sequence 0 if none was published
+	 */
+	public PublishedBoard getPublishedBoard() {
+		return publishedBoard;
+	}
+
+	/**
+	 * Instance of Current Live Board. Returned as a read only view, as changing the
+	 * levels directly would break their running totals. A level is reused for
+	 * another price once its last order is gone, so only hold on to a level list
+	 * while it has orders.
 	 * 
 	 * @return
 	 */
 	@Override
 	public Map<Double, List<Order>> getOrdersByOrderType(OrderType orderType) {
-		return liveBoard.get(orderType);
+		return liveBoard.get(orderType).asMap();
 	}
 
 	/**
-	 * Main method where users/systems are interested to print SELL and BUY
-	 * information and sum up all orders by their orderQuantity before displaying.
-	 * For simplicity returning List<String> but could return List<ResultRow> where
-	 * ResultRow would be a POJO with all requires results in it. Normally we would
-	 * not need "system.out.print" as a side effect but for demo sake I left as it
-	 * is so that command line testing can be done easily. Logger implementation
-	 * also (log4j) an option here.
+	 * Main method where users/systems are interested in SELL and BUY information
+	 * with all orders summed up by their orderQuantity. For simplicity returning
+	 * List<String>, see {@link #getBoardSnapshot(BoardSnapshot)} for the structured
+	 * (and allocation free) form. Nothing is printed here any more, use
+	 * {@code BoardFormatter} to show a board.
 	 * 
 	 */
 	@Override
 	public Map<OrderType, List<String>> getLiveOrderBoard() {
+		BoardSnapshot snapshot = getBoardSnapshot(new BoardSnapshot());
 		Map<OrderType, List<String>> summary = new HashMap<>();
-		System.out.println("****** LIVE SUMMARY BOARD ******");
 		for (OrderType orderType : OrderType.values()) {
-			summary.put(orderType, getSummaryByOrderType(orderType));
+			summary.put(orderType, BoardFormatter.formatLevels(snapshot, orderType));
 		}
-		System.out.println("****** END ******\n\n");
 		return summary;
 	}
 
 	/**
-	 * Utility to print given OrderType information and sum up all orders by their
-	 * orderQuantity before displaying. For simplicity returning List<String> but
-	 * could return List<ResultRow> where ResultRow would be a POJO with all
-	 * requires results in it.
-	 *
-	 * @param orderType
+	 * Approach:
+	 * 
+	 * Copy the running totals of every level of both order types, in board order,
+	 * into the given snapshot.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * Each {@code PriceLevel} already keeps the sum of its orders'
+	 * {@code orderQuantity}, so this is O(number of price levels) and does not
+	 * touch the individual orders at all. Nothing is allocated once the snapshot
+	 * has grown to the size of the board.
 	 */
-	private List<String> getSummaryByOrderType(OrderType orderType) {
-		TreeMap<Double, List<Order>> ordersMap = liveBoard.get(orderType);
-		System.out.println("---" + orderType + "---");
-		List<String> results = aggregateOrders(ordersMap);
-		for (String result : results) {
-			System.out.println(result);
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+		return getBoardSnapshot(snapshot, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Levels are kept in board order, best price first, so the best
+	 * {@code depth} levels are simply the first ones: O(depth) regardless of the
+	 * size of the book.
+	 */
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		for (OrderType orderType : OrderType.values()) {
+			PriceLevelMap map = liveBoard.get(orderType);
+			copyLevels(map, 0, Math.min(depth, map.size()), orderType, snapshot);
 		}
-		return results;
+		return snapshot;
 	}
 
 	/**
-	 * Utility method to aggregate orders which are key'ed by {@code pricePerKilo}.
-	 * Sum all order's {@code orderQuantity} at same {@code pricePerKilo} using
-	 * streams and return resultant string as an outcome.
+	 * The best level is the first one, O(1).
+	 */
+	@Override
+	public OptionalDouble getBestPrice(OrderType orderType) {
+		PriceLevelMap map = liveBoard.get(orderType);
+		return map.size() == 0 ? OptionalDouble.empty() : OptionalDouble.of(map.levelAt(0).getPricePerKilo());
+	}
+
+	/**
+	 * Binary search for both ends of the range, then copy the levels in between:
+	 * O(log n + levels in range).
+	 */
+	@Override
+	public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+			BoardSnapshot snapshot) {
+		long fromTicks = FixedPoint.toPriceTicks(fromPrice);
+		long toTicks = FixedPoint.toPriceTicks(toPrice);
+		for (OrderType type : OrderType.values()) {
+			snapshot.clear(type);
+		}
+		PriceLevelMap map = liveBoard.get(orderType);
+		copyLevels(map, map.rangeStart(fromTicks, toTicks), map.rangeEnd(fromTicks, toTicks), orderType, snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Replace the levels of the given type in the snapshot by the levels between
+	 * the given positions (end exclusive) of the given map.
+	 */
+	private void copyLevels(PriceLevelMap map, int start, int end, OrderType orderType, BoardSnapshot snapshot) {
+		snapshot.clear(orderType);
+		for (int i = start; i < end; i++) {
+			snapshot.addLevel(orderType, map.levelAt(i));
+		}
+	}
+
+	/**
+	 * Approach:
 	 * 
-	 * @param map
-	 * @return
+	 * Every add/cancel publishes the new totals of the one level it changed to all
+	 * subscriptions, where changes of the same level are coalesced until the
+	 * subscriber polls. A new subscription is seeded with the current levels.
+	 * 
+	 * Time Complexity:
+	 * 
+	 * O(number of price levels) once to seed the subscription, then O(1) per
+	 * add/cancel and subscription. Without any subscription add/cancel only pay
+	 * for a volatile read.
 	 */
-	private List<String> aggregateOrders(TreeMap<Double, List<Order>> map) {
-		ArrayList<String> results = new ArrayList<String>();
-		map.forEach((pricePerKilo, list) -> {
-			Double totalKilos = list.parallelStream().mapToDouble(order -> order.getOrderQuantity()).sum();
-			results.add(totalKilos + " kg for £" + pricePerKilo);
-		});
-		return results;
+	@Override
+	public BoardSubscription subscribeBoardDeltas() {
+		BoardSubscription subscription = deltaPublisher.subscribe();
+		for (OrderType orderType : OrderType.values()) {
+			PriceLevelMap map = liveBoard.get(orderType);
+			for (int i = 0; i < map.size(); i++) {
+				PriceLevel level = map.levelAt(i);
+				subscription.levelChanged(orderType, level.getPriceTicks(), level.getTotalQuantityMilligrams(),
+						level.getOrderCount());
+			}
+		}
+		return subscription;
 	}
 }
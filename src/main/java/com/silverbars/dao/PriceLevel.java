@@ -0,0 +1,346 @@
+package com.silverbars.dao;
+
+import java.util.AbstractSequentialList;
+import java.util.ConcurrentModificationException;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+
+/**
+ * All resting orders of one {@code OrderType} at one {@code pricePerKilo}, in
+ * arrival order, together with a running total of their {@code orderQuantity}
+ * and the number of orders. The totals are exact fixed-point values and are
+ * updated on every add/remove so that the live board can be read without
+ * walking the orders again.
+ *
+ * Orders are kept in an intrusive doubly linked list of {@link Node}s. The
+ * owning service keeps the node handed out by {@link #append(Order)} in its id
+ * index, which lets it {@link #unlink(Node)} an order in O(1) no matter how
+ * deep the level is.
+ *
+ * To callers it is a read only {@code List<Order>}, only the owning service is
+ * allowed to change it.
+ */
+public class PriceLevel extends AbstractSequentialList<Order> {
+	/**
+	 * Link of one resting order inside its level. It also remembers the level so
+	 * that a node found through the id index can be removed without any lookup.
+	 * The same node is linked into the list of its user's orders, see
+	 * {@link UserOrders}, and into a slot of the {@link ExpiryWheel} if its order
+	 * expires. {@link OrderServiceImpl} reuses the nodes of cancelled orders for
+	 * the orders it adds next.
+	 */
+	static final class Node {
+		Order order;
+		PriceLevel level;
+		Node prev;
+		Node next;
+		UserOrders user;
+		Node userPrev;
+		Node userNext;
+		Node expiryPrev;
+		Node expiryNext;
+		// slot of the expiry wheel, -1 while not scheduled
+		int expirySlot = -1;
+
+		Node(Order order, PriceLevel level) {
+			this.order = order;
+			this.level = level;
+		}
+	}
+
+	// price per kg, in ticks, shared by all orders of this level
+	private long priceTicks;
+
+	// oldest and newest order of this level
+	private Node head;
+	private Node tail;
+
+	// number of orders in this level
+	private int orderCount;
+
+	// running sum of the quantity of all orders in this level, in milligrams
+	private long totalQuantityMilligrams;
+
+	// bumped on every change so that iterators can fail fast
+	private int modifications;
+
+	// set once an empty level has been taken off its board, see retire()
+	private boolean retired;
+
+	/**
+	 * Create an empty level for the given price.
+	 *
+	 * @param priceTicks
+	 */
+	PriceLevel(long priceTicks) {
+		this.priceTicks = priceTicks;
+	}
+
+	/**
+	 * Make this (empty) level, taken off its board, the level of the given price,
+	 * so that it can be reused instead of creating a new one, see
+	 * {@link PriceLevelMap}. Iterators still open on it fail fast.
+	 *
+	 * @param priceTicks
+	 */
+	void reuse(long priceTicks) {
+		this.priceTicks = priceTicks;
+		retired = false;
+		modifications++;
+	}
+
+	/**
+	 * Append the given order to the end of the level and add its quantity to the
+	 * running total. The order is marked as resting until it is unlinked. O(1).
+	 *
+	 * @param order
+	 * @return the node holding the order, to be used with {@link #unlink(Node)}
+	 */
+	Node append(Order order) {
+		Node node = new Node(order, this);
+		append(node);
+		return node;
+	}
+
+	/**
+	 * Append a node created for this level but not linked yet, see
+	 * {@link #append(Order)}. O(1).
+	 *
+	 * @param node
+	 */
+	void append(Node node) {
+		OrderAccess.setResting(node.order, true);
+		if (tail == null) {
+			head = node;
+		} else {
+			tail.next = node;
+			node.prev = tail;
+		}
+		tail = node;
+		orderCount++;
+		totalQuantityMilligrams += node.order.getQuantityMilligrams();
+		modifications++;
+	}
+
+	/**
+	 * Remove the given node from this level and take its quantity off the running
+	 * total. O(1).
+	 *
+	 * @param node
+	 */
+	void unlink(Node node) {
+		if (node.prev == null) {
+			head = node.next;
+		} else {
+			node.prev.next = node.next;
+		}
+		if (node.next == null) {
+			tail = node.prev;
+		} else {
+			node.next.prev = node.prev;
+		}
+		node.prev = null;
+		node.next = null;
+		node.level = null;
+		OrderAccess.setResting(node.order, false);
+		orderCount--;
+		totalQuantityMilligrams -= node.order.getQuantityMilligrams();
+		modifications++;
+	}
+
+	/**
+	 * Take the given quantity off the given node's order, and off the running
+	 * total, when the order was partly filled or its quantity amended down. The
+	 * order keeps its place. O(1).
+	 *
+	 * @param node
+	 * @param quantityMilligrams less than the order's quantity
+	 */
+	void fill(Node node, long quantityMilligrams) {
+		OrderAccess.setQuantityMilligrams(node.order, node.order.getQuantityMilligrams() - quantityMilligrams);
+		totalQuantityMilligrams -= quantityMilligrams;
+		modifications++;
+	}
+
+	/**
+	 * @return node of the oldest order of this level, null if it is empty
+	 */
+	Node first() {
+		return head;
+	}
+
+	/**
+	 * Find the node of the first order equal to the given one. O(n) in the number
+	 * of orders at this price, only needed for orders cancelled by value.
+	 *
+	 * @param order
+	 * @return the node or null if there is no such order
+	 */
+	Node find(Order order) {
+		for (Node node = head; node != null; node = node.next) {
+			if (node.order.equals(order)) {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Mark this (empty) level as taken off its board. Only needed by concurrent
+	 * services: a writer that looked the level up just before it was removed must
+	 * not append to it any more but look up or create a fresh one instead. Both
+	 * calls are made while holding the level's lock.
+	 */
+	void retire() {
+		retired = true;
+	}
+
+	/**
+	 * @return true once {@link #retire()} has been called
+	 */
+	boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * Price per kilo of all orders in this level
+	 *
+	 * @return
+	 */
+	public double getPricePerKilo() {
+		return FixedPoint.toPricePerKilo(priceTicks);
+	}
+
+	/**
+	 * Price per kilo of all orders in this level, in ticks
+	 *
+	 * @return
+	 */
+	public long getPriceTicks() {
+		return priceTicks;
+	}
+
+	/**
+	 * Sum of {@code orderQuantity} of all orders in this level, maintained
+	 * incrementally so it is O(1).
+	 *
+	 * @return
+	 */
+	public double getTotalQuantity() {
+		return FixedPoint.toKilos(totalQuantityMilligrams);
+	}
+
+	/**
+	 * Exact sum of the quantity of all orders in this level, in milligrams
+	 *
+	 * @return
+	 */
+	public long getTotalQuantityMilligrams() {
+		return totalQuantityMilligrams;
+	}
+
+	/**
+	 * Number of orders in this level.
+	 *
+	 * @return
+	 */
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	@Override
+	public int size() {
+		return orderCount;
+	}
+
+	@Override
+	public ListIterator<Order> listIterator(int index) {
+		if (index < 0 || index > orderCount) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + orderCount);
+		}
+		return new LevelIterator(index);
+	}
+
+	/**
+	 * Read only iterator walking the nodes of this level.
+	 */
+	private final class LevelIterator implements ListIterator<Order> {
+		private Node next;
+		private int nextIndex;
+		private final int expectedModifications = modifications;
+
+		LevelIterator(int index) {
+			next = head;
+			for (nextIndex = 0; nextIndex < index; nextIndex++) {
+				next = next.next;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextIndex < orderCount;
+		}
+
+		@Override
+		public Order next() {
+			checkForModification();
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Order order = next.order;
+			next = next.next;
+			nextIndex++;
+			return order;
+		}
+
+		@Override
+		public boolean hasPrevious() {
+			return nextIndex > 0;
+		}
+
+		@Override
+		public Order previous() {
+			checkForModification();
+			if (!hasPrevious()) {
+				throw new NoSuchElementException();
+			}
+			next = (next == null) ? tail : next.prev;
+			nextIndex--;
+			return next.order;
+		}
+
+		@Override
+		public int nextIndex() {
+			return nextIndex;
+		}
+
+		@Override
+		public int previousIndex() {
+			return nextIndex - 1;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void set(Order order) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void add(Order order) {
+			throw new UnsupportedOperationException();
+		}
+
+		private void checkForModification() {
+			if (modifications != expectedModifications) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package com.silverbars.dao;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+
+/**
+ * Sorted price levels of one order type, keyed by primitive {@code long} price
+ * ticks. Replaces a {@code TreeMap<Double, ...>} so that looking up a level
+ * neither boxes the price nor compares through {@code Double.compareTo}.
+ *
+ * Levels are held in board order (lowest price first, or highest price first
+ * for a descending side such as BUY) in a pair of parallel arrays: the keys,
+ * searched with a binary search, and the levels themselves. For a descending
+ * side the keys are stored negated so that both sides use the same ascending
+ * search.
+ *
+ * Time Complexity:
+ *
+ * Looking up a level is O(log n) where n is the number of price levels.
+ * Creating or removing a level shifts the tail of the arrays, which is O(n) but
+ * a single memory move over a handful of cache lines for realistic books, and
+ * only happens when a price appears or disappears. Walking the levels in board
+ * order, or jumping to the i-th best level, needs no allocation.
+ *
+ * Levels removed from the map are kept and reused for the next new price, so
+ * prices appearing and disappearing do not allocate either. A level handed out
+ * by the map is hence only the level of its price while it is in the map.
+ */
+class PriceLevelMap {
+	private static final int INITIAL_CAPACITY = 16;
+
+	// true if the best price is the highest one (BUY side)
+	private final boolean descending;
+
+	// board ordered keys, negated price ticks if descending
+	private long[] keys = new long[INITIAL_CAPACITY];
+
+	// levels matching keys
+	private PriceLevel[] levels = new PriceLevel[INITIAL_CAPACITY];
+
+	// number of levels in use
+	private int size;
+
+	// removed levels, reused by getOrCreate()
+	private final List<PriceLevel> free = new ArrayList<PriceLevel>();
+
+	// read only Map view handed out to callers
+	private final Map<Double, List<Order>> view = new View();
+
+	/**
+	 * Create an empty map.
+	 *
+	 * @param descending true to order levels highest price first
+	 */
+	PriceLevelMap(boolean descending) {
+		this.descending = descending;
+	}
+
+	/**
+	 * @return number of price levels
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the best price is the highest one
+	 */
+	boolean isDescending() {
+		return descending;
+	}
+
+	/**
+	 * Level at the given position in board order, 0 being the best price.
+	 *
+	 * @param index
+	 * @return
+	 */
+	PriceLevel levelAt(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return levels[index];
+	}
+
+	/**
+	 * Level of the given price or null if there is none.
+	 *
+	 * @param priceTicks
+	 * @return
+	 */
+	PriceLevel get(long priceTicks) {
+		int index = indexOf(priceTicks);
+		return index >= 0 ? levels[index] : null;
+	}
+
+	/**
+	 * Level of the given price, created and inserted in order if there is none.
+	 *
+	 * @param priceTicks
+	 * @return
+	 */
+	PriceLevel getOrCreate(long priceTicks) {
+		int index = indexOf(priceTicks);
+		if (index >= 0) {
+			return levels[index];
+		}
+		index = -(index + 1);
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			levels = Arrays.copyOf(levels, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(levels, index, levels, index + 1, size - index);
+		PriceLevel level;
+		if (free.isEmpty()) {
+			level = new PriceLevel(priceTicks);
+		} else {
+			level = free.remove(free.size() - 1);
+			level.reuse(priceTicks);
+		}
+		keys[index] = key(priceTicks);
+		levels[index] = level;
+		size++;
+		return level;
+	}
+
+	/**
+	 * Remove the given (empty) level, if it is in this map, and keep it for reuse.
+	 * It still tells its old price and totals until it is reused.
+	 *
+	 * @param level
+	 */
+	void remove(PriceLevel level) {
+		int index = indexOf(level.getPriceTicks());
+		if (index < 0 || levels[index] != level) {
+			return;
+		}
+		System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+		System.arraycopy(levels, index + 1, levels, index, size - index - 1);
+		size--;
+		levels[size] = null;
+		free.add(level);
+	}
+
+	/**
+	 * Position of the given price in board order if there is such a level,
+	 * otherwise {@code -(insertion point) - 1}, like
+	 * {@link Arrays#binarySearch(long[], long)}.
+	 *
+	 * @param priceTicks
+	 * @return
+	 */
+	int indexOf(long priceTicks) {
+		return Arrays.binarySearch(keys, 0, size, key(priceTicks));
+	}
+
+	/**
+	 * First position, in board order, of the levels priced between the given
+	 * prices (inclusive, in either order).
+	 *
+	 * @param priceTicks1
+	 * @param priceTicks2
+	 * @return
+	 */
+	int rangeStart(long priceTicks1, long priceTicks2) {
+		int index = Arrays.binarySearch(keys, 0, size, Math.min(key(priceTicks1), key(priceTicks2)));
+		return index >= 0 ? index : -(index + 1);
+	}
+
+	/**
+	 * Position after the last level, in board order, priced between the given
+	 * prices (inclusive, in either order).
+	 *
+	 * @param priceTicks1
+	 * @param priceTicks2
+	 * @return
+	 */
+	int rangeEnd(long priceTicks1, long priceTicks2) {
+		int index = Arrays.binarySearch(keys, 0, size, Math.max(key(priceTicks1), key(priceTicks2)));
+		return index >= 0 ? index + 1 : -(index + 1);
+	}
+
+	/**
+	 * Read only view of this map as {@code pricePerKilo -> orders}, in board
+	 * order. The view is live, it reflects later changes to the levels.
+	 *
+	 * @return
+	 */
+	Map<Double, List<Order>> asMap() {
+		return view;
+	}
+
+	private long key(long priceTicks) {
+		return descending ? -priceTicks : priceTicks;
+	}
+
+	/**
+	 * Map view over the arrays. Lookups convert the {@code Double} key to ticks
+	 * and only match a price which maps back exactly.
+	 */
+	private final class View extends AbstractMap<Double, List<Order>> {
+		private final Set<Map.Entry<Double, List<Order>>> entries = new AbstractSet<Map.Entry<Double, List<Order>>>() {
+			@Override
+			public Iterator<Map.Entry<Double, List<Order>>> iterator() {
+				return new Iterator<Map.Entry<Double, List<Order>>>() {
+					private int next;
+
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+
+					@Override
+					public Map.Entry<Double, List<Order>> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						PriceLevel level = levels[next++];
+						return new AbstractMap.SimpleImmutableEntry<Double, List<Order>>(level.getPricePerKilo(),
+								level);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+
+		@Override
+		public Set<Map.Entry<Double, List<Order>>> entrySet() {
+			return entries;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public List<Order> get(Object key) {
+			if (!(key instanceof Double)) {
+				return null;
+			}
+			double pricePerKilo = (Double) key;
+			long priceTicks = FixedPoint.toPriceTicks(pricePerKilo);
+			if (FixedPoint.toPricePerKilo(priceTicks) != pricePerKilo) {
+				return null;
+			}
+			return PriceLevelMap.this.get(priceTicks);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.silverbars.dao;
+
+/**
+ * Immutable copy of the live order board as its writer published it, see
+ * {@link OrderServiceImpl#publishBoards(long, int)}, or as a reader copied it
+ * from a board with concurrent writers, see
+ * {@link ConcurrentOrderServiceImpl#getConsistentBoard(int)}.
+ *
+ * Both order types are copied at the same point in the board's sequence of
+ * changes, and the copy is never changed afterwards, so any number of threads
+ * can read it without locks while the writers carry on.
+ *
+ */
+public final class PublishedBoard {
+	// an empty board, before anything was published
+	static final PublishedBoard EMPTY = new PublishedBoard(0, 0, new BoardSnapshot());
+
+	// number of changes of the board this copy reflects
+	private final long sequence;
+
+	// wall clock time of the copy
+	private final long publishedAtMillis;
+
+	// the levels, never changed once published
+	private final BoardSnapshot levels;
+
+	PublishedBoard(long sequence, long publishedAtMillis, BoardSnapshot levels) {
+		this.sequence = sequence;
+		this.publishedAtMillis = publishedAtMillis;
+		this.levels = levels;
+	}
+
+	/**
+	 * Number of changes (adds, cancels, batches) applied to the board when it was
+	 * copied. A later copy has a higher (or, with nothing changed, the same)
+	 * sequence.
+	 *
+	 * @return
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return when the board was copied, in milliseconds since the epoch
+	 */
+	public long getPublishedAtMillis() {
+		return publishedAtMillis;
+	}
+
+	/**
+	 * Levels of both order types. Read only: the snapshot is shared by all
+	 * readers of this board.
+	 *
+	 * @return
+	 */
+	public BoardSnapshot getLevels() {
+		return levels;
+	}
+}
@@ -0,0 +1,632 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Silver Bars Marketplace - Live Order Board driven by a single writer thread.
+ *
+ * Callers never touch the book themselves. Every operation is written as a
+ * command into a pre-allocated ring buffer and one dedicated writer thread
+ * applies the commands, in batches, to a plain {@link OrderServiceImpl}. So the
+ * book stays single threaded and lock free, while any number of producer
+ * threads can submit concurrently, each claiming its slot with a single atomic
+ * increment.
+ *
+ * The {@code submit...} methods return a {@code CompletableFuture} which is
+ * completed by the writer once the command has been applied (exceptionally,
+ * e.g. when cancelling an order which does not exist). The {@code OrderService}
+ * methods simply wait for that future, so they keep their usual synchronous
+ * behaviour.
+ *
+ * Orders with an expiry time are expired by the writer itself, between batches
+ * and while it waits for commands, see {@link OrderServiceImpl#expireOrders};
+ * so are those of the further books handed to the writer, see
+ * {@link InstrumentRouter}.
+ *
+ * Must be closed to stop the writer thread.
+ */
+public class SingleWriterOrderService implements OrderService, AutoCloseable {
+	// default number of slots of the ring buffer
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	// idle writer spins this many times before yielding, then parking
+	private static final int SPIN_TRIES = 1000;
+	private static final int YIELD_TRIES = 100;
+	private static final long PARK_NANOS = 50000L;
+
+	private enum CommandType {
+		ADD, CANCEL, CANCEL_BY_ID, BATCH, QUERY
+	}
+
+	/**
+	 * One pre-allocated slot of the ring buffer. Filled in by the producer which
+	 * claimed it and cleared by the writer after applying it.
+	 */
+	private static final class Command {
+		CommandType type;
+		Order order;
+		long orderId;
+		Function<OrderServiceImpl, ?> query;
+		CompletableFuture<Object> future;
+	}
+
+	// book only ever touched by the writer thread
+	private final OrderServiceImpl book;
+
+	// further books owned by the writer thread, replaced by a longer copy as books are added
+	private volatile OrderServiceImpl[] ownedBooks = new OrderServiceImpl[0];
+
+	private final Command[] ring;
+	private final int mask;
+
+	/*
+	 * published.get(i) holds the sequence last published into slot i, so the
+	 * writer knows a slot is ready once it carries the sequence it expects.
+	 */
+	private final AtomicLongArray published;
+
+	// next sequence to be claimed by a producer
+	private final AtomicLong claimed = new AtomicLong();
+
+	// all sequences below this one have been applied and their slots are free
+	private final AtomicLong consumed = new AtomicLong();
+
+	private final Thread writer;
+
+	private volatile boolean running = true;
+
+	// set by the writer once it no longer applies commands
+	private volatile boolean stopped;
+
+	// board built by the writer, reused until the next mutation
+	private Map<OrderType, List<String>> board;
+
+	/**
+	 * Create a service with a ring buffer of {@link #DEFAULT_CAPACITY} slots.
+	 */
+	public SingleWriterOrderService() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a service with a ring buffer of the given number of slots, which must
+	 * be a power of two.
+	 *
+	 * @param capacity
+	 */
+	public SingleWriterOrderService(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * Create a service with a ring buffer of the given number of slots, which must
+	 * be a power of two, whose book matches orders, see
+	 * {@link OrderServiceImpl#OrderServiceImpl(TradeListener)}. The listener is
+	 * called on the writer thread.
+	 *
+	 * @param capacity
+	 * @param tradeListener null for a book which never matches
+	 */
+	public SingleWriterOrderService(int capacity, TradeListener tradeListener) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		}
+		book = new OrderServiceImpl(tradeListener);
+		ring = new Command[capacity];
+		for (int i = 0; i < capacity; i++) {
+			ring[i] = new Command();
+		}
+		mask = capacity - 1;
+		published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1);
+		}
+		writer = new Thread(this::applyCommands, "order-board-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queue the given order to be added.
+	 *
+	 * @param order
+	 * @return completed with the order (carrying its new id) once added
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Order> submitAddOrder(Order order) {
+		return (CompletableFuture<Order>) submit(CommandType.ADD, order, 0, null);
+	}
+
+	/**
+	 * Queue the given order to be cancelled.
+	 *
+	 * @param order
+	 * @return completed once cancelled, or exceptionally with
+	 *         IllegalArgumentException if there is no such order
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Void> submitCancelOrder(Order order) {
+		return (CompletableFuture<Void>) submit(CommandType.CANCEL, order, 0, null);
+	}
+
+	/**
+	 * Queue the order with the given id to be cancelled.
+	 *
+	 * @param orderId
+	 * @return completed once cancelled, or exceptionally with
+	 *         IllegalArgumentException if there is no such order
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Void> submitCancelOrder(long orderId) {
+		return (CompletableFuture<Void>) submit(CommandType.CANCEL_BY_ID, null, orderId, null);
+	}
+
+	/**
+	 * Queue the order with the given id to be amended, see
+	 * {@link OrderService#amendOrder(long, double, double)}.
+	 *
+	 * @param orderId
+	 * @param orderQuantity
+	 * @param pricePerKilo
+	 * @return completed once amended, or exceptionally with
+	 *         IllegalArgumentException if there is no such order
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<Void> submitAmendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		return (CompletableFuture<Void>) submit(CommandType.BATCH, null, 0, book -> {
+			book.amendOrder(orderId, orderQuantity, pricePerKilo);
+			return null;
+		});
+	}
+
+	/**
+	 * Queue the given orders to be added as one command, see
+	 * {@link OrderService#addOrders(Collection)}.
+	 *
+	 * @param orders
+	 * @return completed with the failed orders once the batch is applied
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<BatchResult> submitAddOrders(Collection<Order> orders) {
+		List<Order> batch = Arrays.asList(orders.toArray(new Order[orders.size()]));
+		return (CompletableFuture<BatchResult>) submit(CommandType.BATCH, null, 0, book -> book.addOrders(batch));
+	}
+
+	/**
+	 * Queue the given orders to be cancelled as one command, see
+	 * {@link OrderService#cancelOrders(Collection)}.
+	 *
+	 * @param orders
+	 * @return completed with the failed orders once the batch is applied
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<BatchResult> submitCancelOrders(Collection<Order> orders) {
+		List<Order> batch = Arrays.asList(orders.toArray(new Order[orders.size()]));
+		return (CompletableFuture<BatchResult>) submit(CommandType.BATCH, null, 0, book -> book.cancelOrders(batch));
+	}
+
+	/**
+	 * Queue the orders with the given ids to be cancelled as one command, see
+	 * {@link OrderService#cancelOrders(long[])}.
+	 *
+	 * @param orderIds
+	 * @return completed with the failed ids once the batch is applied
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<BatchResult> submitCancelOrders(long[] orderIds) {
+		long[] batch = orderIds.clone();
+		return (CompletableFuture<BatchResult>) submit(CommandType.BATCH, null, 0, book -> book.cancelOrders(batch));
+	}
+
+	/**
+	 * Queue all orders of the given user to be cancelled as one command, see
+	 * {@link OrderService#cancelAllOrdersForUser(String)}.
+	 *
+	 * @param userId
+	 * @return completed with the cancelled orders once applied
+	 */
+	@SuppressWarnings("unchecked")
+	public CompletableFuture<List<Order>> submitCancelAllOrdersForUser(String userId) {
+		return (CompletableFuture<List<Order>>) submit(CommandType.BATCH, null, 0,
+				book -> book.cancelAllOrdersForUser(userId));
+	}
+
+	/**
+	 * Queue a read of the book. The given function runs on the writer thread, in
+	 * order with all other commands, and must not keep references to the book's
+	 * mutable structures.
+	 *
+	 * @param query
+	 * @return completed with the result of the query
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> submitQuery(Function<OrderServiceImpl, T> query) {
+		return (CompletableFuture<T>) submit(CommandType.QUERY, null, 0, query);
+	}
+
+	/**
+	 * Queue a task to run on the writer thread, in order with all other commands,
+	 * e.g. against further books owned by this writer, see
+	 * {@link InstrumentRouter}. The task is treated as a change of the book.
+	 *
+	 * @param task
+	 * @return completed with the result of the task
+	 */
+	@SuppressWarnings("unchecked")
+	<T> CompletableFuture<T> submitTask(Supplier<T> task) {
+		return (CompletableFuture<T>) submit(CommandType.BATCH, null, 0, book -> task.get());
+	}
+
+	/**
+	 * Hand a further book to the writer thread, which from now on expires its
+	 * orders and publishes its board when due, as for its own book. Afterwards the
+	 * book must only be touched by tasks, see {@link #submitTask(Supplier)}.
+	 *
+	 * @param owned
+	 */
+	synchronized void own(OrderServiceImpl owned) {
+		OrderServiceImpl[] grown = Arrays.copyOf(ownedBooks, ownedBooks.length + 1);
+		grown[grown.length - 1] = owned;
+		ownedBooks = grown;
+	}
+
+	/**
+	 * Start publishing immutable copies of the board, see
+	 * {@link OrderServiceImpl#publishBoards(long, int)}. The writer publishes
+	 * after applying a batch of commands, once the callers of that batch have
+	 * their results, and while it waits for commands, so publishing never holds
+	 * up a command.
+	 *
+	 * @param intervalMillis most time between two copies while changes are pending
+	 * @param mutations      most changes between two copies
+	 */
+	public void publishBoards(long intervalMillis, int mutations) {
+		await(submitTask(() -> {
+			book.publishBoards(intervalMillis, mutations);
+			return null;
+		}));
+	}
+
+	/**
+	 * The board last published by the writer, read without going through the
+	 * ring buffer, see {@link OrderServiceImpl#getPublishedBoard()}.
+	 *
+	 * @return
+	 */
+	public PublishedBoard getPublishedBoard() {
+		return book.getPublishedBoard();
+	}
+
+	@Override
+	public void addOrder(Order order) {
+		await(submitAddOrder(order));
+	}
+
+	@Override
+	public void cancelOrder(Order order) {
+		await(submitCancelOrder(order));
+	}
+
+	@Override
+	public void cancelOrder(long orderId) {
+		await(submitCancelOrder(orderId));
+	}
+
+	@Override
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		await(submitAmendOrder(orderId, orderQuantity, pricePerKilo));
+	}
+
+	@Override
+	public BatchResult addOrders(Collection<Order> orders) {
+		return await(submitAddOrders(orders));
+	}
+
+	@Override
+	public BatchResult cancelOrders(Collection<Order> orders) {
+		return await(submitCancelOrders(orders));
+	}
+
+	@Override
+	public BatchResult cancelOrders(long[] orderIds) {
+		return await(submitCancelOrders(orderIds));
+	}
+
+	@Override
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		return await(submitCancelAllOrdersForUser(userId));
+	}
+
+	@Override
+	public Order getOrder(long orderId) {
+		return await(submitQuery(book -> book.getOrder(orderId)));
+	}
+
+	/**
+	 * Copy of the user's orders, taken by the writer.
+	 */
+	@Override
+	public List<Order> getOrdersByUser(String userId) {
+		return await(submitQuery(book -> book.getOrdersByUser(userId)));
+	}
+
+	/**
+	 * Copy of the current levels of the given type, taken by the writer.
+	 *
+	 * @return
+	 */
+	@Override
+	public Map<Double, List<Order>> getOrdersByOrderType(OrderType orderType) {
+		return await(submitQuery(book -> {
+			Map<Double, List<Order>> copy = new LinkedHashMap<Double, List<Order>>();
+			for (Map.Entry<Double, List<Order>> entry : book.getOrdersByOrderType(orderType).entrySet()) {
+				copy.put(entry.getKey(), new ArrayList<Order>(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(copy);
+		}));
+	}
+
+	/**
+	 * The board is built by the writer at most once per change of the book: until
+	 * the next add/cancel every further request is answered with the same
+	 * (unmodifiable) result.
+	 */
+	@Override
+	public Map<OrderType, List<String>> getLiveOrderBoard() {
+		return await(submitQuery(book -> {
+			if (board == null) {
+				Map<OrderType, List<String>> summary = new HashMap<OrderType, List<String>>();
+				for (Map.Entry<OrderType, List<String>> entry : book.getLiveOrderBoard().entrySet()) {
+					summary.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+				}
+				board = Collections.unmodifiableMap(summary);
+			}
+			return board;
+		}));
+	}
+
+	/**
+	 * The snapshot is filled in by the writer and handed back once complete.
+	 */
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+		return await(submitQuery(book -> book.getBoardSnapshot(snapshot)));
+	}
+
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		return await(submitQuery(book -> book.getBoardSnapshot(snapshot, depth)));
+	}
+
+	@Override
+	public OptionalDouble getBestPrice(OrderType orderType) {
+		return await(submitQuery(book -> book.getBestPrice(orderType)));
+	}
+
+	@Override
+	public BoardSnapshot getLevelsInRange(OrderType orderType, double fromPrice, double toPrice,
+			BoardSnapshot snapshot) {
+		return await(submitQuery(book -> book.getLevelsInRange(orderType, fromPrice, toPrice, snapshot)));
+	}
+
+	/**
+	 * Deltas are recorded by the writer as it applies commands, the subscription
+	 * can be polled from any thread.
+	 */
+	@Override
+	public BoardSubscription subscribeBoardDeltas() {
+		return await(submitQuery(book -> book.subscribeBoardDeltas()));
+	}
+
+	/**
+	 * Stop the writer thread once all commands submitted so far are applied.
+	 * Commands racing with the close are either applied or failed with
+	 * IllegalStateException, their futures are always completed.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Claim the next slot, waiting while the ring buffer is full, fill it in and
+	 * publish it to the writer.
+	 * 
+	 * A producer may pass the {@code running} check just as the service is
+	 * closed. So once its command is published it checks whether the writer has
+	 * stopped meanwhile, and if so fails the command itself: either the writer
+	 * saw the command before stopping (and applied or failed it), or the producer
+	 * sees the writer stopped, see {@link #failUnapplied(long)}.
+	 */
+	private CompletableFuture<?> submit(CommandType type, Order order, long orderId,
+			Function<OrderServiceImpl, ?> query) {
+		if (!running) {
+			throw closed();
+		}
+		long sequence = claimed.getAndIncrement();
+		// slot is free once the writer has consumed the lap before ours
+		while (sequence - ring.length >= consumed.get()) {
+			if (stopped) {
+				// and never will be
+				throw closed();
+			}
+			Thread.yield();
+		}
+		Command command = ring[(int) sequence & mask];
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+		command.type = type;
+		command.order = order;
+		command.orderId = orderId;
+		command.query = query;
+		command.future = future;
+		// a full fence, so that this and the writer's stop cannot both miss each other
+		published.set((int) sequence & mask, sequence);
+		if (stopped) {
+			future.completeExceptionally(closed());
+		}
+		return future;
+	}
+
+	private static IllegalStateException closed() {
+		return new IllegalStateException("Order service is closed");
+	}
+
+	/**
+	 * Writer loop: apply every command published so far as one batch, then free
+	 * their slots in one go. Due orders are expired and copies of the boards are
+	 * published in between batches, see {@link #sweep()}.
+	 */
+	private void applyCommands() {
+		long next = 0;
+		int idle = 0;
+		while (running || next < claimed.get()) {
+			long batchEnd = next;
+			while (published.get((int) batchEnd & mask) == batchEnd) {
+				apply(ring[(int) batchEnd & mask]);
+				batchEnd++;
+			}
+			if (batchEnd > next) {
+				next = batchEnd;
+				consumed.lazySet(next);
+				sweep();
+				idle = 0;
+			} else if (idle < SPIN_TRIES) {
+				idle++;
+			} else if (idle < SPIN_TRIES + YIELD_TRIES) {
+				idle++;
+				Thread.yield();
+			} else if (!sweep()) {
+				// nothing left to expire or publish either
+				LockSupport.parkNanos(PARK_NANOS);
+			}
+		}
+		stopped = true;
+		failUnapplied(next);
+	}
+
+	/**
+	 * Once stopped, fail the commands published from the given sequence on by
+	 * producers which claimed their slot just as the service was closed.
+	 * Producers publishing later see the writer stopped and fail their commands
+	 * themselves.
+	 */
+	private void failUnapplied(long next) {
+		long end = claimed.get();
+		for (long sequence = next; sequence < end; sequence++) {
+			if (published.get((int) sequence & mask) == sequence) {
+				CompletableFuture<Object> future = ring[(int) sequence & mask].future;
+				if (future != null) {
+					future.completeExceptionally(closed());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Expire the orders due by now and publish a copy of the board if due, on the
+	 * writer's book and on every book it owns.
+	 *
+	 * @return true if any order expired or any copy was published
+	 */
+	private boolean sweep() {
+		boolean swept = false;
+		if (expireOrders(book)) {
+			board = null;
+			swept = true;
+		}
+		swept |= book.publishBoardIfDue();
+		for (OrderServiceImpl owned : ownedBooks) {
+			swept |= expireOrders(owned);
+			swept |= owned.publishBoardIfDue();
+		}
+		return swept;
+	}
+
+	/**
+	 * Expire the orders of the given book due by now, skipping the clock while no
+	 * order has an expiry at all.
+	 *
+	 * @return true if any order expired
+	 */
+	private static boolean expireOrders(OrderServiceImpl book) {
+		return book.getExpiringOrderCount() != 0 && !book.expireOrders(System.currentTimeMillis()).isEmpty();
+	}
+
+	/**
+	 * Apply one command to the book and complete its future.
+	 */
+	private void apply(Command command) {
+		CompletableFuture<Object> future = command.future;
+		try {
+			switch (command.type) {
+			case ADD:
+				book.addOrder(command.order);
+				board = null;
+				future.complete(command.order);
+				break;
+			case CANCEL:
+				book.cancelOrder(command.order);
+				board = null;
+				future.complete(null);
+				break;
+			case CANCEL_BY_ID:
+				book.cancelOrder(command.orderId);
+				board = null;
+				future.complete(null);
+				break;
+			case BATCH:
+				// a bulk change, expressed as a function of the book
+				board = null;
+				future.complete(command.query.apply(book));
+				break;
+			case QUERY:
+				future.complete(command.query.apply(book));
+				break;
+			}
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		} finally {
+			command.order = null;
+			command.query = null;
+			command.future = null;
+		}
+	}
+
+	/**
+	 * Wait for the given future, rethrowing the failure of the command as is.
+	 */
+	static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
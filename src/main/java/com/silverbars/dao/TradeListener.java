@@ -0,0 +1,26 @@
+package com.silverbars.dao;
+
+import com.silverbars.domain.OrderType;
+
+/**
+ * Receives the trades of a matching {@link OrderServiceImpl}, one call per fill
+ * of an incoming (taker) order against a resting (maker) order, in the order
+ * they happen. Called on the thread adding the order, before the board
+ * reflects the fill, and must not call back into the service.
+ *
+ */
+public interface TradeListener {
+
+	/**
+	 * The taker order was filled against the maker order at the maker's price.
+	 *
+	 * @param takerType          order type of the taker, the maker is of the
+	 *                           other one
+	 * @param takerOrderId
+	 * @param makerOrderId
+	 * @param priceTicks
+	 * @param quantityMilligrams quantity traded
+	 */
+	public void onTrade(OrderType takerType, long takerOrderId, long makerOrderId, long priceTicks,
+			long quantityMilligrams);
+}
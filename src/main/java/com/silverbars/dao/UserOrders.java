@@ -0,0 +1,148 @@
+package com.silverbars.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.silverbars.domain.Order;
+
+/**
+ * All resting orders of one user, in arrival order, across every price level
+ * and order type.
+ *
+ * This is a second intrusive doubly linked list through the very
+ * {@link PriceLevel.Node}s of the levels (their {@code userPrev}/{@code userNext}
+ * links), so keeping it up to date costs O(1) per add/cancel and nothing is
+ * allocated per order. Each node also points back to its {@code UserOrders},
+ * so it is unlinked without a lookup by user id (which callers could have
+ * changed on the order meanwhile).
+ *
+ * Only the owning service is allowed to change it.
+ */
+final class UserOrders {
+	// the user all orders of this list belong to, may be null
+	private String userId;
+
+	// oldest and newest order of this user
+	private PriceLevel.Node head;
+	private PriceLevel.Node tail;
+
+	// number of orders of this user
+	private int orderCount;
+
+	// set once an empty list has been taken off its index, see retire()
+	private boolean retired;
+
+	/**
+	 * Create an empty list for the given user.
+	 *
+	 * @param userId
+	 */
+	UserOrders(String userId) {
+		this.userId = userId;
+	}
+
+	/**
+	 * Make this (empty) list, taken off its index, the list of the given user, so
+	 * that it can be reused instead of creating a new one, see
+	 * {@link OrderServiceImpl}.
+	 *
+	 * @param userId
+	 */
+	void reuse(String userId) {
+		this.userId = userId;
+		retired = false;
+	}
+
+	/**
+	 * Append the given node, already appended to its level, to the end of this
+	 * list. O(1).
+	 *
+	 * @param node
+	 */
+	void append(PriceLevel.Node node) {
+		node.user = this;
+		if (tail == null) {
+			head = node;
+		} else {
+			tail.userNext = node;
+			node.userPrev = tail;
+		}
+		tail = node;
+		orderCount++;
+	}
+
+	/**
+	 * Remove the given node from this list. O(1).
+	 *
+	 * @param node
+	 */
+	void unlink(PriceLevel.Node node) {
+		if (node.userPrev == null) {
+			head = node.userNext;
+		} else {
+			node.userPrev.userNext = node.userNext;
+		}
+		if (node.userNext == null) {
+			tail = node.userPrev;
+		} else {
+			node.userNext.userPrev = node.userPrev;
+		}
+		node.userPrev = null;
+		node.userNext = null;
+		node.user = null;
+		orderCount--;
+	}
+
+	/**
+	 * @return new list of the orders of this user, oldest first. O(number of
+	 *         orders of this user).
+	 */
+	List<Order> toList() {
+		List<Order> orders = new ArrayList<Order>(orderCount);
+		for (PriceLevel.Node node = head; node != null; node = node.userNext) {
+			orders.add(node.order);
+		}
+		return orders;
+	}
+
+	/**
+	 * @return new array of the ids of the orders of this user, oldest first
+	 */
+	long[] orderIds() {
+		long[] orderIds = new long[orderCount];
+		int i = 0;
+		for (PriceLevel.Node node = head; node != null; node = node.userNext) {
+			orderIds[i++] = node.order.getOrderId();
+		}
+		return orderIds;
+	}
+
+	/**
+	 * Mark this (empty) list as taken off its index, see
+	 * {@link PriceLevel#retire()}.
+	 */
+	void retire() {
+		retired = true;
+	}
+
+	/**
+	 * @return true once {@link #retire()} has been called
+	 */
+	boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * @return the user of all orders in this list
+	 */
+	String getUserId() {
+		return userId;
+	}
+
+	/**
+	 * @return number of orders in this list
+	 */
+	int getOrderCount() {
+		return orderCount;
+	}
+}
@@ -0,0 +1,64 @@
+package com.silverbars.domain;
+
+/**
+ * Conversions between the {@code double} values used by callers and the exact
+ * fixed-point values used inside the order board:
+ *
+ * - prices are held in ticks of £0.01 (pence) per kg
+ *
+ * - quantities are held in milligrams
+ *
+ * Adding and subtracting longs is exact, so aggregated totals never drift the
+ * way summed doubles do (e.g. {@code 5.499999 kg}).
+ *
+ */
+public final class FixedPoint {
+	// price ticks per £1
+	public static final long TICKS_PER_POUND = 100;
+
+	// milligrams per kg
+	public static final long MILLIGRAMS_PER_KILO = 1000000;
+
+	private FixedPoint() {
+	}
+
+	/**
+	 * Price per kg to the nearest tick
+	 *
+	 * @param pricePerKilo
+	 * @return
+	 */
+	public static long toPriceTicks(double pricePerKilo) {
+		return Math.round(pricePerKilo * TICKS_PER_POUND);
+	}
+
+	/**
+	 * Price ticks back to price per kg
+	 *
+	 * @param priceTicks
+	 * @return
+	 */
+	public static double toPricePerKilo(long priceTicks) {
+		return priceTicks / (double) TICKS_PER_POUND;
+	}
+
+	/**
+	 * Quantity in kg to the nearest milligram
+	 *
+	 * @param kilos
+	 * @return
+	 */
+	public static long toMilligrams(double kilos) {
+		return Math.round(kilos * MILLIGRAMS_PER_KILO);
+	}
+
+	/**
+	 * Milligrams back to kg
+	 *
+	 * @param milligrams
+	 * @return
+	 */
+	public static double toKilos(long milligrams) {
+		return milligrams / (double) MILLIGRAMS_PER_KILO;
+	}
+}
@@ -1,5 +1,7 @@
 package com.silverbars.domain;
 
+import com.silverbars.dao.OrderAccess;
+
 /**
  * Order must contain these fields:
  * 
@@ -10,21 +12,70 @@ package com.silverbars.domain;
  * - price per kg (e.g.: £303)
  * 
  * - order type: BUY or SELL
+ * 
+ * An order may also name the instrument (e.g. a grade of silver bars, gold)
+ * it is for, null being the one market of a plain {@code OrderService}.
+ * 
+ * An order may also be good till a given time ({@code expiresAtMillis}), after
+ * which a service which sweeps expired orders takes it off the board; 0 means
+ * good till cancelled. Services which do not sweep reject such orders, see
+ * {@code OrderService#addOrder}.
+ * 
+ * Once added to an {@code OrderService} an order also carries a unique
+ * {@code orderId} so that two otherwise identical orders of the same user can
+ * be told apart and cancelled by id.
+ * 
+ * Quantity and price are kept as exact fixed-point longs (see
+ * {@link FixedPoint}), the {@code double} accessors convert on the fly.
+ * 
+ * While an order rests on a board it must not change under the board's feet
+ * (its level and the level's totals depend on it), so its setters throw
+ * IllegalStateException; use {@code OrderService#amendOrder} instead. The
+ * order services themselves change resting orders through the {@link Mutator},
+ * which this class hands to {@code com.silverbars.dao.OrderAccess} as it is
+ * loaded, so that only they hold it.
  *
  */
 public class Order {
+	static {
+		// the only mutator, registered before anyone else can, see OrderAccess
+		OrderAccess.register(new Mutator() {
+			@Override
+			public void setResting(Order order, boolean resting) {
+				order.resting = resting;
+			}
+
+			@Override
+			public void setQuantityMilligrams(Order order, long quantityMilligrams) {
+				order.quantityMilligrams = quantityMilligrams;
+			}
+		});
+	}
+
+	// unique id assigned by the OrderService on add, 0 until then
+	private long orderId;
+
+	// instrument traded, null for the default market
+	private String instrument;
+
 	// user id
 	private String userId;
 
-	// order quantity (e.g.: 3.5 kg)
-	private double orderQuantity;
+	// order quantity in milligrams (e.g.: 3.5 kg is 3500000)
+	private long quantityMilligrams;
 
-	// price per kg (e.g.: £303)
-	private double pricePerKilo;
+	// price per kg in ticks of £0.01 (e.g.: £303 is 30300)
+	private long priceTicks;
 
 	// order type: BUY or SELL
 	private OrderType orderType;
 
+	// wall clock time the order expires at, in ms since the epoch, 0 if never
+	private long expiresAtMillis;
+
+	// true while the order rests on a board, set by the OrderService
+	private boolean resting;
+
 	/**
 	 * public constructoro to make a new Order object.
 	 * 
@@ -36,11 +87,88 @@ public class Order {
 	public Order(String userId, double orderQuantity, double pricePerKilo, OrderType orderType) {
 		super();
 		this.userId = userId;
-		this.orderQuantity = orderQuantity;
-		this.pricePerKilo = pricePerKilo;
+		this.quantityMilligrams = FixedPoint.toMilligrams(orderQuantity);
+		this.priceTicks = FixedPoint.toPriceTicks(pricePerKilo);
 		this.orderType = orderType;
 	}
 
+	/**
+	 * public constructor to make a new Order object for the given instrument.
+	 * 
+	 * @param instrument
+	 * @param userId
+	 * @param orderQuantity
+	 * @param pricePerKilo
+	 * @param orderType
+	 */
+	public Order(String instrument, String userId, double orderQuantity, double pricePerKilo, OrderType orderType) {
+		this(userId, orderQuantity, pricePerKilo, orderType);
+		this.instrument = instrument;
+	}
+
+	/**
+	 * Make a new Order object straight from fixed-point values.
+	 * 
+	 * @param userId
+	 * @param quantityMilligrams
+	 * @param priceTicks
+	 * @param orderType
+	 * @return
+	 */
+	public static Order ofFixedPoint(String userId, long quantityMilligrams, long priceTicks, OrderType orderType) {
+		Order order = new Order(userId, 0, 0, orderType);
+		order.quantityMilligrams = quantityMilligrams;
+		order.priceTicks = priceTicks;
+		return order;
+	}
+
+	/**
+	 * Changes only an {@code OrderService} makes to an order: marking it as
+	 * resting on its board or taken off it, and filling it while it rests.
+	 */
+	public interface Mutator {
+		void setResting(Order order, boolean resting);
+
+		void setQuantityMilligrams(Order order, long quantityMilligrams);
+	}
+
+	/**
+	 * Unique id assigned by the {@code OrderService} when the order was added, 0 if
+	 * the order was never added.
+	 * 
+	 * @return
+	 */
+	public long getOrderId() {
+		return orderId;
+	}
+
+	/**
+	 * Set the order id, normally only called by the {@code OrderService} on add.
+	 * 
+	 * @param orderId
+	 */
+	public void setOrderId(long orderId) {
+		checkNotResting();
+		this.orderId = orderId;
+	}
+
+	/**
+	 * Instrument the order is for, null for the default market
+	 * 
+	 * @return
+	 */
+	public String getInstrument() {
+		return instrument;
+	}
+
+	/**
+	 * Set method for instrument
+	 */
+	public void setInstrument(String instrument) {
+		checkNotResting();
+		this.instrument = instrument;
+	}
+
 	/**
 	 * Get method for user id
 	 * 
@@ -54,6 +182,7 @@ public class Order {
 	 * Set method for user id
 	 */
 	public void setUserId(String userId) {
+		checkNotResting();
 		this.userId = userId;
 	}
 
@@ -63,7 +192,7 @@ public class Order {
 	 * @return
 	 */
 	public double getOrderQuantity() {
-		return orderQuantity;
+		return FixedPoint.toKilos(quantityMilligrams);
 	}
 
 	/**
@@ -72,7 +201,27 @@ public class Order {
 	 * @param orderQuantity
 	 */
 	public void setOrderQuantity(double orderQuantity) {
-		this.orderQuantity = orderQuantity;
+		checkNotResting();
+		this.quantityMilligrams = FixedPoint.toMilligrams(orderQuantity);
+	}
+
+	/**
+	 * Get order quantity in milligrams
+	 * 
+	 * @return
+	 */
+	public long getQuantityMilligrams() {
+		return quantityMilligrams;
+	}
+
+	/**
+	 * Set order quantity in milligrams
+	 * 
+	 * @param quantityMilligrams
+	 */
+	public void setQuantityMilligrams(long quantityMilligrams) {
+		checkNotResting();
+		this.quantityMilligrams = quantityMilligrams;
 	}
 
 	/**
@@ -81,7 +230,7 @@ public class Order {
 	 * @return
 	 */
 	public double getPricePerKilo() {
-		return pricePerKilo;
+		return FixedPoint.toPricePerKilo(priceTicks);
 	}
 
 	/**
@@ -90,7 +239,27 @@ public class Order {
 	 * @param pricePerKilo
 	 */
 	public void setPricePerKilo(double pricePerKilo) {
-		this.pricePerKilo = pricePerKilo;
+		checkNotResting();
+		this.priceTicks = FixedPoint.toPriceTicks(pricePerKilo);
+	}
+
+	/**
+	 * Get price per kilo in ticks of £0.01
+	 * 
+	 * @return
+	 */
+	public long getPriceTicks() {
+		return priceTicks;
+	}
+
+	/**
+	 * Set price per kilo in ticks of £0.01
+	 * 
+	 * @param priceTicks
+	 */
+	public void setPriceTicks(long priceTicks) {
+		checkNotResting();
+		this.priceTicks = priceTicks;
 	}
 
 	/**
@@ -108,32 +277,72 @@ public class Order {
 	 * @param orderType
 	 */
 	public void setOrderType(OrderType orderType) {
+		checkNotResting();
 		this.orderType = orderType;
 	}
 
+	/**
+	 * Wall clock time (as {@code System.currentTimeMillis()}) the order expires
+	 * at, 0 if it is good till cancelled.
+	 * 
+	 * @return
+	 */
+	public long getExpiresAtMillis() {
+		return expiresAtMillis;
+	}
+
+	/**
+	 * Make the order good till the given wall clock time, 0 for good till
+	 * cancelled.
+	 * 
+	 * @param expiresAtMillis
+	 */
+	public void setExpiresAtMillis(long expiresAtMillis) {
+		checkNotResting();
+		if (expiresAtMillis < 0) {
+			throw new IllegalArgumentException("Expiry time must not be negative: " + expiresAtMillis);
+		}
+		this.expiresAtMillis = expiresAtMillis;
+	}
+
+	/**
+	 * True while the order rests on a board, and so can only be changed through
+	 * its {@code OrderService}.
+	 * 
+	 * @return
+	 */
+	public boolean isResting() {
+		return resting;
+	}
+
+	private void checkNotResting() {
+		if (resting) {
+			throw new IllegalStateException("Order is resting on a board, amend it through its service: " + this);
+		}
+	}
+
 	/**
 	 * Default toString implementation with all fields.
 	 */
 	@Override
 	public String toString() {
-		return "Order [userId=" + userId + ", orderQuantity=" + orderQuantity + ", pricePerKilo=" + pricePerKilo
-				+ ", orderType=" + orderType + "]";
+		return "Order [orderId=" + orderId + (instrument == null ? "" : ", instrument=" + instrument) + ", userId=" + userId + ", orderQuantity=" + getOrderQuantity() + ", pricePerKilo=" + getPricePerKilo()
+				+ ", orderType=" + orderType + (expiresAtMillis == 0 ? "" : ", expiresAtMillis=" + expiresAtMillis) + "]";
 	}
 
 	/**
-	 * Default hashcode of the Order
+	 * Default hashcode of the Order. The {@code orderId} is left out on purpose so
+	 * that an order can still be looked up by its values before it has an id.
 	 */
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		long temp;
-		temp = Double.doubleToLongBits(orderQuantity);
-		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + (int) (quantityMilligrams ^ (quantityMilligrams >>> 32));
 		result = prime * result + ((orderType == null) ? 0 : orderType.hashCode());
-		temp = Double.doubleToLongBits(pricePerKilo);
-		result = prime * result + (int) (temp ^ (temp >>> 32));
+		result = prime * result + (int) (priceTicks ^ (priceTicks >>> 32));
 		result = prime * result + ((userId == null) ? 0 : userId.hashCode());
+		result = prime * result + ((instrument == null) ? 0 : instrument.hashCode());
 		return result;
 	}
 
@@ -149,17 +358,22 @@ public class Order {
 		if (getClass() != obj.getClass())
 			return false;
 		Order other = (Order) obj;
-		if (Double.doubleToLongBits(orderQuantity) != Double.doubleToLongBits(other.orderQuantity))
+		if (quantityMilligrams != other.quantityMilligrams)
 			return false;
 		if (orderType != other.orderType)
 			return false;
-		if (Double.doubleToLongBits(pricePerKilo) != Double.doubleToLongBits(other.pricePerKilo))
+		if (priceTicks != other.priceTicks)
 			return false;
 		if (userId == null) {
 			if (other.userId != null)
 				return false;
 		} else if (!userId.equals(other.userId))
 			return false;
+		if (instrument == null) {
+			if (other.instrument != null)
+				return false;
+		} else if (!instrument.equals(other.instrument))
+			return false;
 		return true;
 	}
 
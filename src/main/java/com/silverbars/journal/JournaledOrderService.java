@@ -0,0 +1,392 @@
+package com.silverbars.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.silverbars.dao.BatchResult;
+import com.silverbars.dao.ForwardingOrderService;
+import com.silverbars.dao.OrderService;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+
+/**
+ * Order service which survives a restart: every successful add/cancel/amend is
+ * also appended to an {@link OrderJournal}, and opening the service replays the
+ * journal to rebuild the board.
+ *
+ * Cancels and amends are checked against the wrapped service and journaled
+ * before they are applied. Adds are applied first, as that is where the order
+ * gets its id, and taken back off the board if journaling them fails. Either
+ * way the board never holds a change the journal failed to take, and the
+ * journal holds exactly the events which took effect, in the order they took
+ * effect. All steps run under this object's lock so that the order of the
+ * journal always matches the order of the ids. How much of the journal's tail
+ * is durable depends on its group commit policy; with a sync interval a
+ * background thread syncs the records left behind when writes stop.
+ *
+ * Orders with an expiry time are journaled with it, and expired through
+ * {@link #expireOrders(long)}, which journals every expiry as a cancel.
+ *
+ * A journal which failed to write holds an unknown tail, so once it has failed
+ * every later change is refused with IllegalStateException; reopen the service
+ * to recover from what reached the disk.
+ *
+ */
+public class JournaledOrderService extends ForwardingOrderService implements AutoCloseable {
+	private OrderJournal journal;
+
+	// syncs records left waiting by idle writers, null without a sync interval
+	private final Thread syncer;
+
+	// first failure of the journal, later changes are refused
+	private IOException failure;
+	private boolean closed;
+
+	/**
+	 * Journal the events of the given service into the given journal, which must
+	 * have been opened with that same service.
+	 *
+	 * @param delegate
+	 * @param journal
+	 */
+	public JournaledOrderService(OrderService delegate, OrderJournal journal) {
+		super(delegate);
+		this.journal = journal;
+		if (journal.getSyncIntervalMillis() > 0) {
+			syncer = new Thread(this::syncWhenIdle, "order-journal-sync");
+			syncer.setDaemon(true);
+			syncer.start();
+		} else {
+			syncer = null;
+		}
+	}
+
+	/**
+	 * Open a journaled single threaded board on the given file, rebuilding a new
+	 * {@link OrderServiceImpl} from whatever the file already holds.
+	 *
+	 * @param file
+	 * @param syncEveryRecords
+	 * @param syncIntervalMillis
+	 * @return
+	 * @throws IOException
+	 */
+	public static JournaledOrderService open(Path file, int syncEveryRecords, long syncIntervalMillis)
+			throws IOException {
+		OrderService book = new OrderServiceImpl();
+		return new JournaledOrderService(book, OrderJournal.open(file, syncEveryRecords, syncIntervalMillis, book));
+	}
+
+	/**
+	 * An order the journal fails to take is cancelled again.
+	 */
+	@Override
+	public synchronized void addOrder(Order order) {
+		checkWritable();
+		delegate.addOrder(order);
+		try {
+			journal.appendAdd(order);
+		} catch (IOException e) {
+			takeBack(Collections.singletonList(order));
+			throw failed("Could not journal " + order, e);
+		}
+	}
+
+	/**
+	 * Journaled as a cancel by id of the order cancelled: the given order if it is
+	 * a live order of this service, otherwise the oldest live order of its user
+	 * equal to it.
+	 */
+	@Override
+	public synchronized void cancelOrder(Order order) {
+		checkWritable();
+		long orderId = liveOrderId(order, null);
+		if (orderId == 0) {
+			throw new IllegalArgumentException("Given order does not exists: " + order);
+		}
+		try {
+			journal.appendCancel(orderId);
+		} catch (IOException e) {
+			throw failed("Could not journal cancel of " + order, e);
+		}
+		delegate.cancelOrder(orderId);
+	}
+
+	@Override
+	public synchronized void cancelOrder(long orderId) {
+		checkWritable();
+		if (delegate.getOrder(orderId) == null) {
+			// rejected as usual
+			delegate.cancelOrder(orderId);
+			return;
+		}
+		try {
+			journal.appendCancel(orderId);
+		} catch (IOException e) {
+			throw failed("Could not journal cancel of order id " + orderId, e);
+		}
+		delegate.cancelOrder(orderId);
+	}
+
+	/**
+	 * Journaled with the amended quantity and price as fixed-point values, so
+	 * replay amends to exactly the same values.
+	 */
+	@Override
+	public synchronized void amendOrder(long orderId, double orderQuantity, double pricePerKilo) {
+		checkWritable();
+		long quantityMilligrams = FixedPoint.toMilligrams(orderQuantity);
+		if (quantityMilligrams <= 0 || delegate.getOrder(orderId) == null) {
+			// rejected as usual
+			delegate.amendOrder(orderId, orderQuantity, pricePerKilo);
+			return;
+		}
+		try {
+			journal.appendAmend(orderId, quantityMilligrams, FixedPoint.toPriceTicks(pricePerKilo));
+		} catch (IOException e) {
+			throw failed("Could not journal amend of order id " + orderId, e);
+		}
+		delegate.amendOrder(orderId, orderQuantity, pricePerKilo);
+	}
+
+	/**
+	 * The added orders are journaled in id order, as single adds, so that replay
+	 * hands out the same ids. If the journal fails they are all cancelled again.
+	 */
+	@Override
+	public synchronized BatchResult addOrders(Collection<Order> orders) {
+		checkWritable();
+		BatchResult result = delegate.addOrders(orders);
+		List<Order> added = new ArrayList<Order>(orders.size());
+		int i = 0;
+		for (Order order : orders) {
+			if (!result.isFailed(i++)) {
+				added.add(order);
+			}
+		}
+		added.sort(Comparator.comparingLong(Order::getOrderId));
+		try {
+			for (Order order : added) {
+				journal.appendAdd(order);
+			}
+		} catch (IOException e) {
+			takeBack(added);
+			throw failed("Could not journal batch of " + added.size() + " orders", e);
+		}
+		return result;
+	}
+
+	/**
+	 * Each order is resolved to the live order it cancels as by
+	 * {@link #cancelOrder(Order)}, and the batch cancelled by those ids; an order
+	 * with no live order left to cancel fails as an unknown id.
+	 */
+	@Override
+	public synchronized BatchResult cancelOrders(Collection<Order> orders) {
+		checkWritable();
+		long[] orderIds = new long[orders.size()];
+		Set<Long> claimed = new HashSet<Long>();
+		int i = 0;
+		for (Order order : orders) {
+			orderIds[i] = liveOrderId(order, claimed);
+			claimed.add(orderIds[i++]);
+		}
+		journalCancels(orderIds);
+		return delegate.cancelOrders(orderIds);
+	}
+
+	@Override
+	public synchronized BatchResult cancelOrders(long[] orderIds) {
+		checkWritable();
+		journalCancels(orderIds);
+		return delegate.cancelOrders(orderIds);
+	}
+
+	/**
+	 * Each order of the user is journaled as a cancel by id, oldest first.
+	 */
+	@Override
+	public synchronized List<Order> cancelAllOrdersForUser(String userId) {
+		checkWritable();
+		try {
+			for (Order order : delegate.getOrdersByUser(userId)) {
+				journal.appendCancel(order.getOrderId());
+			}
+		} catch (IOException e) {
+			throw failed("Could not journal cancel of all orders of user " + userId, e);
+		}
+		return delegate.cancelAllOrdersForUser(userId);
+	}
+
+	/**
+	 * Take every order expired by the given time off the board, see
+	 * {@link OrderServiceImpl#expireOrders(long)}, and journal each expiry as a
+	 * cancel by id. If the journal fails the expired orders are restored (at the
+	 * back of their levels). The wrapped service must be an
+	 * {@link OrderServiceImpl}, the only one which expires orders.
+	 *
+	 * @param nowMillis wall clock time, as {@code System.currentTimeMillis()}
+	 * @return the expired orders, in order of expiry
+	 */
+	public synchronized List<Order> expireOrders(long nowMillis) {
+		checkWritable();
+		if (!(delegate instanceof OrderServiceImpl)) {
+			throw new IllegalStateException("Only an OrderServiceImpl expires orders, not " + delegate);
+		}
+		OrderServiceImpl book = (OrderServiceImpl) delegate;
+		List<Order> expired = book.expireOrders(nowMillis);
+		try {
+			for (Order order : expired) {
+				journal.appendCancel(order.getOrderId());
+			}
+		} catch (IOException e) {
+			for (Order order : expired) {
+				book.restoreOrder(order);
+			}
+			throw failed("Could not journal expiry of " + expired.size() + " orders", e);
+		}
+		return expired;
+	}
+
+	/**
+	 * Journal all later events into the given journal instead, and hand back the
+	 * previous one (still open) so that the caller can close it outside the lock.
+	 * Callers which need a view of the board consistent with the switch hold this
+	 * object's lock around both.
+	 *
+	 * @param next
+	 * @return
+	 */
+	synchronized OrderJournal switchJournal(OrderJournal next) {
+		OrderJournal previous = journal;
+		journal = next;
+		return previous;
+	}
+
+	/**
+	 * Force everything journaled so far to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		journal.sync();
+	}
+
+	/**
+	 * Sync and close the journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		if (syncer != null) {
+			syncer.interrupt();
+			try {
+				syncer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			journal.close();
+		}
+	}
+
+	/**
+	 * Id of the live order the given order cancels, 0 if there is none: the order
+	 * itself if it rests on this service, else the oldest live order of its user
+	 * equal to it and not yet claimed by the same batch.
+	 */
+	private long liveOrderId(Order order, Set<Long> claimed) {
+		if (order.getOrderId() != 0 && delegate.getOrder(order.getOrderId()) == order) {
+			return order.getOrderId();
+		}
+		for (Order live : delegate.getOrdersByUser(order.getUserId())) {
+			if (live.equals(order) && (claimed == null || !claimed.contains(live.getOrderId()))) {
+				return live.getOrderId();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Journal the cancels of a batch of ids which will succeed: ids of live
+	 * orders, the first time they come in the batch.
+	 */
+	private void journalCancels(long[] orderIds) {
+		Set<Long> cancelled = new HashSet<Long>();
+		try {
+			for (long orderId : orderIds) {
+				if (delegate.getOrder(orderId) != null && cancelled.add(orderId)) {
+					journal.appendCancel(orderId);
+				}
+			}
+		} catch (IOException e) {
+			throw failed("Could not journal cancel of a batch of orders", e);
+		}
+	}
+
+	/**
+	 * Cancel the given added orders again, those still on the board.
+	 */
+	private void takeBack(List<Order> added) {
+		for (Order order : added) {
+			if (delegate.getOrder(order.getOrderId()) != null) {
+				delegate.cancelOrder(order.getOrderId());
+			}
+		}
+	}
+
+	private void checkWritable() {
+		if (closed) {
+			throw new IllegalStateException("Order service is closed");
+		}
+		if (failure != null) {
+			throw new IllegalStateException("Order journal failed, reopen to recover", failure);
+		}
+	}
+
+	private UncheckedIOException failed(String message, IOException e) {
+		failure = e;
+		return new UncheckedIOException(message, e);
+	}
+
+	/**
+	 * Body of the sync thread: sync the journal whenever records have waited for
+	 * its sync interval, until closed.
+	 */
+	private void syncWhenIdle() {
+		long sleepMillis = journal.getSyncIntervalMillis();
+		try {
+			while (true) {
+				Thread.sleep(sleepMillis);
+				synchronized (this) {
+					if (closed || failure != null) {
+						return;
+					}
+					try {
+						sleepMillis = Math.max(1, journal.syncIfDue());
+					} catch (IOException e) {
+						failed("Could not sync the journal", e);
+						return;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.silverbars.journal;
+
+import java.util.List;
+
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Point-in-time copy of all resting orders of a board, taken so that a snapshot
+ * can be written to disk without holding up the writers for the whole write.
+ *
+ * Orders are copied field by field into parallel primitive arrays (the user ids
+ * are shared, not copied), side by side, level by level in board order and in
+ * time order within a level. Loading them back in that order rebuilds the same
+ * levels with the same time priority.
+ *
+ */
+final class OrderImage {
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	final long nextOrderId;
+	final int size;
+	final long[] orderIds;
+	final String[] userIds;
+	final byte[] orderTypes;
+	final long[] quantitiesMilligrams;
+	final long[] pricesTicks;
+	final long[] expiriesMillis;
+
+	private OrderImage(long nextOrderId, int size) {
+		this.nextOrderId = nextOrderId;
+		this.size = size;
+		this.orderIds = new long[size];
+		this.userIds = new String[size];
+		this.orderTypes = new byte[size];
+		this.quantitiesMilligrams = new long[size];
+		this.pricesTicks = new long[size];
+		this.expiriesMillis = new long[size];
+	}
+
+	/**
+	 * Copy the given board. Must not run concurrently with changes to it.
+	 *
+	 * @param book
+	 * @return
+	 */
+	static OrderImage capture(OrderServiceImpl book) {
+		int size = 0;
+		for (OrderType orderType : ORDER_TYPES) {
+			for (List<Order> level : book.getOrdersByOrderType(orderType).values()) {
+				size += level.size();
+			}
+		}
+		OrderImage image = new OrderImage(book.getNextOrderId(), size);
+		int i = 0;
+		for (OrderType orderType : ORDER_TYPES) {
+			for (List<Order> level : book.getOrdersByOrderType(orderType).values()) {
+				for (Order order : level) {
+					image.orderIds[i] = order.getOrderId();
+					image.userIds[i] = order.getUserId();
+					image.orderTypes[i] = (byte) orderType.ordinal();
+					image.quantitiesMilligrams[i] = order.getQuantityMilligrams();
+					image.pricesTicks[i] = order.getPriceTicks();
+					image.expiriesMillis[i] = order.getExpiresAtMillis();
+					i++;
+				}
+			}
+		}
+		return image;
+	}
+}
@@ -0,0 +1,512 @@
+package com.silverbars.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Append-only journal of the add/cancel/amend events of an order board.
+ *
+ * Events are encoded as small fixed layout binary records into a direct buffer
+ * and written through a {@code FileChannel}. Durability uses group commit: the
+ * buffer is written and the file forced to disk once every
+ * {@code syncEveryRecords} records, or once {@code syncIntervalMillis} have
+ * passed since the last sync, whichever comes first (an interval of 0 disables
+ * the time based sync). A record is only durable after the next sync, see
+ * {@link #sync()}. Appends only check the interval when they come, so a
+ * writer which goes idle calls {@link #syncIfDue()} to get the records it left
+ * in the buffer to disk in time.
+ *
+ * User ids are written once, as a dictionary record giving them an int code;
+ * later records carry the code only. That keeps records small and lets replay
+ * share one {@code String} per user instead of decoding one per event.
+ *
+ * Layout (big endian), after a header of magic number and version, every
+ * record framed by its int length and the int CRC-32 of what follows them:
+ *
+ * - USER: type, int code, short length (-1 for a null user id), UTF-8 bytes
+ *
+ * - ADD: type, long orderId, int userCode, byte orderType, long quantity (mg),
+ * long price (ticks), long expiresAtMillis (0 if good till cancelled)
+ *
+ * - CANCEL_BY_ID: type, long orderId
+ *
+ * - CANCEL_BY_VALUE: type, int userCode, byte orderType, long quantity (mg),
+ * long price (ticks)
+ *
+ * - AMEND: type, long orderId, long quantity (mg), long price (ticks)
+ *
+ * A record cut short by a crash, or whose checksum does not match, is detected
+ * on {@link #open} and the journal truncated before it.
+ *
+ * Not thread safe, callers serialise appends.
+ *
+ */
+public final class OrderJournal implements AutoCloseable {
+	static final int MAGIC = 0x53424A4C; // "SBJL"
+	static final int VERSION = 4;
+	static final int HEADER_SIZE = 8;
+	static final int FRAME_SIZE = 4 + 4;
+
+	static final byte USER = 1;
+	static final byte ADD = 2;
+	static final byte CANCEL_BY_ID = 3;
+	static final byte CANCEL_BY_VALUE = 4;
+	static final byte AMEND = 5;
+
+	static final int ADD_SIZE = 1 + 8 + 4 + 1 + 8 + 8 + 8;
+	static final int CANCEL_BY_ID_SIZE = 1 + 8;
+	static final int CANCEL_BY_VALUE_SIZE = 1 + 4 + 1 + 8 + 8;
+	static final int AMEND_SIZE = 1 + 8 + 8 + 8;
+	static final int MAX_USER_SIZE = 1 + 4 + 2 + Short.MAX_VALUE;
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private final int syncEveryRecords;
+	private final long syncIntervalMillis;
+
+	// user id dictionary, continued from the replayed file
+	private final Map<String, Integer> userCodes = new HashMap<String, Integer>();
+
+	// buffer position of the frame of the record being written
+	private int recordStart;
+	private int recordsSinceSync;
+	private long lastSyncMillis = System.currentTimeMillis();
+	private long replayedRecords;
+
+	private OrderJournal(FileChannel channel, int syncEveryRecords, long syncIntervalMillis) {
+		this.channel = channel;
+		this.syncEveryRecords = syncEveryRecords;
+		this.syncIntervalMillis = syncIntervalMillis;
+	}
+
+	/**
+	 * Open (or create) the journal in the given file. All events already in the
+	 * file are first replayed into the given service, which must be empty, then
+	 * new records are appended after them.
+	 *
+	 * @param file
+	 * @param syncEveryRecords   force to disk at least every that many records,
+	 *                           1 to sync every record
+	 * @param syncIntervalMillis force to disk at least every that many millis, 0
+	 *                           to sync by record count only
+	 * @param replayInto         empty service to rebuild from the journal
+	 * @return
+	 * @throws IOException
+	 */
+	public static OrderJournal open(Path file, int syncEveryRecords, long syncIntervalMillis, OrderService replayInto)
+			throws IOException {
+		if (syncEveryRecords < 1 || syncIntervalMillis < 0) {
+			throw new IllegalArgumentException(
+					"Invalid sync policy: " + syncEveryRecords + " records, " + syncIntervalMillis + " ms");
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			OrderJournal journal = new OrderJournal(channel, syncEveryRecords, syncIntervalMillis);
+			journal.recover(replayInto);
+			return journal;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return number of events replayed by {@link #open}
+	 */
+	public long getReplayedRecords() {
+		return replayedRecords;
+	}
+
+	/**
+	 * Record that the given order has been added (and given its id), with its
+	 * expiry time if it has one.
+	 *
+	 * @param order
+	 * @throws IOException
+	 */
+	public void appendAdd(Order order) throws IOException {
+		int userCode = userCode(order.getUserId());
+		startRecord(ADD_SIZE);
+		buffer.put(ADD);
+		buffer.putLong(order.getOrderId());
+		buffer.putInt(userCode);
+		buffer.put((byte) order.getOrderType().ordinal());
+		buffer.putLong(order.getQuantityMilligrams());
+		buffer.putLong(order.getPriceTicks());
+		buffer.putLong(order.getExpiresAtMillis());
+		endRecord();
+		recordAppended();
+	}
+
+	/**
+	 * Record that the order with the given id has been cancelled (or expired).
+	 *
+	 * @param orderId
+	 * @throws IOException
+	 */
+	public void appendCancel(long orderId) throws IOException {
+		startRecord(CANCEL_BY_ID_SIZE);
+		buffer.put(CANCEL_BY_ID);
+		buffer.putLong(orderId);
+		endRecord();
+		recordAppended();
+	}
+
+	/**
+	 * Record that the first live order equal to the given one has been cancelled,
+	 * for orders cancelled by value rather than by id.
+	 *
+	 * @param order
+	 * @throws IOException
+	 */
+	public void appendCancelByValue(Order order) throws IOException {
+		int userCode = userCode(order.getUserId());
+		startRecord(CANCEL_BY_VALUE_SIZE);
+		buffer.put(CANCEL_BY_VALUE);
+		buffer.putInt(userCode);
+		buffer.put((byte) order.getOrderType().ordinal());
+		buffer.putLong(order.getQuantityMilligrams());
+		buffer.putLong(order.getPriceTicks());
+		endRecord();
+		recordAppended();
+	}
+
+	/**
+	 * Record that the order with the given id has been amended to the given
+	 * quantity and price.
+	 *
+	 * @param orderId
+	 * @param quantityMilligrams
+	 * @param priceTicks
+	 * @throws IOException
+	 */
+	public void appendAmend(long orderId, long quantityMilligrams, long priceTicks) throws IOException {
+		startRecord(AMEND_SIZE);
+		buffer.put(AMEND);
+		buffer.putLong(orderId);
+		buffer.putLong(quantityMilligrams);
+		buffer.putLong(priceTicks);
+		endRecord();
+		recordAppended();
+	}
+
+	/**
+	 * Write all buffered records and force them to disk.
+	 *
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		write();
+		channel.force(false);
+		recordsSinceSync = 0;
+		lastSyncMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Sync if records are waiting and the sync interval has passed since the last
+	 * sync, for a writer with nothing to append (a timer, or the idle path of its
+	 * loop) to call. Does nothing without a sync interval.
+	 *
+	 * @return millis until this should be called again
+	 * @throws IOException
+	 */
+	public long syncIfDue() throws IOException {
+		if (syncIntervalMillis == 0) {
+			return Long.MAX_VALUE;
+		}
+		if (recordsSinceSync == 0) {
+			// a record appended before the interval passed is due one interval after the last sync
+			return syncIntervalMillis;
+		}
+		long dueInMillis = lastSyncMillis + syncIntervalMillis - System.currentTimeMillis();
+		if (dueInMillis > 0) {
+			return dueInMillis;
+		}
+		sync();
+		return syncIntervalMillis;
+	}
+
+	/**
+	 * @return most millis an appended record waits for its sync, 0 if only the
+	 *         record count forces syncs
+	 */
+	public long getSyncIntervalMillis() {
+		return syncIntervalMillis;
+	}
+
+	/**
+	 * Sync and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void recordAppended() throws IOException {
+		recordsSinceSync++;
+		if (recordsSinceSync >= syncEveryRecords
+				|| (syncIntervalMillis > 0 && System.currentTimeMillis() - lastSyncMillis >= syncIntervalMillis)) {
+			sync();
+		}
+	}
+
+	private int userCode(String userId) throws IOException {
+		Integer code = userCodes.get(userId);
+		if (code != null) {
+			return code;
+		}
+		byte[] bytes = userId == null ? new byte[0] : userId.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("User id too long: " + userId);
+		}
+		code = userCodes.size();
+		startRecord(1 + 4 + 2 + bytes.length);
+		buffer.put(USER);
+		buffer.putInt(code);
+		// null is a user of its own, not the same as ""
+		buffer.putShort(userId == null ? -1 : (short) bytes.length);
+		buffer.put(bytes);
+		endRecord();
+		userCodes.put(userId, code);
+		return code;
+	}
+
+	/**
+	 * Make room for a record of the given size and its frame, and leave the
+	 * buffer positioned for the record.
+	 */
+	private void startRecord(int size) throws IOException {
+		if (buffer.remaining() < FRAME_SIZE + size) {
+			write();
+		}
+		recordStart = buffer.position();
+		buffer.position(recordStart + FRAME_SIZE);
+	}
+
+	/**
+	 * Fill in the frame of the record just put after {@link #startRecord}.
+	 */
+	private void endRecord() {
+		int end = buffer.position();
+		crc.reset();
+		buffer.position(recordStart + FRAME_SIZE);
+		buffer.limit(end);
+		crc.update(buffer);
+		buffer.limit(buffer.capacity());
+		buffer.putInt(recordStart, end - recordStart - FRAME_SIZE);
+		buffer.putInt(recordStart + 4, (int) crc.getValue());
+	}
+
+	private void write() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Replay the file from the start into the given service, truncate a torn or
+	 * corrupt record and everything after it, and position the channel for
+	 * appending. Reads sequentially through one reused direct buffer; the only
+	 * objects created per event are the added orders themselves.
+	 */
+	private void recover(OrderService replayInto) throws IOException {
+		long size = channel.size();
+		if (size < HEADER_SIZE) {
+			// new (or torn before the header was complete) journal
+			channel.truncate(0);
+			channel.position(0);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			sync();
+			return;
+		}
+		ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		// empty until the first fill
+		in.limit(0);
+		channel.position(0);
+		fill(in, HEADER_SIZE);
+		if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+			throw new IOException("Not an order journal (or unsupported version)");
+		}
+		long position = HEADER_SIZE;
+		String[] users = new String[16];
+		records: while (true) {
+			if (!fill(in, FRAME_SIZE)) {
+				break;
+			}
+			int length = in.getInt(in.position());
+			if (length < 1 || length > MAX_USER_SIZE || !fill(in, FRAME_SIZE + length)) {
+				break;
+			}
+			// skip the length, the record is all in the buffer
+			in.position(in.position() + 4);
+			int checksum = in.getInt();
+			int limit = in.limit();
+			int start = in.position();
+			crc.reset();
+			in.limit(start + length);
+			crc.update(in);
+			in.limit(limit);
+			in.position(start);
+			if ((int) crc.getValue() != checksum || recordSize(in, in.get(start)) != length) {
+				break;
+			}
+			byte type = in.get();
+			switch (type) {
+			case USER: {
+				int code = in.getInt();
+				short userLength = in.getShort();
+				byte[] bytes = new byte[Math.max(userLength, 0)];
+				in.get(bytes);
+				if (code != userCodes.size()) {
+					// codes are handed out in order
+					break records;
+				}
+				if (code >= users.length) {
+					users = Arrays.copyOf(users, users.length * 2);
+				}
+				users[code] = userLength < 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+				userCodes.put(users[code], code);
+				break;
+			}
+			case ADD: {
+				long orderId = in.getLong();
+				int userCode = in.getInt();
+				OrderType orderType = orderType(in.get());
+				if (!isUser(userCode) || orderType == null) {
+					break records;
+				}
+				String userId = users[userCode];
+				long quantityMilligrams = in.getLong();
+				long priceTicks = in.getLong();
+				long expiresAtMillis = in.getLong();
+				if (expiresAtMillis < 0) {
+					break records;
+				}
+				Order order = Order.ofFixedPoint(userId, quantityMilligrams, priceTicks, orderType);
+				// expired by the service's next sweep if its time has passed meanwhile
+				order.setExpiresAtMillis(expiresAtMillis);
+				replayInto.addOrder(order);
+				if (order.getOrderId() != orderId) {
+					throw new IllegalStateException("Journal does not match the order service, expected order id "
+							+ orderId + " but was " + order.getOrderId());
+				}
+				replayedRecords++;
+				break;
+			}
+			case CANCEL_BY_ID:
+				replayInto.cancelOrder(in.getLong());
+				replayedRecords++;
+				break;
+			case CANCEL_BY_VALUE: {
+				int userCode = in.getInt();
+				OrderType orderType = orderType(in.get());
+				if (!isUser(userCode) || orderType == null) {
+					break records;
+				}
+				String userId = users[userCode];
+				long quantityMilligrams = in.getLong();
+				replayInto.cancelOrder(Order.ofFixedPoint(userId, quantityMilligrams, in.getLong(), orderType));
+				replayedRecords++;
+				break;
+			}
+			case AMEND: {
+				long orderId = in.getLong();
+				long quantityMilligrams = in.getLong();
+				replayInto.amendOrder(orderId, FixedPoint.toKilos(quantityMilligrams),
+						FixedPoint.toPricePerKilo(in.getLong()));
+				replayedRecords++;
+				break;
+			}
+			}
+			position += FRAME_SIZE + length;
+		}
+		// drop a record torn by a crash, appends continue after the last good one
+		channel.truncate(position);
+		channel.position(position);
+	}
+
+	/**
+	 * Size of the record of the given type starting at the buffer's position,
+	 * which is all in the buffer, or -1 if the type is unknown. USER records
+	 * take their size from their length field.
+	 */
+	private static int recordSize(ByteBuffer in, byte type) {
+		switch (type) {
+		case USER:
+			if (in.remaining() < 1 + 4 + 2) {
+				return -1;
+			}
+			short length = in.getShort(in.position() + 1 + 4);
+			return length < -1 ? -1 : 1 + 4 + 2 + Math.max(length, 0);
+		case ADD:
+			return ADD_SIZE;
+		case CANCEL_BY_ID:
+			return CANCEL_BY_ID_SIZE;
+		case CANCEL_BY_VALUE:
+			return CANCEL_BY_VALUE_SIZE;
+		case AMEND:
+			return AMEND_SIZE;
+		default:
+			return -1;
+		}
+	}
+
+	/**
+	 * @return true if a USER record gave the given code
+	 */
+	private boolean isUser(int code) {
+		return code >= 0 && code < userCodes.size();
+	}
+
+	/**
+	 * @return the order type with the given ordinal, null if there is none
+	 */
+	private static OrderType orderType(byte ordinal) {
+		return ordinal < 0 || ordinal >= ORDER_TYPES.length ? null : ORDER_TYPES[ordinal];
+	}
+
+	/**
+	 * Make sure at least {@code bytes} unread bytes are in the buffer, reading
+	 * more from the channel if needed.
+	 *
+	 * @return false at end of file
+	 */
+	private boolean fill(ByteBuffer in, int bytes) throws IOException {
+		while (in.remaining() < bytes) {
+			in.compact();
+			int read = channel.read(in);
+			in.flip();
+			if (read < 0) {
+				return in.remaining() >= bytes;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,210 @@
+package com.silverbars.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Compact binary snapshot of all resting orders of a board, see
+ * {@link OrderStore}.
+ *
+ * Like the {@link OrderJournal}, user ids are written once as dictionary
+ * records and orders refer to them by code. Orders follow in the order of the
+ * {@link OrderImage} they were written from, so loading appends each one to the
+ * tail of its level and rebuilds the original time priority.
+ *
+ * Layout (big endian), after a header of magic number, version, long next order
+ * id and long order count:
+ *
+ * - USER: type, int code, short length (-1 for a null user id), UTF-8 bytes
+ *
+ * - ORDER: type, long orderId, int userCode, byte orderType, long quantity (mg),
+ * long price (ticks), long expiresAtMillis (0 if good till cancelled)
+ *
+ * A snapshot is written in full (and forced to disk) before it is used, so a
+ * short or damaged file is an error rather than something to repair.
+ *
+ */
+final class OrderSnapshotFile {
+	static final int MAGIC = 0x5342534E; // "SBSN"
+	static final int VERSION = 3;
+	static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+	static final byte USER = 1;
+	static final byte ORDER = 2;
+
+	static final int ORDER_SIZE = 1 + 8 + 4 + 1 + 8 + 8 + 8;
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	private OrderSnapshotFile() {
+	}
+
+	/**
+	 * Write the given image to the given (new) file and force it to disk.
+	 *
+	 * @param file
+	 * @param image
+	 * @throws IOException
+	 */
+	static void write(Path file, OrderImage image) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putLong(image.nextOrderId);
+			out.putLong(image.size);
+			Map<String, Integer> userCodes = new HashMap<String, Integer>();
+			for (int i = 0; i < image.size; i++) {
+				String userId = image.userIds[i];
+				Integer code = userCodes.get(userId);
+				if (code == null) {
+					byte[] bytes = userId == null ? new byte[0] : userId.getBytes(StandardCharsets.UTF_8);
+					if (bytes.length > Short.MAX_VALUE) {
+						throw new IllegalArgumentException("User id too long: " + userId);
+					}
+					code = userCodes.size();
+					ensureSpace(channel, out, 1 + 4 + 2 + bytes.length);
+					out.put(USER);
+					out.putInt(code);
+					// null is a user of its own, not the same as ""
+					out.putShort(userId == null ? -1 : (short) bytes.length);
+					out.put(bytes);
+					userCodes.put(userId, code);
+				}
+				ensureSpace(channel, out, ORDER_SIZE);
+				out.put(ORDER);
+				out.putLong(image.orderIds[i]);
+				out.putInt(code);
+				out.put(image.orderTypes[i]);
+				out.putLong(image.quantitiesMilligrams[i]);
+				out.putLong(image.pricesTicks[i]);
+				out.putLong(image.expiriesMillis[i]);
+			}
+			write(channel, out);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Stream the given snapshot into the given empty board. Reads through one
+	 * reused direct buffer, the only objects created are the orders themselves
+	 * and one {@code String} per user.
+	 *
+	 * @param file
+	 * @param loadInto
+	 * @return number of orders loaded
+	 * @throws IOException
+	 */
+	static long load(Path file, OrderServiceImpl loadInto) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			// empty until the first fill
+			in.limit(0);
+			fill(channel, in, HEADER_SIZE);
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException("Not an order snapshot (or unsupported version): " + file);
+			}
+			long nextOrderId = in.getLong();
+			long orderCount = in.getLong();
+			String[] users = new String[16];
+			// codes are handed out in order, from 0
+			int userCount = 0;
+			long loaded = 0;
+			while (loaded < orderCount) {
+				fill(channel, in, 1);
+				byte type = in.get();
+				switch (type) {
+				case USER: {
+					fill(channel, in, 4 + 2);
+					int code = in.getInt();
+					short length = in.getShort();
+					if (code != userCount || length < -1) {
+						throw new IOException("Corrupt order snapshot " + file + ", bad user record");
+					}
+					byte[] bytes = new byte[Math.max(length, 0)];
+					fill(channel, in, bytes.length);
+					in.get(bytes);
+					if (code >= users.length) {
+						users = Arrays.copyOf(users, Math.max(users.length * 2, code + 1));
+					}
+					users[code] = length < 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+					userCount++;
+					break;
+				}
+				case ORDER: {
+					fill(channel, in, ORDER_SIZE - 1);
+					long orderId = in.getLong();
+					int userCode = in.getInt();
+					byte orderTypeCode = in.get();
+					if (userCode < 0 || userCode >= userCount) {
+						throw new IOException("Corrupt order snapshot " + file + ", bad user code " + userCode);
+					}
+					if (orderTypeCode < 0 || orderTypeCode >= ORDER_TYPES.length) {
+						throw new IOException("Corrupt order snapshot " + file + ", bad order type " + orderTypeCode);
+					}
+					String userId = users[userCode];
+					OrderType orderType = ORDER_TYPES[orderTypeCode];
+					long quantityMilligrams = in.getLong();
+					long priceTicks = in.getLong();
+					long expiresAtMillis = in.getLong();
+					if (expiresAtMillis < 0) {
+						throw new IOException("Corrupt order snapshot " + file + ", bad expiry " + expiresAtMillis);
+					}
+					Order order = Order.ofFixedPoint(userId, quantityMilligrams, priceTicks, orderType);
+					order.setOrderId(orderId);
+					order.setExpiresAtMillis(expiresAtMillis);
+					loadInto.restoreOrder(order);
+					loaded++;
+					break;
+				}
+				default:
+					throw new IOException("Corrupt order snapshot " + file + ", unknown record type " + type);
+				}
+			}
+			loadInto.setNextOrderId(nextOrderId);
+			return loaded;
+		}
+	}
+
+	private static void ensureSpace(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+		if (out.remaining() < bytes) {
+			write(channel, out);
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Make sure at least {@code bytes} unread bytes are in the buffer, reading
+	 * more from the channel if needed.
+	 */
+	private static void fill(FileChannel channel, ByteBuffer in, int bytes) throws IOException {
+		while (in.remaining() < bytes) {
+			in.compact();
+			int read = channel.read(in);
+			in.flip();
+			if (read < 0 && in.remaining() < bytes) {
+				throw new IOException("Order snapshot is truncated");
+			}
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.silverbars.journal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.silverbars.dao.OrderServiceImpl;
+
+/**
+ * Durable single threaded board kept in a directory as periodic snapshots plus
+ * the journal of events since the last one, so that a restart only replays the
+ * journal's tail instead of the whole history.
+ *
+ * Files are numbered by generation: {@code snapshot-N} holds the board as it
+ * was when {@code journal-N} was started. {@link #takeSnapshot()} starts
+ * journal N+1 and copies the board under the service's lock, which only costs
+ * a pass over the resting orders, then writes snapshot N+1 without holding the
+ * lock. The snapshot becomes visible with an atomic rename once it is on disk,
+ * only then the files of older generations are deleted. So after a crash at any
+ * point, the latest complete snapshot plus the journals from its generation on
+ * always rebuild the board.
+ *
+ * Snapshots must be taken by one thread at a time.
+ *
+ */
+public final class OrderStore implements AutoCloseable {
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String JOURNAL_PREFIX = "journal-";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private final Path directory;
+	private final int syncEveryRecords;
+	private final long syncIntervalMillis;
+	private final OrderServiceImpl book;
+	private final JournaledOrderService orderService;
+
+	// generation of the journal being appended to
+	private long generation;
+
+	// orders loaded from the snapshot and events replayed from journals on open
+	private long loadedOrders;
+	private long replayedRecords;
+
+	private OrderStore(Path directory, int syncEveryRecords, long syncIntervalMillis, OrderServiceImpl book,
+			JournaledOrderService orderService, long generation) {
+		this.directory = directory;
+		this.syncEveryRecords = syncEveryRecords;
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.book = book;
+		this.orderService = orderService;
+		this.generation = generation;
+	}
+
+	/**
+	 * Open (or create) the store in the given directory: load the latest snapshot
+	 * into a new {@link OrderServiceImpl}, replay the journals written since and
+	 * continue appending to the last one.
+	 *
+	 * @param directory
+	 * @param syncEveryRecords   see {@link OrderJournal#open}
+	 * @param syncIntervalMillis see {@link OrderJournal#open}
+	 * @return
+	 * @throws IOException
+	 */
+	public static OrderStore open(Path directory, int syncEveryRecords, long syncIntervalMillis) throws IOException {
+		Files.createDirectories(directory);
+		List<Long> snapshots = new ArrayList<Long>();
+		List<Long> journals = new ArrayList<Long>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					// snapshot whose write never completed
+					Files.delete(file);
+				} else if (name.startsWith(SNAPSHOT_PREFIX)) {
+					snapshots.add(generationOf(name, SNAPSHOT_PREFIX));
+				} else if (name.startsWith(JOURNAL_PREFIX)) {
+					journals.add(generationOf(name, JOURNAL_PREFIX));
+				}
+			}
+		}
+		Collections.sort(journals);
+		long snapshotGeneration = snapshots.isEmpty() ? 0 : Collections.max(snapshots);
+
+		OrderServiceImpl book = new OrderServiceImpl();
+		long loadedOrders = 0;
+		if (!snapshots.isEmpty()) {
+			loadedOrders = OrderSnapshotFile.load(snapshotFile(directory, snapshotGeneration), book);
+		}
+		long replayedRecords = 0;
+		long generation = snapshotGeneration;
+		OrderJournal journal = null;
+		for (long journalGeneration : journals) {
+			if (journalGeneration < snapshotGeneration) {
+				continue;
+			}
+			if (journal != null) {
+				journal.close();
+			}
+			journal = OrderJournal.open(journalFile(directory, journalGeneration), syncEveryRecords,
+					syncIntervalMillis, book);
+			replayedRecords += journal.getReplayedRecords();
+			generation = journalGeneration;
+		}
+		if (journal == null) {
+			journal = OrderJournal.open(journalFile(directory, generation), syncEveryRecords, syncIntervalMillis,
+					book);
+			syncDirectory(directory);
+		}
+		OrderStore store = new OrderStore(directory, syncEveryRecords, syncIntervalMillis, book,
+				new JournaledOrderService(book, journal), generation);
+		store.loadedOrders = loadedOrders;
+		store.replayedRecords = replayedRecords;
+		store.deleteBefore(snapshotGeneration);
+		return store;
+	}
+
+	/**
+	 * @return the durable board, all changes must go through it
+	 */
+	public JournaledOrderService getOrderService() {
+		return orderService;
+	}
+
+	/**
+	 * @return number of orders loaded from the snapshot by {@link #open}
+	 */
+	public long getLoadedOrders() {
+		return loadedOrders;
+	}
+
+	/**
+	 * @return number of journal events replayed by {@link #open}
+	 */
+	public long getReplayedRecords() {
+		return replayedRecords;
+	}
+
+	/**
+	 * Write a snapshot of the current board and drop the journals it makes
+	 * redundant. Writers are only held up while the board is copied, not while the
+	 * snapshot is written.
+	 *
+	 * @throws IOException
+	 */
+	public void takeSnapshot() throws IOException {
+		long next = generation + 1;
+		// a new, empty journal, so there is nothing to replay into the live board
+		OrderJournal nextJournal = OrderJournal.open(journalFile(directory, next), syncEveryRecords,
+				syncIntervalMillis, book);
+		// or a crash could lose the journal, and with it the changes synced into it
+		syncDirectory(directory);
+		OrderImage image;
+		OrderJournal previous;
+		synchronized (orderService) {
+			image = OrderImage.capture(book);
+			previous = orderService.switchJournal(nextJournal);
+		}
+		generation = next;
+		previous.close();
+
+		Path temp = directory.resolve(snapshotFile(directory, next).getFileName() + TEMP_SUFFIX);
+		OrderSnapshotFile.write(temp, image);
+		Files.move(temp, snapshotFile(directory, next), StandardCopyOption.ATOMIC_MOVE);
+		// the rename must be durable before the generation it replaces goes
+		syncDirectory(directory);
+		deleteBefore(next);
+	}
+
+	/**
+	 * Sync and close the current journal.
+	 */
+	@Override
+	public void close() throws IOException {
+		orderService.close();
+	}
+
+	/**
+	 * Delete snapshots and journals of generations older than the given one.
+	 */
+	private void deleteBefore(long keepGeneration) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					continue;
+				}
+				if ((name.startsWith(SNAPSHOT_PREFIX) && generationOf(name, SNAPSHOT_PREFIX) < keepGeneration)
+						|| (name.startsWith(JOURNAL_PREFIX) && generationOf(name, JOURNAL_PREFIX) < keepGeneration)) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Force the entries of the directory (files created, renamed or deleted) to
+	 * disk, like {@code fsync} of the directory.
+	 */
+	private static void syncDirectory(Path directory) throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	private static Path snapshotFile(Path directory, long generation) {
+		return directory.resolve(SNAPSHOT_PREFIX + String.format("%019d", generation));
+	}
+
+	private static Path journalFile(Path directory, long generation) {
+		return directory.resolve(JOURNAL_PREFIX + String.format("%019d", generation));
+	}
+
+	private static long generationOf(String name, String prefix) throws IOException {
+		try {
+			return Long.parseLong(name.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			throw new IOException("Unexpected file in order store: " + name, e);
+		}
+	}
+}
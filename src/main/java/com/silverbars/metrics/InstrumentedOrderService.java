@@ -0,0 +1,190 @@
+package com.silverbars.metrics;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.silverbars.dao.BatchResult;
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.ForwardingOrderService;
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Order service recording what the wrapped service does into an
+ * {@link OrderServiceMetrics}: adds, cancels and failed cancels per order type,
+ * and the latencies of add, cancel and board snapshot calls.
+ *
+ * A cancel by id first looks the order up, to know its order type. That is an
+ * O(1) index lookup on the in-process services, but a second round trip for a
+ * {@code SingleWriterOrderService}, which is better wrapped on the writer's
+ * side if that matters. Nothing is recorded, nor looked up, while the metrics
+ * are disabled.
+ *
+ * The metrics only read the wrapped service's level deltas, never the board,
+ * so they can be polled from any thread, e.g. by JMX, while a single threaded
+ * service is written to by its owner. Create this wrapper on that owner.
+ *
+ */
+public class InstrumentedOrderService extends ForwardingOrderService {
+	private final OrderServiceMetrics metrics;
+
+	/**
+	 * Instrument the given service with new metrics.
+	 *
+	 * @param delegate
+	 */
+	public InstrumentedOrderService(OrderService delegate) {
+		super(delegate);
+		this.metrics = new OrderServiceMetrics(delegate);
+	}
+
+	/**
+	 * @return metrics of the wrapped service
+	 */
+	public OrderServiceMetrics getMetrics() {
+		return metrics;
+	}
+
+	@Override
+	public void addOrder(Order order) {
+		if (!metrics.isEnabled()) {
+			delegate.addOrder(order);
+			return;
+		}
+		long start = System.nanoTime();
+		delegate.addOrder(order);
+		metrics.orderAdded(order.getOrderType(), System.nanoTime() - start);
+	}
+
+	@Override
+	public void cancelOrder(Order order) {
+		if (!metrics.isEnabled()) {
+			delegate.cancelOrder(order);
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			delegate.cancelOrder(order);
+		} catch (IllegalArgumentException e) {
+			metrics.cancelFailed(order.getOrderType(), System.nanoTime() - start);
+			throw e;
+		}
+		metrics.orderCancelled(order.getOrderType(), System.nanoTime() - start);
+	}
+
+	@Override
+	public void cancelOrder(long orderId) {
+		if (!metrics.isEnabled()) {
+			delegate.cancelOrder(orderId);
+			return;
+		}
+		long start = System.nanoTime();
+		Order order = delegate.getOrder(orderId);
+		try {
+			delegate.cancelOrder(orderId);
+		} catch (IllegalArgumentException e) {
+			metrics.cancelFailed(order == null ? null : order.getOrderType(), System.nanoTime() - start);
+			throw e;
+		}
+		if (order != null) {
+			metrics.orderCancelled(order.getOrderType(), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Counted per order, the latency of a batch is not recorded.
+	 */
+	@Override
+	public BatchResult addOrders(Collection<Order> orders) {
+		BatchResult result = delegate.addOrders(orders);
+		if (metrics.isEnabled()) {
+			int i = 0;
+			for (Order order : orders) {
+				if (!result.isFailed(i++)) {
+					metrics.orderAdded(order.getOrderType());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counted per order, the latency of a batch is not recorded.
+	 */
+	@Override
+	public BatchResult cancelOrders(Collection<Order> orders) {
+		BatchResult result = delegate.cancelOrders(orders);
+		if (metrics.isEnabled()) {
+			int i = 0;
+			for (Order order : orders) {
+				if (result.isFailed(i++)) {
+					metrics.cancelFailed(order.getOrderType());
+				} else {
+					metrics.orderCancelled(order.getOrderType());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counted per order, the latency of a batch is not recorded.
+	 */
+	@Override
+	public BatchResult cancelOrders(long[] orderIds) {
+		if (!metrics.isEnabled()) {
+			return delegate.cancelOrders(orderIds);
+		}
+		OrderType[] orderTypes = new OrderType[orderIds.length];
+		for (int i = 0; i < orderIds.length; i++) {
+			Order order = delegate.getOrder(orderIds[i]);
+			orderTypes[i] = order == null ? null : order.getOrderType();
+		}
+		BatchResult result = delegate.cancelOrders(orderIds);
+		for (int i = 0; i < orderIds.length; i++) {
+			if (result.isFailed(i)) {
+				metrics.cancelFailed(orderTypes[i]);
+			} else if (orderTypes[i] != null) {
+				metrics.orderCancelled(orderTypes[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counted per cancelled order, the latency is not recorded.
+	 */
+	@Override
+	public List<Order> cancelAllOrdersForUser(String userId) {
+		List<Order> cancelled = delegate.cancelAllOrdersForUser(userId);
+		if (metrics.isEnabled()) {
+			for (Order order : cancelled) {
+				metrics.orderCancelled(order.getOrderType());
+			}
+		}
+		return cancelled;
+	}
+
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot) {
+		if (!metrics.isEnabled()) {
+			return delegate.getBoardSnapshot(snapshot);
+		}
+		long start = System.nanoTime();
+		BoardSnapshot result = delegate.getBoardSnapshot(snapshot);
+		metrics.snapshotTaken(System.nanoTime() - start);
+		return result;
+	}
+
+	@Override
+	public BoardSnapshot getBoardSnapshot(BoardSnapshot snapshot, int depth) {
+		if (!metrics.isEnabled()) {
+			return delegate.getBoardSnapshot(snapshot, depth);
+		}
+		long start = System.nanoTime();
+		BoardSnapshot result = delegate.getBoardSnapshot(snapshot, depth);
+		metrics.snapshotTaken(System.nanoTime() - start);
+		return result;
+	}
+}
@@ -0,0 +1,119 @@
+package com.silverbars.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HDR style histogram of latencies in nanoseconds, safe to record into from any
+ * number of threads.
+ *
+ * Values are counted in log-linear buckets: exact below 128, then 64 buckets
+ * per power of two, so any recorded value is reported within 1.6% of itself
+ * over the whole {@code long} range. All buckets are allocated up front, so
+ * recording is a few shifts and an atomic increment, it never allocates nor
+ * takes a lock.
+ *
+ * Reading while others record gives a close, not an exact, picture: each
+ * bucket is read atomically but not all of them at the same instant.
+ *
+ */
+public final class LatencyHistogram {
+	// buckets per power of two above LINEAR_LIMIT
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	// values below are counted exactly, one bucket each
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+
+	// enough buckets for Long.MAX_VALUE
+	private static final int BUCKETS = indexOf(Long.MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Count one latency, negative values are counted as 0.
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(indexOf(nanos));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * @return number of recorded latencies
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return highest recorded latency, 0 if none
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @return average recorded latency, 0 if none
+	 */
+	public double getMeanNanos() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalNanos.get() / count;
+	}
+
+	/**
+	 * Latency which the given percentage of recorded latencies do not exceed,
+	 * rounded up to the top of its bucket.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), maxNanos.get());
+			}
+		}
+		return 0;
+	}
+
+	private static int indexOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,67 @@
+package com.silverbars.metrics;
+
+/**
+ * Point-in-time summary of a {@link LatencyHistogram}, in nanoseconds. Also the
+ * JMX view of a histogram: its getters become the items of a composite
+ * attribute.
+ *
+ */
+public final class LatencySummary {
+	private final long count;
+	private final double mean;
+	private final long p50;
+	private final long p99;
+	private final long p999;
+	private final long max;
+
+	private LatencySummary(long count, double mean, long p50, long p99, long p999, long max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * Summarise the given histogram as it is now.
+	 *
+	 * @param histogram
+	 * @return
+	 */
+	public static LatencySummary of(LatencyHistogram histogram) {
+		return new LatencySummary(histogram.getCount(), histogram.getMeanNanos(),
+				histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+				histogram.getValueAtPercentile(99.9), histogram.getMaxNanos());
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getP999() {
+		return p999;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + mean + "ns, p50=" + p50 + "ns, p99=" + p99 + "ns, p99.9=" + p999
+				+ "ns, max=" + max + "ns";
+	}
+}
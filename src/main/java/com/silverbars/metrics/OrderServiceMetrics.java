@@ -0,0 +1,229 @@
+package com.silverbars.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.silverbars.dao.BoardDeltaListener;
+import com.silverbars.dao.BoardSubscription;
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Counters and latency histograms of an {@link OrderService}, recorded by an
+ * {@link InstrumentedOrderService} and read by polling this object or through
+ * JMX, see {@link #registerMBean(String)}.
+ *
+ * Recording only does atomic increments into structures allocated up front, no
+ * allocation and no locks. It can be switched off at any time with
+ * {@link #setEnabled(boolean)}, which leaves the instrumented service doing
+ * nothing more than one volatile read per call. The current level and order
+ * counts are kept from the service's level deltas, see
+ * {@link OrderService#subscribeBoardDeltas()}, which the service records on
+ * every change, enabled or not. Reading drains them, O(1) per level changed
+ * since the previous read, and never touches the board itself, so it is safe
+ * from any thread even for a single threaded service. Reading builds small
+ * value objects, so it is meant for a poller every few seconds, not for the hot
+ * path.
+ *
+ */
+public class OrderServiceMetrics implements OrderServiceMetricsMXBean {
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	// counter slots per order type
+	private static final int ADDED = 0;
+	private static final int CANCELLED = 1;
+	private static final int FAILED_CANCELS = 2;
+	private static final int COUNTERS = 3;
+
+	// level changes of the service, drained into the counts below
+	private final BoardSubscription levels;
+
+	// order count of each level of each order type, by price ticks, guarded by this
+	private final Map<OrderType, Map<Long, Integer>> levelOrderCounts = new HashMap<OrderType, Map<Long, Integer>>();
+
+	// orders on the board per order type, guarded by this
+	private final long[] orderCounts = new long[ORDER_TYPES.length];
+
+	// applies drained level changes to the counts
+	private final BoardDeltaListener applier = this::levelChanged;
+
+	private volatile boolean enabled = true;
+
+	// COUNTERS slots per order type, then one for failed cancels of unknown ids
+	private final AtomicLongArray counters = new AtomicLongArray(ORDER_TYPES.length * COUNTERS + 1);
+
+	private final LatencyHistogram addLatency = new LatencyHistogram();
+	private final LatencyHistogram cancelLatency = new LatencyHistogram();
+	private final LatencyHistogram snapshotLatency = new LatencyHistogram();
+
+	/**
+	 * Subscribes to the level changes of the given service, so must be called
+	 * from a thread allowed to read it, like its writer for a single threaded
+	 * service.
+	 *
+	 * @param orderService board to keep the current level and order counts of
+	 */
+	public OrderServiceMetrics(OrderService orderService) {
+		for (OrderType orderType : ORDER_TYPES) {
+			levelOrderCounts.put(orderType, new HashMap<Long, Integer>());
+		}
+		levels = orderService.subscribeBoardDeltas();
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Counters of the given order type as they are now.
+	 *
+	 * @param orderType
+	 * @return
+	 */
+	public OrderTypeCounters getCounters(OrderType orderType) {
+		int base = orderType.ordinal() * COUNTERS;
+		long orderCount;
+		int levelCount;
+		synchronized (this) {
+			levels.poll(applier);
+			orderCount = orderCounts[orderType.ordinal()];
+			levelCount = levelOrderCounts.get(orderType).size();
+		}
+		return new OrderTypeCounters(counters.get(base + ADDED), counters.get(base + CANCELLED),
+				counters.get(base + FAILED_CANCELS), orderCount, levelCount);
+	}
+
+	@Override
+	public OrderTypeCounters getBuy() {
+		return getCounters(OrderType.BUY);
+	}
+
+	@Override
+	public OrderTypeCounters getSell() {
+		return getCounters(OrderType.SELL);
+	}
+
+	@Override
+	public long getFailedCancelsOfUnknownOrders() {
+		return counters.get(ORDER_TYPES.length * COUNTERS);
+	}
+
+	@Override
+	public LatencySummary getAddLatency() {
+		return LatencySummary.of(addLatency);
+	}
+
+	@Override
+	public LatencySummary getCancelLatency() {
+		return LatencySummary.of(cancelLatency);
+	}
+
+	@Override
+	public LatencySummary getSnapshotLatency() {
+		return LatencySummary.of(snapshotLatency);
+	}
+
+	/**
+	 * @return histogram of addOrder latencies
+	 */
+	public LatencyHistogram getAddLatencyHistogram() {
+		return addLatency;
+	}
+
+	/**
+	 * @return histogram of cancelOrder latencies, successful or not
+	 */
+	public LatencyHistogram getCancelLatencyHistogram() {
+		return cancelLatency;
+	}
+
+	/**
+	 * @return histogram of getBoardSnapshot latencies
+	 */
+	public LatencyHistogram getSnapshotLatencyHistogram() {
+		return snapshotLatency;
+	}
+
+	/**
+	 * Register this object with the platform MBean server under the given name,
+	 * e.g. {@code com.silverbars:type=OrderService,name=board}.
+	 *
+	 * @param objectName
+	 * @return the registered name
+	 * @throws JMException
+	 */
+	public ObjectName registerMBean(String objectName) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(objectName);
+		server.registerMBean(this, name);
+		return name;
+	}
+
+	/**
+	 * Stop following the service's level changes, the level and order counts
+	 * stay as they are.
+	 */
+	public void close() {
+		levels.close();
+	}
+
+	// caller holds the lock of this
+	private void levelChanged(OrderType orderType, BoardDeltaListener.LevelChange change, long priceTicks,
+			long totalQuantityMilligrams, int orderCount) {
+		Integer before = change == BoardDeltaListener.LevelChange.REMOVED
+				? levelOrderCounts.get(orderType).remove(priceTicks)
+				: levelOrderCounts.get(orderType).put(priceTicks, orderCount);
+		orderCounts[orderType.ordinal()] += orderCount - (before == null ? 0 : before);
+	}
+
+	void orderAdded(OrderType orderType, long nanos) {
+		orderAdded(orderType);
+		addLatency.record(nanos);
+	}
+
+	void orderAdded(OrderType orderType) {
+		counters.incrementAndGet(orderType.ordinal() * COUNTERS + ADDED);
+	}
+
+	void orderCancelled(OrderType orderType, long nanos) {
+		orderCancelled(orderType);
+		cancelLatency.record(nanos);
+	}
+
+	void orderCancelled(OrderType orderType) {
+		counters.incrementAndGet(orderType.ordinal() * COUNTERS + CANCELLED);
+	}
+
+	/**
+	 * @param orderType null if the order is unknown
+	 * @param nanos
+	 */
+	void cancelFailed(OrderType orderType, long nanos) {
+		cancelFailed(orderType);
+		cancelLatency.record(nanos);
+	}
+
+	/**
+	 * @param orderType null if the order is unknown
+	 */
+	void cancelFailed(OrderType orderType) {
+		counters.incrementAndGet(orderType == null ? ORDER_TYPES.length * COUNTERS
+				: orderType.ordinal() * COUNTERS + FAILED_CANCELS);
+	}
+
+	void snapshotTaken(long nanos) {
+		snapshotLatency.record(nanos);
+	}
+}
@@ -0,0 +1,27 @@
+package com.silverbars.metrics;
+
+/**
+ * JMX view of {@link OrderServiceMetrics}.
+ *
+ */
+public interface OrderServiceMetricsMXBean {
+
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	OrderTypeCounters getBuy();
+
+	OrderTypeCounters getSell();
+
+	/**
+	 * @return cancels by id of an unknown order, which have no order type
+	 */
+	long getFailedCancelsOfUnknownOrders();
+
+	LatencySummary getAddLatency();
+
+	LatencySummary getCancelLatency();
+
+	LatencySummary getSnapshotLatency();
+}
@@ -0,0 +1,63 @@
+package com.silverbars.metrics;
+
+/**
+ * Point-in-time counters of one order type. Also the JMX view of them: its
+ * getters become the items of a composite attribute.
+ *
+ */
+public final class OrderTypeCounters {
+	private final long ordersAdded;
+	private final long ordersCancelled;
+	private final long failedCancels;
+	private final long orderCount;
+	private final int levelCount;
+
+	OrderTypeCounters(long ordersAdded, long ordersCancelled, long failedCancels, long orderCount, int levelCount) {
+		this.ordersAdded = ordersAdded;
+		this.ordersCancelled = ordersCancelled;
+		this.failedCancels = failedCancels;
+		this.orderCount = orderCount;
+		this.levelCount = levelCount;
+	}
+
+	/**
+	 * @return orders added while recording was enabled
+	 */
+	public long getOrdersAdded() {
+		return ordersAdded;
+	}
+
+	/**
+	 * @return orders cancelled while recording was enabled
+	 */
+	public long getOrdersCancelled() {
+		return ordersCancelled;
+	}
+
+	/**
+	 * @return cancels rejected (no such order) while recording was enabled
+	 */
+	public long getFailedCancels() {
+		return failedCancels;
+	}
+
+	/**
+	 * @return orders resting on the board now
+	 */
+	public long getOrderCount() {
+		return orderCount;
+	}
+
+	/**
+	 * @return price levels on the board now
+	 */
+	public int getLevelCount() {
+		return levelCount;
+	}
+
+	@Override
+	public String toString() {
+		return "ordersAdded=" + ordersAdded + ", ordersCancelled=" + ordersCancelled + ", failedCancels="
+				+ failedCancels + ", orderCount=" + orderCount + ", levelCount=" + levelCount;
+	}
+}
@@ -0,0 +1,53 @@
+package com.silverbars.net;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of equally sized direct buffers, so that connections coming and going
+ * do not allocate (and later free) native memory each time. Buffers are handed
+ * out cleared; one which is not released is simply left to the garbage
+ * collector.
+ *
+ * Not thread safe, owned by the thread of an {@link OrderServer}.
+ */
+final class BufferPool {
+	private final int bufferBytes;
+	private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+	/**
+	 * @param bufferBytes size of every buffer
+	 * @param buffers     number of buffers allocated up front
+	 */
+	BufferPool(int bufferBytes, int buffers) {
+		this.bufferBytes = bufferBytes;
+		for (int i = 0; i < buffers; i++) {
+			free.push(ByteBuffer.allocateDirect(bufferBytes));
+		}
+	}
+
+	/**
+	 * @return a cleared buffer, allocated only if the pool is empty
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferBytes);
+	}
+
+	/**
+	 * Give the given buffer back for reuse.
+	 *
+	 * @param buffer
+	 */
+	void release(ByteBuffer buffer) {
+		buffer.clear();
+		free.push(buffer);
+	}
+
+	/**
+	 * @return number of buffers ready to be handed out
+	 */
+	int getFreeCount() {
+		return free.size();
+	}
+}
@@ -0,0 +1,297 @@
+package com.silverbars.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Blocking client of an {@link OrderServer}.
+ *
+ * Requests can be pipelined: {@code send...} only encodes a request into the
+ * output buffer (writing it out when full), {@link #flush()} writes what is
+ * buffered, and each {@link #receive()} reads the next response, in the order
+ * the requests were sent. The synchronous methods ({@link #addOrder(Order)},
+ * ...) send one request and wait for its response, turning a rejection into
+ * IllegalArgumentException as the {@code OrderService} would.
+ *
+ * Not thread safe, one client per thread.
+ */
+public final class OrderClient implements AutoCloseable {
+	private final SocketChannel channel;
+	private final ByteBuffer out = ByteBuffer.allocateDirect(OrderProtocol.MAX_FRAME_BYTES);
+
+	// responses read but not received yet, in read mode
+	private final ByteBuffer in = ByteBuffer.allocateDirect(OrderProtocol.MAX_FRAME_BYTES);
+
+	// encoded bytes of the last user id sent, reused while it stays the same
+	private String lastUserId;
+	private byte[] lastUserIdBytes;
+
+	// the last response received
+	private byte responseType;
+	private byte status;
+	private long orderId;
+	private final BoardSnapshot board = new BoardSnapshot();
+
+	private OrderClient(SocketChannel channel) {
+		this.channel = channel;
+		in.limit(0);
+	}
+
+	/**
+	 * Connect to the server at the given address.
+	 *
+	 * @param address
+	 * @return
+	 * @throws IOException
+	 */
+	public static OrderClient connect(InetSocketAddress address) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		return new OrderClient(channel);
+	}
+
+	/**
+	 * Buffer a request to add an order with the given values.
+	 *
+	 * @param userId
+	 * @param orderType
+	 * @param quantityMilligrams
+	 * @param priceTicks
+	 * @throws IOException
+	 */
+	public void sendAddOrder(String userId, OrderType orderType, long quantityMilligrams, long priceTicks)
+			throws IOException {
+		if (userId != lastUserId) {
+			byte[] bytes = userId.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > OrderProtocol.MAX_USER_ID_BYTES) {
+				throw new IllegalArgumentException("User id too long: " + userId);
+			}
+			lastUserId = userId;
+			lastUserIdBytes = bytes;
+		}
+		int length = OrderProtocol.ADD_BYTES + lastUserIdBytes.length;
+		ensureSpace(length);
+		out.putInt(length - OrderProtocol.LENGTH_BYTES);
+		out.put(OrderProtocol.ADD);
+		out.put((byte) orderType.ordinal());
+		out.putLong(quantityMilligrams);
+		out.putLong(priceTicks);
+		out.putShort((short) lastUserIdBytes.length);
+		out.put(lastUserIdBytes);
+	}
+
+	/**
+	 * Buffer a request to cancel the order with the given id.
+	 *
+	 * @param orderId
+	 * @throws IOException
+	 */
+	public void sendCancelOrder(long orderId) throws IOException {
+		ensureSpace(OrderProtocol.CANCEL_BYTES);
+		out.putInt(OrderProtocol.CANCEL_BYTES - OrderProtocol.LENGTH_BYTES);
+		out.put(OrderProtocol.CANCEL);
+		out.putLong(orderId);
+	}
+
+	/**
+	 * Buffer a request to amend the order with the given id.
+	 *
+	 * @param orderId
+	 * @param quantityMilligrams
+	 * @param priceTicks
+	 * @throws IOException
+	 */
+	public void sendAmendOrder(long orderId, long quantityMilligrams, long priceTicks) throws IOException {
+		ensureSpace(OrderProtocol.AMEND_BYTES);
+		out.putInt(OrderProtocol.AMEND_BYTES - OrderProtocol.LENGTH_BYTES);
+		out.put(OrderProtocol.AMEND);
+		out.putLong(orderId);
+		out.putLong(quantityMilligrams);
+		out.putLong(priceTicks);
+	}
+
+	/**
+	 * Buffer a request for the best {@code depth} levels of the board (at most
+	 * {@link OrderProtocol#MAX_DEPTH}).
+	 *
+	 * @param depth
+	 * @throws IOException
+	 */
+	public void sendBoard(int depth) throws IOException {
+		ensureSpace(OrderProtocol.BOARD_BYTES);
+		out.putInt(OrderProtocol.BOARD_BYTES - OrderProtocol.LENGTH_BYTES);
+		out.put(OrderProtocol.BOARD);
+		out.putInt(depth);
+	}
+
+	/**
+	 * Write all buffered requests.
+	 *
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Wait for the next response, flushing buffered requests first.
+	 *
+	 * @return its status, see {@link OrderProtocol#OK}
+	 * @throws IOException
+	 */
+	public byte receive() throws IOException {
+		if (out.position() > 0) {
+			flush();
+		}
+		fill(OrderProtocol.LENGTH_BYTES);
+		int length = OrderProtocol.frameLength(in);
+		if (length < OrderProtocol.RESPONSE_BYTES) {
+			throw new IOException("Invalid frame length " + length);
+		}
+		fill(length);
+		int end = in.position() + length;
+		in.position(in.position() + OrderProtocol.LENGTH_BYTES);
+		responseType = in.get();
+		status = in.get();
+		orderId = 0;
+		if (status == OrderProtocol.OK) {
+			if (responseType == OrderProtocol.ADD) {
+				orderId = in.getLong();
+			} else if (responseType == OrderProtocol.BOARD) {
+				board.readFrom(in);
+			}
+		}
+		in.position(end);
+		return status;
+	}
+
+	/**
+	 * @return type of the request the last response answers
+	 */
+	public byte getResponseType() {
+		return responseType;
+	}
+
+	/**
+	 * @return status of the last response
+	 */
+	public byte getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return id given to the order by the last response to an ADD, 0 otherwise
+	 */
+	public long getOrderId() {
+		return orderId;
+	}
+
+	/**
+	 * The levels of the last response to a BOARD request. Overwritten by the next
+	 * one, copy what needs to be kept.
+	 *
+	 * @return
+	 */
+	public BoardSnapshot getBoard() {
+		return board;
+	}
+
+	/**
+	 * Add the given order and wait for its id, which is also set on the order.
+	 *
+	 * @param order
+	 * @return the order's new id
+	 * @throws IOException
+	 */
+	public long addOrder(Order order) throws IOException {
+		sendAddOrder(order.getUserId(), order.getOrderType(), order.getQuantityMilligrams(), order.getPriceTicks());
+		check(receive(), "Could not add " + order);
+		order.setOrderId(orderId);
+		return orderId;
+	}
+
+	/**
+	 * Cancel the order with the given id and wait for the outcome.
+	 *
+	 * @param orderId
+	 * @throws IOException
+	 */
+	public void cancelOrder(long orderId) throws IOException {
+		sendCancelOrder(orderId);
+		check(receive(), "Could not cancel order id " + orderId);
+	}
+
+	/**
+	 * Amend the order with the given id and wait for the outcome.
+	 *
+	 * @param orderId
+	 * @param orderQuantity
+	 * @param pricePerKilo
+	 * @throws IOException
+	 */
+	public void amendOrder(long orderId, double orderQuantity, double pricePerKilo) throws IOException {
+		sendAmendOrder(orderId, FixedPoint.toMilligrams(orderQuantity), FixedPoint.toPriceTicks(pricePerKilo));
+		check(receive(), "Could not amend order id " + orderId);
+	}
+
+	/**
+	 * Read the best {@code depth} levels of the board.
+	 *
+	 * @param depth
+	 * @return the levels, see {@link #getBoard()}
+	 * @throws IOException
+	 */
+	public BoardSnapshot getBoardSnapshot(int depth) throws IOException {
+		sendBoard(depth);
+		check(receive(), "Could not read the board");
+		return board;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static void check(byte status, String message) {
+		if (status == OrderProtocol.REJECTED) {
+			throw new IllegalArgumentException(message);
+		}
+		if (status != OrderProtocol.OK) {
+			throw new IllegalStateException(message + ", status " + status);
+		}
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if (out.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Make sure at least {@code bytes} unread bytes are in the input buffer.
+	 */
+	private void fill(int bytes) throws IOException {
+		while (in.remaining() < bytes) {
+			in.compact();
+			int read = channel.read(in);
+			in.flip();
+			if (read < 0) {
+				throw new EOFException("Connection closed by the server");
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.silverbars.net;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.silverbars.dao.BoardFormatter;
+import com.silverbars.dao.OrderService;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.OrderType;
+import com.silverbars.metrics.LatencyHistogram;
+
+/**
+ * Loopback load test of the network front end: starts an {@link OrderServer}
+ * in front of a plain {@link OrderServiceImpl} and drives it from a number of
+ * client threads, each over a connection of its own.
+ *
+ * Each client pipelines a window of adds, waits for their ids, then pipelines
+ * the cancels of those orders, so the board stays small while every message
+ * goes through the whole stack. The time from sending a window to receiving its
+ * last response is recorded per window.
+ *
+ * Usage: {@code OrderLoadGenerator [clients] [seconds] [window]}
+ */
+public final class OrderLoadGenerator {
+	// mid price of the generated orders, in ticks
+	private static final long MID_PRICE_TICKS = 30000;
+
+	// distinct users per client
+	private static final int USERS = 64;
+
+	private final int clients;
+	private final long durationNanos;
+	private final int window;
+
+	// messages answered and window round trips, over all clients
+	private final AtomicLong messages = new AtomicLong();
+	private final LatencyHistogram roundTrips = new LatencyHistogram();
+
+	/**
+	 * @param clients number of client threads and connections
+	 * @param seconds how long to run
+	 * @param window  requests each client pipelines before waiting for
+	 *                responses, keep it well below what the socket buffers hold
+	 */
+	public OrderLoadGenerator(int clients, int seconds, int window) {
+		if (clients <= 0 || seconds <= 0 || window <= 0) {
+			throw new IllegalArgumentException("Invalid load: " + clients + " clients, " + seconds + " s, window " + window);
+		}
+		this.clients = clients;
+		this.durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+		this.window = window;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int window = args.length > 2 ? Integer.parseInt(args[2]) : 128;
+		new OrderLoadGenerator(clients, seconds, window).run(new OrderServiceImpl(), System.out);
+	}
+
+	/**
+	 * Serve the given service on a loopback port, run the clients against it and
+	 * report to the given stream. The service is left to the server's thread
+	 * throughout, even the final board is read through a client.
+	 *
+	 * @param orderService
+	 * @param report
+	 * @return number of messages answered
+	 * @throws Exception
+	 */
+	public long run(OrderService orderService, PrintStream report) throws Exception {
+		try (OrderServer server = new OrderServer(orderService,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+			InetSocketAddress address = server.getLocalAddress();
+			Thread[] threads = new Thread[clients];
+			Exception[] failures = new Exception[clients];
+			long start = System.nanoTime();
+			for (int c = 0; c < clients; c++) {
+				int client = c;
+				threads[c] = new Thread(() -> {
+					try {
+						drive(address, client, start + durationNanos);
+					} catch (Exception e) {
+						failures[client] = e;
+					}
+				}, "order-load-" + c);
+				threads[c].start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			long elapsedNanos = System.nanoTime() - start;
+			for (Exception failure : failures) {
+				if (failure != null) {
+					throw failure;
+				}
+			}
+			report.printf("%d clients, window %d: %d messages in %.1f s, %.0f messages/s%n", clients, window,
+					messages.get(), elapsedNanos / 1e9, messages.get() * 1e9 / elapsedNanos);
+			report.printf("window round trip (us): p50 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+					roundTrips.getValueAtPercentile(50) / 1e3, roundTrips.getValueAtPercentile(99) / 1e3,
+					roundTrips.getValueAtPercentile(99.9) / 1e3, roundTrips.getMaxNanos() / 1e3);
+			try (OrderClient client = OrderClient.connect(address)) {
+				BoardFormatter.print(client.getBoardSnapshot(10), report);
+			}
+			return messages.get();
+		}
+	}
+
+	/**
+	 * One client: windows of adds, then of cancels, until the deadline.
+	 */
+	private void drive(InetSocketAddress address, int client, long deadline) throws IOException {
+		Random random = new Random(client);
+		String[] users = new String[USERS];
+		for (int i = 0; i < USERS; i++) {
+			users[i] = "load" + client + "-" + i;
+		}
+		long[] orderIds = new long[window];
+		try (OrderClient orderClient = OrderClient.connect(address)) {
+			while (System.nanoTime() < deadline) {
+				long start = System.nanoTime();
+				for (int i = 0; i < window; i++) {
+					boolean buy = random.nextBoolean();
+					// near the mid price, BUY below and SELL above it
+					long distance = 1 + (long) Math.abs(random.nextGaussian() * 50);
+					orderClient.sendAddOrder(users[random.nextInt(USERS)], buy ? OrderType.BUY : OrderType.SELL,
+							(1 + random.nextInt(50)) * 100000L,
+							buy ? MID_PRICE_TICKS - distance : MID_PRICE_TICKS + distance);
+				}
+				orderClient.flush();
+				for (int i = 0; i < window; i++) {
+					if (orderClient.receive() != OrderProtocol.OK) {
+						throw new IllegalStateException("Add rejected, status " + orderClient.getStatus());
+					}
+					orderIds[i] = orderClient.getOrderId();
+				}
+				long added = System.nanoTime();
+				roundTrips.record(added - start);
+
+				for (int i = 0; i < window; i++) {
+					orderClient.sendCancelOrder(orderIds[i]);
+				}
+				orderClient.flush();
+				for (int i = 0; i < window; i++) {
+					if (orderClient.receive() != OrderProtocol.OK) {
+						throw new IllegalStateException("Cancel rejected, status " + orderClient.getStatus());
+					}
+				}
+				roundTrips.record(System.nanoTime() - added);
+				messages.addAndGet(2 * window);
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.silverbars.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary frame format spoken between {@link OrderServer} and
+ * {@link OrderClient}.
+ *
+ * Every frame starts with an {@code int} length of the rest of the frame, so a
+ * reader knows when a frame is complete without parsing it. All values are big
+ * endian, quantities and prices are the fixed-point longs of {@code Order}.
+ *
+ * Requests: length, byte type, then
+ *
+ * - ADD: byte orderType, long quantity (mg), long price (ticks), short length
+ * and UTF-8 bytes of the user id
+ *
+ * - CANCEL: long orderId
+ *
+ * - AMEND: long orderId, long quantity (mg), long price (ticks)
+ *
+ * - BOARD: int depth
+ *
+ * Responses come back in the order of the requests, so a client can pipeline
+ * requests without waiting: length, byte type of the request, byte status,
+ * then for ADD the new long orderId and for BOARD the levels as written by
+ * {@code BoardSnapshot#writeTo}, both only if the status is OK.
+ *
+ */
+public final class OrderProtocol {
+	public static final byte ADD = 1;
+	public static final byte CANCEL = 2;
+	public static final byte AMEND = 3;
+	public static final byte BOARD = 4;
+
+	// request applied
+	public static final byte OK = 0;
+	// request rejected by the order service, e.g. an unknown order id
+	public static final byte REJECTED = 1;
+	// request failed for another reason, e.g. the order service is closed
+	public static final byte FAILED = 2;
+
+	// bytes of the length prefix of every frame
+	public static final int LENGTH_BYTES = Integer.BYTES;
+
+	// largest frame either side accepts, length prefix included
+	public static final int MAX_FRAME_BYTES = 64 * 1024;
+
+	// most levels per order type a BOARD response carries, so it fits a frame
+	public static final int MAX_DEPTH = 1000;
+
+	// longest user id, in UTF-8 bytes
+	public static final int MAX_USER_ID_BYTES = 256;
+
+	// frame sizes, length prefix included
+	static final int ADD_BYTES = LENGTH_BYTES + 1 + 1 + Long.BYTES + Long.BYTES + Short.BYTES;
+	static final int CANCEL_BYTES = LENGTH_BYTES + 1 + Long.BYTES;
+	static final int AMEND_BYTES = LENGTH_BYTES + 1 + Long.BYTES + Long.BYTES + Long.BYTES;
+	static final int BOARD_BYTES = LENGTH_BYTES + 1 + Integer.BYTES;
+	static final int RESPONSE_BYTES = LENGTH_BYTES + 1 + 1;
+
+	private OrderProtocol() {
+	}
+
+	/**
+	 * Length of the frame starting at the buffer's position, length prefix
+	 * included, or -1 if not even the prefix has arrived yet. Does not move the
+	 * position.
+	 *
+	 * @param buffer
+	 * @return
+	 * @throws IOException if the prefix is not the length of a non empty frame of
+	 *                     at most {@link #MAX_FRAME_BYTES}
+	 */
+	static int frameLength(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < LENGTH_BYTES) {
+			return -1;
+		}
+		int prefix = buffer.getInt(buffer.position());
+		// checked before adding the prefix's own length, which could overflow
+		if (prefix <= 0 || prefix > MAX_FRAME_BYTES - LENGTH_BYTES) {
+			throw new IOException("Invalid frame length " + prefix);
+		}
+		return LENGTH_BYTES + prefix;
+	}
+}
@@ -0,0 +1,461 @@
+package com.silverbars.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.OrderService;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Network front end of an {@link OrderService}: a non-blocking NIO server
+ * speaking the binary {@link OrderProtocol}.
+ *
+ * One thread runs a selector over all connections. Each connection gets an
+ * input and an output buffer from a pool for as long as it is open. Requests
+ * are decoded straight from the input buffer and their responses encoded
+ * straight into the output buffer, so apart from the added orders themselves
+ * (and the first sight of a user id) nothing is allocated per message.
+ *
+ * Clients may pipeline: every complete request read is applied and answered in
+ * order, and all responses of one read go out in one write. A client which
+ * does not read its responses gets no further requests applied until it does
+ * (its output buffer is full), and is not read from meanwhile.
+ *
+ * The service is only ever called from the server's thread, so it does not
+ * need to be thread safe. In turn, unless it is, no other thread may touch the
+ * service while the server runs, not even to read it: read it through
+ * {@link #submitQuery(Function)} instead, which runs on the server's thread in
+ * between requests.
+ *
+ * Must be closed to stop the server thread and close all connections.
+ */
+public class OrderServer implements AutoCloseable {
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	// largest response, a BOARD of MAX_DEPTH levels per order type
+	private static final int MAX_RESPONSE_BYTES = OrderProtocol.RESPONSE_BYTES
+			+ ORDER_TYPES.length * (Integer.BYTES + OrderProtocol.MAX_DEPTH * (Long.BYTES + Long.BYTES + Integer.BYTES));
+
+	// buffers allocated up front, two per connection
+	private static final int POOLED_BUFFERS = 32;
+
+	// recently seen user ids, by hash of their bytes, a power of two
+	private static final int USER_CACHE_SIZE = 1024;
+
+	/**
+	 * State of one client connection.
+	 */
+	private static final class Connection {
+		final SocketChannel channel;
+
+		// requests read but not applied yet, in write mode
+		final ByteBuffer in;
+
+		// responses not written yet, in write mode
+		final ByteBuffer out;
+
+		Connection(SocketChannel channel, ByteBuffer in, ByteBuffer out) {
+			this.channel = channel;
+			this.in = in;
+			this.out = out;
+		}
+	}
+
+	/**
+	 * A read of the service waiting for the server's thread.
+	 */
+	private static final class Query<T> {
+		final Function<OrderService, T> function;
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		Query(Function<OrderService, T> function) {
+			this.function = function;
+		}
+
+		void run(OrderService orderService) {
+			try {
+				future.complete(function.apply(orderService));
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private final OrderService orderService;
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final BufferPool buffers = new BufferPool(OrderProtocol.MAX_FRAME_BYTES, POOLED_BUFFERS);
+	private final Thread thread;
+
+	private volatile boolean running = true;
+
+	// set once the server thread runs no more queries
+	private volatile boolean stopped;
+
+	// queries submitted by other threads, run by the server thread
+	private final Queue<Query<?>> queries = new ConcurrentLinkedQueue<Query<?>>();
+
+	// reused for every BOARD request
+	private final BoardSnapshot snapshot = new BoardSnapshot();
+
+	// user id cache, the encoded bytes and the decoded id of each slot
+	private final byte[][] cachedUserBytes = new byte[USER_CACHE_SIZE][];
+	private final String[] cachedUserIds = new String[USER_CACHE_SIZE];
+
+	// requests applied so far, written by the server thread only
+	private volatile long requestCount;
+
+	/**
+	 * Start serving the given service on the given address, port 0 picking a
+	 * free port, see {@link #getLocalAddress()}.
+	 *
+	 * @param orderService only used by the server until it is closed, unless
+	 *                     thread safe
+	 * @param address
+	 * @throws IOException
+	 */
+	public OrderServer(OrderService orderService, InetSocketAddress address) throws IOException {
+		this.orderService = orderService;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		thread = new Thread(this::serve, "order-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return address the server listens on
+	 * @throws IOException
+	 */
+	public InetSocketAddress getLocalAddress() throws IOException {
+		return (InetSocketAddress) serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * @return number of requests applied so far, over all connections
+	 */
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Queue a read of the service. The given function runs on the server's
+	 * thread, in between requests, and must not keep references to the service's
+	 * mutable structures.
+	 *
+	 * @param query
+	 * @return completed with the result of the query, or with
+	 *         IllegalStateException if the server is closed first
+	 */
+	public <T> CompletableFuture<T> submitQuery(Function<OrderService, T> query) {
+		Query<T> submitted = new Query<T>(query);
+		if (!running) {
+			submitted.future.completeExceptionally(closed());
+			return submitted.future;
+		}
+		queries.add(submitted);
+		selector.wakeup();
+		if (stopped) {
+			// the server thread may have missed it
+			failQueries();
+		}
+		return submitted.future;
+	}
+
+	/**
+	 * Stop accepting, close all connections and stop the server thread. Queries
+	 * not run yet fail with IllegalStateException.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Server loop: accept, read and write whatever the selector reports ready.
+	 */
+	private void serve() {
+		try {
+			while (running) {
+				selector.select();
+				Query<?> query;
+				while ((query = queries.poll()) != null) {
+					query.run(orderService);
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							Connection connection = (Connection) key.attachment();
+							if (key.isReadable()) {
+								read(key, connection);
+							}
+							if (key.isValid() && key.isWritable()) {
+								write(key, connection);
+							}
+						}
+					} catch (IOException e) {
+						// the client went away, or sent garbage
+						disconnect(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Order server failed", e);
+		} finally {
+			stopped = true;
+			failQueries();
+			for (SelectionKey key : selector.keys()) {
+				disconnect(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	private void failQueries() {
+		Query<?> query;
+		while ((query = queries.poll()) != null) {
+			query.future.completeExceptionally(closed());
+		}
+	}
+
+	private static IllegalStateException closed() {
+		return new IllegalStateException("Order server is closed");
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		channel.register(selector, SelectionKey.OP_READ,
+				new Connection(channel, buffers.acquire(), buffers.acquire()));
+	}
+
+	private void read(SelectionKey key, Connection connection) throws IOException {
+		if (connection.channel.read(connection.in) < 0) {
+			disconnect(key);
+			return;
+		}
+		apply(key, connection);
+	}
+
+	private void write(SelectionKey key, Connection connection) throws IOException {
+		flush(connection);
+		// room again for responses, go on with the requests held back
+		apply(key, connection);
+	}
+
+	/**
+	 * Apply every complete request in the input buffer while the output buffer
+	 * has room for the largest response, then write the responses and wait for
+	 * more requests, or for the client to read its responses.
+	 */
+	private void apply(SelectionKey key, Connection connection) throws IOException {
+		ByteBuffer in = connection.in;
+		ByteBuffer out = connection.out;
+		boolean blocked = false;
+		in.flip();
+		while (true) {
+			int length = OrderProtocol.frameLength(in);
+			if (length < 0 || in.remaining() < length) {
+				break;
+			}
+			if (out.remaining() < MAX_RESPONSE_BYTES) {
+				flush(connection);
+				if (out.remaining() < MAX_RESPONSE_BYTES) {
+					blocked = true;
+					break;
+				}
+			}
+			applyRequest(in, length, out);
+		}
+		in.compact();
+		flush(connection);
+		if (blocked || out.position() > 0) {
+			// stop reading until the client has taken its responses
+			key.interestOps(SelectionKey.OP_WRITE);
+		} else {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Decode the request of the given length at the input's position, apply it
+	 * and encode its response.
+	 */
+	private void applyRequest(ByteBuffer in, int length, ByteBuffer out) throws IOException {
+		int end = in.position() + length;
+		in.position(in.position() + OrderProtocol.LENGTH_BYTES);
+		byte type = in.get();
+		int responseStart = out.position();
+		out.putInt(0);
+		out.put(type);
+		out.put(OrderProtocol.OK);
+		byte status = OrderProtocol.OK;
+		try {
+			switch (type) {
+			case OrderProtocol.ADD: {
+				int userIdBytes = length - OrderProtocol.ADD_BYTES;
+				if (userIdBytes < 0 || userIdBytes > OrderProtocol.MAX_USER_ID_BYTES) {
+					throw new IOException("Invalid ADD frame of " + length + " bytes");
+				}
+				int orderType = in.get();
+				long quantityMilligrams = in.getLong();
+				long priceTicks = in.getLong();
+				if (in.getShort() != userIdBytes) {
+					throw new IOException("Invalid user id length in ADD frame");
+				}
+				String userId = userId(in, userIdBytes);
+				if (orderType < 0 || orderType >= ORDER_TYPES.length || quantityMilligrams <= 0 || priceTicks <= 0) {
+					throw new IllegalArgumentException("Invalid order");
+				}
+				Order order = Order.ofFixedPoint(userId, quantityMilligrams, priceTicks, ORDER_TYPES[orderType]);
+				orderService.addOrder(order);
+				out.putLong(order.getOrderId());
+				break;
+			}
+			case OrderProtocol.CANCEL:
+				checkLength(type, length, OrderProtocol.CANCEL_BYTES);
+				orderService.cancelOrder(in.getLong());
+				break;
+			case OrderProtocol.AMEND: {
+				checkLength(type, length, OrderProtocol.AMEND_BYTES);
+				long orderId = in.getLong();
+				long quantityMilligrams = in.getLong();
+				orderService.amendOrder(orderId, FixedPoint.toKilos(quantityMilligrams),
+						FixedPoint.toPricePerKilo(in.getLong()));
+				break;
+			}
+			case OrderProtocol.BOARD: {
+				checkLength(type, length, OrderProtocol.BOARD_BYTES);
+				int depth = Math.max(0, Math.min(in.getInt(), OrderProtocol.MAX_DEPTH));
+				orderService.getBoardSnapshot(snapshot, depth).writeTo(out);
+				break;
+			}
+			default:
+				throw new IOException("Unknown request type " + type);
+			}
+		} catch (IllegalArgumentException e) {
+			status = OrderProtocol.REJECTED;
+		} catch (RuntimeException e) {
+			status = OrderProtocol.FAILED;
+		}
+		if (status != OrderProtocol.OK) {
+			// no payload after all
+			out.position(responseStart + OrderProtocol.RESPONSE_BYTES);
+			out.put(responseStart + OrderProtocol.RESPONSE_BYTES - 1, status);
+		}
+		out.putInt(responseStart, out.position() - responseStart - OrderProtocol.LENGTH_BYTES);
+		in.position(end);
+		requestCount++;
+	}
+
+	private static void checkLength(byte type, int length, int expected) throws IOException {
+		if (length != expected) {
+			throw new IOException("Invalid frame of type " + type + ": " + length + " bytes");
+		}
+	}
+
+	/**
+	 * Decode the user id of the given number of bytes at the input's position,
+	 * answering from the cache if these bytes were seen recently.
+	 */
+	private String userId(ByteBuffer in, int length) {
+		int start = in.position();
+		int hash = length;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + in.get(start + i);
+		}
+		int slot = (hash ^ (hash >>> 16)) & (USER_CACHE_SIZE - 1);
+		byte[] cached = cachedUserBytes[slot];
+		if (cached != null && cached.length == length) {
+			int i = 0;
+			while (i < length && cached[i] == in.get(start + i)) {
+				i++;
+			}
+			if (i == length) {
+				in.position(start + length);
+				return cachedUserIds[slot];
+			}
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		String userId = new String(bytes, StandardCharsets.UTF_8);
+		cachedUserBytes[slot] = bytes;
+		cachedUserIds[slot] = userId;
+		return userId;
+	}
+
+	/**
+	 * Write as much of the pending responses as the socket takes.
+	 */
+	private static void flush(Connection connection) throws IOException {
+		ByteBuffer out = connection.out;
+		if (out.position() == 0) {
+			return;
+		}
+		out.flip();
+		connection.channel.write(out);
+		out.compact();
+	}
+
+	private void disconnect(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// gone anyway
+		}
+		Object attachment = key.attachment();
+		if (attachment instanceof Connection) {
+			Connection connection = (Connection) attachment;
+			key.attach(null);
+			buffers.release(connection.in);
+			buffers.release(connection.out);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.silverbars.replay;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.OrderType;
+
+/**
+ * Writes synthetic order flows shaped like a real board, for
+ * {@link OrderFlowReplayer} when no recording is at hand.
+ *
+ * - arrivals are a Poisson process at the given rate, so events come in
+ * bursts and lulls rather than evenly spaced
+ *
+ * - prices are skewed towards the touch: BUY orders rest below and SELL orders
+ * above a fixed mid price, the distance in ticks drawn from a cubic curve so
+ * that the levels near the best price are much deeper than those far away
+ *
+ * - a share of the events cancel a live order picked at random, so the board
+ * keeps a steady size instead of growing without bounds
+ *
+ * The same seed always gives the same flow.
+ *
+ */
+public final class OrderFlowGenerator {
+	// mid price of the board, £300 per kg
+	private static final long MID_PRICE_TICKS = 300 * FixedPoint.TICKS_PER_POUND;
+
+	// price levels per side
+	private static final int LEVELS = 200;
+
+	// distinct users placing orders
+	private static final int USERS = 1000;
+
+	// share of events cancelling a live order, once there is one
+	private static final double CANCEL_RATIO = 0.45;
+
+	private final long seed;
+
+	/**
+	 * @param seed
+	 */
+	public OrderFlowGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Write a flow of the given number of events to the given file.
+	 *
+	 * @param file
+	 * @param events          number of adds and cancels
+	 * @param eventsPerSecond average arrival rate
+	 * @throws IOException
+	 */
+	public void generate(Path file, int events, double eventsPerSecond) throws IOException {
+		if (events < 0 || !(eventsPerSecond > 0)) {
+			throw new IllegalArgumentException("Invalid flow: " + events + " events at " + eventsPerSecond + "/s");
+		}
+		Random random = new Random(seed);
+		String[] users = new String[USERS];
+		for (int i = 0; i < USERS; i++) {
+			users[i] = "user" + i;
+		}
+		double meanGapNanos = 1e9 / eventsPerSecond;
+		// adds still live, swap-removed when cancelled
+		int[] live = new int[1024];
+		int liveCount = 0;
+		double timeNanos = 0;
+		try (OrderFlowWriter writer = OrderFlowWriter.create(file)) {
+			for (int i = 0; i < events; i++) {
+				timeNanos += -Math.log(1 - random.nextDouble()) * meanGapNanos;
+				if (liveCount > 0 && random.nextDouble() < CANCEL_RATIO) {
+					int index = random.nextInt(liveCount);
+					writer.cancel((long) timeNanos, live[index]);
+					live[index] = live[--liveCount];
+					continue;
+				}
+				boolean buy = random.nextBoolean();
+				double r = random.nextDouble();
+				long distance = 1 + (long) (r * r * r * LEVELS);
+				long priceTicks = buy ? MID_PRICE_TICKS - distance : MID_PRICE_TICKS + distance;
+				// 0.1 to 10 kg in steps of 100 g
+				long quantityMilligrams = (1 + random.nextInt(100)) * FixedPoint.MILLIGRAMS_PER_KILO / 10;
+				int add = writer.add((long) timeNanos, users[random.nextInt(USERS)], buy ? OrderType.BUY : OrderType.SELL,
+						quantityMilligrams, priceTicks);
+				if (liveCount == live.length) {
+					live = Arrays.copyOf(live, liveCount * 2);
+				}
+				live[liveCount++] = add;
+			}
+		}
+	}
+}
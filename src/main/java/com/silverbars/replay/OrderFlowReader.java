@@ -0,0 +1,227 @@
+package com.silverbars.replay;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.silverbars.domain.OrderType;
+
+/**
+ * Streams the events of a recorded order flow, see {@link OrderFlowWriter},
+ * through a memory mapping of the file: events are decoded straight from the
+ * page cache, without read calls or copies, and nothing is allocated per event
+ * but the user ids, once each.
+ *
+ * Files are mapped in windows of at most {@link #WINDOW_BYTES}, moved along as
+ * the events are read, so files of any size can be streamed. A record cut short
+ * at the end of the file ends the stream.
+ *
+ * Cursor style: {@link #next()} moves to the next event, whose fields are then
+ * read with the getters. Not thread safe.
+ *
+ */
+public final class OrderFlowReader implements AutoCloseable {
+	// bytes mapped at a time
+	static final int WINDOW_BYTES = 256 * 1024 * 1024;
+
+	private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+	private final FileChannel channel;
+	private final long size;
+	private final int windowBytes;
+
+	// current window and the file position it starts at
+	private MappedByteBuffer window;
+	private long windowStart;
+
+	// user ids by code
+	private String[] users = new String[16];
+
+	// the current event
+	private byte type;
+	private long timeNanos;
+	private int add = -1;
+	private String userId;
+	private OrderType orderType;
+	private long quantityMilligrams;
+	private long priceTicks;
+
+	// number of the add the current cancel cancels
+	private int cancelled;
+
+	private OrderFlowReader(FileChannel channel, int windowBytes) throws IOException {
+		this.channel = channel;
+		this.windowBytes = windowBytes;
+		size = channel.size();
+		map(0, windowBytes);
+	}
+
+	/**
+	 * Open the given recorded order flow.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException if the file is not an order flow
+	 */
+	public static OrderFlowReader open(Path file) throws IOException {
+		return open(file, WINDOW_BYTES);
+	}
+
+	/**
+	 * Like {@link #open(Path)}, mapping at most the given number of bytes at a
+	 * time.
+	 */
+	static OrderFlowReader open(Path file, int windowBytes) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			OrderFlowReader reader = new OrderFlowReader(channel, windowBytes);
+			if (!reader.ensure(OrderFlowWriter.HEADER_SIZE) || reader.window.getInt() != OrderFlowWriter.MAGIC
+					|| reader.window.getInt() != OrderFlowWriter.VERSION) {
+				throw new IOException("Not an order flow file (or unsupported version): " + file);
+			}
+			return reader;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Move to the next add or cancel.
+	 *
+	 * @return false at the end of the flow
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while (ensure(1)) {
+			byte recordType = window.get(window.position());
+			switch (recordType) {
+			case OrderFlowWriter.USER: {
+				if (!ensure(OrderFlowWriter.USER_SIZE)
+						|| !ensure(OrderFlowWriter.USER_SIZE + window.getShort(window.position() + 5))) {
+					return false;
+				}
+				window.get();
+				int code = window.getInt();
+				byte[] bytes = new byte[window.getShort()];
+				window.get(bytes);
+				if (code >= users.length) {
+					users = Arrays.copyOf(users, Math.max(users.length * 2, code + 1));
+				}
+				users[code] = new String(bytes, StandardCharsets.UTF_8);
+				break;
+			}
+			case OrderFlowWriter.ADD:
+				if (!ensure(OrderFlowWriter.ADD_SIZE)) {
+					return false;
+				}
+				window.get();
+				type = recordType;
+				timeNanos = window.getLong();
+				userId = users[window.getInt()];
+				orderType = ORDER_TYPES[window.get()];
+				quantityMilligrams = window.getLong();
+				priceTicks = window.getLong();
+				add++;
+				return true;
+			case OrderFlowWriter.CANCEL:
+				if (!ensure(OrderFlowWriter.CANCEL_SIZE)) {
+					return false;
+				}
+				window.get();
+				type = recordType;
+				timeNanos = window.getLong();
+				cancelled = window.getInt();
+				return true;
+			default:
+				throw new IOException("Corrupt order flow, unknown record type " + recordType + " at "
+						+ (windowStart + window.position()));
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the current event is an add, false for a cancel
+	 */
+	public boolean isAdd() {
+		return type == OrderFlowWriter.ADD;
+	}
+
+	/**
+	 * @return time of the current event, in ns since the start of the recording
+	 */
+	public long getTimeNanos() {
+		return timeNanos;
+	}
+
+	/**
+	 * Number of the add of the current event: the add itself, or the one a
+	 * cancel cancels.
+	 *
+	 * @return
+	 */
+	public int getAdd() {
+		return type == OrderFlowWriter.ADD ? add : cancelled;
+	}
+
+	/**
+	 * @return user of the current add
+	 */
+	public String getUserId() {
+		return userId;
+	}
+
+	/**
+	 * @return order type of the current add
+	 */
+	public OrderType getOrderType() {
+		return orderType;
+	}
+
+	/**
+	 * @return quantity of the current add
+	 */
+	public long getQuantityMilligrams() {
+		return quantityMilligrams;
+	}
+
+	/**
+	 * @return price of the current add
+	 */
+	public long getPriceTicks() {
+		return priceTicks;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Make sure the next {@code bytes} bytes of the file are in the window,
+	 * moving the window to start at the current position if they are not.
+	 *
+	 * @return false if the file ends before
+	 */
+	private boolean ensure(int bytes) throws IOException {
+		if (window.remaining() >= bytes) {
+			return true;
+		}
+		long position = windowStart + window.position();
+		if (size - position < bytes) {
+			return false;
+		}
+		map(position, Math.max(windowBytes, bytes));
+		return true;
+	}
+
+	private void map(long position, int bytes) throws IOException {
+		windowStart = position;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(bytes, size - position));
+	}
+}
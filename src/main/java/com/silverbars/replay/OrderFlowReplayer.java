@@ -0,0 +1,152 @@
+package com.silverbars.replay;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+import com.silverbars.dao.BoardFormatter;
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.ConcurrentOrderServiceImpl;
+import com.silverbars.dao.OffHeapOrderService;
+import com.silverbars.dao.OrderService;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.dao.SingleWriterOrderService;
+import com.silverbars.domain.Order;
+import com.silverbars.metrics.LatencyHistogram;
+
+/**
+ * Streams a recorded order flow into any {@link OrderService}, to reproduce
+ * production load offline, and measures every call.
+ *
+ * Either as fast as possible (speed 0), each event applied as soon as the
+ * previous one returned, which gives the service's throughput; or paced, each
+ * event applied at its recorded time divided by the speed (1 for real time, 2
+ * for twice as fast, ...), which gives its latency under the recorded load.
+ *
+ * Cancels name the add they cancel, so the replayer keeps the id the service
+ * gave to each added order in a plain array indexed by add number.
+ *
+ * Usage:
+ *
+ * {@code OrderFlowReplayer generate <file> [events] [eventsPerSecond]} to write
+ * a synthetic flow, see {@link OrderFlowGenerator}
+ *
+ * {@code OrderFlowReplayer replay <file> [single|concurrent|single-writer|off-heap] [speed]}
+ */
+public final class OrderFlowReplayer {
+	// parks while the next event is further away than this, spins after
+	private static final long SPIN_NANOS = 100000L;
+
+	private final double speed;
+
+	/**
+	 * @param speed 0 to replay as fast as possible, otherwise how many times
+	 *              faster than recorded
+	 */
+	public OrderFlowReplayer(double speed) {
+		if (!(speed >= 0) || Double.isInfinite(speed)) {
+			throw new IllegalArgumentException("Invalid replay speed: " + speed);
+		}
+		this.speed = speed;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: OrderFlowReplayer generate <file> [events] [eventsPerSecond]");
+			System.err.println("       OrderFlowReplayer replay <file> [single|concurrent|single-writer|off-heap] [speed]");
+			System.exit(1);
+		}
+		Path file = Paths.get(args[1]);
+		if (args[0].equals("generate")) {
+			int events = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+			double eventsPerSecond = args.length > 3 ? Double.parseDouble(args[3]) : 100000;
+			new OrderFlowGenerator(System.nanoTime()).generate(file, events, eventsPerSecond);
+			return;
+		}
+		OrderService orderService = create(args.length > 2 ? args[2] : "single");
+		try {
+			double speed = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+			new OrderFlowReplayer(speed).replay(file, orderService).print(System.out);
+			BoardFormatter.print(orderService.getBoardSnapshot(new BoardSnapshot(), 5), System.out);
+		} finally {
+			if (orderService instanceof SingleWriterOrderService) {
+				((SingleWriterOrderService) orderService).close();
+			}
+		}
+	}
+
+	private static OrderService create(String implementation) {
+		switch (implementation) {
+		case "single":
+			return new OrderServiceImpl();
+		case "concurrent":
+			return new ConcurrentOrderServiceImpl();
+		case "single-writer":
+			return new SingleWriterOrderService();
+		case "off-heap":
+			return new OffHeapOrderService();
+		default:
+			throw new IllegalArgumentException("Unknown implementation: " + implementation);
+		}
+	}
+
+	/**
+	 * Replay the given recorded order flow into the given service.
+	 *
+	 * @param file
+	 * @param orderService
+	 * @return counts, throughput and latencies
+	 * @throws IOException
+	 */
+	public ReplayResult replay(Path file, OrderService orderService) throws IOException {
+		LatencyHistogram latencies = new LatencyHistogram();
+		long[] orderIds = new long[1024];
+		long adds = 0;
+		long cancels = 0;
+		long rejected = 0;
+		try (OrderFlowReader reader = OrderFlowReader.open(file)) {
+			long start = System.nanoTime();
+			long end = start;
+			while (reader.next()) {
+				long due = 0;
+				if (speed > 0) {
+					due = start + (long) (reader.getTimeNanos() / speed);
+					waitUntil(due);
+				}
+				long begin = System.nanoTime();
+				int add = reader.getAdd();
+				try {
+					if (reader.isAdd()) {
+						adds++;
+						if (add >= orderIds.length) {
+							orderIds = Arrays.copyOf(orderIds, Math.max(orderIds.length * 2, add + 1));
+						}
+						Order order = Order.ofFixedPoint(reader.getUserId(), reader.getQuantityMilligrams(),
+								reader.getPriceTicks(), reader.getOrderType());
+						orderService.addOrder(order);
+						orderIds[add] = order.getOrderId();
+					} else {
+						cancels++;
+						orderService.cancelOrder(orderIds[add]);
+					}
+				} catch (IllegalArgumentException e) {
+					rejected++;
+				}
+				end = System.nanoTime();
+				latencies.record(end - (speed > 0 ? due : begin));
+			}
+			return new ReplayResult(adds, cancels, rejected, end - start, latencies);
+		}
+	}
+
+	private static void waitUntil(long due) {
+		long remaining;
+		while ((remaining = due - System.nanoTime()) > 0) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			}
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.silverbars.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.silverbars.domain.OrderType;
+
+/**
+ * Writes a recorded order flow: the add/cancel events reaching an order board,
+ * each with the time it arrived, to be streamed back by
+ * {@link OrderFlowReader}.
+ *
+ * An added order is referred to by its position among the adds of the file
+ * (0 for the first one), so a cancel names the order it cancels without
+ * depending on the ids some service handed out while recording. As in the
+ * journal, user ids are written once as a dictionary record and referred to by
+ * code afterwards.
+ *
+ * Layout (big endian), after a header of magic number and version:
+ *
+ * - USER: type, int code, short length, UTF-8 bytes
+ *
+ * - ADD: type, long time (ns since the start of the recording), int userCode,
+ * byte orderType, long quantity (mg), long price (ticks)
+ *
+ * - CANCEL: type, long time (ns), int number of the add it cancels
+ *
+ * Not thread safe.
+ *
+ */
+public final class OrderFlowWriter implements AutoCloseable {
+	static final int MAGIC = 0x53424F46; // "SBOF"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+
+	static final byte USER = 1;
+	static final byte ADD = 2;
+	static final byte CANCEL = 3;
+
+	static final int USER_SIZE = 1 + 4 + 2;
+	static final int ADD_SIZE = 1 + 8 + 4 + 1 + 8 + 8;
+	static final int CANCEL_SIZE = 1 + 8 + 4;
+
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	private final Map<String, Integer> userCodes = new HashMap<String, Integer>();
+
+	// number of adds written, the next add's number
+	private int adds;
+
+	// time of the last event, events must not go back in time
+	private long lastNanos;
+
+	private OrderFlowWriter(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Create the given file, replacing what it held.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static OrderFlowWriter create(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		OrderFlowWriter writer = new OrderFlowWriter(channel);
+		writer.buffer.putInt(MAGIC);
+		writer.buffer.putInt(VERSION);
+		return writer;
+	}
+
+	/**
+	 * Record an order added at the given time.
+	 *
+	 * @param timeNanos          since the start of the recording
+	 * @param userId
+	 * @param orderType
+	 * @param quantityMilligrams
+	 * @param priceTicks
+	 * @return number of this add, for {@link #cancel(long, int)}
+	 * @throws IOException
+	 */
+	public int add(long timeNanos, String userId, OrderType orderType, long quantityMilligrams, long priceTicks)
+			throws IOException {
+		checkTime(timeNanos);
+		int userCode = userCode(userId);
+		ensureSpace(ADD_SIZE);
+		buffer.put(ADD);
+		buffer.putLong(timeNanos);
+		buffer.putInt(userCode);
+		buffer.put((byte) orderType.ordinal());
+		buffer.putLong(quantityMilligrams);
+		buffer.putLong(priceTicks);
+		return adds++;
+	}
+
+	/**
+	 * Record the cancel, at the given time, of the order of the given add.
+	 *
+	 * @param timeNanos since the start of the recording
+	 * @param add       number of the add, as returned by
+	 *                  {@link #add(long, String, OrderType, long, long)}
+	 * @throws IOException
+	 */
+	public void cancel(long timeNanos, int add) throws IOException {
+		if (add < 0 || add >= adds) {
+			throw new IllegalArgumentException("No such add: " + add);
+		}
+		checkTime(timeNanos);
+		ensureSpace(CANCEL_SIZE);
+		buffer.put(CANCEL);
+		buffer.putLong(timeNanos);
+		buffer.putInt(add);
+	}
+
+	/**
+	 * @return number of adds written so far
+	 */
+	public int getAddCount() {
+		return adds;
+	}
+
+	/**
+	 * Write what is buffered and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			write();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void checkTime(long timeNanos) {
+		if (timeNanos < lastNanos) {
+			throw new IllegalArgumentException("Event time " + timeNanos + " before the previous one " + lastNanos);
+		}
+		lastNanos = timeNanos;
+	}
+
+	private int userCode(String userId) throws IOException {
+		Integer code = userCodes.get(userId);
+		if (code != null) {
+			return code;
+		}
+		byte[] bytes = (userId == null ? "" : userId).getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("User id too long: " + userId);
+		}
+		code = userCodes.size();
+		ensureSpace(USER_SIZE + bytes.length);
+		buffer.put(USER);
+		buffer.putInt(code);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+		userCodes.put(userId, code);
+		return code;
+	}
+
+	private void ensureSpace(int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			write();
+		}
+	}
+
+	private void write() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,90 @@
+package com.silverbars.replay;
+
+import java.io.PrintStream;
+
+import com.silverbars.metrics.LatencyHistogram;
+
+/**
+ * Outcome of one replay of a recorded order flow, see
+ * {@link OrderFlowReplayer}: how many events were applied, how fast, and the
+ * latency of each call into the service.
+ *
+ */
+public final class ReplayResult {
+	private final long adds;
+	private final long cancels;
+	private final long rejected;
+	private final long elapsedNanos;
+	private final LatencyHistogram latencies;
+
+	ReplayResult(long adds, long cancels, long rejected, long elapsedNanos, LatencyHistogram latencies) {
+		this.adds = adds;
+		this.cancels = cancels;
+		this.rejected = rejected;
+		this.elapsedNanos = elapsedNanos;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * @return number of adds applied
+	 */
+	public long getAdds() {
+		return adds;
+	}
+
+	/**
+	 * @return number of cancels applied, rejected ones included
+	 */
+	public long getCancels() {
+		return cancels;
+	}
+
+	/**
+	 * Number of events the service rejected, e.g. a cancel of an order a
+	 * matching board had already filled.
+	 *
+	 * @return
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return time from the first event to the end of the last one
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * @return events applied per second
+	 */
+	public double getEventsPerSecond() {
+		return elapsedNanos == 0 ? 0 : (adds + cancels) * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Latency of every event. In a paced replay it counts from the time the event
+	 * was due, not from when the replayer got round to it, so a service falling
+	 * behind shows up in the latencies instead of hiding in a slower replay.
+	 *
+	 * @return
+	 */
+	public LatencyHistogram getLatencies() {
+		return latencies;
+	}
+
+	/**
+	 * Print throughput and latency percentiles to the given stream.
+	 *
+	 * @param out
+	 */
+	public void print(PrintStream out) {
+		out.printf("%d adds, %d cancels (%d rejected) in %.3f s: %.0f events/s%n", adds, cancels, rejected,
+				elapsedNanos / 1e9, getEventsPerSecond());
+		out.printf("latency (us): p50 %.2f, p99 %.2f, p99.9 %.2f, p99.99 %.2f, max %.2f%n",
+				latencies.getValueAtPercentile(50) / 1e3, latencies.getValueAtPercentile(99) / 1e3,
+				latencies.getValueAtPercentile(99.9) / 1e3, latencies.getValueAtPercentile(99.99) / 1e3,
+				latencies.getMaxNanos() / 1e3);
+	}
+}
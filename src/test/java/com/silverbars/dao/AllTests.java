@@ -4,9 +4,27 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.silverbars.journal.OrderJournalTestFeature001;
+import com.silverbars.journal.OrderStoreTestFeature001;
+import com.silverbars.metrics.InstrumentedOrderServiceTestFeature001;
+import com.silverbars.net.OrderServerTestFeature001;
+import com.silverbars.replay.OrderFlowReplayTestFeature001;
+
 @RunWith(Suite.class)
 @SuiteClasses({ OrderServiceImplTestFeature001.class, OrderServiceImplTestFeature002.class,
-		OrderServiceImplTestFeature003.class })
+		OrderServiceImplTestFeature003.class, OrderServiceImplTestFeature004.class,
+		OrderServiceImplTestFeature005.class, OrderServiceImplTestFeature006.class,
+		OrderServiceImplTestFeature007.class, OrderServiceImplTestFeature008.class,
+		OrderServiceImplTestFeature009.class, OrderServiceImplTestFeature010.class,
+		OrderServiceImplTestFeature011.class, OrderServiceImplTestFeature012.class,
+		OrderServiceImplTestFeature013.class, OrderServiceImplTestFeature014.class,
+		OrderServiceImplTestFeature015.class, OrderServiceImplTestFeature016.class,
+		OrderServiceImplTestFeature017.class, OrderServiceImplTestFeature018.class,
+		OrderServiceImplTestFeature019.class, OrderServiceImplTestFeature020.class,
+		OrderServiceImplTestFeature021.class, OrderServiceImplTestFeature022.class,
+		OrderJournalTestFeature001.class, OrderStoreTestFeature001.class,
+		InstrumentedOrderServiceTestFeature001.class, OrderServerTestFeature001.class,
+		OrderFlowReplayTestFeature001.class })
 public class AllTests {
 
 }
\ No newline at end of file
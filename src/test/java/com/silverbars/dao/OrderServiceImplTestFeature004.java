@@ -0,0 +1,60 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature004 {
+
+	OrderService orderSrvc = null;
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+	Order order5 = new Order("user5", 2.5, 250, OrderType.BUY);
+	Order order6 = new Order("user6", 3.0, 250, OrderType.BUY);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new OrderServiceImpl();
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order4);
+		orderSrvc.addOrder(order5);
+		orderSrvc.addOrder(order6);
+	}
+
+	@Test
+	public void testRunningTotals() {
+		PriceLevel sellLevel = (PriceLevel) orderSrvc.getOrdersByOrderType(OrderType.SELL).get(new Double(306));
+		assertEquals(5.5, sellLevel.getTotalQuantity(), 0.0);
+		assertEquals(2, sellLevel.getOrderCount());
+
+		PriceLevel buyLevel = (PriceLevel) orderSrvc.getOrdersByOrderType(OrderType.BUY).get(new Double(250));
+		assertEquals(5.5, buyLevel.getTotalQuantity(), 0.0);
+		assertEquals(2, buyLevel.getOrderCount());
+	}
+
+	@Test
+	public void testRunningTotalsAfterCancel() {
+		orderSrvc.cancelOrder(order1);
+		PriceLevel sellLevel = (PriceLevel) orderSrvc.getOrdersByOrderType(OrderType.SELL).get(new Double(306));
+		assertEquals(2.0, sellLevel.getTotalQuantity(), 0.0);
+		assertEquals(1, sellLevel.getOrderCount());
+
+		orderSrvc.cancelOrder(order4);
+		assertNull(orderSrvc.getOrdersByOrderType(OrderType.SELL).get(new Double(306)));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testLevelsAreReadOnly() {
+		Map<Double, List<Order>> sellMap = orderSrvc.getOrdersByOrderType(OrderType.SELL);
+		sellMap.get(new Double(306)).remove(0);
+	}
+}
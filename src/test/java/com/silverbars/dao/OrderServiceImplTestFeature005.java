@@ -0,0 +1,76 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature005 {
+
+	OrderService orderSrvc = null;
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order2 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order3 = new Order("user3", 1.5, 306, OrderType.SELL);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new OrderServiceImpl();
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.addOrder(order3);
+	}
+
+	@Test
+	public void testOrderIdsAreUnique() {
+		assertNotEquals(0, order1.getOrderId());
+		assertNotEquals(order1.getOrderId(), order2.getOrderId());
+		assertNotEquals(order2.getOrderId(), order3.getOrderId());
+	}
+
+	@Test
+	public void testCancelIdenticalOrderById() {
+		orderSrvc.cancelOrder(order2.getOrderId());
+
+		List<Order> level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(new Double(306));
+		assertEquals(2, level.size());
+		assertSame(order1, level.get(0));
+		assertSame(order3, level.get(1));
+		assertEquals(5.0, ((PriceLevel) level).getTotalQuantity(), 0.0);
+	}
+
+	@Test
+	public void testCancelMiddleAndTailById() {
+		orderSrvc.cancelOrder(order2.getOrderId());
+		orderSrvc.cancelOrder(order3.getOrderId());
+		orderSrvc.cancelOrder(order1.getOrderId());
+		assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.SELL).size());
+	}
+
+	@Test
+	public void testCancelByEqualOrder() {
+		orderSrvc.cancelOrder(new Order("user3", 1.5, 306, OrderType.SELL));
+
+		List<Order> level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(new Double(306));
+		assertEquals(2, level.size());
+		assertSame(order2, level.get(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCancelUnknownId() {
+		orderSrvc.cancelOrder(order1.getOrderId());
+		orderSrvc.cancelOrder(order1.getOrderId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddLiveOrderTwice() {
+		orderSrvc.addOrder(order1);
+	}
+}
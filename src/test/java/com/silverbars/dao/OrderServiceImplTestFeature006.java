@@ -0,0 +1,100 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature006 {
+
+	OrderService orderSrvc = null;
+
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new ConcurrentOrderServiceImpl();
+		orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user3", 1.5, 307, OrderType.SELL));
+		orderSrvc.addOrder(order4);
+		orderSrvc.addOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user6", 3.0, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user7", 3.0, 310, OrderType.BUY));
+	}
+
+	@Test
+	public void testAggregation() {
+		Map<OrderType, List<String>> resultsMap = orderSrvc.getLiveOrderBoard();
+		List<String> results = resultsMap.get(OrderType.SELL);
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("5.5 kg for £306.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("1.5 kg for £307.0"));
+		assertTrue(results.get(2).equalsIgnoreCase("1.2 kg for £310.0"));
+
+		results = resultsMap.get(OrderType.BUY);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("3.0 kg for £310.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("5.5 kg for £250.0"));
+	}
+
+	@Test
+	public void testCancelOrder() {
+		orderSrvc.cancelOrder(order4);
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertTrue(results.get(0).equalsIgnoreCase("3.5 kg for £306.0"));
+	}
+
+	@Test
+	public void testConcurrentAddAndCancel() throws Exception {
+		final OrderService service = new ConcurrentOrderServiceImpl();
+		final int threads = 4;
+		final int ordersPerThread = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			final String userId = "user" + t;
+			futures.add(pool.submit(() -> {
+				start.await();
+				List<Order> mine = new ArrayList<Order>();
+				for (int i = 0; i < ordersPerThread; i++) {
+					Order order = new Order(userId, 1.0, 300 + (i % 5), OrderType.SELL);
+					service.addOrder(order);
+					mine.add(order);
+					// keep every other order, cancel the rest
+					if (i % 2 == 1) {
+						service.cancelOrder(mine.get(i - 1).getOrderId());
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+
+		int orders = 0;
+		for (List<Order> level : service.getOrdersByOrderType(OrderType.SELL).values()) {
+			orders += level.size();
+		}
+		assertEquals(threads * ordersPerThread / 2, orders);
+		assertEquals(5, service.getOrdersByOrderType(OrderType.SELL).size());
+	}
+}
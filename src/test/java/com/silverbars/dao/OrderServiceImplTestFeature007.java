@@ -0,0 +1,130 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature007 {
+
+	SingleWriterOrderService orderSrvc = null;
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+	Order order7 = new Order("user7", 3.0, 310, OrderType.BUY);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new SingleWriterOrderService(8);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order4);
+		orderSrvc.addOrder(order7);
+	}
+
+	@After
+	public void closeOrderService() {
+		orderSrvc.close();
+	}
+
+	@Test
+	public void testAggregation() {
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("5.5 kg for £306.0"));
+
+		orderSrvc.cancelOrder(order4.getOrderId());
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertTrue(results.get(0).equalsIgnoreCase("3.5 kg for £306.0"));
+	}
+
+	@Test
+	public void testFailedCancelCompletesExceptionally() throws InterruptedException {
+		CompletableFuture<Void> future = orderSrvc.submitCancelOrder(12345L);
+		try {
+			future.get();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+			return;
+		}
+		throw new AssertionError("cancel of unknown order should fail");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFailedCancelThrows() {
+		orderSrvc.cancelOrder(order7);
+		orderSrvc.cancelOrder(order7);
+	}
+
+	@Test
+	public void testManyProducersWrapTheRing() throws Exception {
+		Thread[] producers = new Thread[4];
+		for (int t = 0; t < producers.length; t++) {
+			producers[t] = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					orderSrvc.submitAddOrder(new Order("bulk", 1.0, 100 + (i % 3), OrderType.BUY));
+				}
+			});
+			producers[t].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		int orders = orderSrvc.submitQuery(book -> {
+			int count = 0;
+			for (List<Order> level : book.getOrdersByOrderType(OrderType.BUY).values()) {
+				count += level.size();
+			}
+			return count;
+		}).get();
+		assertEquals(4001, orders);
+	}
+
+	@Test
+	public void testCloseCompletesRacingCommands() throws Exception {
+		for (int round = 0; round < 200; round++) {
+			SingleWriterOrderService service = new SingleWriterOrderService(8);
+			List<List<CompletableFuture<Order>>> submitted = new ArrayList<List<CompletableFuture<Order>>>();
+			Thread[] producers = new Thread[4];
+			for (int t = 0; t < producers.length; t++) {
+				List<CompletableFuture<Order>> futures = new ArrayList<CompletableFuture<Order>>();
+				submitted.add(futures);
+				producers[t] = new Thread(() -> {
+					try {
+						while (true) {
+							futures.add(service.submitAddOrder(new Order("bulk", 1.0, 100, OrderType.BUY)));
+						}
+					} catch (IllegalStateException e) {
+						// closed
+					}
+				});
+				producers[t].start();
+			}
+			Thread.yield();
+			service.close();
+			for (Thread producer : producers) {
+				producer.join();
+			}
+			// every command was either applied or failed, none is left hanging
+			for (List<CompletableFuture<Order>> futures : submitted) {
+				for (CompletableFuture<Order> future : futures) {
+					try {
+						future.get(5, TimeUnit.SECONDS);
+					} catch (ExecutionException e) {
+						assertTrue(e.getCause() instanceof IllegalStateException);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature008 {
+
+	OrderService orderSrvc = null;
+
+	List<Order> orders = new ArrayList<Order>();
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new OrderServiceImpl();
+		for (int i = 0; i < 10; i++) {
+			Order order = new Order("user" + i, 0.1, 306.1, OrderType.SELL);
+			orderSrvc.addOrder(order);
+			orders.add(order);
+		}
+		orderSrvc.addOrder(new Order("user10", 1.2, 306.15, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user11", 1.2, 306.05, OrderType.SELL));
+	}
+
+	@Test
+	public void testExactTotals() {
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("1.2 kg for £306.05"));
+		assertTrue(results.get(1).equalsIgnoreCase("1.0 kg for £306.1"));
+		assertTrue(results.get(2).equalsIgnoreCase("1.2 kg for £306.15"));
+	}
+
+	@Test
+	public void testExactTotalsAfterCancel() {
+		for (int i = 0; i < 7; i++) {
+			orderSrvc.cancelOrder(orders.get(i).getOrderId());
+		}
+		PriceLevel level = (PriceLevel) orderSrvc.getOrdersByOrderType(OrderType.SELL).get(306.1);
+		assertEquals(300000, level.getTotalQuantityMilligrams());
+		assertEquals(0.3, level.getTotalQuantity(), 0.0);
+	}
+
+	@Test
+	public void testLookupByDoublePrice() {
+		Map<Double, List<Order>> sellMap = orderSrvc.getOrdersByOrderType(OrderType.SELL);
+		assertEquals(10, sellMap.get(306.1).size());
+		assertNull(sellMap.get(306.1000001));
+		assertNull(sellMap.get(307.0));
+	}
+
+	@Test
+	public void testLongObjectHashMapAgainstHashMap() {
+		LongObjectHashMap<Long> map = new LongObjectHashMap<Long>();
+		Map<Long, Long> expected = new HashMap<Long, Long>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			long key = 1 + random.nextInt(5000);
+			if (random.nextBoolean()) {
+				assertEquals(expected.put(key, key * 2), map.put(key, key * 2));
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (long key = 1; key <= 5000; key++) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature009 {
+
+	OrderService orderSrvc = null;
+
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new OrderServiceImpl();
+		orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user3", 1.5, 307, OrderType.SELL));
+		orderSrvc.addOrder(order4);
+		orderSrvc.addOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user6", 3.0, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user7", 3.0, 310, OrderType.BUY));
+	}
+
+	@Test
+	public void testSnapshotSell() {
+		BoardSnapshot snapshot = orderSrvc.getBoardSnapshot(new BoardSnapshot());
+		assertEquals(3, snapshot.getLevelCount(OrderType.SELL));
+		assertEquals(306.0, snapshot.getPricePerKilo(OrderType.SELL, 0), 0.0);
+		assertEquals(5.5, snapshot.getTotalQuantity(OrderType.SELL, 0), 0.0);
+		assertEquals(2, snapshot.getOrderCount(OrderType.SELL, 0));
+		assertEquals(31000, snapshot.getPriceTicks(OrderType.SELL, 2));
+		assertEquals(1200000, snapshot.getTotalQuantityMilligrams(OrderType.SELL, 2));
+	}
+
+	@Test
+	public void testSnapshotBuy() {
+		BoardSnapshot snapshot = orderSrvc.getBoardSnapshot(new BoardSnapshot());
+		assertEquals(2, snapshot.getLevelCount(OrderType.BUY));
+		assertEquals(310.0, snapshot.getPricePerKilo(OrderType.BUY, 0), 0.0);
+		assertEquals(250.0, snapshot.getPricePerKilo(OrderType.BUY, 1), 0.0);
+		assertEquals("5.5 kg for £250.0", BoardFormatter.formatLevel(snapshot, OrderType.BUY, 1));
+	}
+
+	@Test
+	public void testSnapshotReuse() {
+		BoardSnapshot snapshot = new BoardSnapshot();
+		orderSrvc.getBoardSnapshot(snapshot);
+		orderSrvc.cancelOrder(order4);
+		assertSame(snapshot, orderSrvc.getBoardSnapshot(snapshot));
+		assertEquals(3, snapshot.getLevelCount(OrderType.SELL));
+		assertEquals(3.5, snapshot.getTotalQuantity(OrderType.SELL, 0), 0.0);
+		assertEquals(1, snapshot.getOrderCount(OrderType.SELL, 0));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSnapshotIndexOutOfBounds() {
+		orderSrvc.getBoardSnapshot(new BoardSnapshot()).getPriceTicks(OrderType.BUY, 2);
+	}
+}
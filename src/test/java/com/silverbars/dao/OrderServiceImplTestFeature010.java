@@ -0,0 +1,77 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature010 {
+
+	private static OrderService prepare(OrderService orderSrvc) {
+		orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user3", 1.5, 307, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user4", 2.0, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user6", 3.0, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user7", 3.0, 310, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user8", 1.0, 280, OrderType.BUY));
+		return orderSrvc;
+	}
+
+	private static void assertTopLevels(OrderService orderSrvc) {
+		BoardSnapshot snapshot = orderSrvc.getBoardSnapshot(new BoardSnapshot(), 2);
+		assertEquals(2, snapshot.getLevelCount(OrderType.SELL));
+		assertEquals(306.0, snapshot.getPricePerKilo(OrderType.SELL, 0), 0.0);
+		assertEquals(307.0, snapshot.getPricePerKilo(OrderType.SELL, 1), 0.0);
+		assertEquals(2, snapshot.getLevelCount(OrderType.BUY));
+		assertEquals(310.0, snapshot.getPricePerKilo(OrderType.BUY, 0), 0.0);
+		assertEquals(280.0, snapshot.getPricePerKilo(OrderType.BUY, 1), 0.0);
+	}
+
+	private static void assertBestPrices(OrderService orderSrvc) {
+		assertEquals(310.0, orderSrvc.getBestPrice(OrderType.BUY).getAsDouble(), 0.0);
+		assertEquals(306.0, orderSrvc.getBestPrice(OrderType.SELL).getAsDouble(), 0.0);
+	}
+
+	private static void assertRanges(OrderService orderSrvc) {
+		BoardSnapshot snapshot = orderSrvc.getLevelsInRange(OrderType.SELL, 306.5, 310, new BoardSnapshot());
+		assertEquals(0, snapshot.getLevelCount(OrderType.BUY));
+		assertEquals(2, snapshot.getLevelCount(OrderType.SELL));
+		assertEquals(307.0, snapshot.getPricePerKilo(OrderType.SELL, 0), 0.0);
+		assertEquals(310.0, snapshot.getPricePerKilo(OrderType.SELL, 1), 0.0);
+
+		orderSrvc.getLevelsInRange(OrderType.BUY, 300, 250, snapshot);
+		assertEquals(0, snapshot.getLevelCount(OrderType.SELL));
+		assertEquals(2, snapshot.getLevelCount(OrderType.BUY));
+		assertEquals(280.0, snapshot.getPricePerKilo(OrderType.BUY, 0), 0.0);
+		assertEquals(250.0, snapshot.getPricePerKilo(OrderType.BUY, 1), 0.0);
+		assertEquals(5.5, snapshot.getTotalQuantity(OrderType.BUY, 1), 0.0);
+
+		orderSrvc.getLevelsInRange(OrderType.BUY, 251, 279, snapshot);
+		assertEquals(0, snapshot.getLevelCount(OrderType.BUY));
+	}
+
+	@Test
+	public void testTopLevels() {
+		assertTopLevels(prepare(new OrderServiceImpl()));
+		assertTopLevels(prepare(new ConcurrentOrderServiceImpl()));
+	}
+
+	@Test
+	public void testBestPrices() {
+		assertBestPrices(prepare(new OrderServiceImpl()));
+		assertBestPrices(prepare(new ConcurrentOrderServiceImpl()));
+		assertFalse(new OrderServiceImpl().getBestPrice(OrderType.BUY).isPresent());
+		assertFalse(new ConcurrentOrderServiceImpl().getBestPrice(OrderType.SELL).isPresent());
+	}
+
+	@Test
+	public void testRanges() {
+		assertRanges(prepare(new OrderServiceImpl()));
+		assertRanges(prepare(new ConcurrentOrderServiceImpl()));
+	}
+}
@@ -0,0 +1,81 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature011 {
+
+	OrderService orderSrvc = null;
+
+	List<String> deltas = new ArrayList<String>();
+
+	BoardDeltaListener recorder = (orderType, change, priceTicks, totalQuantityMilligrams,
+			orderCount) -> deltas.add(orderType + " " + change + " " + priceTicks + " " + totalQuantityMilligrams + " "
+					+ orderCount);
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order7 = new Order("user7", 3.0, 310, OrderType.BUY);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new OrderServiceImpl();
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order7);
+	}
+
+	@Test
+	public void testFirstPollDeliversBoard() {
+		BoardSubscription subscription = orderSrvc.subscribeBoardDeltas();
+		assertEquals(2, subscription.poll(recorder));
+		assertEquals("BUY ADDED 31000 3000000 1", deltas.get(0));
+		assertEquals("SELL ADDED 30600 3500000 1", deltas.get(1));
+		assertEquals(0, subscription.poll(recorder));
+	}
+
+	@Test
+	public void testChangesAreCoalesced() {
+		BoardSubscription subscription = orderSrvc.subscribeBoardDeltas();
+		subscription.poll(recorder);
+		deltas.clear();
+
+		orderSrvc.addOrder(new Order("user4", 2.0, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user5", 1.0, 306, OrderType.SELL));
+		orderSrvc.cancelOrder(order7);
+		Order order8 = new Order("user8", 1.0, 200, OrderType.BUY);
+		orderSrvc.addOrder(order8);
+		orderSrvc.cancelOrder(order8);
+
+		assertEquals(2, subscription.poll(recorder));
+		assertEquals("SELL CHANGED 30600 6500000 3", deltas.get(0));
+		assertEquals("BUY REMOVED 31000 0 0", deltas.get(1));
+	}
+
+	@Test
+	public void testClosedSubscriptionGetsNothing() {
+		BoardSubscription subscription = orderSrvc.subscribeBoardDeltas();
+		subscription.poll(recorder);
+		subscription.close();
+		orderSrvc.cancelOrder(order1);
+		assertEquals(0, subscription.poll(recorder));
+	}
+
+	@Test
+	public void testConcurrentServicePublishes() {
+		OrderService concurrent = new ConcurrentOrderServiceImpl();
+		BoardSubscription subscription = concurrent.subscribeBoardDeltas();
+		Order order = new Order("user1", 1.5, 307, OrderType.SELL);
+		concurrent.addOrder(order);
+		assertEquals(1, subscription.poll(recorder));
+		concurrent.cancelOrder(order.getOrderId());
+		assertEquals(1, subscription.poll(recorder));
+		assertEquals("SELL REMOVED 30700 0 0", deltas.get(1));
+	}
+}
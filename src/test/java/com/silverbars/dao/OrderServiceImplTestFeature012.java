@@ -0,0 +1,107 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature012 {
+
+	private static void assertBulkAdd(OrderService orderSrvc) {
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+		Order order5 = new Order("user5", 2.5, 250, OrderType.BUY);
+		orderSrvc.addOrder(order5);
+
+		List<Order> batch = Arrays.asList(order1, new Order("user2", 1.2, 310, OrderType.SELL), order5,
+				new Order("user3", 1.5, 307, OrderType.SELL), order4, order1,
+				new Order("user6", 3.0, 250, OrderType.BUY));
+		BatchResult result = orderSrvc.addOrders(batch);
+		assertEquals(7, result.size());
+		assertEquals(2, result.getFailureCount());
+		// already live, and twice in the batch
+		assertTrue(result.getFailure(2) instanceof IllegalArgumentException);
+		assertTrue(result.isFailed(5));
+		assertFalse(result.isFailed(0));
+
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("5.5 kg for £306.0"));
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("5.5 kg for £250.0"));
+
+		// orders of one price keep their order in the batch
+		List<Order> level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(306.0);
+		assertEquals("user1", level.get(0).getUserId());
+		assertEquals("user4", level.get(1).getUserId());
+		assertTrue(order1.getOrderId() < order4.getOrderId());
+	}
+
+	private static void assertBulkCancel(OrderService orderSrvc) {
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+		Order order5 = new Order("user5", 2.5, 250, OrderType.BUY);
+		Order order6 = new Order("user6", 3.0, 250, OrderType.BUY);
+		assertTrue(orderSrvc.addOrders(Arrays.asList(order1, order2, order4, order5, order6)).isSuccess());
+
+		BatchResult result = orderSrvc.cancelOrders(Arrays.asList(order4,
+				new Order("user9", 1.0, 306, OrderType.SELL), new Order("user5", 2.5, 250, OrderType.BUY)));
+		assertEquals(1, result.getFailureCount());
+		assertTrue(result.isFailed(1));
+		assertEquals(3.5, orderSrvc.getBoardSnapshot(new BoardSnapshot()).getTotalQuantity(OrderType.SELL, 0), 0.0);
+		assertEquals(3.0, orderSrvc.getBoardSnapshot(new BoardSnapshot()).getTotalQuantity(OrderType.BUY, 0), 0.0);
+
+		result = orderSrvc.cancelOrders(new long[] { order1.getOrderId(), 12345, order6.getOrderId(),
+				order1.getOrderId() });
+		assertEquals(2, result.getFailureCount());
+		assertTrue(result.isFailed(1));
+		assertTrue(result.isFailed(3));
+		assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+		assertEquals(1, orderSrvc.getOrdersByOrderType(OrderType.SELL).size());
+		assertEquals(order2, orderSrvc.getOrder(order2.getOrderId()));
+	}
+
+	@Test
+	public void testBulkAdd() {
+		assertBulkAdd(new OrderServiceImpl());
+		assertBulkAdd(new ConcurrentOrderServiceImpl());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertBulkAdd(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testBulkCancel() {
+		assertBulkCancel(new OrderServiceImpl());
+		assertBulkCancel(new ConcurrentOrderServiceImpl());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertBulkCancel(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testOneDeltaPerLevel() {
+		OrderService orderSrvc = new OrderServiceImpl();
+		BoardSubscription subscription = orderSrvc.subscribeBoardDeltas();
+		orderSrvc.addOrders(Arrays.asList(new Order("user1", 3.5, 306, OrderType.SELL),
+				new Order("user4", 2.0, 306, OrderType.SELL), new Order("user5", 2.5, 250, OrderType.BUY)));
+		int[] deltas = new int[1];
+		assertEquals(2, subscription.poll((orderType, change, priceTicks, totalQuantityMilligrams, orderCount) -> {
+			deltas[0]++;
+			if (orderType == OrderType.SELL) {
+				assertEquals(BoardDeltaListener.LevelChange.ADDED, change);
+				assertEquals(2, orderCount);
+			}
+		}));
+		assertEquals(2, deltas[0]);
+	}
+}
@@ -0,0 +1,188 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature013 {
+
+	OffHeapOrderService orderSrvc = null;
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+	Order order7 = new Order("user7", 3.0, 310, OrderType.BUY);
+
+	@Before
+	public void prepareOrderService() {
+		orderSrvc = new OffHeapOrderService();
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user3", 1.5, 307, OrderType.SELL));
+		orderSrvc.addOrder(order4);
+		orderSrvc.addOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+		orderSrvc.addOrder(order7);
+	}
+
+	@Test
+	public void testLiveOrderBoard() {
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("5.5 kg for £306.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("1.5 kg for £307.0"));
+		assertTrue(results.get(2).equalsIgnoreCase("1.2 kg for £310.0"));
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("3.0 kg for £310.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("2.5 kg for £250.0"));
+		assertEquals(310.0, orderSrvc.getBestPrice(OrderType.BUY).getAsDouble(), 0.0);
+	}
+
+	@Test
+	public void testCancelByValueAndById() {
+		// no id, so the oldest equal order of the level goes
+		orderSrvc.cancelOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		orderSrvc.cancelOrder(order7.getOrderId());
+		assertNull(orderSrvc.getOrder(order1.getOrderId()));
+		assertNull(orderSrvc.getOrder(order7.getOrderId()));
+
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertTrue(results.get(0).equalsIgnoreCase("2.0 kg for £306.0"));
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("2.5 kg for £250.0"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCancelUnknownOrder() {
+		orderSrvc.cancelOrder(new Order("user9", 3.5, 306, OrderType.SELL));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCancelUnknownId() {
+		orderSrvc.cancelOrder(order1.getOrderId());
+		orderSrvc.cancelOrder(order1.getOrderId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddLiveOrder() {
+		orderSrvc.addOrder(order4);
+	}
+
+	@Test
+	public void testReadsAreCopies() {
+		Order copy = orderSrvc.getOrder(order4.getOrderId());
+		assertEquals(order4, copy);
+		assertNotSame(order4, copy);
+		assertEquals(order4.getOrderId(), copy.getOrderId());
+
+		List<Order> level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(306.0);
+		assertEquals(Arrays.asList(order1, order4), level);
+		assertEquals(order1.getOrderId(), level.get(0).getOrderId());
+	}
+
+	@Test
+	public void testRecordsAreReused() {
+		long reserved = orderSrvc.getReservedOffHeapBytes();
+		for (int i = 0; i < 200000; i++) {
+			Order order = new Order("user8", 1.0, 300 + i % 7, OrderType.BUY);
+			orderSrvc.addOrder(order);
+			orderSrvc.cancelOrder(order.getOrderId());
+		}
+		assertEquals(reserved, orderSrvc.getReservedOffHeapBytes());
+		assertEquals(2, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+	}
+
+	@Test
+	public void testUserCodesAreReused() {
+		int capacity = orderSrvc.getUserCodeCapacity();
+		for (int i = 0; i < 100000; i++) {
+			Order order = new Order("user" + (10 + i), 1.0, 300 + i % 7, OrderType.BUY);
+			orderSrvc.addOrder(order);
+			orderSrvc.cancelOrder(order.getOrderId());
+			assertTrue(orderSrvc.getOrdersByUser("user" + (10 + i)).isEmpty());
+		}
+		assertEquals(capacity, orderSrvc.getUserCodeCapacity());
+
+		// a user gone and back gets a code again, the others keep theirs
+		orderSrvc.cancelOrder(order7.getOrderId());
+		assertTrue(orderSrvc.cancelAllOrdersForUser("user7").isEmpty());
+		Order order9 = new Order("user9", 1.0, 250, OrderType.BUY);
+		orderSrvc.addOrder(order9);
+		orderSrvc.addOrder(order7);
+		assertEquals("user9", orderSrvc.getOrder(order9.getOrderId()).getUserId());
+		assertEquals(order7, orderSrvc.getOrdersByUser("user7").get(0));
+		assertEquals(1, orderSrvc.cancelAllOrdersForUser("user1").size());
+		assertEquals(1, orderSrvc.cancelAllOrdersForUser("user4").size());
+		orderSrvc.cancelOrder(new Order("user9", 1.0, 250, OrderType.BUY));
+		assertTrue(orderSrvc.getOrdersByUser("user9").isEmpty());
+	}
+
+	@Test
+	public void testInstrumentRejected() {
+		Order gold = new Order("gold", "user8", 1.0, 1500, OrderType.BUY);
+		try {
+			orderSrvc.addOrder(gold);
+			fail("records have no room for the instrument");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		BatchResult result = orderSrvc.addOrders(Arrays.asList(gold, new Order("user8", 1.0, 1500, OrderType.BUY)));
+		assertTrue(result.isFailed(0));
+		assertFalse(result.isFailed(1));
+		try {
+			orderSrvc.cancelOrder(new Order("gold", "user8", 1.0, 1500, OrderType.BUY));
+			fail("no gold orders here");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals(1, orderSrvc.getOrdersByUser("user8").size());
+	}
+
+	@Test
+	public void testBulkAddAndCancel() {
+		Order order8 = new Order("user8", 1.0, 306, OrderType.SELL);
+		BatchResult result = orderSrvc.addOrders(Arrays.asList(order8, order4, new Order("user9", 1.0, 200,
+				OrderType.BUY)));
+		assertEquals(1, result.getFailureCount());
+		assertTrue(result.isFailed(1));
+		assertEquals(6.5, orderSrvc.getBoardSnapshot(new BoardSnapshot()).getTotalQuantity(OrderType.SELL, 0), 0.0);
+
+		result = orderSrvc.cancelOrders(new long[] { order8.getOrderId(), 12345 });
+		assertFalse(result.isFailed(0));
+		assertTrue(result.isFailed(1));
+		result = orderSrvc.cancelOrders(Arrays.asList(order1, new Order("user9", 1.0, 200, OrderType.BUY)));
+		assertTrue(result.isSuccess());
+		assertEquals(2.0, orderSrvc.getBoardSnapshot(new BoardSnapshot()).getTotalQuantity(OrderType.SELL, 0), 0.0);
+		assertEquals(2, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+	}
+
+	@Test
+	public void testBoardDeltas() {
+		List<String> deltas = new ArrayList<String>();
+		BoardDeltaListener recorder = (orderType, change, priceTicks, totalQuantityMilligrams,
+				orderCount) -> deltas.add(orderType + " " + change + " " + priceTicks + " " + totalQuantityMilligrams
+						+ " " + orderCount);
+		BoardSubscription subscription = orderSrvc.subscribeBoardDeltas();
+		assertEquals(5, subscription.poll(recorder));
+		deltas.clear();
+
+		orderSrvc.cancelOrder(order7);
+		orderSrvc.addOrder(new Order("user5", 1.0, 306, OrderType.SELL));
+		assertEquals(2, subscription.poll(recorder));
+		assertEquals("BUY REMOVED 31000 0 0", deltas.get(0));
+		assertEquals("SELL CHANGED 30600 6500000 3", deltas.get(1));
+	}
+}
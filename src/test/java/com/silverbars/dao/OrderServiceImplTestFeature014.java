@@ -0,0 +1,111 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature014 {
+
+	private static void prepare(OrderService orderSrvc) {
+		orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user1", 1.5, 307, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user4", 2.0, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user1", 2.5, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order("user6", 3.0, 250, OrderType.BUY));
+		orderSrvc.addOrder(new Order(null, 3.0, 310, OrderType.BUY));
+	}
+
+	private static void assertOrdersByUser(OrderService orderSrvc) {
+		prepare(orderSrvc);
+		List<Order> orders = orderSrvc.getOrdersByUser("user1");
+		assertEquals(Arrays.asList(new Order("user1", 3.5, 306, OrderType.SELL),
+				new Order("user1", 1.5, 307, OrderType.SELL), new Order("user1", 2.5, 250, OrderType.BUY)), orders);
+		assertTrue(orders.get(0).getOrderId() < orders.get(1).getOrderId());
+		assertEquals(1, orderSrvc.getOrdersByUser(null).size());
+		assertEquals(0, orderSrvc.getOrdersByUser("user9").size());
+
+		// cancelled orders leave the index, whichever way they are cancelled
+		orderSrvc.cancelOrder(new Order("user1", 1.5, 307, OrderType.SELL));
+		orderSrvc.cancelOrder(orders.get(2).getOrderId());
+		orderSrvc.cancelOrders(new long[] { orderSrvc.getOrdersByUser("user2").get(0).getOrderId() });
+		assertEquals(Arrays.asList(new Order("user1", 3.5, 306, OrderType.SELL)), orderSrvc.getOrdersByUser("user1"));
+		assertEquals(0, orderSrvc.getOrdersByUser("user2").size());
+
+		orderSrvc.addOrder(new Order("user2", 1.0, 300, OrderType.BUY));
+		assertEquals(1, orderSrvc.getOrdersByUser("user2").size());
+	}
+
+	private static void assertCancelAllOrdersForUser(OrderService orderSrvc) {
+		prepare(orderSrvc);
+		List<Order> cancelled = orderSrvc.cancelAllOrdersForUser("user1");
+		assertEquals(3, cancelled.size());
+		assertEquals("user1", cancelled.get(0).getUserId());
+		assertNull(orderSrvc.getOrder(cancelled.get(1).getOrderId()));
+		assertEquals(0, orderSrvc.getOrdersByUser("user1").size());
+		assertEquals(0, orderSrvc.cancelAllOrdersForUser("user1").size());
+
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("2.0 kg for £306.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("1.2 kg for £310.0"));
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("3.0 kg for £310.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("3.0 kg for £250.0"));
+
+		assertEquals(1, orderSrvc.cancelAllOrdersForUser(null).size());
+		assertEquals(1, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+	}
+
+	@Test
+	public void testOrdersByUser() {
+		assertOrdersByUser(new OrderServiceImpl());
+		assertOrdersByUser(new ConcurrentOrderServiceImpl());
+		assertOrdersByUser(new OffHeapOrderService());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertOrdersByUser(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testCancelAllOrdersForUser() {
+		assertCancelAllOrdersForUser(new OrderServiceImpl());
+		assertCancelAllOrdersForUser(new ConcurrentOrderServiceImpl());
+		assertCancelAllOrdersForUser(new OffHeapOrderService());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertCancelAllOrdersForUser(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testConcurrentCancelAll() throws InterruptedException {
+		ConcurrentOrderServiceImpl orderSrvc = new ConcurrentOrderServiceImpl();
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			String userId = "user" + t;
+			writers[t] = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					orderSrvc.addOrder(new Order(userId, 1.0, 300 + i % 5, OrderType.SELL));
+					if (i % 100 == 99) {
+						orderSrvc.cancelAllOrdersForUser(userId);
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.SELL).size());
+		assertEquals(0, orderSrvc.getOrdersByUser("user0").size());
+	}
+}
@@ -0,0 +1,101 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature015 {
+
+	private static void assertMatching(OrderService orderSrvc, List<String> trades) {
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		Order order3 = new Order("user3", 1.5, 307, OrderType.SELL);
+		Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+		orderSrvc.addOrders(Arrays.asList(order1, order2, order3, order4,
+				new Order("user5", 2.5, 250, OrderType.BUY)));
+		assertEquals(0, trades.size());
+
+		// crosses 306 and 307, the best price first and the oldest order first
+		Order order7 = new Order("user7", 6.0, 307, OrderType.BUY);
+		orderSrvc.addOrder(order7);
+		assertEquals(3, trades.size());
+		assertEquals("BUY " + order7.getOrderId() + " " + order1.getOrderId() + " 30600 3500000", trades.get(0));
+		assertEquals("BUY " + order7.getOrderId() + " " + order4.getOrderId() + " 30600 2000000", trades.get(1));
+		assertEquals("BUY " + order7.getOrderId() + " " + order3.getOrderId() + " 30700 500000", trades.get(2));
+		assertNull(orderSrvc.getOrder(order7.getOrderId()));
+		assertEquals(0.0, order7.getOrderQuantity(), 0.0);
+
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("1.0 kg for £307.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("1.2 kg for £310.0"));
+
+		// what is left after the fills rests at the order's own price
+		Order order8 = new Order("user8", 3.0, 312, OrderType.BUY);
+		orderSrvc.addOrder(order8);
+		assertEquals(5, trades.size());
+		assertEquals(order8, orderSrvc.getOrder(order8.getOrderId()));
+		assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.SELL).size());
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("0.8 kg for £312.0"));
+
+		// a SELL which does not cross just rests
+		orderSrvc.addOrder(new Order("user9", 1.0, 313, OrderType.SELL));
+		assertEquals(5, trades.size());
+		assertEquals(1, orderSrvc.getOrdersByOrderType(OrderType.SELL).size());
+	}
+
+	@Test
+	public void testMatching() {
+		List<String> trades = new ArrayList<String>();
+		TradeListener recorder = (takerType, takerOrderId, makerOrderId, priceTicks,
+				quantityMilligrams) -> trades.add(takerType + " " + takerOrderId + " " + makerOrderId + " "
+						+ priceTicks + " " + quantityMilligrams);
+		assertMatching(new OrderServiceImpl(recorder), trades);
+		trades.clear();
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16, recorder)) {
+			assertMatching(orderSrvc, trades);
+		}
+	}
+
+	@Test
+	public void testPartFilledOrderKeepsItsPlace() {
+		List<Long> makers = new ArrayList<Long>();
+		OrderService orderSrvc = new OrderServiceImpl(
+				(takerType, takerOrderId, makerOrderId, priceTicks, quantityMilligrams) -> makers.add(makerOrderId));
+		Order order5 = new Order("user5", 2.5, 250, OrderType.BUY);
+		Order order6 = new Order("user6", 3.0, 250, OrderType.BUY);
+		orderSrvc.addOrder(order5);
+		orderSrvc.addOrder(order6);
+
+		orderSrvc.addOrder(new Order("user1", 1.0, 240, OrderType.SELL));
+		assertEquals(1.5, order5.getOrderQuantity(), 0.0);
+		assertEquals(Arrays.asList(order5, order6), orderSrvc.getOrdersByOrderType(OrderType.BUY).get(250.0));
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.BUY).get(0).equalsIgnoreCase("4.5 kg for £250.0"));
+
+		orderSrvc.addOrder(new Order("user2", 2.0, 250, OrderType.SELL));
+		assertEquals(Arrays.asList(order5.getOrderId(), order5.getOrderId(), order6.getOrderId()), makers);
+		assertEquals(Arrays.asList(order6), orderSrvc.getOrdersByUser("user6"));
+		assertEquals(0, orderSrvc.getOrdersByUser("user5").size());
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.BUY).get(0).equalsIgnoreCase("2.5 kg for £250.0"));
+	}
+
+	@Test
+	public void testNoMatchingByDefault() {
+		OrderService orderSrvc = new OrderServiceImpl();
+		orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user7", 3.0, 310, OrderType.BUY));
+		assertEquals(1, orderSrvc.getOrdersByOrderType(OrderType.SELL).size());
+		assertEquals(1, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+	}
+}
@@ -0,0 +1,165 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature016 {
+
+	InstrumentRouter router = null;
+
+	Order silver1 = new Order("silver", "user1", 3.5, 306, OrderType.SELL);
+	Order silver4 = new Order("silver", "user4", 2.0, 306, OrderType.SELL);
+	Order gold1 = new Order("gold", "user1", 1.0, 1500, OrderType.BUY);
+	Order platinum2 = new Order("platinum", "user2", 2.0, 900, OrderType.SELL);
+
+	@Before
+	public void prepareRouter() {
+		router = new InstrumentRouter(2, 16);
+		router.addOrder(silver1);
+		router.addOrder(gold1);
+		router.addOrder(silver4);
+		router.addOrder(platinum2);
+	}
+
+	@After
+	public void closeRouter() {
+		router.close();
+	}
+
+	@Test
+	public void testBoardsPerInstrument() {
+		assertEquals(Arrays.asList("silver", "gold", "platinum"), router.getInstruments());
+		List<String> results = router.getBoard("silver").getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("5.5 kg for £306.0"));
+		assertEquals(0, router.getBoard("silver").getLiveOrderBoard().get(OrderType.BUY).size());
+		assertEquals(1500.0, router.getBoard("gold").getBestPrice(OrderType.BUY).getAsDouble(), 0.0);
+		assertEquals(0, router.getBoard("copper").getOrdersByOrderType(OrderType.SELL).size());
+	}
+
+	@Test
+	public void testIdsAreRoutedToTheirInstrument() {
+		// ids are unique across instruments
+		assertNotEquals(silver1.getOrderId(), gold1.getOrderId());
+		assertEquals(gold1, router.getOrder(gold1.getOrderId()));
+		assertEquals(silver4, router.getOrder(silver4.getOrderId()));
+		assertNull(router.getOrder(12345));
+
+		router.cancelOrder(silver1.getOrderId());
+		router.cancelOrder(new Order("platinum", "user2", 2.0, 900, OrderType.SELL));
+		assertNull(router.getOrder(silver1.getOrderId()));
+		assertEquals(0, router.getBoard("platinum").getOrdersByOrderType(OrderType.SELL).size());
+		assertTrue(router.getBoard("silver").getLiveOrderBoard().get(OrderType.SELL).get(0)
+				.equalsIgnoreCase("2.0 kg for £306.0"));
+	}
+
+	@Test
+	public void testBoardRejectsOtherInstruments() {
+		OrderService gold = router.getBoard("gold");
+		Order silver5 = new Order("silver", "user5", 1.0, 1400, OrderType.BUY);
+		Order unnamed5 = new Order("user5", 1.0, 1400, OrderType.BUY);
+		try {
+			gold.addOrder(silver5);
+			fail("silver order on the gold board");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			gold.cancelOrder(new Order("silver", "user1", 3.5, 306, OrderType.SELL));
+			fail("silver order cancelled on the gold board");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// only the gold order of a batch goes on the gold board
+		Order gold5 = new Order("gold", "user5", 1.0, 1400, OrderType.BUY);
+		BatchResult result = gold.addOrders(Arrays.asList(silver5, gold5, unnamed5));
+		assertTrue(result.isFailed(0));
+		assertFalse(result.isFailed(1));
+		assertTrue(result.isFailed(2));
+		assertTrue(result.getFailure(2) instanceof IllegalArgumentException);
+		assertEquals(Arrays.asList(gold5), router.getOrdersByUser("user5"));
+		assertEquals(2, gold.getOrdersByOrderType(OrderType.BUY).size());
+
+		result = gold.cancelOrders(Arrays.asList(silver1, gold5));
+		assertTrue(result.isFailed(0));
+		assertFalse(result.isFailed(1));
+		assertEquals(silver1, router.getOrder(silver1.getOrderId()));
+		assertTrue(router.getOrdersByUser("user5").isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCancelUnknownId() {
+		router.cancelOrder((5L << InstrumentRouter.ORDER_ID_BITS) + 1);
+	}
+
+	@Test
+	public void testCancelAllOrdersForUserOnAllBoards() {
+		assertEquals(Arrays.asList(silver1, gold1), router.getOrdersByUser("user1"));
+		assertEquals(Arrays.asList(silver1, gold1), router.cancelAllOrdersForUser("user1"));
+		assertEquals(0, router.getOrdersByUser("user1").size());
+		assertEquals(0, router.getBoard("gold").getOrdersByOrderType(OrderType.BUY).size());
+		assertEquals(1, router.getBoard("silver").getOrdersByOrderType(OrderType.SELL).size());
+	}
+
+	@Test
+	public void testExpiryOnEveryBoard() throws InterruptedException {
+		// boards beyond the first of each shard expire too
+		Order silver7 = new Order("silver", "user7", 1.0, 305, OrderType.SELL);
+		Order platinum7 = new Order("platinum", "user7", 1.0, 899, OrderType.SELL);
+		silver7.setExpiresAtMillis(System.currentTimeMillis() + 50);
+		platinum7.setExpiresAtMillis(System.currentTimeMillis() + 50);
+		router.addOrder(silver7);
+		router.addOrder(platinum7);
+		assertEquals(2, router.getOrdersByUser("user7").size());
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!router.getOrdersByUser("user7").isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(router.getOrdersByUser("user7").isEmpty());
+		assertEquals(306.0, router.getBoard("silver").getBestPrice(OrderType.SELL).getAsDouble(), 0.0);
+		assertEquals(Arrays.asList(silver1, gold1), router.getOrdersByUser("user1"));
+	}
+
+	@Test
+	public void testConcurrentInstruments() throws InterruptedException {
+		Thread[] writers = new Thread[4];
+		for (int t = 0; t < writers.length; t++) {
+			String instrument = "grade" + t;
+			writers[t] = new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					Order order = new Order(instrument, "user" + i, 1.0, 300 + i % 10, OrderType.SELL);
+					router.addOrder(order);
+					if (i % 2 == 1) {
+						router.cancelOrder(order.getOrderId());
+					}
+				}
+			});
+			writers[t].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		for (int t = 0; t < writers.length; t++) {
+			// every odd order was cancelled, which leaves the even prices
+			BoardSnapshot snapshot = router.getBoard("grade" + t).getBoardSnapshot(new BoardSnapshot());
+			assertEquals(5, snapshot.getLevelCount(OrderType.SELL));
+			assertEquals(100, snapshot.getOrderCount(OrderType.SELL, 0));
+			assertEquals(302.0, snapshot.getPricePerKilo(OrderType.SELL, 1), 0.0);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature017 {
+
+	@Test
+	public void testPublishEveryMutations() {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		assertEquals(0, orderSrvc.getPublishedBoard().getSequence());
+		orderSrvc.publishBoards(60000, 3);
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+		assertFalse(orderSrvc.publishBoardIfDue());
+		PublishedBoard before = orderSrvc.getPublishedBoard();
+		assertEquals(0, before.getLevels().getLevelCount(OrderType.SELL));
+
+		orderSrvc.addOrder(new Order("user7", 3.0, 250, OrderType.BUY));
+		assertTrue(orderSrvc.publishBoardIfDue());
+		PublishedBoard board = orderSrvc.getPublishedBoard();
+		assertEquals(3, board.getSequence());
+		assertEquals(2, board.getLevels().getLevelCount(OrderType.SELL));
+		assertEquals(1, board.getLevels().getLevelCount(OrderType.BUY));
+
+		// a published board never changes
+		orderSrvc.cancelOrder(order1.getOrderId());
+		assertEquals(4, orderSrvc.getSequence());
+		assertSame(board, orderSrvc.getPublishedBoard());
+		assertEquals(2, board.getLevels().getLevelCount(OrderType.SELL));
+		List<String> results = BoardFormatter.formatLevels(board.getLevels(), OrderType.SELL);
+		assertTrue(results.get(0).equalsIgnoreCase("3.5 kg for £306.0"));
+	}
+
+	@Test
+	public void testPublishAfterInterval() throws InterruptedException {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		orderSrvc.publishBoards(1, 1000);
+		orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		Thread.sleep(5);
+		assertTrue(orderSrvc.publishBoardIfDue());
+		assertEquals(1, orderSrvc.getPublishedBoard().getLevels().getLevelCount(OrderType.SELL));
+		// nothing pending
+		Thread.sleep(5);
+		assertFalse(orderSrvc.publishBoardIfDue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPublishing() {
+		new OrderServiceImpl().publishBoards(0, 10);
+	}
+
+	@Test
+	public void testReadersWhileWriting() throws InterruptedException {
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			orderSrvc.publishBoards(1, 64);
+			AtomicReference<String> failure = new AtomicReference<String>();
+			Thread[] readers = new Thread[3];
+			for (int t = 0; t < readers.length; t++) {
+				readers[t] = new Thread(() -> {
+					long lastSequence = 0;
+					while (lastSequence < 2000) {
+						PublishedBoard board = orderSrvc.getPublishedBoard();
+						if (board.getSequence() < lastSequence) {
+							failure.set("sequence went back to " + board.getSequence());
+						}
+						lastSequence = board.getSequence();
+						// orders are added in pairs, one BUY and one SELL at the same distance
+						BoardSnapshot levels = board.getLevels();
+						if (levels.getLevelCount(OrderType.BUY) != levels.getLevelCount(OrderType.SELL)
+								&& lastSequence % 2 == 0) {
+							failure.set("sides differ at " + lastSequence);
+						}
+					}
+				});
+				readers[t].start();
+			}
+			for (int i = 0; i < 1000; i++) {
+				orderSrvc.addOrder(new Order("user" + i, 1.0, 300 - i % 50, OrderType.BUY));
+				orderSrvc.addOrder(new Order("user" + i, 1.0, 400 + i % 50, OrderType.SELL));
+			}
+			for (Thread reader : readers) {
+				reader.join();
+			}
+			assertNull(failure.get());
+			PublishedBoard board = orderSrvc.getPublishedBoard();
+			assertEquals(2000, board.getSequence());
+			assertEquals(50, board.getLevels().getLevelCount(OrderType.SELL));
+			assertEquals(20, board.getLevels().getOrderCount(OrderType.SELL, 0));
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature018 {
+
+	private static void assertAmendments(OrderService orderSrvc) {
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.addOrder(order4);
+
+		// a reduced quantity keeps the order's place
+		orderSrvc.amendOrder(order1.getOrderId(), 1.5, 306);
+		assertEquals(1.5, orderSrvc.getOrder(order1.getOrderId()).getOrderQuantity(), 0.0);
+		List<Order> level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(306.0);
+		assertEquals(order1.getOrderId(), level.get(0).getOrderId());
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertTrue(results.get(0).equalsIgnoreCase("3.5 kg for £306.0"));
+
+		// a grown quantity goes to the back of the level
+		orderSrvc.amendOrder(order1.getOrderId(), 2.5, 306);
+		level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(306.0);
+		assertEquals(order4.getOrderId(), level.get(0).getOrderId());
+		assertEquals(order1.getOrderId(), level.get(1).getOrderId());
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.SELL).get(0).equalsIgnoreCase("4.5 kg for £306.0"));
+
+		// a new price moves it to the back of the other level, keeping its id
+		orderSrvc.amendOrder(order4.getOrderId(), 2.0, 310);
+		results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("2.5 kg for £306.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("3.2 kg for £310.0"));
+		level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(310.0);
+		assertEquals(order2.getOrderId(), level.get(0).getOrderId());
+		assertEquals(order4.getOrderId(), level.get(1).getOrderId());
+		assertEquals(310.0, orderSrvc.getOrder(order4.getOrderId()).getPricePerKilo(), 0.0);
+
+		// the last order of a level moves out of it
+		orderSrvc.amendOrder(order1.getOrderId(), 2.5, 305);
+		assertFalse(orderSrvc.getOrdersByOrderType(OrderType.SELL).containsKey(306.0));
+		assertEquals(305.0, orderSrvc.getBestPrice(OrderType.SELL).getAsDouble(), 0.0);
+		assertEquals(Arrays.asList(orderSrvc.getOrder(order1.getOrderId())), orderSrvc.getOrdersByUser("user1"));
+
+		try {
+			orderSrvc.amendOrder(order1.getOrderId(), 0, 305);
+			fail("amended to nothing");
+		} catch (IllegalArgumentException e) {
+			// cancel instead
+		}
+		try {
+			orderSrvc.amendOrder(12345, 1.0, 305);
+			fail("amended unknown id");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testAmendOrder() {
+		assertAmendments(new OrderServiceImpl());
+		assertAmendments(new ConcurrentOrderServiceImpl());
+		assertAmendments(new OffHeapOrderService());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertAmendments(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testRestingOrderIsImmutable() {
+		OrderService orderSrvc = new OrderServiceImpl();
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		assertTrue(order1.isResting());
+		try {
+			order1.setPricePerKilo(300);
+			fail("changed a resting order");
+		} catch (IllegalStateException e) {
+			// amend instead
+		}
+		try {
+			order1.setQuantityMilligrams(1);
+			fail("changed a resting order");
+		} catch (IllegalStateException e) {
+			// amend instead
+		}
+		try {
+			order1.setPriceTicks(1);
+			fail("changed a resting order");
+		} catch (IllegalStateException e) {
+			// amend instead
+		}
+		try {
+			order1.setOrderId(42);
+			fail("changed a resting order");
+		} catch (IllegalStateException e) {
+			// its service's id
+		}
+		try {
+			OrderAccess.register(new Order.Mutator() {
+				@Override
+				public void setResting(Order order, boolean resting) {
+				}
+
+				@Override
+				public void setQuantityMilligrams(Order order, long quantityMilligrams) {
+				}
+			});
+			fail("only the order services change resting orders");
+		} catch (IllegalStateException e) {
+			// registered by Order
+		}
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.SELL).get(0).equalsIgnoreCase("3.5 kg for £306.0"));
+
+		orderSrvc.cancelOrder(order1.getOrderId());
+		assertFalse(order1.isResting());
+		order1.setPricePerKilo(300);
+		orderSrvc.addOrder(order1);
+		assertEquals(300.0, orderSrvc.getBestPrice(OrderType.SELL).getAsDouble(), 0.0);
+	}
+
+	@Test
+	public void testAmendMatches() {
+		List<Long> makers = new ArrayList<Long>();
+		OrderService orderSrvc = new OrderServiceImpl(
+				(takerType, takerOrderId, makerOrderId, priceTicks, quantityMilligrams) -> makers.add(makerOrderId));
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order7 = new Order("user7", 1.0, 300, OrderType.BUY);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order7);
+		assertEquals(0, makers.size());
+
+		orderSrvc.amendOrder(order7.getOrderId(), 1.0, 306);
+		assertEquals(Arrays.asList(order1.getOrderId()), makers);
+		assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+		assertEquals(2.5, order1.getOrderQuantity(), 0.0);
+	}
+
+	@Test
+	public void testConcurrentAmendAndCancel() throws InterruptedException {
+		ConcurrentOrderServiceImpl orderSrvc = new ConcurrentOrderServiceImpl();
+		Order[] orders = new Order[1000];
+		for (int i = 0; i < orders.length; i++) {
+			orders[i] = new Order("user" + i % 7, 2.0, 300 + i % 5, OrderType.SELL);
+			orderSrvc.addOrder(orders[i]);
+		}
+		Thread amender = new Thread(() -> {
+			for (int round = 0; round < 5; round++) {
+				for (int i = 0; i < orders.length; i++) {
+					try {
+						orderSrvc.amendOrder(orders[i].getOrderId(), 1.0 + round % 2, 300 + (i + round) % 5);
+					} catch (IllegalArgumentException e) {
+						// cancelled meanwhile
+					}
+				}
+			}
+		});
+		amender.start();
+		for (int i = 0; i < orders.length; i += 2) {
+			orderSrvc.cancelOrder(orders[i].getOrderId());
+		}
+		amender.join();
+
+		BoardSnapshot snapshot = orderSrvc.getBoardSnapshot(new BoardSnapshot());
+		int orderCount = 0;
+		long totalMilligrams = 0;
+		for (int i = 0; i < snapshot.getLevelCount(OrderType.SELL); i++) {
+			orderCount += snapshot.getOrderCount(OrderType.SELL, i);
+			totalMilligrams += snapshot.getTotalQuantityMilligrams(OrderType.SELL, i);
+		}
+		assertEquals(500, orderCount);
+		long expectedMilligrams = 0;
+		for (int i = 1; i < orders.length; i += 2) {
+			expectedMilligrams += orderSrvc.getOrder(orders[i].getOrderId()).getQuantityMilligrams();
+		}
+		assertEquals(expectedMilligrams, totalMilligrams);
+	}
+}
@@ -0,0 +1,138 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature019 {
+
+	private static void assertBucket(BoardSnapshot snapshot, OrderType orderType, int index, double pricePerKilo,
+			double totalQuantity, int orderCount) {
+		assertEquals(pricePerKilo, snapshot.getPricePerKilo(orderType, index), 0.0);
+		assertEquals(totalQuantity, snapshot.getTotalQuantity(orderType, index), 0.0);
+		assertEquals(orderCount, snapshot.getOrderCount(orderType, index));
+	}
+
+	private static void assertBuckets(OrderService orderSrvc) {
+		Order order1 = new Order("user1", 3.5, 306.5, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.addOrder(new Order("user3", 1.5, 308, OrderType.SELL));
+		orderSrvc.addOrder(new Order("user4", 2.0, 249.99, OrderType.BUY));
+		Order order5 = new Order("user5", 1.0, 251, OrderType.BUY);
+		orderSrvc.addOrder(order5);
+
+		// seeded with the levels already on the board
+		try (BucketedBoard buckets = new BucketedBoard(orderSrvc, 5)) {
+			assertEquals(5.0, buckets.getBucketSize(), 0.0);
+			BoardSnapshot snapshot = buckets.getBoardSnapshot(new BoardSnapshot(), Integer.MAX_VALUE);
+			assertEquals(2, snapshot.getLevelCount(OrderType.SELL));
+			assertBucket(snapshot, OrderType.SELL, 0, 305, 5.0, 2);
+			assertBucket(snapshot, OrderType.SELL, 1, 310, 1.2, 1);
+			// highest prices first
+			assertEquals(2, snapshot.getLevelCount(OrderType.BUY));
+			assertBucket(snapshot, OrderType.BUY, 0, 250, 1.0, 1);
+			assertBucket(snapshot, OrderType.BUY, 1, 245, 2.0, 1);
+
+			// kept up to date as orders come and go
+			orderSrvc.addOrder(new Order("user6", 0.5, 314.99, OrderType.SELL));
+			orderSrvc.cancelOrder(order1.getOrderId());
+			orderSrvc.amendOrder(order5.getOrderId(), 1.0, 240);
+			snapshot = buckets.getBoardSnapshot(snapshot, Integer.MAX_VALUE);
+			assertBucket(snapshot, OrderType.SELL, 0, 305, 1.5, 1);
+			assertBucket(snapshot, OrderType.SELL, 1, 310, 1.7, 2);
+			assertEquals(2, snapshot.getLevelCount(OrderType.BUY));
+			assertBucket(snapshot, OrderType.BUY, 0, 245, 2.0, 1);
+			assertBucket(snapshot, OrderType.BUY, 1, 240, 1.0, 1);
+
+			// only the buckets asked for
+			snapshot = buckets.getBoardSnapshot(snapshot, 1);
+			assertEquals(1, snapshot.getLevelCount(OrderType.SELL));
+			assertEquals(1, snapshot.getLevelCount(OrderType.BUY));
+
+			// emptied buckets go away
+			orderSrvc.cancelAllOrdersForUser("user3");
+			assertEquals(1, buckets.getBucketCount(OrderType.SELL));
+		}
+	}
+
+	@Test
+	public void testBuckets() {
+		assertBuckets(new OrderServiceImpl());
+		assertBuckets(new ConcurrentOrderServiceImpl());
+		assertBuckets(new OffHeapOrderService());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertBuckets(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testBucketsMatchLevels() {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		Random random = new Random(19);
+		try (BucketedBoard buckets = new BucketedBoard(orderSrvc, 1)) {
+			BoardSnapshot bucketed = new BoardSnapshot();
+			BoardSnapshot levels = new BoardSnapshot();
+			for (int round = 0; round < 50; round++) {
+				for (int i = 0; i < 100; i++) {
+					OrderType orderType = random.nextBoolean() ? OrderType.BUY : OrderType.SELL;
+					Order order = new Order("user" + random.nextInt(10), 1 + random.nextInt(5),
+							200 + random.nextInt(2000) / 100.0, orderType);
+					orderSrvc.addOrder(order);
+					if (random.nextInt(3) == 0) {
+						orderSrvc.cancelOrder(order.getOrderId());
+					}
+				}
+				buckets.getBoardSnapshot(bucketed, Integer.MAX_VALUE);
+				orderSrvc.getBoardSnapshot(levels);
+				for (OrderType orderType : OrderType.values()) {
+					// sum the exact levels into £1 buckets and compare
+					int bucket = -1;
+					long bucketTicks = Long.MIN_VALUE;
+					long quantity = 0;
+					int count = 0;
+					for (int i = 0; i <= levels.getLevelCount(orderType); i++) {
+						long ticks = i == levels.getLevelCount(orderType) ? Long.MAX_VALUE
+								: levels.getPriceTicks(orderType, i) / FixedPoint.TICKS_PER_POUND
+										* FixedPoint.TICKS_PER_POUND;
+						if (ticks != bucketTicks) {
+							if (bucket >= 0) {
+								assertEquals(bucketTicks, bucketed.getPriceTicks(orderType, bucket));
+								assertEquals(quantity, bucketed.getTotalQuantityMilligrams(orderType, bucket));
+								assertEquals(count, bucketed.getOrderCount(orderType, bucket));
+							}
+							if (ticks == Long.MAX_VALUE) {
+								break;
+							}
+							bucket++;
+							bucketTicks = ticks;
+							quantity = 0;
+							count = 0;
+						}
+						quantity += levels.getTotalQuantityMilligrams(orderType, i);
+						count += levels.getOrderCount(orderType, i);
+					}
+					assertEquals(bucket + 1, bucketed.getLevelCount(orderType));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidBucketSize() {
+		try {
+			new BucketedBoard(new OrderServiceImpl(), 0.001).close();
+			fail("bucket below a tick");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
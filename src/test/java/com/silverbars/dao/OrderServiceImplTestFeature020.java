@@ -0,0 +1,182 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature020 {
+
+	private static Order order(String userId, double orderQuantity, double pricePerKilo, OrderType orderType,
+			long expiresAtMillis) {
+		Order order = new Order(userId, orderQuantity, pricePerKilo, orderType);
+		order.setExpiresAtMillis(expiresAtMillis);
+		return order;
+	}
+
+	@Test
+	public void testExpireOrders() {
+		long now = System.currentTimeMillis();
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		Order order1 = order("user1", 3.5, 306, OrderType.SELL, now + 10);
+		Order order2 = order("user2", 1.2, 306, OrderType.SELL, now + 10);
+		Order order3 = order("user3", 1.5, 310, OrderType.SELL, now + 5000);
+		Order order4 = order("user4", 2.0, 250, OrderType.BUY, now + TimeUnit.DAYS.toMillis(3));
+		Order order5 = new Order("user5", 1.0, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.addOrder(order3);
+		orderSrvc.addOrder(order4);
+		orderSrvc.addOrder(order5);
+		assertEquals(4, orderSrvc.getExpiringOrderCount());
+
+		assertTrue(orderSrvc.expireOrders(now + 9).isEmpty());
+		long sequence = orderSrvc.getSequence();
+		List<Order> expired = orderSrvc.expireOrders(now + 10);
+		assertEquals(new HashSet<Order>(Arrays.asList(order1, order2)), new HashSet<Order>(expired));
+		assertEquals(sequence + 1, orderSrvc.getSequence());
+		assertNull(orderSrvc.getOrder(order1.getOrderId()));
+		assertTrue(orderSrvc.getOrdersByUser("user2").isEmpty());
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("1.0 kg for £306.0"));
+
+		// a cancelled order is no longer expired, an amended one keeps its expiry
+		orderSrvc.cancelOrder(order3.getOrderId());
+		orderSrvc.amendOrder(order4.getOrderId(), 2.0, 251);
+		assertEquals(1, orderSrvc.getExpiringOrderCount());
+		assertTrue(orderSrvc.expireOrders(now + 6000).isEmpty());
+		assertTrue(orderSrvc.expireOrders(now + TimeUnit.DAYS.toMillis(3) - 1).isEmpty());
+		assertEquals(Arrays.asList(order4), orderSrvc.expireOrders(now + TimeUnit.DAYS.toMillis(3)));
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.BUY).isEmpty());
+		assertEquals(0, orderSrvc.getExpiringOrderCount());
+		assertNotNull(orderSrvc.getOrder(order5.getOrderId()));
+
+		// beyond the reach of the wheel, placed again as time gets closer
+		Order order7 = order("user7", 1.0, 250, OrderType.BUY, now + TimeUnit.DAYS.toMillis(3 * 365));
+		orderSrvc.addOrder(order7);
+		assertTrue(orderSrvc.expireOrders(now + TimeUnit.DAYS.toMillis(3 * 365) - 1).isEmpty());
+		assertEquals(Arrays.asList(order7), orderSrvc.expireOrders(now + TimeUnit.DAYS.toMillis(3 * 365)));
+
+		// already expired when added, gone with the next sweep
+		Order order6 = order("user6", 1.0, 250, OrderType.BUY, now - 1000);
+		orderSrvc.addOrder(order6);
+		assertEquals(Arrays.asList(order6), orderSrvc.expireOrders(now + TimeUnit.DAYS.toMillis(3 * 365) + 1));
+	}
+
+	@Test
+	public void testExpiryWhileResting() {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		Order order = order("user1", 1.0, 250, OrderType.BUY, System.currentTimeMillis() + 60000);
+		orderSrvc.addOrder(order);
+		try {
+			order.setExpiresAtMillis(0);
+			fail("changed the expiry of a resting order");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		orderSrvc.cancelOrder(order.getOrderId());
+		order.setExpiresAtMillis(0);
+	}
+
+	@Test
+	public void testExpiryMatchesScan() {
+		long now = System.currentTimeMillis();
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		Random random = new Random(20);
+		List<Order> live = new ArrayList<Order>();
+		long time = now;
+		for (int round = 0; round < 2000; round++) {
+			for (int i = 0; i < 5; i++) {
+				// expiries from a few ms to a few weeks ahead
+				long expiry = time + (long) Math.pow(2, random.nextInt(32)) + random.nextInt(100);
+				Order order = order("user" + random.nextInt(10), 1.0, 200 + random.nextInt(50),
+						random.nextBoolean() ? OrderType.BUY : OrderType.SELL, expiry);
+				orderSrvc.addOrder(order);
+				live.add(order);
+			}
+			if (!live.isEmpty() && random.nextInt(4) == 0) {
+				Order order = live.remove(random.nextInt(live.size()));
+				orderSrvc.cancelOrder(order.getOrderId());
+			}
+			time += random.nextInt(1 << (1 + random.nextInt(24)));
+
+			Set<Long> due = new HashSet<Long>();
+			for (Iterator<Order> it = live.iterator(); it.hasNext();) {
+				Order order = it.next();
+				if (order.getExpiresAtMillis() <= time) {
+					due.add(order.getOrderId());
+					it.remove();
+				}
+			}
+			List<Order> expired = orderSrvc.expireOrders(time);
+			Set<Long> expiredIds = new HashSet<Long>();
+			for (Order order : expired) {
+				expiredIds.add(order.getOrderId());
+			}
+			assertEquals(due, expiredIds);
+			assertEquals(due.size(), expired.size());
+			for (int i = 1; i < expired.size(); i++) {
+				assertTrue(expired.get(i - 1).getExpiresAtMillis() <= expired.get(i).getExpiresAtMillis());
+			}
+			assertEquals(live.size(), orderSrvc.getExpiringOrderCount());
+		}
+	}
+
+	private static void assertExpiryRejected(OrderService orderSrvc) {
+		Order order1 = order("user1", 1.0, 250, OrderType.BUY, System.currentTimeMillis() + 60000);
+		try {
+			orderSrvc.addOrder(order1);
+			fail("expiring order added where nothing expires it");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertTrue(orderSrvc.getOrdersByUser("user1").isEmpty());
+		Order order2 = new Order("user2", 1.0, 250, OrderType.BUY);
+		BatchResult result = orderSrvc.addOrders(Arrays.asList(order1, order2));
+		assertTrue(result.getFailure(0) instanceof IllegalArgumentException);
+		assertFalse(result.isFailed(1));
+		assertEquals(1, orderSrvc.getLiveOrderBoard().get(OrderType.BUY).size());
+	}
+
+	@Test
+	public void testExpiryRejected() {
+		assertExpiryRejected(new ConcurrentOrderServiceImpl());
+		assertExpiryRejected(new OffHeapOrderService());
+	}
+
+	@Test
+	public void testSingleWriterExpires() throws InterruptedException {
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			Order order1 = order("user1", 1.0, 250, OrderType.BUY, System.currentTimeMillis() + 50);
+			Order order2 = new Order("user2", 1.0, 250, OrderType.BUY);
+			orderSrvc.addOrder(order1);
+			orderSrvc.addOrder(order2);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (orderSrvc.getOrder(order1.getOrderId()) != null && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertNull(orderSrvc.getOrder(order1.getOrderId()));
+			assertNotNull(orderSrvc.getOrder(order2.getOrderId()));
+			List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+			assertEquals(1, results.size());
+			assertTrue(results.get(0).equalsIgnoreCase("1.0 kg for £250.0"));
+		}
+	}
+}
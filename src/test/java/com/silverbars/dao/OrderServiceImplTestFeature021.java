@@ -0,0 +1,185 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature021 {
+
+	private static void assertPooledOrders(OrderService orderSrvc) {
+		OrderPool pool = new OrderPool();
+		Order order1 = pool.acquire("user1", FixedPoint.toMilligrams(3.5), FixedPoint.toPriceTicks(306), OrderType.SELL);
+		Order order2 = pool.acquire("user2", FixedPoint.toMilligrams(1.2), FixedPoint.toPriceTicks(310), OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		long orderId1 = order1.getOrderId();
+		orderSrvc.cancelOrder(orderId1);
+		pool.release(order1);
+		assertEquals(1, pool.getPooledCount());
+
+		// the same order comes back, as a new order
+		Order order3 = pool.acquire("user3", FixedPoint.toMilligrams(1.5), FixedPoint.toPriceTicks(310), OrderType.SELL);
+		assertSame(order1, order3);
+		assertEquals(0, order3.getOrderId());
+		assertEquals(0, pool.getPooledCount());
+		orderSrvc.addOrder(order3);
+		assertTrue(order3.getOrderId() != orderId1);
+
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("2.7 kg for £310.0"));
+		assertEquals(1, orderSrvc.getOrdersByUser("user3").size());
+		assertTrue(orderSrvc.getOrdersByUser("user1").isEmpty());
+	}
+
+	@Test
+	public void testPooledOrders() {
+		assertPooledOrders(new OrderServiceImpl());
+		assertPooledOrders(new ConcurrentOrderServiceImpl());
+		assertPooledOrders(new OffHeapOrderService());
+		try (SingleWriterOrderService orderSrvc = new SingleWriterOrderService(16)) {
+			assertPooledOrders(orderSrvc);
+		}
+	}
+
+	@Test
+	public void testRelease() {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		OrderPool pool = new OrderPool(2);
+		try {
+			pool.release(order1);
+			fail("released a resting order");
+		} catch (IllegalStateException e) {
+			// cancel it first
+		}
+		orderSrvc.cancelOrder(order1);
+		pool.release(order1);
+		assertEquals(0, order1.getOrderId());
+
+		for (int i = 0; i < 2; i++) {
+			Order order = new Order("user1", 1.0, 306, OrderType.SELL);
+			order.setInstrument("gold");
+			order.setExpiresAtMillis(12345);
+			pool.release(order);
+		}
+		assertEquals(2, pool.getPooledCount());
+		Order order = pool.acquire("user2", FixedPoint.toMilligrams(2.0), FixedPoint.toPriceTicks(250), OrderType.BUY);
+		assertEquals(Order.ofFixedPoint("user2", FixedPoint.toMilligrams(2.0), FixedPoint.toPriceTicks(250),
+				OrderType.BUY), order);
+		assertEquals(0, order.getExpiresAtMillis());
+		try {
+			new OrderPool(0);
+			fail("empty pool");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testLevelsAndNodesReused() {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		List<Order> level = orderSrvc.getOrdersByOrderType(OrderType.SELL).get(306.0);
+		orderSrvc.cancelOrder(order1.getOrderId());
+		assertTrue(orderSrvc.getOrdersByUser("user1").isEmpty());
+		assertTrue(orderSrvc.cancelAllOrdersForUser("user1").isEmpty());
+
+		// the level of the price gone is the level of the next new price
+		Order order2 = new Order("user1", 1.2, 310, OrderType.SELL);
+		orderSrvc.addOrder(order2);
+		assertSame(level, orderSrvc.getOrdersByOrderType(OrderType.SELL).get(310.0));
+		assertEquals(1, level.size());
+		assertSame(order2, level.get(0));
+		assertEquals(1, orderSrvc.getOrdersByUser("user1").size());
+
+		Order order3 = new Order("user2", 2.0, 310, OrderType.BUY);
+		orderSrvc.addOrder(order3);
+		assertNotSame(level, orderSrvc.getOrdersByOrderType(OrderType.BUY).get(310.0));
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("1.2 kg for £310.0"));
+	}
+
+	@Test
+	public void testEmptyUsersRemoved() {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		// many users coming and going do not stay on the board
+		for (int i = 0; i < 5000; i++) {
+			Order order = new Order("user" + i, 1.0, 306, OrderType.SELL);
+			orderSrvc.addOrder(order);
+			orderSrvc.cancelOrder(order.getOrderId());
+			assertTrue(orderSrvc.getOrdersByUser("user" + i).isEmpty());
+		}
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.cancelOrder(order1.getOrderId());
+		assertTrue(orderSrvc.getOrdersByUser("user1").isEmpty());
+		assertTrue(orderSrvc.cancelAllOrdersForUser("user1").isEmpty());
+
+		// a new user takes the list of a user gone
+		Order order3 = new Order("user3", 2.0, 306, OrderType.SELL);
+		orderSrvc.addOrder(order3);
+		assertEquals(1, orderSrvc.getOrdersByUser("user3").size());
+		assertSame(order3, orderSrvc.getOrdersByUser("user3").get(0));
+		assertEquals(1, orderSrvc.getOrdersByUser("user2").size());
+		assertEquals(1, orderSrvc.cancelAllOrdersForUser("user2").size());
+		assertEquals(1, orderSrvc.cancelAllOrdersForUser("user3").size());
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.SELL).isEmpty());
+	}
+
+	@Test
+	public void testSteadyStateIsGarbageFree() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported()
+				&& allocations.isThreadAllocatedMemoryEnabled());
+
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		OrderPool pool = new OrderPool();
+		String[] users = new String[50];
+		for (int i = 0; i < users.length; i++) {
+			users[i] = "user" + i;
+		}
+		Order[] live = new Order[500];
+		Random random = new Random(21);
+		long threadId = Thread.currentThread().getId();
+		long allocated = 0;
+		for (int round = 0; round < 2; round++) {
+			// the first round grows the board to its size, the second churns it
+			long before = allocations.getThreadAllocatedBytes(threadId);
+			for (int i = 0; i < 200000; i++) {
+				int slot = random.nextInt(live.length);
+				if (live[slot] != null) {
+					orderSrvc.cancelOrder(live[slot].getOrderId());
+					pool.release(live[slot]);
+				}
+				OrderType orderType = random.nextBoolean() ? OrderType.BUY : OrderType.SELL;
+				live[slot] = pool.acquire(users[random.nextInt(users.length)], 1 + random.nextInt(10000),
+						30000 + random.nextInt(200), orderType);
+				orderSrvc.addOrder(live[slot]);
+			}
+			allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+		}
+		assertTrue(allocated + " bytes allocated", allocated < 64 * 1024);
+	}
+}
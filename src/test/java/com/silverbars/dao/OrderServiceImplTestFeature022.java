@@ -0,0 +1,177 @@
+package com.silverbars.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServiceImplTestFeature022 {
+
+	private static long totalQuantity(BoardSnapshot snapshot, OrderType orderType) {
+		long total = 0;
+		for (int i = 0; i < snapshot.getLevelCount(orderType); i++) {
+			total += snapshot.getTotalQuantityMilligrams(orderType, i);
+		}
+		return total;
+	}
+
+	private static int orderCount(BoardSnapshot snapshot, OrderType orderType) {
+		int count = 0;
+		for (int i = 0; i < snapshot.getLevelCount(orderType); i++) {
+			count += snapshot.getOrderCount(orderType, i);
+		}
+		return count;
+	}
+
+	@Test
+	public void testConsistentBoard() {
+		ConcurrentOrderServiceImpl orderSrvc = new ConcurrentOrderServiceImpl();
+		assertEquals(0, orderSrvc.getConsistentBoard(Integer.MAX_VALUE).getSequence());
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.addOrders(Arrays.asList(new Order("user3", 1.5, 307, OrderType.SELL),
+				new Order("user4", 2.0, 250, OrderType.BUY), new Order("user5", 1.0, 251, OrderType.BUY)));
+		orderSrvc.amendOrder(order1.getOrderId(), 3.0, 306);
+		orderSrvc.cancelOrder(order2.getOrderId());
+		assertEquals(5, orderSrvc.getSequence());
+
+		PublishedBoard board = orderSrvc.getConsistentBoard(Integer.MAX_VALUE);
+		assertEquals(5, board.getSequence());
+		assertEquals(BoardFormatter.formatLevels(orderSrvc.getBoardSnapshot(new BoardSnapshot()), OrderType.SELL),
+				BoardFormatter.formatLevels(board.getLevels(), OrderType.SELL));
+		List<String> results = BoardFormatter.formatLevels(board.getLevels(), OrderType.BUY);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("1.0 kg for £251.0"));
+
+		// only the best levels, still tagged
+		board = orderSrvc.getConsistentBoard(1);
+		assertEquals(5, board.getSequence());
+		assertEquals(1, board.getLevels().getLevelCount(OrderType.SELL));
+		assertEquals(306.0, board.getLevels().getPricePerKilo(OrderType.SELL, 0), 0.0);
+		assertEquals(1, board.getLevels().getLevelCount(OrderType.BUY));
+
+		// unknown ids do not count, batches count once
+		try {
+			orderSrvc.cancelOrder(order2.getOrderId());
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		orderSrvc.cancelAllOrdersForUser("user1");
+		assertEquals(6, orderSrvc.getSequence());
+		assertEquals(6, orderSrvc.getConsistentBoard(Integer.MAX_VALUE).getSequence());
+	}
+
+	@Test
+	public void testConsistentUnderConcurrentWriters() throws Exception {
+		final ConcurrentOrderServiceImpl orderSrvc = new ConcurrentOrderServiceImpl();
+		final int threads = 3;
+		final int pairsPerThread = 20000;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			final String userId = "user" + t;
+			futures.add(pool.submit(() -> {
+				start.await();
+				for (int i = 0; i < pairsPerThread; i++) {
+					// every change adds or cancels as much BUY as SELL
+					Order buy = new Order(userId, 1 + i % 7, 250 + i % 5, OrderType.BUY);
+					Order sell = new Order(userId, 1 + i % 7, 310 + i % 5, OrderType.SELL);
+					orderSrvc.addOrders(Arrays.asList(buy, sell));
+					if (i % 10 != 0) {
+						orderSrvc.cancelOrders(new long[] { buy.getOrderId(), sell.getOrderId() });
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		int reads = 0;
+		long sequence = 0;
+		boolean done = false;
+		while (!done) {
+			done = true;
+			for (Future<?> future : futures) {
+				done &= future.isDone();
+			}
+			PublishedBoard board = orderSrvc.getConsistentBoard(Integer.MAX_VALUE);
+			BoardSnapshot levels = board.getLevels();
+			assertEquals(totalQuantity(levels, OrderType.BUY), totalQuantity(levels, OrderType.SELL));
+			assertEquals(orderCount(levels, OrderType.BUY), orderCount(levels, OrderType.SELL));
+			assertTrue(board.getSequence() >= sequence);
+			sequence = board.getSequence();
+			reads++;
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+
+		assertTrue(reads > 0);
+		// one add and (mostly) one cancel per pair
+		assertEquals(threads * (2 * pairsPerThread - pairsPerThread / 10), sequence);
+		assertEquals(threads * pairsPerThread / 10, orderCount(orderSrvc.getBoardSnapshot(new BoardSnapshot()), OrderType.BUY));
+	}
+
+	@Test(timeout = 60000)
+	public void testConsistentUnderNonStopWriters() throws Exception {
+		final ConcurrentOrderServiceImpl orderSrvc = new ConcurrentOrderServiceImpl();
+		final int threads = 3;
+		final AtomicBoolean stop = new AtomicBoolean();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < threads; t++) {
+			final String userId = "user" + t;
+			futures.add(pool.submit(() -> {
+				int pairs = 0;
+				// never pauses, so that reads overlap changes again and again
+				while (!stop.get()) {
+					Order buy = new Order(userId, 1 + pairs % 7, 250 + pairs % 5, OrderType.BUY);
+					Order sell = new Order(userId, 1 + pairs % 7, 310 + pairs % 5, OrderType.SELL);
+					orderSrvc.addOrders(Arrays.asList(buy, sell));
+					orderSrvc.cancelOrders(new long[] { buy.getOrderId(), sell.getOrderId() });
+					pairs++;
+				}
+				return pairs;
+			}));
+		}
+		long sequence = 0;
+		for (int i = 0; i < 2000; i++) {
+			PublishedBoard board = orderSrvc.getConsistentBoard(Integer.MAX_VALUE);
+			BoardSnapshot levels = board.getLevels();
+			assertEquals(totalQuantity(levels, OrderType.BUY), totalQuantity(levels, OrderType.SELL));
+			assertEquals(orderCount(levels, OrderType.BUY), orderCount(levels, OrderType.SELL));
+			assertTrue(board.getSequence() >= sequence);
+			sequence = board.getSequence();
+		}
+		stop.set(true);
+		int pairs = 0;
+		for (Future<Integer> future : futures) {
+			pairs += future.get();
+		}
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.SECONDS);
+
+		// writers were only held up, never lost a change
+		assertTrue(pairs > 0);
+		assertEquals(2 * pairs, orderSrvc.getSequence());
+		assertEquals(2 * pairs, orderSrvc.getConsistentBoard(Integer.MAX_VALUE).getSequence());
+		assertEquals(0, orderSrvc.getBoardSnapshot(new BoardSnapshot()).getLevelCount(OrderType.BUY));
+	}
+}
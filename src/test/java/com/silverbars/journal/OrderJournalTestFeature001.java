@@ -0,0 +1,238 @@
+package com.silverbars.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderJournalTestFeature001 {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	Path file = null;
+
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+	Order order7 = new Order("user7", 3.0, 310, OrderType.BUY);
+
+	@Before
+	public void prepareJournal() throws IOException {
+		file = folder.getRoot().toPath().resolve("orders.journal");
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 100, 0)) {
+			orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+			orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+			orderSrvc.addOrder(order4);
+			orderSrvc.addOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+			orderSrvc.addOrder(order7);
+			orderSrvc.cancelOrder(order4);
+			orderSrvc.cancelOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+		}
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+			assertEquals(2, results.size());
+			assertTrue(results.get(0).equalsIgnoreCase("3.5 kg for £306.0"));
+			assertTrue(results.get(1).equalsIgnoreCase("1.2 kg for £310.0"));
+
+			results = orderSrvc.getLiveOrderBoard().get(OrderType.BUY);
+			assertEquals(1, results.size());
+			assertTrue(results.get(0).equalsIgnoreCase("3.0 kg for £310.0"));
+			assertEquals("user7", orderSrvc.getOrder(order7.getOrderId()).getUserId());
+			assertNull(orderSrvc.getOrder(order4.getOrderId()));
+		}
+	}
+
+	@Test
+	public void testAppendAfterReplay() throws IOException {
+		Order order8 = new Order("user8", 1.0, 306, OrderType.SELL);
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			orderSrvc.addOrder(order8);
+			orderSrvc.cancelOrder(order7.getOrderId());
+			assertEquals(6, order8.getOrderId());
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			assertEquals(4.5, orderSrvc.getBoardSnapshot(new BoardSnapshot())
+					.getTotalQuantity(OrderType.SELL, 0), 0.0);
+			assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+		}
+	}
+
+	@Test
+	public void testTornRecordIsDropped() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			// the last cancel (of user5's order) is lost, everything before it replays
+			assertEquals(2, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+			orderSrvc.addOrder(new Order("user9", 1.0, 200, OrderType.BUY));
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			assertEquals(3, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+		}
+	}
+
+	@Test
+	public void testCorruptRecordIsDropped() throws IOException {
+		long size = Files.size(file);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			// flip the last byte of the last cancel, then add garbage claiming a huge record
+			channel.write(ByteBuffer.wrap(new byte[] { 0x55 }), size - 1);
+			channel.write(ByteBuffer.wrap(new byte[] { 0x7F, 0, 0, 0, 1, 2, 3, 4, 5 }), size);
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			assertEquals(2, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+			orderSrvc.addOrder(new Order("user9", 1.0, 200, OrderType.BUY));
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			assertEquals(3, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+		}
+	}
+
+	@Test
+	public void testIdleSync() throws Exception {
+		Path idle = folder.getRoot().toPath().resolve("idle.journal");
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(idle, 1000, 20)) {
+			long size = Files.size(idle);
+			orderSrvc.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+			orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+			// no more appends, the sync thread writes them
+			long deadline = System.currentTimeMillis() + 5000;
+			while (Files.size(idle) == size && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertTrue(Files.size(idle) > size);
+		}
+	}
+
+	@Test
+	public void testFailedJournal() throws IOException {
+		Path failing = folder.getRoot().toPath().resolve("failing.journal");
+		OrderServiceImpl book = new OrderServiceImpl();
+		OrderJournal journal = OrderJournal.open(failing, 1, 0, book);
+		JournaledOrderService orderSrvc = new JournaledOrderService(book, journal);
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		orderSrvc.addOrder(order1);
+		journal.close();
+
+		// the cancel is not applied, the add is taken back
+		try {
+			orderSrvc.cancelOrder(order1.getOrderId());
+			fail("journal is closed");
+		} catch (UncheckedIOException e) {
+			// expected
+		}
+		assertEquals(order1, book.getOrder(order1.getOrderId()));
+		try {
+			orderSrvc.addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+			fail("journal failed");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		OrderServiceImpl book2 = new OrderServiceImpl();
+		OrderJournal journal2 = OrderJournal.open(folder.getRoot().toPath().resolve("failing2.journal"), 1, 0, book2);
+		JournaledOrderService orderSrvc2 = new JournaledOrderService(book2, journal2);
+		journal2.close();
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		try {
+			orderSrvc2.addOrder(order2);
+			fail("journal is closed");
+		} catch (UncheckedIOException e) {
+			// expected
+		}
+		assertNull(book2.getOrder(order2.getOrderId()));
+		assertTrue(book2.getOrdersByUser("user2").isEmpty());
+
+		// what was journaled replays
+		try (JournaledOrderService reopened = JournaledOrderService.open(failing, 1, 0)) {
+			assertEquals(order1, reopened.getOrder(order1.getOrderId()));
+		}
+	}
+
+	@Test
+	public void testBatchReplay() throws IOException {
+		Order order8 = new Order("user8", 1.0, 320, OrderType.SELL);
+		Order order9 = new Order("user9", 1.0, 200, OrderType.BUY);
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			orderSrvc.addOrders(Arrays.asList(order8, order9));
+			orderSrvc.cancelOrders(new long[] { order7.getOrderId(), order9.getOrderId() });
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			assertEquals("user8", orderSrvc.getOrder(order8.getOrderId()).getUserId());
+			assertNull(orderSrvc.getOrder(order9.getOrderId()));
+			assertEquals(0, orderSrvc.getOrdersByOrderType(OrderType.BUY).size());
+		}
+	}
+
+	@Test
+	public void testExpiryReplay() throws IOException {
+		long now = System.currentTimeMillis();
+		Order order8 = new Order("user8", 1.0, 306, OrderType.SELL);
+		Order order9 = new Order("user9", 1.0, 200, OrderType.BUY);
+		order8.setExpiresAtMillis(now + 1000);
+		order9.setExpiresAtMillis(now + 60000);
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			orderSrvc.addOrder(order8);
+			orderSrvc.addOrder(order9);
+			assertEquals(Arrays.asList(order8), orderSrvc.expireOrders(now + 1000));
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			// the expiry was journaled as a cancel, the other order keeps its expiry
+			assertNull(orderSrvc.getOrder(order8.getOrderId()));
+			assertEquals(now + 60000, orderSrvc.getOrder(order9.getOrderId()).getExpiresAtMillis());
+			List<Order> expired = orderSrvc.expireOrders(now + 60000);
+			assertEquals(1, expired.size());
+			assertEquals(order9.getOrderId(), expired.get(0).getOrderId());
+		}
+	}
+
+	@Test
+	public void testAmendReplay() throws IOException {
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			orderSrvc.amendOrder(order7.getOrderId(), 1.5, 312);
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			Order amended = orderSrvc.getOrder(order7.getOrderId());
+			assertEquals(1.5, amended.getOrderQuantity(), 0.0);
+			assertEquals(312.0, amended.getPricePerKilo(), 0.0);
+			assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.BUY).get(0).equalsIgnoreCase("1.5 kg for £312.0"));
+		}
+	}
+
+	@Test
+	public void testNullUserIdReplay() throws IOException {
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			orderSrvc.addOrder(new Order(null, 1.0, 305, OrderType.SELL));
+			orderSrvc.addOrder(new Order("", 2.0, 305, OrderType.SELL));
+		}
+		try (JournaledOrderService orderSrvc = JournaledOrderService.open(file, 1, 0)) {
+			assertEquals(1, orderSrvc.getOrdersByUser(null).size());
+			assertEquals(1, orderSrvc.getOrdersByUser("").size());
+			assertEquals(1.0, orderSrvc.getOrdersByUser(null).get(0).getOrderQuantity(), 0.0);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.silverbars.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderStoreTestFeature001 {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	Path directory = null;
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order4 = new Order("user4", 2.0, 306, OrderType.SELL);
+	Order order7 = new Order("user7", 3.0, 310, OrderType.BUY);
+
+	@Before
+	public void prepareStore() throws IOException {
+		directory = folder.getRoot().toPath().resolve("store");
+		try (OrderStore store = OrderStore.open(directory, 100, 0)) {
+			store.getOrderService().addOrder(order1);
+			store.getOrderService().addOrder(new Order("user2", 1.2, 310, OrderType.SELL));
+			store.getOrderService().addOrder(order4);
+			store.getOrderService().addOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+			store.getOrderService().cancelOrder(new Order("user5", 2.5, 250, OrderType.BUY));
+			store.takeSnapshot();
+			store.getOrderService().addOrder(order7);
+			store.getOrderService().cancelOrder(order1.getOrderId());
+		}
+	}
+
+	@Test
+	public void testSnapshotThenJournalTail() throws IOException {
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			assertEquals(3, store.getLoadedOrders());
+			assertEquals(2, store.getReplayedRecords());
+
+			List<String> results = store.getOrderService().getLiveOrderBoard().get(OrderType.SELL);
+			assertEquals(2, results.size());
+			assertTrue(results.get(0).equalsIgnoreCase("2.0 kg for £306.0"));
+			assertTrue(results.get(1).equalsIgnoreCase("1.2 kg for £310.0"));
+			assertEquals("user7", store.getOrderService().getOrder(order7.getOrderId()).getUserId());
+			assertNull(store.getOrderService().getOrder(order1.getOrderId()));
+
+			// ids go on after the ones handed out before the restart
+			Order order8 = new Order("user8", 1.0, 306, OrderType.SELL);
+			store.getOrderService().addOrder(order8);
+			assertEquals(6, order8.getOrderId());
+		}
+	}
+
+	@Test
+	public void testTimePriorityIsKept() throws IOException {
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			store.getOrderService().addOrder(new Order("user9", 2.0, 306, OrderType.SELL));
+			store.takeSnapshot();
+		}
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			assertEquals(0, store.getReplayedRecords());
+			List<Order> level = store.getOrderService().getOrdersByOrderType(OrderType.SELL).get(306.0);
+			assertEquals(2, level.size());
+			assertEquals(order4.getOrderId(), level.get(0).getOrderId());
+			assertEquals("user9", level.get(1).getUserId());
+			// cancel by value removes the oldest equal order, as before the restart
+			store.getOrderService().cancelOrder(new Order("user4", 2.0, 306, OrderType.SELL));
+			assertEquals("user9", level.get(0).getUserId());
+		}
+	}
+
+	@Test
+	public void testExpiryIsKept() throws IOException {
+		long now = System.currentTimeMillis();
+		Order order9 = new Order("user9", 1.0, 200, OrderType.BUY);
+		order9.setExpiresAtMillis(now + 60000);
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			store.getOrderService().addOrder(order9);
+			store.takeSnapshot();
+		}
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			assertEquals(0, store.getReplayedRecords());
+			assertEquals(now + 60000, store.getOrderService().getOrder(order9.getOrderId()).getExpiresAtMillis());
+			assertTrue(store.getOrderService().expireOrders(now + 59999).isEmpty());
+			assertEquals(1, store.getOrderService().expireOrders(now + 60000).size());
+			assertNull(store.getOrderService().getOrder(order9.getOrderId()));
+		}
+	}
+
+	@Test
+	public void testOnlyLatestGenerationIsKept() throws IOException {
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			store.takeSnapshot();
+			store.takeSnapshot();
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			List<String> names = files.map(file -> file.getFileName().toString()).sorted()
+					.collect(Collectors.toList());
+			assertEquals(2, names.size());
+			assertTrue(names.get(0).startsWith("journal-"));
+			assertTrue(names.get(1).startsWith("snapshot-"));
+		}
+	}
+
+	@Test
+	public void testCorruptOrderRecord() throws IOException {
+		Path snapshot;
+		try (Stream<Path> files = Files.list(directory)) {
+			snapshot = files.filter(file -> file.getFileName().toString().startsWith("snapshot-")).findFirst().get();
+		}
+		byte[] bytes = Files.readAllBytes(snapshot);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		// the first order follows the record of its user
+		int order = OrderSnapshotFile.HEADER_SIZE + 1 + 4 + 2 + buffer.getShort(OrderSnapshotFile.HEADER_SIZE + 1 + 4);
+		assertEquals(OrderSnapshotFile.ORDER, buffer.get(order));
+		for (int[] corruption : new int[][] { { order + 1 + 8, 999 }, { order + 1 + 8 + 3, -1 },
+				{ order + 1 + 8 + 4, 7 } }) {
+			byte[] corrupt = bytes.clone();
+			corrupt[corruption[0]] = (byte) corruption[1];
+			Files.write(snapshot, corrupt);
+			try {
+				OrderStore.open(directory, 1, 0).close();
+				fail("loaded a corrupt order record");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt order snapshot"));
+			}
+		}
+	}
+
+	@Test
+	public void testIncompleteSnapshotIsIgnored() throws IOException {
+		Files.write(directory.resolve("snapshot-0000000000000000009.tmp"), new byte[] { 1, 2, 3 });
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			assertEquals(2, store.getOrderService().getOrdersByOrderType(OrderType.SELL).size());
+			assertEquals(1, store.getOrderService().getOrdersByOrderType(OrderType.BUY).size());
+		}
+		assertFalse(Files.exists(directory.resolve("snapshot-0000000000000000009.tmp")));
+	}
+
+	@Test
+	public void testNullUserIdSnapshot() throws IOException {
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			store.getOrderService().addOrder(new Order(null, 1.0, 305, OrderType.SELL));
+			store.getOrderService().addOrder(new Order("", 2.0, 305, OrderType.SELL));
+			store.takeSnapshot();
+		}
+		try (OrderStore store = OrderStore.open(directory, 1, 0)) {
+			assertEquals(0, store.getReplayedRecords());
+			assertEquals(1, store.getOrderService().getOrdersByUser(null).size());
+			assertEquals(1, store.getOrderService().getOrdersByUser("").size());
+			assertEquals(1.0, store.getOrderService().getOrdersByUser(null).get(0).getOrderQuantity(), 0.0);
+		}
+	}
+}
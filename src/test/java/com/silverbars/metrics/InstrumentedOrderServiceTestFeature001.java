@@ -0,0 +1,129 @@
+package com.silverbars.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class InstrumentedOrderServiceTestFeature001 {
+
+	InstrumentedOrderService orderSrvc = null;
+
+	Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+	Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+	Order order5 = new Order("user5", 2.5, 250, OrderType.BUY);
+
+	@Before
+	public void prepareOrders() {
+		orderSrvc = new InstrumentedOrderService(new OrderServiceImpl());
+		orderSrvc.addOrder(order1);
+		orderSrvc.addOrder(order2);
+		orderSrvc.addOrder(order5);
+	}
+
+	@Test
+	public void testCounters() {
+		orderSrvc.cancelOrder(order2.getOrderId());
+		try {
+			orderSrvc.cancelOrder(new Order("user9", 1.0, 999, OrderType.BUY));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			orderSrvc.cancelOrder(12345L);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		OrderTypeCounters sell = orderSrvc.getMetrics().getCounters(OrderType.SELL);
+		assertEquals(2, sell.getOrdersAdded());
+		assertEquals(1, sell.getOrdersCancelled());
+		assertEquals(1, sell.getOrderCount());
+		assertEquals(1, sell.getLevelCount());
+		OrderTypeCounters buy = orderSrvc.getMetrics().getCounters(OrderType.BUY);
+		assertEquals(1, buy.getOrdersAdded());
+		assertEquals(1, buy.getFailedCancels());
+		assertEquals(1, orderSrvc.getMetrics().getFailedCancelsOfUnknownOrders());
+		assertEquals(3, orderSrvc.getMetrics().getAddLatency().getCount());
+		assertEquals(3, orderSrvc.getMetrics().getCancelLatency().getCount());
+	}
+
+	@Test
+	public void testDisabled() {
+		orderSrvc.getMetrics().setEnabled(false);
+		orderSrvc.addOrder(new Order("user6", 3.0, 250, OrderType.BUY));
+		orderSrvc.getBoardSnapshot(new BoardSnapshot());
+		OrderTypeCounters buy = orderSrvc.getMetrics().getCounters(OrderType.BUY);
+		assertEquals(1, buy.getOrdersAdded());
+		// the board itself is still followed
+		assertEquals(2, buy.getOrderCount());
+		assertEquals(0, orderSrvc.getMetrics().getSnapshotLatency().getCount());
+	}
+
+	@Test
+	public void testBoardCounts() {
+		OrderServiceMetrics metrics = orderSrvc.getMetrics();
+		// moved to a new level, not through the counted calls
+		orderSrvc.amendOrder(order1.getOrderId(), 3.5, 307);
+		orderSrvc.addOrder(new Order("user2", 1.0, 307, OrderType.SELL));
+		assertEquals(3, metrics.getSell().getOrderCount());
+		assertEquals(2, metrics.getSell().getLevelCount());
+		assertEquals(1, metrics.getBuy().getOrderCount());
+
+		orderSrvc.cancelAllOrdersForUser("user2");
+		orderSrvc.cancelOrder(order5.getOrderId());
+		assertEquals(1, metrics.getSell().getOrderCount());
+		assertEquals(1, metrics.getSell().getLevelCount());
+		assertEquals(0, metrics.getBuy().getOrderCount());
+		assertEquals(0, metrics.getBuy().getLevelCount());
+
+		// counts stay as they are once closed
+		metrics.close();
+		orderSrvc.cancelOrder(order1.getOrderId());
+		assertEquals(1, metrics.getSell().getOrderCount());
+	}
+
+	@Test
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long nanos = 1; nanos <= 100000; nanos++) {
+			histogram.record(nanos);
+		}
+		assertEquals(100000, histogram.getCount());
+		assertEquals(100000, histogram.getMaxNanos());
+		assertEquals(50000.5, histogram.getMeanNanos(), 0.0);
+		assertTrue(Math.abs(histogram.getValueAtPercentile(50) - 50000) <= 50000 / 64);
+		assertTrue(Math.abs(histogram.getValueAtPercentile(99) - 99000) <= 99000 / 64);
+		assertEquals(100000, histogram.getValueAtPercentile(100));
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testMBean() throws JMException {
+		ObjectName name = orderSrvc.getMetrics()
+				.registerMBean("com.silverbars:type=OrderService,name=InstrumentedOrderServiceTestFeature001");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			CompositeData sell = (CompositeData) server.getAttribute(name, "Sell");
+			assertEquals(2L, sell.get("ordersAdded"));
+			CompositeData addLatency = (CompositeData) server.getAttribute(name, "AddLatency");
+			assertEquals(3L, addLatency.get("count"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+}
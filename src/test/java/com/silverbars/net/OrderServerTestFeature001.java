@@ -0,0 +1,199 @@
+package com.silverbars.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.OrderService;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.Order;
+import com.silverbars.domain.OrderType;
+
+public class OrderServerTestFeature001 {
+
+	OrderServer server = null;
+	OrderClient client = null;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new OrderServer(new OrderServiceImpl(), new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		client = OrderClient.connect(server.getLocalAddress());
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		client.close();
+		server.close();
+	}
+
+	@Test
+	public void testAddCancelAmend() throws IOException {
+		Order order1 = new Order("user1", 3.5, 306, OrderType.SELL);
+		Order order2 = new Order("user2", 1.2, 310, OrderType.SELL);
+		Order order3 = new Order("user3", 2.0, 250, OrderType.BUY);
+		long orderId1 = client.addOrder(order1);
+		client.addOrder(order2);
+		client.addOrder(order3);
+		assertEquals(orderId1, order1.getOrderId());
+		assertEquals("user1", server.submitQuery(s -> s.getOrder(orderId1).getUserId()).join());
+
+		client.amendOrder(order2.getOrderId(), 1.0, 305);
+		client.cancelOrder(order3.getOrderId());
+		assertNull(server.submitQuery(s -> s.getOrder(order3.getOrderId())).join());
+
+		Map<OrderType, List<String>> board = server.submitQuery(OrderService::getLiveOrderBoard).join();
+		List<String> results = board.get(OrderType.SELL);
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("1.0 kg for £305.0"));
+		assertTrue(results.get(1).equalsIgnoreCase("3.5 kg for £306.0"));
+		assertTrue(board.get(OrderType.BUY).isEmpty());
+		assertEquals(5, server.getRequestCount());
+	}
+
+	@Test
+	public void testBoard() throws IOException {
+		client.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		client.addOrder(new Order("user2", 1.5, 306, OrderType.SELL));
+		client.addOrder(new Order("user3", 1.2, 310, OrderType.SELL));
+		client.addOrder(new Order("user4", 2.0, 250, OrderType.BUY));
+
+		BoardSnapshot board = client.getBoardSnapshot(1);
+		assertEquals(1, board.getLevelCount(OrderType.SELL));
+		assertEquals(FixedPoint.toPriceTicks(306), board.getPriceTicks(OrderType.SELL, 0));
+		assertEquals(FixedPoint.toMilligrams(5.0), board.getTotalQuantityMilligrams(OrderType.SELL, 0));
+		assertEquals(2, board.getOrderCount(OrderType.SELL, 0));
+		assertEquals(1, board.getLevelCount(OrderType.BUY));
+		assertEquals(FixedPoint.toPriceTicks(250), board.getPriceTicks(OrderType.BUY, 0));
+
+		board = client.getBoardSnapshot(10);
+		assertEquals(2, board.getLevelCount(OrderType.SELL));
+		assertEquals(FixedPoint.toPriceTicks(310), board.getPriceTicks(OrderType.SELL, 1));
+	}
+
+	@Test
+	public void testRejected() throws IOException {
+		try {
+			client.cancelOrder(42);
+			fail("Unknown order id cancelled");
+		} catch (IllegalArgumentException e) {
+			// expected, and the connection is still usable
+		}
+		client.sendAddOrder("user1", OrderType.BUY, 0, FixedPoint.toPriceTicks(250));
+		assertEquals(OrderProtocol.REJECTED, client.receive());
+		assertEquals(OrderProtocol.ADD, client.getResponseType());
+		assertTrue(client.addOrder(new Order("user1", 1.0, 250, OrderType.BUY)) > 0);
+	}
+
+	@Test
+	public void testPipelining() throws IOException {
+		int count = 5000;
+		for (int i = 0; i < count; i++) {
+			client.sendAddOrder("user" + (i % 10), OrderType.BUY, FixedPoint.toMilligrams(1.0),
+					FixedPoint.toPriceTicks(200 + i % 100));
+		}
+		client.flush();
+		long[] orderIds = new long[count];
+		for (int i = 0; i < count; i++) {
+			assertEquals(OrderProtocol.OK, client.receive());
+			assertEquals(OrderProtocol.ADD, client.getResponseType());
+			orderIds[i] = client.getOrderId();
+		}
+		// read on the server's thread
+		List<String> userIds = server.submitQuery(s -> {
+			List<String> users = new ArrayList<String>();
+			for (long orderId : orderIds) {
+				users.add(s.getOrder(orderId).getUserId());
+			}
+			return users;
+		}).join();
+		for (int i = 0; i < count; i++) {
+			assertEquals("user" + (i % 10), userIds.get(i));
+		}
+
+		// responses come back in the order of the requests, whatever their type
+		for (int i = 0; i < count; i += 2) {
+			client.sendCancelOrder(orderIds[i]);
+			client.sendBoard(1);
+		}
+		for (int i = 0; i < count; i += 2) {
+			assertEquals(OrderProtocol.OK, client.receive());
+			assertEquals(OrderProtocol.CANCEL, client.getResponseType());
+			assertEquals(OrderProtocol.OK, client.receive());
+			assertEquals(OrderProtocol.BOARD, client.getResponseType());
+		}
+		BoardSnapshot board = client.getBoard();
+		assertEquals(FixedPoint.toPriceTicks(299), board.getPriceTicks(OrderType.BUY, 0));
+		// every even price level was cancelled
+		assertEquals(50, server.submitQuery(s -> s.getLiveOrderBoard().get(OrderType.BUY).size()).join().intValue());
+		assertEquals(2 * count, server.getRequestCount());
+	}
+
+	@Test
+	public void testQueryAfterClose() throws IOException {
+		client.addOrder(new Order("user1", 3.5, 306, OrderType.SELL));
+		assertEquals(1, server.submitQuery(s -> s.getOrdersByUser("user1").size()).join().intValue());
+		server.close();
+		try {
+			server.submitQuery(s -> s.getOrdersByUser("user1")).join();
+			fail("server is closed");
+		} catch (CompletionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testMalformedFrame() throws IOException {
+		try (SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+			ByteBuffer frame = ByteBuffer.allocate(OrderProtocol.LENGTH_BYTES + 1);
+			frame.putInt(1).put((byte) 99).flip();
+			channel.write(frame);
+			// the server hangs up instead of answering
+			assertEquals(-1, channel.read(ByteBuffer.allocate(OrderProtocol.RESPONSE_BYTES)));
+		}
+		// other clients are unaffected
+		assertTrue(client.addOrder(new Order("user1", 1.0, 250, OrderType.BUY)) > 0);
+	}
+
+	@Test(timeout = 10000)
+	public void testNegativeFrameLength() throws IOException {
+		for (int prefix : new int[] { -5, Integer.MAX_VALUE - 2 }) {
+			try (SocketChannel channel = SocketChannel.open(server.getLocalAddress())) {
+				ByteBuffer frame = ByteBuffer.allocate(OrderProtocol.LENGTH_BYTES + 1);
+				frame.putInt(prefix).put(OrderProtocol.ADD).flip();
+				channel.write(frame);
+				// rejected right away, not taken for a frame still arriving
+				assertEquals(-1, channel.read(ByteBuffer.allocate(OrderProtocol.RESPONSE_BYTES)));
+			}
+		}
+		assertTrue(client.addOrder(new Order("user1", 1.0, 250, OrderType.BUY)) > 0);
+	}
+
+	@Test
+	public void testLoadGenerator() throws Exception {
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		long messages = new OrderLoadGenerator(2, 1, 32).run(new OrderServiceImpl(),
+				new PrintStream(report, true, "UTF-8"));
+		assertTrue(messages > 0);
+		assertEquals(0, messages % 64);
+		assertTrue(report.toString("UTF-8").contains("messages/s"));
+	}
+}
@@ -0,0 +1,153 @@
+package com.silverbars.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.silverbars.dao.BoardSnapshot;
+import com.silverbars.dao.ConcurrentOrderServiceImpl;
+import com.silverbars.dao.OrderServiceImpl;
+import com.silverbars.domain.FixedPoint;
+import com.silverbars.domain.OrderType;
+
+public class OrderFlowReplayTestFeature001 {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	Path file = null;
+
+	@Before
+	public void recordFlow() throws IOException {
+		file = folder.getRoot().toPath().resolve("orders.flow");
+		long ms = TimeUnit.MILLISECONDS.toNanos(1);
+		try (OrderFlowWriter writer = OrderFlowWriter.create(file)) {
+			int add1 = writer.add(0, "user1", OrderType.SELL, FixedPoint.toMilligrams(3.5), FixedPoint.toPriceTicks(306));
+			writer.add(10 * ms, "user2", OrderType.SELL, FixedPoint.toMilligrams(1.2), FixedPoint.toPriceTicks(310));
+			int add3 = writer.add(20 * ms, "user1", OrderType.BUY, FixedPoint.toMilligrams(2.0),
+					FixedPoint.toPriceTicks(250));
+			writer.cancel(40 * ms, add1);
+			writer.add(60 * ms, "user3", OrderType.SELL, FixedPoint.toMilligrams(1.5), FixedPoint.toPriceTicks(310));
+			writer.cancel(80 * ms, add3);
+			// cancelled twice, the service rejects the second one
+			writer.cancel(100 * ms, add3);
+			assertEquals(4, writer.getAddCount());
+		}
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		// a tiny window so that records straddle the windows
+		try (OrderFlowReader reader = OrderFlowReader.open(file, 16)) {
+			assertTrue(reader.next());
+			assertTrue(reader.isAdd());
+			assertEquals(0, reader.getAdd());
+			assertEquals("user1", reader.getUserId());
+			assertEquals(OrderType.SELL, reader.getOrderType());
+			assertEquals(FixedPoint.toMilligrams(3.5), reader.getQuantityMilligrams());
+			assertEquals(FixedPoint.toPriceTicks(306), reader.getPriceTicks());
+			assertTrue(reader.next());
+			assertTrue(reader.next());
+			assertEquals(2, reader.getAdd());
+			assertEquals("user1", reader.getUserId());
+			assertTrue(reader.next());
+			assertFalse(reader.isAdd());
+			assertEquals(0, reader.getAdd());
+			assertEquals(TimeUnit.MILLISECONDS.toNanos(40), reader.getTimeNanos());
+			int events = 4;
+			while (reader.next()) {
+				events++;
+			}
+			assertEquals(7, events);
+		}
+	}
+
+	@Test
+	public void testTornRecord() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 1);
+		}
+		int events = 0;
+		try (OrderFlowReader reader = OrderFlowReader.open(file)) {
+			while (reader.next()) {
+				events++;
+			}
+		}
+		assertEquals(6, events);
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		ReplayResult result = new OrderFlowReplayer(0).replay(file, orderSrvc);
+		assertEquals(4, result.getAdds());
+		assertEquals(3, result.getCancels());
+		assertEquals(1, result.getRejected());
+		assertEquals(7, result.getLatencies().getCount());
+
+		List<String> results = orderSrvc.getLiveOrderBoard().get(OrderType.SELL);
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).equalsIgnoreCase("2.7 kg for £310.0"));
+		assertTrue(orderSrvc.getLiveOrderBoard().get(OrderType.BUY).isEmpty());
+	}
+
+	@Test
+	public void testPacedReplay() throws IOException {
+		ReplayResult result = new OrderFlowReplayer(1).replay(file, new OrderServiceImpl());
+		assertTrue(result.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+
+		result = new OrderFlowReplayer(4).replay(file, new OrderServiceImpl());
+		assertTrue(result.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(25));
+		assertTrue(result.getEventsPerSecond() > 0);
+	}
+
+	@Test
+	public void testGeneratedFlow() throws IOException {
+		Path generated = folder.getRoot().toPath().resolve("generated.flow");
+		new OrderFlowGenerator(23).generate(generated, 20000, 1e6);
+
+		OrderServiceImpl orderSrvc = new OrderServiceImpl();
+		ReplayResult result = new OrderFlowReplayer(0).replay(generated, orderSrvc);
+		assertEquals(20000, result.getAdds() + result.getCancels());
+		assertEquals(0, result.getRejected());
+		ConcurrentOrderServiceImpl concurrentSrvc = new ConcurrentOrderServiceImpl();
+		new OrderFlowReplayer(0).replay(generated, concurrentSrvc);
+		assertEquals(orderSrvc.getLiveOrderBoard(), concurrentSrvc.getLiveOrderBoard());
+
+		// the same seed gives the same flow
+		Path again = folder.getRoot().toPath().resolve("again.flow");
+		new OrderFlowGenerator(23).generate(again, 20000, 1e6);
+		OrderServiceImpl againSrvc = new OrderServiceImpl();
+		new OrderFlowReplayer(0).replay(again, againSrvc);
+		assertEquals(orderSrvc.getLiveOrderBoard(), againSrvc.getLiveOrderBoard());
+
+		// levels near the touch are much deeper than those far from it
+		BoardSnapshot snapshot = orderSrvc.getBoardSnapshot(new BoardSnapshot());
+		long mid = 300 * FixedPoint.TICKS_PER_POUND;
+		int near = 0;
+		int far = 0;
+		for (OrderType orderType : OrderType.values()) {
+			for (int i = 0; i < snapshot.getLevelCount(orderType); i++) {
+				long distance = Math.abs(snapshot.getPriceTicks(orderType, i) - mid);
+				if (distance <= 20) {
+					near += snapshot.getOrderCount(orderType, i);
+				} else if (distance > 180) {
+					far += snapshot.getOrderCount(orderType, i);
+				}
+			}
+		}
+		assertTrue(near + " near the touch, " + far + " far", near > 10 * far);
+	}
+}